@@ -1,6 +1,8 @@
 package org.vaadin.example;
 
 import com.helger.commons.csv.CSVReader;
+import org.vaadin.example.pivot.datasource.DatasetSnapshot;
+import org.vaadin.example.pivot.datasource.PivotProperty;
 
 import javax.validation.constraints.NotNull;
 import java.io.BufferedReader;
@@ -8,7 +10,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -120,11 +122,49 @@ public class AssetException {
         return list;
     }
 
+    /*
+     * The pivotable properties. The pivot datasets of ALL_EXCEPTIONS read their columns straight out of the snapshot.
+     */
+    public static final PivotProperty<AssetException> ASSET_CLASS = new PivotProperty<>("Asset Class", AssetException::getAssetClass);
+    public static final PivotProperty<AssetException> SECTOR = new PivotProperty<>("Sector", AssetException::getSector);
+    public static final PivotProperty<AssetException> RATING = new PivotProperty<>("Rating", AssetException::getRating);
+    public static final PivotProperty<AssetException> COUPON_TYPE = new PivotProperty<>("Coupon Type", AssetException::getCouponType);
+    public static final PivotProperty<AssetException> STATE = new PivotProperty<>("State", AssetException::getState);
+
+    /**
+     * The columns of the binary snapshot of the CSV file, see {@link #load()}.
+     */
+    private static final List<DatasetSnapshot.Column<AssetException>> SNAPSHOT_COLUMNS = Arrays.asList(
+            new DatasetSnapshot.Column<>("exceptionNumber", DatasetSnapshot.Type.LONG, AssetException::getExceptionNumber),
+            new DatasetSnapshot.Column<>("assetClass", DatasetSnapshot.Type.STRING, ASSET_CLASS),
+            new DatasetSnapshot.Column<>("sector", DatasetSnapshot.Type.STRING, SECTOR),
+            new DatasetSnapshot.Column<>("rating", DatasetSnapshot.Type.STRING, RATING),
+            new DatasetSnapshot.Column<>("couponType", DatasetSnapshot.Type.STRING, COUPON_TYPE),
+            new DatasetSnapshot.Column<>("state", DatasetSnapshot.Type.STRING, STATE)
+    );
+
+    /**
+     * Loads the exceptions out of the memory-mapped snapshot of the CSV file; the CSV file is parsed only if it has changed
+     * since the snapshot was written, see {@link DatasetSnapshot#load}.
+     */
+    @NotNull
+    public static List<AssetException> load() throws IOException {
+        return DatasetSnapshot.load(AssetException.class.getClassLoader().getResource("exceptions.csv"),
+                DatasetSnapshot.getDefaultPath("exceptions.csv"), SNAPSHOT_COLUMNS,
+                (snapshot, row) -> new AssetException(snapshot.getLong(0, row),
+                        snapshot.getString(1, row),
+                        snapshot.getString(2, row),
+                        snapshot.getString(3, row),
+                        snapshot.getString(4, row),
+                        snapshot.getString(5, row)),
+                AssetException::loadFromCSV);
+    }
+
     @NotNull
     public static final List<AssetException> ALL_EXCEPTIONS;
     static {
         try {
-            ALL_EXCEPTIONS = Collections.unmodifiableList(loadFromCSV());
+            ALL_EXCEPTIONS = load();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
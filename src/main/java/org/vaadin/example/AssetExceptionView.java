@@ -1,5 +1,6 @@
 package org.vaadin.example;
 
+import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.combobox.ComboBox;
 import com.vaadin.flow.component.dialog.Dialog;
@@ -8,10 +9,12 @@ import com.vaadin.flow.component.grid.GridSortOrder;
 import com.vaadin.flow.component.notification.Notification;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.page.Push;
 import com.vaadin.flow.router.Route;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 import org.jetbrains.annotations.NotNull;
@@ -26,6 +29,7 @@ import org.vaadin.example.pivot.ui.PivotConfigurationPanel;
  * The main view contains a button and a click listener.
  */
 @Route("exceptions")
+@Push
 public class AssetExceptionView extends VerticalLayout implements HasGrid<Row<AssetException>> {
 
     private ExceptionAssignmentSummaryGrid summaryGrid;
@@ -57,21 +61,35 @@ public class AssetExceptionView extends VerticalLayout implements HasGrid<Row<As
         container = new HorizontalLayout();
 
         pivotConfigurationPanel = new PivotConfigurationPanel<AssetException>("Exceptions")
-                .addGroupBy("Asset Class", AssetException::getAssetClass)
-                .addGroupBy("Sector", AssetException::getSector)
-                .addGroupBy("Rating", AssetException::getRating)
-                .addGroupBy("Coupon Type", AssetException::getCouponType)
-                .addGroupBy("State", AssetException::getState);
+                .addGroupBy(AssetException.ASSET_CLASS)
+                .addGroupBy(AssetException.SECTOR)
+                .addGroupBy(AssetException.RATING)
+                .addGroupBy(AssetException.COUPON_TYPE)
+                .addGroupBy(AssetException.STATE);
 
         summaryGrid = new ExceptionAssignmentSummaryGrid(AssociateBackend.getInstance(), this);
         pivotTable = createPivotTable(pivotConfigurationPanel);
         pivotConfigurationPanel.pivotConfigurationChangedListeners.add(() -> {
-			List<GridSortOrder<Row<AssetException>>> sort = pivotTable.getSortOrder();
-            final Grid<Row<AssetException>> newPivotTable = createPivotTable(pivotConfigurationPanel);
-			List<GridSortOrder<Row<AssetException>>> newSort = copySort(sort, newPivotTable);
-            container.replace(pivotTable, newPivotTable);
-            pivotTable = newPivotTable;
-            pivotTable.sort(newSort);
+            // computed in the background, so that the browser doesn't freeze; the grid is swapped via push
+            final UI ui = UI.getCurrent();
+            pivotConfigurationPanel.computePivotDataAsync(AssetException.ALL_EXCEPTIONS).whenComplete((pivotResult, failure) -> {
+                if (failure instanceof CancellationException) {
+                    // superseded by a newer configuration
+                    return;
+                }
+                ui.access(() -> {
+                    if (failure != null) {
+                        Notification.show("Failed to compute the pivot: " + failure.getMessage());
+                        return;
+                    }
+                    List<GridSortOrder<Row<AssetException>>> sort = pivotTable.getSortOrder();
+                    final Grid<Row<AssetException>> newPivotTable = createPivotTable(pivotConfigurationPanel, pivotResult);
+                    List<GridSortOrder<Row<AssetException>>> newSort = copySort(sort, newPivotTable);
+                    container.replace(pivotTable, newPivotTable);
+                    pivotTable = newPivotTable;
+                    pivotTable.sort(newSort);
+                });
+            });
         });
 
         pivotConfigurationPanel.setFirstAsDefault();
@@ -85,7 +103,13 @@ public class AssetExceptionView extends VerticalLayout implements HasGrid<Row<As
 
     @NotNull
     private Grid<Row<AssetException>> createPivotTable(@NotNull PivotConfigurationPanel<AssetException> panel) {
-        Grid<Row<AssetException>> pivotTable = PlayerPivotView.createPivotTable(panel, AssetException.ALL_EXCEPTIONS);
+        return createPivotTable(panel, panel.computePivotData(AssetException.ALL_EXCEPTIONS));
+    }
+
+    @NotNull
+    private Grid<Row<AssetException>> createPivotTable(@NotNull PivotConfigurationPanel<AssetException> panel,
+                                                        @NotNull PivotDataSource.PivotResult<AssetException> pivotResult) {
+        Grid<Row<AssetException>> pivotTable = PlayerPivotView.createPivotTable(panel, AssetException.ALL_EXCEPTIONS, pivotResult);
 
         pivotTable.setHeightFull();
 //        pivotTable.addSelectionListener(event -> setSummaryGridVisibility(event.getFirstSelectedItem().isPresent()));
@@ -1,6 +1,8 @@
 package org.vaadin.example;
 
 import com.helger.commons.csv.CSVReader;
+import org.vaadin.example.pivot.datasource.DatasetSnapshot;
+import org.vaadin.example.pivot.datasource.PivotProperty;
 
 import javax.validation.constraints.NotNull;
 import java.io.BufferedReader;
@@ -8,7 +10,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -120,11 +122,49 @@ public class Player {
         return list;
     }
 
+    /*
+     * The pivotable properties. The pivot datasets of ALL_PLAYERS read their columns straight out of the snapshot.
+     */
+    public static final PivotProperty<Player> TEAM = new PivotProperty<>("Team", Player::getTeam);
+    public static final PivotProperty<Player> POSITION = new PivotProperty<>("Position", Player::getPosition);
+    public static final PivotProperty<Player> HEIGHT = PivotProperty.ofInt("Height (inch)", Player::getHeightInches);
+    public static final PivotProperty<Player> WEIGHT = PivotProperty.ofInt("Weight (lbs)", Player::getWeightLbs);
+    public static final PivotProperty<Player> AGE = new PivotProperty<>("Age", Player::getAge);
+
+    /**
+     * The columns of the binary snapshot of the CSV file, see {@link #load()}.
+     */
+    private static final List<DatasetSnapshot.Column<Player>> SNAPSHOT_COLUMNS = Arrays.asList(
+            new DatasetSnapshot.Column<>("name", DatasetSnapshot.Type.STRING, Player::getName),
+            new DatasetSnapshot.Column<>("team", DatasetSnapshot.Type.STRING, TEAM),
+            new DatasetSnapshot.Column<>("position", DatasetSnapshot.Type.STRING, POSITION),
+            new DatasetSnapshot.Column<>("heightInches", DatasetSnapshot.Type.INT, HEIGHT),
+            new DatasetSnapshot.Column<>("weightLbs", DatasetSnapshot.Type.INT, WEIGHT),
+            new DatasetSnapshot.Column<>("age", DatasetSnapshot.Type.FLOAT, AGE)
+    );
+
+    /**
+     * Loads the players out of the memory-mapped snapshot of the CSV file; the CSV file is parsed only if it has changed
+     * since the snapshot was written, see {@link DatasetSnapshot#load}.
+     */
+    @NotNull
+    public static List<Player> load() throws IOException {
+        return DatasetSnapshot.load(Player.class.getClassLoader().getResource("mlb_players.csv"),
+                DatasetSnapshot.getDefaultPath("mlb_players.csv"), SNAPSHOT_COLUMNS,
+                (snapshot, row) -> new Player(snapshot.getString(0, row),
+                        snapshot.getString(1, row),
+                        snapshot.getString(2, row),
+                        snapshot.getInt(3, row),
+                        snapshot.getInt(4, row),
+                        snapshot.getFloat(5, row)),
+                Player::loadFromCSV);
+    }
+
     @NotNull
     public static final List<Player> ALL_PLAYERS;
     static {
         try {
-            ALL_PLAYERS = Collections.unmodifiableList(loadFromCSV());
+            ALL_PLAYERS = load();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -17,13 +17,13 @@ import org.jetbrains.annotations.NotNull;
 import org.vaadin.example.pivot.datasource.PivotDataSource;
 import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
 import org.vaadin.example.pivot.ui.PivotConfigurationPanel;
+import org.vaadin.example.pivot.ui.PivotGridDataProvider;
 import org.vaadin.gatanaso.MultiselectComboBox;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -62,9 +62,9 @@ public class PlayerPivotExternalFilterView extends VerticalLayout {
 		final HorizontalLayout bar = new HorizontalLayout();
 
 		final PivotConfigurationPanel<Player> pivotConfigurationPanel = new PivotConfigurationPanel<Player>("Players")
-				.addGroupBy("Team", Player::getTeam).addGroupBy("Position", Player::getPosition)
-				.addAggregate("Height (inch)", Player::getHeightInches)
-				.addAggregate("Weight (lbs)", Player::getWeightLbs).addAggregate("Age", Player::getAge);
+				.addGroupBy(Player.TEAM).addGroupBy(Player.POSITION)
+				.addAggregate(Player.HEIGHT)
+				.addAggregate(Player.WEIGHT).addAggregate(Player.AGE);
 
 		pivotTable = createPivotTable(pivotConfigurationPanel, filterComponent);
 		pivotConfigurationPanel.pivotConfigurationChangedListeners.add(() -> {
@@ -119,14 +119,15 @@ public class PlayerPivotExternalFilterView extends VerticalLayout {
 		HeaderRow defaultHeaderRow = pivotTable.appendHeaderRow();
 
 		final PivotDataSource.PivotResult<T> pivotResult = panel.computePivotData(items);
-		pivotTable.setItems(pivotResult.rows);
+		// sorting uses the sort permutations of the result, see PivotGridDataProvider
+		pivotTable.setDataProvider(new PivotGridDataProvider<>(pivotResult));
 
 		for (PivotDataSource.PivotColumn<T> column : pivotResult.columns) {
 			final Column<Row<T>> col = pivotTable.addColumn(it -> it.get(column.id))
 //                    .setFlexGrow(1)
 					.setHeader(column.getCaption())
 //                    .setAutoWidth(true) // see https://github.com/vaadin/vaadin-grid/issues/2174
-					.setSortable(true);
+					.setSortProperty(column.id);
 			col.setKey(column.id);
 		}
 
@@ -158,7 +159,8 @@ public class PlayerPivotExternalFilterView extends VerticalLayout {
 			String key = event.getColumn().getKey();
 			int col = pivotTable.getColumns().indexOf(pivotTable.getColumnByKey(key)) + 1;
 			Object value = event.getItem().get(key);
-			int row = pivotResult.rows.indexOf(event.getItem()) + 1;
+			// the position in the sort order the Grid shows, out of the current result
+			int row = ((PivotGridDataProvider<T>) pivotTable.getDataProvider()).indexOf(event.getItem()) + 1;
 			// Push the focus to the cell clicked
 			// It will get the focus, but un-fortunately focus ring will not show up
 			// If you continue the navigation with cursor keys, the focus ring will appear
@@ -187,8 +189,7 @@ public class PlayerPivotExternalFilterView extends VerticalLayout {
 				filterField.setLabel(pivotResult.getColumn(column.getKey()).getCaption());
 				filterComponent.add(filterField);
 
-				Set<Object> objectSet = pivotResult.rows.stream().map(row -> row.get(column.getKey()))
-						.filter(Objects::nonNull).collect(Collectors.toSet());
+				Set<Object> objectSet = pivotResult.getDistinctValues(column.getKey());
 
 				List<Object> objectList = new ArrayList<>(objectSet);
 				if (!objectList.isEmpty()) {
@@ -208,7 +209,7 @@ public class PlayerPivotExternalFilterView extends VerticalLayout {
 						panel.setFilterValue(pivotColumn, event.getValue());
 
 						PivotDataSource.PivotResult<T> filteredPivotResult = panel.computePivotData(items);
-						pivotTable.setItems(filteredPivotResult.rows);
+						((PivotGridDataProvider<T>) pivotTable.getDataProvider()).setResult(filteredPivotResult);
 
 						updateExternalFilters(filterComponent, panel, items, pivotTable, pivotResult);
 						updateGrandTotalFooter(pivotTable, filteredPivotResult);
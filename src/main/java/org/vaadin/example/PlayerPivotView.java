@@ -1,5 +1,6 @@
 package org.vaadin.example;
 
+import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.button.Button;
 import com.vaadin.flow.component.combobox.ComboBox;
 import com.vaadin.flow.component.dependency.CssImport;
@@ -14,6 +15,7 @@ import com.vaadin.flow.component.grid.HeaderRow;
 import com.vaadin.flow.component.notification.Notification;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
 import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.component.page.Push;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.server.PWA;
 import org.jetbrains.annotations.NotNull;
@@ -23,15 +25,18 @@ import org.vaadin.example.pivot.datasource.InMemoryPivot;
 import org.vaadin.example.pivot.datasource.PivotDataSource;
 import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
 import org.vaadin.example.pivot.ui.PivotConfigurationPanel;
+import org.vaadin.example.pivot.ui.PivotGridDataProvider;
 import org.vaadin.gatanaso.MultiselectComboBox;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 /**
  * The main view contains a button and a click listener.
  */
 @Route("")
+@Push
 @PWA(name = "Project Base for Vaadin", shortName = "Project Base", enableInstallPrompt = false)
 @CssImport("./styles/pivot.css")
 @CssImport(value = "./styles/custom-grid.css", themeFor = "vaadin-grid")
@@ -63,22 +68,37 @@ public class PlayerPivotView extends VerticalLayout {
 		final HorizontalLayout bar = new HorizontalLayout();
 
 		final PivotConfigurationPanel<Player> pivotConfigurationPanel = new PivotConfigurationPanel<Player>("Players")
-				.addGroupBy("Team", Player::getTeam).addGroupBy("Position", Player::getPosition)
-				.addGroupBy("Height (inch)", Player::getHeightInches)
-				.addGroupBy("Weight (lbs)", Player::getWeightLbs)
-				.addAggregate("Height (inch)", Player::getHeightInches)
-				.addAggregate("Weight (lbs)", Player::getWeightLbs).addAggregate("Age", Player::getAge);
+				.addGroupBy(Player.TEAM).addGroupBy(Player.POSITION)
+				.addGroupBy(Player.HEIGHT)
+				.addGroupBy(Player.WEIGHT)
+				.addAggregate(Player.HEIGHT)
+				.addAggregate(Player.WEIGHT).addAggregate(Player.AGE);
 
 		pivotTable = createPivotTable(pivotConfigurationPanel);
 		pivotConfigurationPanel.pivotConfigurationChangedListeners.add(() -> {
-			Notification.show("Pivot updated");
-			List<GridSortOrder<Row<Player>>> sort = pivotTable.getSortOrder();
-			final Grid<PivotDataSource.Row<Player>> newPivotTable = createPivotTable(pivotConfigurationPanel);
-			// Copy sort orders of the old pivot table to a new one
-			List<GridSortOrder<Row<Player>>> newSort = copySort(sort, newPivotTable);
-			bar.replace(pivotTable, newPivotTable);
-			pivotTable = newPivotTable;
-			pivotTable.sort(newSort);
+			// computed in the background, so that the browser doesn't freeze; the grid is swapped via push
+			final UI ui = UI.getCurrent();
+			pivotConfigurationPanel.computePivotDataAsync(Player.ALL_PLAYERS).whenComplete((pivotResult, failure) -> {
+				if (failure instanceof CancellationException) {
+					// superseded by a newer configuration
+					return;
+				}
+				ui.access(() -> {
+					if (failure != null) {
+						Notification.show("Failed to compute the pivot: " + failure.getMessage());
+						return;
+					}
+					Notification.show("Pivot updated");
+					List<GridSortOrder<Row<Player>>> sort = pivotTable.getSortOrder();
+					final Grid<PivotDataSource.Row<Player>> newPivotTable = createPivotTable(pivotConfigurationPanel,
+							Player.ALL_PLAYERS, pivotResult);
+					// Copy sort orders of the old pivot table to a new one
+					List<GridSortOrder<Row<Player>>> newSort = copySort(sort, newPivotTable);
+					bar.replace(pivotTable, newPivotTable);
+					pivotTable = newPivotTable;
+					pivotTable.sort(newSort);
+				});
+			});
 		});
 
 		bar.setWidthFull();
@@ -111,20 +131,29 @@ public class PlayerPivotView extends VerticalLayout {
 	@NotNull
 	public static <T> Grid<InMemoryPivot.Row<T>> createPivotTable(@NotNull PivotConfigurationPanel<T> panel,
 			@NotNull List<T> items) {
+		return createPivotTable(panel, items, panel.computePivotData(items));
+	}
+
+	/**
+	 * Creates the grid showing a result computed beforehand, e.g. by {@link PivotConfigurationPanel#computePivotDataAsync(List)}.
+	 */
+	@NotNull
+	public static <T> Grid<InMemoryPivot.Row<T>> createPivotTable(@NotNull PivotConfigurationPanel<T> panel,
+			@NotNull List<T> items, @NotNull PivotDataSource.PivotResult<T> pivotResult) {
 		final Grid<InMemoryPivot.Row<T>> pivotTable = new Grid<>();
 		pivotTable.setWidthFull();
 		pivotTable.addThemeVariants(GridVariant.LUMO_COLUMN_BORDERS);
 		HeaderRow defaultHeaderRow = pivotTable.appendHeaderRow();
 
-		final PivotDataSource.PivotResult<T> pivotResult = panel.computePivotData(items);
-		pivotTable.setItems(pivotResult.rows);
+		// sorting uses the sort permutations of the result, see PivotGridDataProvider
+		pivotTable.setDataProvider(new PivotGridDataProvider<>(pivotResult));
 
 		for (PivotDataSource.PivotColumn<T> column : pivotResult.columns) {
 			final Grid.Column<PivotDataSource.Row<T>> col = pivotTable.addColumn(it -> it.get(column.id))
 //                    .setFlexGrow(1)
 					.setHeader(column.getCaption())
 //                    .setAutoWidth(true) // see https://github.com/vaadin/vaadin-grid/issues/2174
-					.setSortable(true);
+					.setSortProperty(column.id);
 			col.setKey(column.id);
 		}
 
@@ -157,7 +186,8 @@ public class PlayerPivotView extends VerticalLayout {
 			String key = event.getColumn().getKey();
 			int col = pivotTable.getColumns().indexOf(pivotTable.getColumnByKey(key)) + 1;
 			Object value = event.getItem().get(key);
-			int row = pivotResult.rows.indexOf(event.getItem()) + 1;
+			// the position in the sort order the Grid shows, out of the current result
+			int row = ((PivotGridDataProvider<T>) pivotTable.getDataProvider()).indexOf(event.getItem()) + 1;
 			// Push the focus to the cell clicked
 			// It will get the focus, but un-fortunately focus ring will not show up
 			// If you continue the navigation with cursor keys, the focus ring will appear
@@ -190,8 +220,7 @@ public class PlayerPivotView extends VerticalLayout {
 
 				filterRow.getCell(column).setComponent(layout);
 
-				Set<Object> objectSet = pivotResult.rows.stream().map(row -> row.get(column.getKey()))
-						.filter(Objects::nonNull).collect(Collectors.toSet());
+				Set<Object> objectSet = pivotResult.getDistinctValues(column.getKey());
 
 				List<Object> objectList = new ArrayList<>(objectSet);
 				if (!objectList.isEmpty()) {
@@ -211,7 +240,7 @@ public class PlayerPivotView extends VerticalLayout {
 						panel.setFilterValue(pivotColumn, event.getValue());
 
 						PivotDataSource.PivotResult<T> filteredPivotResult = panel.computePivotData(items);
-						pivotTable.setItems(filteredPivotResult.rows);
+						((PivotGridDataProvider<T>) pivotTable.getDataProvider()).setResult(filteredPivotResult);
 
 						updateFilters(filterRow, panel, items, pivotTable, filteredPivotResult);
 						updateGrandTotalFooter(pivotTable, filteredPivotResult);
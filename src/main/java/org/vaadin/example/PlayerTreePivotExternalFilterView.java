@@ -19,12 +19,12 @@ import com.vaadin.flow.router.Route;
 import org.jetbrains.annotations.NotNull;
 import org.vaadin.example.pivot.datasource.PivotDataSource;
 import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
+import org.vaadin.example.pivot.datasource.PivotRollup;
 import org.vaadin.example.pivot.ui.PivotConfigurationPanel;
 import org.vaadin.gatanaso.MultiselectComboBox;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -32,7 +32,6 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.Collectors.toList;
 
 /**
  * The main view contains a button and a click listener.
@@ -71,11 +70,11 @@ public class PlayerTreePivotExternalFilterView extends VerticalLayout {
 		final HorizontalLayout bar = new HorizontalLayout();
 
 		final PivotConfigurationPanel<Player> pivotConfigurationPanel = new PivotConfigurationPanel<Player>("Players")
-				.addGroupBy("Team", Player::getTeam).addGroupBy("Position", Player::getPosition)
-				.addGroupBy("Height (inch)", Player::getHeightInches)
-				.addGroupBy("Weight (lbs)", Player::getWeightLbs)
-				.addAggregate("Height (inch)", Player::getHeightInches)
-				.addAggregate("Weight (lbs)", Player::getWeightLbs).addAggregate("Age", Player::getAge);
+				.addGroupBy(Player.TEAM).addGroupBy(Player.POSITION)
+				.addGroupBy(Player.HEIGHT)
+				.addGroupBy(Player.WEIGHT)
+				.addAggregate(Player.HEIGHT)
+				.addAggregate(Player.WEIGHT).addAggregate(Player.AGE);
 
 		pivotTable = createPivotTreeTable(pivotConfigurationPanel, filterComponent);
 		pivotConfigurationPanel.pivotConfigurationChangedListeners.add(() -> {
@@ -231,68 +230,24 @@ public class PlayerTreePivotExternalFilterView extends VerticalLayout {
 		return ancestors;
 	}
 
-	private static <T> void addChildren(PivotDataSource.PivotResult<T> pivotResult, TreeData<Row<T>> rowTreeData, int colIndex, List<Row<T>> children, Row<T> grandparent) {
-
-		PivotDataSource.PivotColumn<T> col = pivotResult.columns.get(colIndex);
-		Map<Object, List<Row<T>>> group = children.stream()
-				.collect(groupingBy(r -> r.get(col)));
-		group.forEach( (key, value) -> {
-			if (!value.isEmpty()) {
-				long count = pivotResult.columns.stream().filter(c -> c.isRowGroup()).count();
-				Row<T> parent;
-				if (colIndex + 1 == count) {
-					for (Row<T> row : value) {
-						row.put(ROWGROUP_KEY, row.get(col));
-						row.put(col.id, row.get(col));
-						rowTreeData.addItem(grandparent, row);
-					}
-				} else {
-					// copy the parent data to the child
-					HashMap<String, Object> values = new HashMap<>();
-					if (grandparent != null) {
-						values.putAll(grandparent.getValues());
-					}
-					values.put(ROWGROUP_KEY, value.get(0).get(col));
-					values.put(col.id, value.get(0).get(col));
-					// calculate Aggregates
-					// probably filter the data by the parent group ? rowgroup ?
-					pivotResult.columns.stream().filter(c -> c.isAggregate()).forEach( aggregateColumn -> {
-								if (!aggregateColumn.id.startsWith("dynamic") || pivotResult.getTopGroup() == null) {
-									values.put(aggregateColumn.id, aggregateColumn.aggregate
-											.computeAggregatedValue(value.stream().flatMap(x -> x.getSourceBeans().stream())
-													.collect(Collectors.toList())));
-								} else {
-									// filter the data to have only the filtered data of the columnGroup
-									List<T> collect = value.stream().flatMap(x -> x.getSourceBeans().stream()
-													.filter(item -> Objects.equals(pivotResult.getTopGroup().property.valueProvider.apply(item), aggregateColumn.columnGroupValue)
-													))
-											.collect(toList());
-									if (!collect.isEmpty()) { // if no data don't add the aggregate
-										values.put(aggregateColumn.id, aggregateColumn.aggregate
-												.computeAggregatedValue(collect));
-									}
-								}
-							}
-					);
-					parent = new Row<>(values, null);
-					rowTreeData.addItem(grandparent, parent);
-					if (colIndex + 1 < count) {
-						addChildren(pivotResult, rowTreeData, colIndex + 1, value, parent);
-					}
-				}
-			}
-		});
+	private static <T> void addChildren(PivotRollup<T> rollup, TreeData<Row<T>> rowTreeData, Row<T> row, Row<T> parent) {
+		for (Row<T> child : rollup.getChildren(row)) {
+			// the rows of the result are shared and read-only: show a copy carrying the group value
+			final Row<T> treeRow = child.withValue(ROWGROUP_KEY, child.getKey().get(child.getLevel() - 1));
+			rowTreeData.addItem(parent, treeRow);
+			addChildren(rollup, rowTreeData, treeRow, treeRow);
+		}
 	}
 
 	private static <T> TreeData<Row<T>> buildTreeData(PivotDataSource.PivotResult<T> pivotResult) {
 		TreeData<Row<T>> rowTreeData = new TreeData<>();
-		long count = pivotResult.columns.stream().filter(c -> c.isRowGroup()).count();
-		if (count == 0) {
+		// the subtotals are merged out of the partial states of the rows, see PivotRollup
+		final PivotRollup<T> rollup = PivotRollup.of(pivotResult);
+		if (rollup.getDepth() == 0) {
 			// no hierarchical data
 			rowTreeData.addRootItems(pivotResult.rows);
-		} else {
-			addChildren(pivotResult, rowTreeData, 0, pivotResult.rows, null);
-
+		} else if (rollup.getGrandTotal() != null) {
+			addChildren(rollup, rowTreeData, rollup.getGrandTotal(), null);
 		}
 		return rowTreeData;
 	}
@@ -313,8 +268,7 @@ public class PlayerTreePivotExternalFilterView extends VerticalLayout {
 				filterField.setLabel(pivotResult.getColumn(columnId).getCaption());
 				filterComponent.add(filterField);
 
-				Set<Object> objectSet = pivotResult.rows.stream().map(row -> row.get(columnId))
-						.filter(Objects::nonNull).collect(Collectors.toSet());
+				Set<Object> objectSet = pivotResult.getDistinctValues(columnId);
 
 				List<Object> objectList = new ArrayList<>(objectSet);
 				if (!objectList.isEmpty()) {
@@ -0,0 +1,93 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+
+/**
+ * The partial state of an {@link AggregateFunction}: accumulates the values of one group, a value at a time.
+ * Created by {@link AggregateFunction#createAccumulator()}.
+ * <p></p>
+ * Accumulators of the same function can be {@link #merge(Accumulator) merged}: this allows subtotals, grand totals
+ * and parallel partitions to be computed out of the states of the rows, without going through the beans again.
+ * See {@link PivotDataSource.Row#getAccumulator(String)}.
+ * <p></p>
+ * Accumulators are not thread-safe.
+ */
+public interface Accumulator extends Serializable {
+    /**
+     * Adds a value, as produced by {@link PivotProperty#getValue(Object)}.
+     */
+    void accumulate(@Nullable Object value);
+
+    /**
+     * Adds a value of an integral property. By default the value is boxed and passed to {@link #accumulate(Object)}.
+     * Note that <code>int</code> arguments end up here as well; cast to {@link Object} to keep them {@link Integer}s.
+     */
+    default void accumulate(long value) {
+        accumulate((Object) value);
+    }
+
+    /**
+     * Adds a value of a floating-point property. By default the value is boxed and passed to {@link #accumulate(Object)}.
+     */
+    default void accumulate(double value) {
+        accumulate((Object) value);
+    }
+
+    /**
+     * Adds the first <code>count</code> values of a block of an integral property, as if each of them was passed to
+     * {@link #accumulate(long)}. The standard accumulators reduce the whole block in a single tight loop;
+     * by default the values are added one by one.
+     */
+    default void accumulate(@NotNull long[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            accumulate(values[i]);
+        }
+    }
+
+    /**
+     * Adds the first <code>count</code> values of a block of a floating-point property, as if each of them was passed
+     * to {@link #accumulate(double)}. By default the values are added one by one.
+     */
+    default void accumulate(@NotNull double[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            accumulate(values[i]);
+        }
+    }
+
+    /**
+     * Removes a value added earlier via {@link #accumulate(Object)}, so that the state can be maintained incrementally,
+     * see {@link IncrementalPivot}. Not all states can do that: e.g. {@link AggregateFunctionEnum#MIN} can't tell the
+     * next smallest value once the smallest one is removed. The caller then has to recompute the state out of the
+     * remaining values.
+     * <p></p>
+     * By default no value can be removed.
+     *
+     * @param value the value to remove.
+     * @return true if the value has been removed; false if this accumulator can't remove it, leaving the state unchanged.
+     */
+    default boolean remove(@Nullable Object value) {
+        return false;
+    }
+
+    /**
+     * Adds all values accumulated by the other accumulator, as if they were accumulated by this one after the values
+     * already accumulated. The other accumulator is not modified.
+     *
+     * @param other an accumulator created by the same function.
+     */
+    void merge(@NotNull Accumulator other);
+
+    /**
+     * Computes the aggregated value. The accumulator remains usable: more values can be accumulated or merged afterwards.
+     *
+     * @return the aggregated value; the same value {@link AggregateFunction#compute(java.util.stream.Stream)}
+     * would produce for the accumulated values. Merged states of {@link AggregateFunctionEnum#SUM} and
+     * {@link AggregateFunctionEnum#AVERAGE} may differ in the last bits, due to a different order of summation.
+     * @throws RuntimeException if the function can't be computed over zero values and nothing has been accumulated.
+     */
+    @NotNull
+    Number finish();
+}
@@ -0,0 +1,665 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * The {@link Accumulator}s of the standard {@link AggregateFunctionEnum functions}, each keeping just the state the
+ * function needs; any other function by default collects the values and calls
+ * {@link AggregateFunction#compute(java.util.stream.Stream)} in the end, see {@link Buffering}.
+ * <p></p>
+ * The accumulators produce exactly the same values as {@link AggregateFunctionEnum}: e.g. {@link DoubleSummaryStatistics}
+ * uses the same compensated summation as <code>DoubleStream.sum()</code>.
+ */
+final class Accumulators {
+    private Accumulators() {
+    }
+
+    /**
+     * Creates an empty accumulator for given function.
+     *
+     * @param function the function to compute.
+     * @param type     the type of the values passed to the primitive <code>accumulate()</code> methods, used to box
+     *                 the outcome of {@link AggregateFunctionEnum#MIN}/{@link AggregateFunctionEnum#MAX} into the
+     *                 original wrapper type. May be null if only objects are accumulated.
+     * @return the accumulator, not null.
+     */
+    @NotNull
+    static Accumulator create(@NotNull AggregateFunction function, @Nullable PivotDataset.NumberType type) {
+        return create(function, type, false);
+    }
+
+    /**
+     * Creates an empty accumulator for given function.
+     *
+     * @param function the function to compute.
+     * @param type     see {@link #create(AggregateFunction, PivotDataset.NumberType)}.
+     * @param integral if true, the values are integral: {@link AggregateFunctionEnum#SUM} and
+     *                 {@link AggregateFunctionEnum#AVERAGE} sum them exactly in a <code>long</code>, see
+     *                 {@link Sum#Sum(boolean, boolean, boolean)}. Used for integral {@link PivotProperty#getPrimitiveType() primitive properties}.
+     *                 The SUM of values narrower than <code>long</code> is a <code>Long</code>, of <code>long</code>s a <code>Double</code>.
+     * @return the accumulator, not null.
+     */
+    @NotNull
+    static Accumulator create(@NotNull AggregateFunction function, @Nullable PivotDataset.NumberType type, boolean integral) {
+        if (integral && (function == AggregateFunctionEnum.SUM || function == AggregateFunctionEnum.AVERAGE)) {
+            return new Sum(function == AggregateFunctionEnum.AVERAGE, true, type != PivotDataset.NumberType.LONG);
+        }
+        if (function == AggregateFunctionEnum.MIN) {
+            return new MinMax(1, type);
+        }
+        if (function == AggregateFunctionEnum.MAX) {
+            return new MinMax(-1, type);
+        }
+        return Objects.requireNonNull(function.createAccumulator());
+    }
+
+    @NotNull
+    private static Number box(@Nullable PivotDataset.NumberType type, long value) {
+        if (type == null || !type.isIntegral()) {
+            return value;
+        }
+        return type.box(value);
+    }
+
+    @NotNull
+    private static Number box(@Nullable PivotDataset.NumberType type, double value) {
+        if (type == PivotDataset.NumberType.FLOAT) {
+            return type.box(value);
+        }
+        return value;
+    }
+
+    /**
+     * {@link AggregateFunctionEnum#SUM} and {@link AggregateFunctionEnum#AVERAGE}: a compensated sum and a count.
+     * A value is removed by adding its negation.
+     * <p></p>
+     * {@link DoubleSummaryStatistics} is not serializable: a serialized accumulator keeps the sum and the count only,
+     * and continues summing from the sum after deserialization.
+     */
+    static final class Sum implements Accumulator {
+        private final boolean average;
+        @NotNull
+        private transient DoubleSummaryStatistics statistics = new DoubleSummaryStatistics();
+        /**
+         * True if the values are integral, decided by the type of the property rather than by the values: they are
+         * also summed exactly, in {@link #exactSum}.
+         */
+        private boolean integral;
+        /**
+         * True if a sum {@link #finish() finishes} as a <code>Long</code>, for every state of the aggregate: the values
+         * are narrower than <code>long</code>, so that the sum of any list of them fits in a <code>long</code>
+         * (<code>2^31</code> values of at most <code>2^31</code> sum up to at most <code>2^62</code>). A sum of
+         * <code>long</code>s may overflow, and therefore always finishes as a <code>Double</code>.
+         */
+        private boolean longResult;
+        private long exactSum;
+        /**
+         * True if {@link #exactSum} overflowed: the sum of integral values doesn't fit in a <code>long</code>.
+         */
+        private boolean overflowed;
+        /**
+         * The number of removed values; each of them counts twice in the statistics: once added, once negated.
+         */
+        private long removed;
+        /**
+         * Added to the count of the statistics: a deserialized accumulator starts with a single value, the sum.
+         */
+        private long countAdjustment;
+
+        Sum(boolean average) {
+            this(average, false, false);
+        }
+
+        /**
+         * @param integral   if true, the values must be integral and are summed exactly.
+         * @param longResult if true, {@link AggregateFunctionEnum#SUM} produces a <code>Long</code> rather than a
+         *                   <code>Double</code>; only for integral values narrower than <code>long</code>.
+         */
+        Sum(boolean average, boolean integral, boolean longResult) {
+            this.average = average;
+            this.integral = integral;
+            this.longResult = integral && longResult;
+        }
+
+        @Override
+        public void accumulate(@Nullable Object value) {
+            if (integral) {
+                addExact(requireIntegral(value).longValue());
+            }
+            statistics.accept(((Number) value).doubleValue());
+        }
+
+        @Override
+        public void accumulate(long value) {
+            if (integral) {
+                addExact(value);
+            }
+            statistics.accept(value);
+        }
+
+        @Override
+        public void accumulate(double value) {
+            if (integral) {
+                requireIntegral(value);
+            }
+            statistics.accept(value);
+        }
+
+        @NotNull
+        private static Number requireIntegral(@Nullable Object value) {
+            if (!(value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)) {
+                throw new IllegalArgumentException("Parameter value: invalid value " + value + ": must be integral");
+            }
+            return (Number) value;
+        }
+
+        private void addExact(long value) {
+            try {
+                exactSum = Math.addExact(exactSum, value);
+            } catch (ArithmeticException e) {
+                overflowed = true;
+            }
+        }
+
+        private boolean isEmpty() {
+            return statistics.getCount() == 0 && countAdjustment == 0;
+        }
+
+        /**
+         * Integers sum up exactly in a <code>long</code>; as long as the sum stays below <code>2^53</code>, the compensated
+         * sum of the values one by one is exact as well, therefore equal to the <code>long</code> sum of the block.
+         * Floating-point blocks are summed value by value, to keep the order of the compensated summation.
+         */
+        @Override
+        public void accumulate(@NotNull long[] values, int count) {
+            if (count == 0) {
+                return;
+            }
+            final double maxAbs = BatchKernels.maxAbs(values, count);
+            if (integral && !overflowed) {
+                if (maxAbs * count + Math.abs((double) exactSum) < 0x1p62) {
+                    exactSum += BatchKernels.sum(values, count);
+                } else {
+                    for (int i = 0; i < count && !overflowed; i++) {
+                        addExact(values[i]);
+                    }
+                }
+            }
+            if (maxAbs * count + Math.abs(statistics.getSum()) < 0x1p53) {
+                statistics.accept((double) BatchKernels.sum(values, count));
+                countAdjustment += count - 1;
+            } else {
+                for (int i = 0; i < count; i++) {
+                    statistics.accept(values[i]);
+                }
+            }
+        }
+
+        @Override
+        public boolean remove(@Nullable Object value) {
+            if (integral) {
+                try {
+                    exactSum = Math.subtractExact(exactSum, requireIntegral(value).longValue());
+                } catch (ArithmeticException e) {
+                    overflowed = true;
+                }
+            }
+            statistics.accept(-((Number) value).doubleValue());
+            removed++;
+            return true;
+        }
+
+        /**
+         * An empty sum adopts the integrality of the other sum: states merged into a fresh
+         * {@link AggregateFunction#createAccumulator() accumulator} keep producing a <code>Long</code>.
+         *
+         * @throws IllegalArgumentException if only one of the sums is integral and neither is empty.
+         */
+        @Override
+        public void merge(@NotNull Accumulator other) {
+            final Sum sum = (Sum) other;
+            if ((integral != sum.integral || longResult != sum.longResult) && !isEmpty() && !sum.isEmpty()) {
+                throw new IllegalArgumentException("Parameter other: invalid value " + other + ": must sum the same type of values");
+            }
+            integral |= sum.integral;
+            longResult |= sum.longResult;
+            statistics.combine(sum.statistics);
+            removed += sum.removed;
+            countAdjustment += sum.countAdjustment;
+            if (integral) {
+                overflowed |= sum.overflowed;
+                addExact(sum.exactSum);
+            }
+        }
+
+        @NotNull
+        @Override
+        public Number finish() {
+            if (!average) {
+                if (longResult) {
+                    // overflows only past 2^32 values; stays a Long nevertheless
+                    return overflowed ? (long) statistics.getSum() : exactSum;
+                }
+                return integral && !overflowed ? (double) exactSum : statistics.getSum();
+            }
+            final long count = statistics.getCount() + countAdjustment - 2 * removed;
+            if (integral && !overflowed) {
+                return count > 0 ? (double) exactSum / count : 0.0;
+            }
+            if (removed == 0 && countAdjustment == 0) {
+                return statistics.getAverage();
+            }
+            return count > 0 ? statistics.getSum() / count : 0.0;
+        }
+
+        private void writeObject(@NotNull ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeDouble(statistics.getSum());
+            out.writeLong(statistics.getCount());
+        }
+
+        private void readObject(@NotNull ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            final double sum = in.readDouble();
+            final long count = in.readLong();
+            statistics = new DoubleSummaryStatistics();
+            statistics.accept(sum);
+            countAdjustment += count - 1;
+        }
+    }
+
+    /**
+     * {@link AggregateFunctionEnum#COUNT}: the values themselves don't matter.
+     */
+    static final class Count implements Accumulator {
+        private long count;
+
+        @Override
+        public void accumulate(@Nullable Object value) {
+            count++;
+        }
+
+        @Override
+        public void accumulate(long value) {
+            count++;
+        }
+
+        @Override
+        public void accumulate(double value) {
+            count++;
+        }
+
+        @Override
+        public void accumulate(@NotNull long[] values, int count) {
+            this.count += count;
+        }
+
+        @Override
+        public void accumulate(@NotNull double[] values, int count) {
+            this.count += count;
+        }
+
+        @Override
+        public boolean remove(@Nullable Object value) {
+            count--;
+            return true;
+        }
+
+        @Override
+        public void merge(@NotNull Accumulator other) {
+            count += ((Count) other).count;
+        }
+
+        @NotNull
+        @Override
+        public Number finish() {
+            return count;
+        }
+    }
+
+    /**
+     * {@link AggregateFunctionEnum#MIN} and {@link AggregateFunctionEnum#MAX}. Like <code>Stream.min()</code>/<code>max()</code>,
+     * the first of several equal values wins.
+     * <p></p>
+     * Only values other than the current minimum (maximum) can be removed: the state doesn't know the runner-up.
+     */
+    static final class MinMax implements Accumulator {
+        /**
+         * 1 to compute the minimum, -1 to compute the maximum.
+         */
+        private final int sign;
+        @Nullable
+        private PivotDataset.NumberType type;
+        private boolean empty = true;
+        @Nullable
+        private Object objectResult;
+        private long longResult;
+        private double doubleResult;
+        /**
+         * Which of the results holds the value: 'o', 'l' or 'd'.
+         */
+        private char kind;
+
+        MinMax(int sign, @Nullable PivotDataset.NumberType type) {
+            this.sign = sign;
+            this.type = type;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        @Override
+        public void accumulate(@Nullable Object value) {
+            Objects.requireNonNull(value);
+            if (empty || Integer.signum(((Comparable) objectResult).compareTo(value)) * sign > 0) {
+                objectResult = value;
+            }
+            empty = false;
+            kind = 'o';
+        }
+
+        @Override
+        public void accumulate(long value) {
+            if (empty || Long.compare(value, longResult) * sign < 0) {
+                longResult = value;
+            }
+            empty = false;
+            kind = 'l';
+        }
+
+        @Override
+        public void accumulate(double value) {
+            if (empty || Double.compare(value, doubleResult) * sign < 0) {
+                doubleResult = value;
+            }
+            empty = false;
+            kind = 'd';
+        }
+
+        @Override
+        public void accumulate(@NotNull long[] values, int count) {
+            if (count > 0) {
+                accumulate(sign > 0 ? BatchKernels.min(values, count) : BatchKernels.max(values, count));
+            }
+        }
+
+        /**
+         * Math.min()/max() order the values like {@link Double#compare(double, double)} does, except for NaN:
+         * blocks with a NaN are accumulated value by value.
+         */
+        @Override
+        public void accumulate(@NotNull double[] values, int count) {
+            if (count == 0) {
+                return;
+            }
+            final double result = sign > 0 ? BatchKernels.min(values, count) : BatchKernels.max(values, count);
+            if (Double.isNaN(result)) {
+                for (int i = 0; i < count; i++) {
+                    accumulate(values[i]);
+                }
+            } else {
+                accumulate(result);
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        @Override
+        public boolean remove(@Nullable Object value) {
+            if (empty) {
+                return false;
+            }
+            // the value can be removed if the result is strictly better than the value
+            switch (kind) {
+                case 'l':
+                    return Long.compare(((Number) value).longValue(), longResult) * sign > 0;
+                case 'd':
+                    return Double.compare(((Number) value).doubleValue(), doubleResult) * sign > 0;
+                default:
+                    return Integer.signum(((Comparable) objectResult).compareTo(value)) * sign < 0;
+            }
+        }
+
+        @Override
+        public void merge(@NotNull Accumulator other) {
+            final MinMax minMax = (MinMax) other;
+            if (minMax.empty) {
+                return;
+            }
+            if (type == null) {
+                type = minMax.type;
+            }
+            switch (minMax.kind) {
+                case 'l':
+                    accumulate(minMax.longResult);
+                    break;
+                case 'd':
+                    accumulate(minMax.doubleResult);
+                    break;
+                default:
+                    accumulate(minMax.objectResult);
+            }
+        }
+
+        @NotNull
+        @Override
+        public Number finish() {
+            if (empty) {
+                throw new NoSuchElementException("No value present");
+            }
+            switch (kind) {
+                case 'l':
+                    return box(type, longResult);
+                case 'd':
+                    return box(type, doubleResult);
+                default:
+                    return (Number) objectResult;
+            }
+        }
+    }
+
+    /**
+     * {@link AggregateFunctionEnum#MEDIAN}: an exact digest of all values, kept as sorted distinct values with their
+     * counts. New values are buffered and sorted into the digest in batches; merging two digests is a linear merge.
+     * Columns with many repeated values (ages, heights, ratings) take far less memory than the values themselves.
+     * Since the digest is exact, values can be removed as well.
+     */
+    static final class Median implements Accumulator {
+        private static final int MAX_PENDING = 1024;
+        /**
+         * Values not yet sorted into the digest.
+         */
+        @NotNull
+        private double[] pending = new double[8];
+        private int pendingSize;
+        /**
+         * Sorted distinct values, in the order of {@link Double#compare(double, double)}.
+         */
+        @NotNull
+        private double[] values = new double[0];
+        /**
+         * The number of occurrences of every value.
+         */
+        @NotNull
+        private long[] counts = new long[0];
+        private int runs;
+
+        @Override
+        public void accumulate(@Nullable Object value) {
+            accumulate(((Number) value).doubleValue());
+        }
+
+        @Override
+        public void accumulate(long value) {
+            accumulate((double) value);
+        }
+
+        @Override
+        public void accumulate(double value) {
+            if (pendingSize == pending.length) {
+                if (pendingSize >= MAX_PENDING) {
+                    compact();
+                } else {
+                    pending = Arrays.copyOf(pending, pendingSize * 2);
+                }
+            }
+            pending[pendingSize++] = value;
+        }
+
+        /**
+         * Sorts the pending values into the digest.
+         */
+        private void compact() {
+            if (pendingSize == 0) {
+                return;
+            }
+            Arrays.sort(pending, 0, pendingSize);
+            final double[] newValues = new double[pendingSize];
+            final long[] newCounts = new long[pendingSize];
+            int newRuns = 0;
+            for (int i = 0; i < pendingSize; i++) {
+                if (newRuns > 0 && Double.compare(newValues[newRuns - 1], pending[i]) == 0) {
+                    newCounts[newRuns - 1]++;
+                } else {
+                    newValues[newRuns] = pending[i];
+                    newCounts[newRuns++] = 1;
+                }
+            }
+            pendingSize = 0;
+            mergeRuns(newValues, newCounts, newRuns);
+        }
+
+        private void mergeRuns(@NotNull double[] otherValues, @NotNull long[] otherCounts, int otherRuns) {
+            final double[] mergedValues = new double[runs + otherRuns];
+            final long[] mergedCounts = new long[runs + otherRuns];
+            int merged = 0;
+            int i = 0;
+            int j = 0;
+            while (i < runs || j < otherRuns) {
+                final int cmp = i == runs ? 1 : j == otherRuns ? -1 : Double.compare(values[i], otherValues[j]);
+                if (cmp <= 0) {
+                    mergedValues[merged] = values[i];
+                    mergedCounts[merged] = counts[i++];
+                    if (cmp == 0) {
+                        mergedCounts[merged] += otherCounts[j++];
+                    }
+                } else {
+                    mergedValues[merged] = otherValues[j];
+                    mergedCounts[merged] = otherCounts[j++];
+                }
+                merged++;
+            }
+            values = mergedValues;
+            counts = mergedCounts;
+            runs = merged;
+        }
+
+        @Override
+        public boolean remove(@Nullable Object value) {
+            compact();
+            final double d = ((Number) value).doubleValue();
+            int low = 0;
+            int high = runs - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = Double.compare(values[mid], d);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    if (--counts[mid] == 0) {
+                        System.arraycopy(values, mid + 1, values, mid, runs - mid - 1);
+                        System.arraycopy(counts, mid + 1, counts, mid, runs - mid - 1);
+                        runs--;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void merge(@NotNull Accumulator other) {
+            final Median median = (Median) other;
+            mergeRuns(median.values, median.counts, median.runs);
+            for (int i = 0; i < median.pendingSize; i++) {
+                accumulate(median.pending[i]);
+            }
+        }
+
+        /**
+         * @return the value at given index of the sorted values. The digest must be compacted.
+         */
+        private double get(long index) {
+            for (int i = 0; i < runs; i++) {
+                if (index < counts[i]) {
+                    return values[i];
+                }
+                index -= counts[i];
+            }
+            throw new IndexOutOfBoundsException();
+        }
+
+        @NotNull
+        @Override
+        public Number finish() {
+            compact();
+            long size = 0;
+            for (int i = 0; i < runs; i++) {
+                size += counts[i];
+            }
+            if (size == 0) {
+                throw new IllegalArgumentException("Cannot compute median on empty collection of numbers");
+            }
+            final long middle = size / 2;
+            if (size % 2 == 0) {
+                return 0.5 * (get(middle) + get(middle - 1));
+            }
+            return get(middle);
+        }
+    }
+
+    /**
+     * The default accumulator of any function: collects the values and computes the function over them.
+     */
+    static final class Buffering implements Accumulator {
+        @NotNull
+        private final AggregateFunction function;
+        @NotNull
+        private final List<Object> values = new ArrayList<>();
+
+        Buffering(@NotNull AggregateFunction function) {
+            this.function = function;
+        }
+
+        @Override
+        public void accumulate(@Nullable Object value) {
+            values.add(value);
+        }
+
+        @Override
+        public boolean remove(@Nullable Object value) {
+            return values.remove(value);
+        }
+
+        @Override
+        public void merge(@NotNull Accumulator other) {
+            values.addAll(((Buffering) other).values);
+        }
+
+        @NotNull
+        @Override
+        public Number finish() {
+            return function.compute(values.stream());
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package org.vaadin.example.pivot.datasource;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.stream.Stream;
@@ -55,11 +60,243 @@ public final class Aggregate<T> implements Serializable {
      */
     @NotNull
     public Number computeAggregatedValue(@NotNull Collection<T> groupedItems) {
+        if (property.getPrimitiveType() != null && function instanceof AggregateFunctionEnum) {
+            // the same value the accumulators produce, e.g. an exact SUM
+            return computeAggregatedValues(Collections.singletonList(this), groupedItems)[0];
+        }
         final Stream<?> numericValues = groupedItems.stream()
                 .map(property.valueProvider);
         return function.compute(numericValues);
     }
 
+    /**
+     * Computes the aggregated value by merging the partial states of given rows, without going through
+     * the beans of the rows. This allows computing subtotals and grand totals for functions which can't
+     * {@link AggregateFunction#computeOverAggregatedValues(List) compute over aggregated values}, such as
+     * {@link AggregateFunctionEnum#AVERAGE}.
+     * @param rows the rows to merge.
+     * @param id the ID of the aggregated value in the rows; this is usually {@link #id}, but may be e.g. an ID of a
+     *           column produced by {@link ColumnGroupingPivotDataSource}.
+     * @return the aggregated value, or null if none of the rows has a {@link Row#getAccumulator(String) state} for given ID.
+     */
+    @Nullable
+    public Number mergeAggregatedValues(@NotNull Collection<? extends Row<T>> rows, @NotNull String id) {
+        final Accumulator merged = mergeAccumulators(rows, id);
+        return merged == null ? null : merged.finish();
+    }
+
+    /**
+     * Creates an empty accumulator for {@link #function}. The standard functions over an integral
+     * {@link PivotProperty#getPrimitiveType() primitive property} sum exactly, see {@link Accumulators#create(AggregateFunction, PivotDataset.NumberType, boolean)}.
+     *
+     * @param columnType the type of the values passed to the primitive <code>accumulate()</code> methods, if known;
+     *                   the type of a primitive property takes precedence.
+     */
+    @NotNull
+    Accumulator createAccumulator(@Nullable PivotDataset.NumberType columnType) {
+        final PivotDataset.NumberType primitiveType = property.getPrimitiveType();
+        return Accumulators.create(function, primitiveType != null ? primitiveType : columnType,
+                primitiveType != null && primitiveType.isIntegral());
+    }
+
+    /**
+     * Passes the value of given bean to the accumulator. The standard functions get the values of a
+     * {@link PivotProperty#getPrimitiveType() primitive property} unboxed; custom functions always get the boxed values.
+     */
+    void accumulate(@NotNull Accumulator accumulator, @NotNull T bean) {
+        if (function instanceof AggregateFunctionEnum) {
+            property.accumulate(bean, accumulator);
+        } else {
+            accumulator.accumulate(property.getValue(bean));
+        }
+    }
+
+    /**
+     * Merges the partial states of given rows into a new accumulator.
+     * @return the merged state, or null if none of the rows has a state for given ID.
+     */
+    @Nullable
+    Accumulator mergeAccumulators(@NotNull Collection<? extends Row<T>> rows, @NotNull String id) {
+        Accumulator merged = null;
+        for (Row<T> row : rows) {
+            final Accumulator accumulator = row.getAccumulator(id);
+            if (accumulator != null) {
+                if (merged == null) {
+                    merged = function.createAccumulator();
+                }
+                merged.merge(accumulator);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Computes the values of several aggregates over a list of beans, in a single pass over the beans. Produces
+     * the same values as calling {@link #computeAggregatedValue(Collection)} on every aggregate; however the
+     * value of a property shared by several aggregates is only obtained once per bean.
+     * @param aggregates the aggregates to compute.
+     * @param groupedItems the beans, must not be empty.
+     * @return the aggregated values, in the order of <code>aggregates</code>.
+     */
+    @NotNull
+    static <T> Number[] computeAggregatedValues(@NotNull List<Aggregate<T>> aggregates, @NotNull Iterable<T> groupedItems) {
+        return finish(accumulate(aggregates, groupedItems));
+    }
+
+    /**
+     * Like {@link #computeAggregatedValues(List, Iterable)}, but returns the partial states.
+     */
+    @NotNull
+    static <T> Accumulator[] accumulate(@NotNull List<Aggregate<T>> aggregates, @NotNull Iterable<T> groupedItems) {
+        final int count = aggregates.size();
+        final Accumulator[] accumulators = new Accumulator[count];
+        // the index of the distinct property of every aggregate
+        final Map<PivotProperty<T>, Integer> propertyIndices = new IdentityHashMap<>();
+        final int[] propertyOfAggregate = new int[count];
+        // the standard functions read the values of a primitive property unboxed, custom functions read the boxed values
+        final boolean[] unboxed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            final Aggregate<T> aggregate = aggregates.get(i);
+            accumulators[i] = aggregate.createAccumulator(null);
+            propertyOfAggregate[i] = propertyIndices.computeIfAbsent(aggregate.property, p -> propertyIndices.size());
+            unboxed[i] = aggregate.property.getPrimitiveType() != null && aggregate.function instanceof AggregateFunctionEnum;
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final PivotProperty<T>[] properties = new PivotProperty[propertyIndices.size()];
+        propertyIndices.forEach((property, index) -> properties[index] = property);
+        final boolean[] readBoxed = new boolean[properties.length];
+        final boolean[] readUnboxed = new boolean[properties.length];
+        for (int i = 0; i < count; i++) {
+            if (unboxed[i]) {
+                readUnboxed[propertyOfAggregate[i]] = true;
+            } else {
+                readBoxed[propertyOfAggregate[i]] = true;
+            }
+        }
+
+        final Object[] values = new Object[properties.length];
+        final long[] longValues = new long[properties.length];
+        final double[] doubleValues = new double[properties.length];
+        for (T bean : groupedItems) {
+            for (int i = 0; i < properties.length; i++) {
+                if (readBoxed[i]) {
+                    values[i] = properties[i].getValue(bean);
+                }
+                if (readUnboxed[i]) {
+                    if (properties[i].getPrimitiveType().isIntegral()) {
+                        longValues[i] = properties[i].getLong(bean);
+                    } else {
+                        doubleValues[i] = properties[i].getDouble(bean);
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                final int property = propertyOfAggregate[i];
+                if (!unboxed[i]) {
+                    accumulators[i].accumulate(values[property]);
+                } else if (properties[property].getPrimitiveType().isIntegral()) {
+                    accumulators[i].accumulate(longValues[property]);
+                } else {
+                    accumulators[i].accumulate(doubleValues[property]);
+                }
+            }
+        }
+        return accumulators;
+    }
+
+    /**
+     * Computes the values of several aggregates over given rows of a {@link PivotDataset}, in a single pass over the rows.
+     * Produces the same values as {@link #computeAggregatedValue(Collection)} would for the beans of these rows.
+     * @param aggregates the aggregates to compute.
+     * @param columns the column of the {@link #property} of every aggregate.
+     * @param rows the row indices; <code>rows[from]</code>..<code>rows[to - 1]</code> are used. There must be at least one row.
+     * @param from the first index into <code>rows</code>, inclusive.
+     * @param to the last index into <code>rows</code>, exclusive.
+     * @return the aggregated values, in the order of <code>aggregates</code>.
+     */
+    @NotNull
+    static <T> Number[] computeAggregatedValues(@NotNull List<Aggregate<T>> aggregates,
+                                                @NotNull List<PivotDataset.MeasureColumn> columns,
+                                                @NotNull int[] rows, int from, int to) {
+        return finish(accumulate(aggregates, columns, rows, from, to));
+    }
+
+    /**
+     * Like {@link #computeAggregatedValues(List, List, int[], int, int)}, but returns the partial states.
+     * <p></p>
+     * The values of a {@link PivotDataset.MeasureColumn#isPrimitive() primitive} column are gathered into blocks and
+     * passed to the block methods of the accumulators, see {@link BatchKernels}; other columns are accumulated row by row.
+     */
+    @NotNull
+    static <T> Accumulator[] accumulate(@NotNull List<Aggregate<T>> aggregates,
+                                        @NotNull List<PivotDataset.MeasureColumn> columns,
+                                        @NotNull int[] rows, int from, int to) {
+        final int count = aggregates.size();
+        final Accumulator[] accumulators = new Accumulator[count];
+        final PivotDataset.MeasureColumn[] columnArray = columns.toArray(new PivotDataset.MeasureColumn[0]);
+        // custom functions get the values boxed into the original wrapper types, as if read from the beans
+        final boolean[] primitive = new boolean[count];
+        final boolean[] batched = new boolean[count];
+        boolean rowByRow = false;
+        for (int i = 0; i < count; i++) {
+            final AggregateFunction function = aggregates.get(i).function;
+            accumulators[i] = aggregates.get(i).createAccumulator(columnArray[i].type);
+            primitive[i] = function instanceof AggregateFunctionEnum;
+            batched[i] = primitive[i] && columnArray[i].isPrimitive() && to - from >= BatchKernels.MIN_BATCH;
+            rowByRow |= !batched[i];
+        }
+        long[] longBlock = null;
+        double[] doubleBlock = null;
+        for (int i = 0; i < count; i++) {
+            if (!batched[i]) {
+                continue;
+            }
+            final PivotDataset.MeasureColumn column = columnArray[i];
+            for (int start = from; start < to; start += BatchKernels.BLOCK) {
+                final int length = Math.min(BatchKernels.BLOCK, to - start);
+                if (column.longs != null) {
+                    if (longBlock == null) {
+                        longBlock = new long[Math.min(BatchKernels.BLOCK, to - from)];
+                    }
+                    BatchKernels.gather(column.longs, rows, start, length, longBlock);
+                    accumulators[i].accumulate(longBlock, length);
+                } else {
+                    if (doubleBlock == null) {
+                        doubleBlock = new double[Math.min(BatchKernels.BLOCK, to - from)];
+                    }
+                    BatchKernels.gather(column.doubles, rows, start, length, doubleBlock);
+                    accumulators[i].accumulate(doubleBlock, length);
+                }
+            }
+        }
+        if (!rowByRow) {
+            return accumulators;
+        }
+        for (int r = from; r < to; r++) {
+            final int row = rows[r];
+            for (int i = 0; i < count; i++) {
+                if (batched[i]) {
+                    continue;
+                }
+                if (primitive[i]) {
+                    columnArray[i].accumulate(row, accumulators[i]);
+                } else {
+                    accumulators[i].accumulate(columnArray[i].getValue(row));
+                }
+            }
+        }
+        return accumulators;
+    }
+
+    @NotNull
+    static Number[] finish(@NotNull Accumulator[] accumulators) {
+        final Number[] result = new Number[accumulators.length];
+        for (int i = 0; i < accumulators.length; i++) {
+            result[i] = accumulators[i].finish();
+        }
+        return result;
+    }
+
     @NotNull
     public String getCaption() {
         return property.caption + " (" + function.getCaption() + ")";
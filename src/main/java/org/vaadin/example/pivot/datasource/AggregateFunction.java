@@ -11,6 +11,8 @@ import java.util.stream.Stream;
  * <p></p>
  * Usually the function can only take in Numbers; however certain functions can
  * take any objects (e.g. {@link AggregateFunctionEnum#COUNT}).
+ * <p></p>
+ * Besides {@link #compute(Stream)}, the value can be computed incrementally via an {@link #createAccumulator() accumulator}.
  * @author Martin Vysny <mavi@vaadin.com>
  */
 public interface AggregateFunction {
@@ -58,4 +60,19 @@ public interface AggregateFunction {
      */
     @NotNull
     Number computeOverAggregatedValues(@NotNull List<?> values);
+
+    /**
+     * Creates an empty state of this function; the values are then added one by one via
+     * {@link Accumulator#accumulate(Object)} and the outcome is obtained via {@link Accumulator#finish()}.
+     * Unlike {@link #computeOverAggregatedValues(List)}, partial states can always be merged, see {@link Accumulator#merge(Accumulator)}.
+     * <p></p>
+     * By default the accumulator collects all values and calls {@link #compute(Stream)} on them; functions which
+     * can be computed from a smaller state should override this.
+     *
+     * @return a new accumulator, not null.
+     */
+    @NotNull
+    default Accumulator createAccumulator() {
+        return new Accumulators.Buffering(this);
+    }
 }
@@ -29,6 +29,12 @@ public enum AggregateFunctionEnum implements AggregateFunction {
         public Number computeOverAggregatedValues(@NotNull List<?> values) {
             throw new UnsupportedOperationException();
         }
+
+        @NotNull
+        @Override
+        public Accumulator createAccumulator() {
+            return new Accumulators.Sum(true);
+        }
     },
     SUM("Sum") {
         @Override
@@ -47,6 +53,12 @@ public enum AggregateFunctionEnum implements AggregateFunction {
         public Number computeOverAggregatedValues(@NotNull List<?> values) {
             return compute(values.stream());
         }
+
+        @NotNull
+        @Override
+        public Accumulator createAccumulator() {
+            return new Accumulators.Sum(false);
+        }
     },
     COUNT("Count") {
         @Override
@@ -65,6 +77,12 @@ public enum AggregateFunctionEnum implements AggregateFunction {
         public Number computeOverAggregatedValues(@NotNull List<?> values) {
             return SUM.compute(values.stream());
         }
+
+        @NotNull
+        @Override
+        public Accumulator createAccumulator() {
+            return new Accumulators.Count();
+        }
     },
     MIN("Min") {
         @SuppressWarnings({"unchecked", "rawtypes", "OptionalGetWithoutIsPresent"})
@@ -84,6 +102,12 @@ public enum AggregateFunctionEnum implements AggregateFunction {
         public Number computeOverAggregatedValues(@NotNull List<?> values) {
             return compute(values.stream());
         }
+
+        @NotNull
+        @Override
+        public Accumulator createAccumulator() {
+            return new Accumulators.MinMax(1, null);
+        }
     },
 
     MAX("Max") {
@@ -104,6 +128,12 @@ public enum AggregateFunctionEnum implements AggregateFunction {
         public Number computeOverAggregatedValues(@NotNull List<?> values) {
             return compute(values.stream());
         }
+
+        @NotNull
+        @Override
+        public Accumulator createAccumulator() {
+            return new Accumulators.MinMax(-1, null);
+        }
     },
 
     MEDIAN("Median") {
@@ -124,6 +154,12 @@ public enum AggregateFunctionEnum implements AggregateFunction {
         public Number computeOverAggregatedValues(@NotNull List<?> values) {
             throw new UnsupportedOperationException();
         }
+
+        @NotNull
+        @Override
+        public Accumulator createAccumulator() {
+            return new Accumulators.Median();
+        }
     };
 
     @NotNull
@@ -0,0 +1,112 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Aggregation kernels over blocks of primitive values. A group of a {@link PivotDataset} is aggregated by gathering
+ * the values of its rows (the selection vector of the group, see {@link Groups}) into a block of at most {@link #BLOCK}
+ * values, then reducing the block with a tight loop over a primitive array: no boxing, no virtual call per value,
+ * and loops simple enough for the JIT to unroll and vectorize.
+ * <p></p>
+ * The kernels are used by the block methods of the standard accumulators, see {@link Accumulator#accumulate(long[], int)}.
+ */
+final class BatchKernels {
+    /**
+     * The maximum number of values per block: big enough to amortize the per-block overhead, small enough to stay in the L1 cache.
+     */
+    static final int BLOCK = 1024;
+    /**
+     * Groups with fewer rows are accumulated value by value: gathering would not pay off.
+     */
+    static final int MIN_BATCH = 16;
+
+    private BatchKernels() {
+    }
+
+    /**
+     * Copies <code>column[rows[from]]</code>..<code>column[rows[from + count - 1]]</code> into the block.
+     */
+    static void gather(@NotNull long[] column, @NotNull int[] rows, int from, int count, @NotNull long[] block) {
+        for (int i = 0; i < count; i++) {
+            block[i] = column[rows[from + i]];
+        }
+    }
+
+    /**
+     * Copies <code>column[rows[from]]</code>..<code>column[rows[from + count - 1]]</code> into the block.
+     */
+    static void gather(@NotNull double[] column, @NotNull int[] rows, int from, int count, @NotNull double[] block) {
+        for (int i = 0; i < count; i++) {
+            block[i] = column[rows[from + i]];
+        }
+    }
+
+    /**
+     * @return the sum of the first <code>count</code> values; may overflow, see {@link #maxAbs(long[], int)}.
+     */
+    static long sum(@NotNull long[] values, int count) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return the largest absolute value among the first <code>count</code> values, as a double to avoid the overflow
+     * of <code>Math.abs(Long.MIN_VALUE)</code>.
+     */
+    static double maxAbs(@NotNull long[] values, int count) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        return Math.max(Math.abs((double) min), Math.abs((double) max));
+    }
+
+    /**
+     * @return the minimum of the first <code>count</code> values, <code>Long.MAX_VALUE</code> if there are none.
+     */
+    static long min(@NotNull long[] values, int count) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    /**
+     * @return the maximum of the first <code>count</code> values, <code>Long.MIN_VALUE</code> if there are none.
+     */
+    static long max(@NotNull long[] values, int count) {
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    /**
+     * @return the minimum of the first <code>count</code> values, <code>+Infinity</code> if there are none; NaN if any value is NaN.
+     */
+    static double min(@NotNull double[] values, int count) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    /**
+     * @return the maximum of the first <code>count</code> values, <code>-Infinity</code> if there are none; NaN if any value is NaN.
+     */
+    static double max(@NotNull double[] values, int count) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+}
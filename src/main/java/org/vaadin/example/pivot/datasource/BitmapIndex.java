@@ -0,0 +1,201 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A bitmap index on a {@link PivotDataset.GroupColumn}: for every dictionary code, the set of rows having that code.
+ * A set-membership filter on the column is then the union of the bitmaps of the allowed codes; filters on several
+ * columns intersect their unions, see {@link #select(List, List, int)}.
+ * <p></p>
+ * Each bitmap is compressed by its density: a frequent value (e.g. a team) is stored as a bitset, one bit per row,
+ * while a rare value is stored as the sorted array of its rows, which is smaller than a bitset when fewer than
+ * one in 32 rows have the value.
+ * <p></p>
+ * Immutable, therefore shared by all sessions using the same {@link PivotDataset}; built lazily,
+ * see {@link PivotDataset.GroupColumn#getBitmapIndex()}.
+ */
+final class BitmapIndex implements Serializable {
+    private final int rowCount;
+    /**
+     * For every code, the bitset of its rows; null for codes stored in {@link #sparseRows}.
+     */
+    @NotNull
+    private final long[][] bitsets;
+    /**
+     * For every code, the ascending rows; null for codes stored in {@link #bitsets}.
+     */
+    @NotNull
+    private final int[][] sparseRows;
+    /**
+     * The number of rows of every code.
+     */
+    @NotNull
+    private final int[] counts;
+
+    private BitmapIndex(int rowCount, @NotNull long[][] bitsets, @NotNull int[][] sparseRows, @NotNull int[] counts) {
+        this.rowCount = rowCount;
+        this.bitsets = bitsets;
+        this.sparseRows = sparseRows;
+        this.counts = counts;
+    }
+
+    @NotNull
+    static BitmapIndex build(@NotNull PivotDataset.GroupColumn column) {
+        final int[] codes = column.codes;
+        final int cardinality = column.getCardinality();
+        final int[] counts = new int[cardinality];
+        for (int code : codes) {
+            counts[code]++;
+        }
+        final long[][] bitsets = new long[cardinality][];
+        final int[][] sparseRows = new int[cardinality][];
+        for (int code = 0; code < cardinality; code++) {
+            if ((long) counts[code] * Integer.SIZE < codes.length) {
+                sparseRows[code] = new int[counts[code]];
+            } else {
+                bitsets[code] = new long[words(codes.length)];
+            }
+        }
+        final int[] filled = new int[cardinality];
+        for (int row = 0; row < codes.length; row++) {
+            final int code = codes[row];
+            if (bitsets[code] != null) {
+                bitsets[code][row >>> 6] |= 1L << row;
+            } else {
+                sparseRows[code][filled[code]++] = row;
+            }
+        }
+        return new BitmapIndex(codes.length, bitsets, sparseRows, counts);
+    }
+
+    private static int words(int rowCount) {
+        return (rowCount + Long.SIZE - 1) >>> 6;
+    }
+
+    /**
+     * @return the number of rows having any of the allowed codes.
+     */
+    int count(@NotNull boolean[] allowedCodes) {
+        int count = 0;
+        for (int code = 0; code < allowedCodes.length; code++) {
+            if (allowedCodes[code]) {
+                count += counts[code];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Computes the union of the bitmaps of the allowed codes.
+     *
+     * @param allowedCodes indexed by code.
+     * @param into         if not null, the union is intersected with this bitset in place.
+     * @return the bitset of the rows having any of the allowed codes, intersected with <code>into</code>.
+     */
+    @NotNull
+    long[] union(@NotNull boolean[] allowedCodes, @Nullable long[] into) {
+        final long[] union = new long[words(rowCount)];
+        for (int code = 0; code < allowedCodes.length; code++) {
+            if (!allowedCodes[code]) {
+                continue;
+            }
+            if (bitsets[code] != null) {
+                final long[] bitset = bitsets[code];
+                for (int i = 0; i < union.length; i++) {
+                    union[i] |= bitset[i];
+                }
+            } else {
+                for (int row : sparseRows[code]) {
+                    union[row >>> 6] |= 1L << row;
+                }
+            }
+        }
+        if (into != null) {
+            for (int i = 0; i < into.length; i++) {
+                into[i] &= union[i];
+            }
+            return into;
+        }
+        return union;
+    }
+
+    /**
+     * Evaluates set-membership filters on several columns: the union within each column, the intersection across the
+     * columns. The most selective filter goes first.
+     *
+     * @param indexes      the indexes of the filtered columns.
+     * @param allowedCodes for every index, the allowed codes.
+     * @param rowCount     the number of rows.
+     * @return the rows passing all filters, in ascending order.
+     */
+    @NotNull
+    static int[] select(@NotNull List<BitmapIndex> indexes, @NotNull List<boolean[]> allowedCodes, int rowCount) {
+        final List<Integer> order = new ArrayList<>(indexes.size());
+        final int[] counts = new int[indexes.size()];
+        for (int i = 0; i < indexes.size(); i++) {
+            order.add(i);
+            counts[i] = indexes.get(i).count(allowedCodes.get(i));
+        }
+        order.sort(Comparator.comparingInt(i -> counts[i]));
+        if (order.isEmpty()) {
+            final int[] all = new int[rowCount];
+            Arrays.setAll(all, row -> row);
+            return all;
+        }
+        if (counts[order.get(0)] == 0) {
+            return new int[0];
+        }
+        long[] selected = null;
+        for (int i : order) {
+            selected = indexes.get(i).union(allowedCodes.get(i), selected);
+        }
+        return toRows(selected);
+    }
+
+    @NotNull
+    private static int[] toRows(@NotNull long[] bitset) {
+        int count = 0;
+        for (long word : bitset) {
+            count += Long.bitCount(word);
+        }
+        final int[] rows = new int[count];
+        int next = 0;
+        for (int i = 0; i < bitset.length; i++) {
+            long word = bitset[i];
+            while (word != 0) {
+                rows[next++] = (i << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return the approximate size of this index in bytes.
+     */
+    long getSizeInBytes() {
+        long size = 16 + 4L * counts.length;
+        for (int code = 0; code < counts.length; code++) {
+            size += bitsets[code] != null ? 8L * bitsets[code].length : 4L * sparseRows[code].length;
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        int dense = 0;
+        for (long[] bitset : bitsets) {
+            if (bitset != null) {
+                dense++;
+            }
+        }
+        return "BitmapIndex{rows=" + rowCount + ", values=" + counts.length + ", bitsets=" + dense + ", bytes=" + getSizeInBytes() + '}';
+    }
+}
@@ -0,0 +1,115 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels a pivot computation which is no longer needed, e.g. because the user has changed the configuration
+ * in the meantime; see {@link PivotOptions#withCancellation(CancellationToken)}. The computation checks the token
+ * every {@link #CHECK_INTERVAL} rows (or groups) and aborts with {@link PivotCancelledException} once the token is
+ * {@link #cancel() cancelled} or its deadline has passed. Nothing the computation has allocated so far is retained.
+ * <p></p>
+ * Thread-safe: the token is usually cancelled by another thread than the one computing.
+ */
+public final class CancellationToken {
+    /**
+     * Never cancelled; can't be {@link #cancel() cancelled}.
+     */
+    @NotNull
+    public static final CancellationToken NONE = new CancellationToken(Long.MAX_VALUE);
+
+    /**
+     * The loops of the computation check the token once every this many rows or groups. A power of two.
+     */
+    static final int CHECK_INTERVAL = 4096;
+
+    /**
+     * The {@link System#nanoTime()} after which the token counts as cancelled; {@link Long#MAX_VALUE} for no deadline.
+     */
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a token without deadline, cancelled only via {@link #cancel()}.
+     */
+    public CancellationToken() {
+        this(Long.MAX_VALUE);
+    }
+
+    private CancellationToken(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Creates a token which cancels itself after given time, measured from now. It can also be {@link #cancel() cancelled}
+     * earlier.
+     *
+     * @param timeout the time the computation may take, greater than 0.
+     */
+    @NotNull
+    public static CancellationToken withTimeout(long timeout, @NotNull TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Parameter timeout: invalid value " + timeout + ": must be greater than 0");
+        }
+        final long nanos = unit.toNanos(timeout);
+        final long now = System.nanoTime();
+        // saturates instead of overflowing, e.g. for Long.MAX_VALUE days
+        return new CancellationToken(nanos >= Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos);
+    }
+
+    /**
+     * Cancels the computations using this token. They abort at their next check.
+     *
+     * @throws IllegalStateException if this is {@link #NONE}.
+     */
+    public void cancel() {
+        if (this == NONE) {
+            throw new IllegalStateException("CancellationToken.NONE can't be cancelled");
+        }
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the token has been {@link #cancel() cancelled} or its deadline has passed.
+     */
+    public boolean isCancelled() {
+        return cancelled || isTimedOut();
+    }
+
+    private boolean isTimedOut() {
+        return deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @throws PivotCancelledException if the token is {@link #isCancelled() cancelled}.
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new PivotCancelledException("The pivot computation has been cancelled", false);
+        }
+        if (isTimedOut()) {
+            throw new PivotCancelledException("The pivot computation has exceeded its deadline", true);
+        }
+    }
+
+    /**
+     * Checks the token in a loop: once every {@link #CHECK_INTERVAL} iterations.
+     *
+     * @param index the index of the iteration, e.g. the row.
+     * @throws PivotCancelledException if the token is checked and is {@link #isCancelled() cancelled}.
+     */
+    void checkEvery(long index) {
+        if ((index & (CHECK_INTERVAL - 1)) == 0) {
+            throwIfCancelled();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CancellationToken{" +
+                "cancelled=" + cancelled +
+                ", deadline=" + (deadline == Long.MAX_VALUE ? "none" : (deadline - System.nanoTime()) / 1_000_000 + "ms from now") +
+                '}';
+    }
+}
@@ -2,6 +2,8 @@ package org.vaadin.example.pivot.datasource;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.stream.Collectors;
@@ -18,6 +20,13 @@ import java.util.stream.Collectors;
  * @author Martin Vysny <mavi@vaadin.com>
  */
 public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ColumnGroupingPivotDataSource.class);
+
+    /**
+     * A result with at least this many columns is logged as a warning, before the rows are collapsed.
+     */
+    public static final int LARGE_RESULT_COLUMNS = 1_000;
+
     @NotNull
     private final PivotDataSource<T> delegate;
     @Nullable
@@ -67,12 +76,22 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
         return grandTotalColumnCaption != null;
     }
 
-    @Nullable
-    private static <T> List<T> flattenBeans(@NotNull List<Row<T>> rows) {
-        if (rows.stream().anyMatch(it -> it.sourceBeans == null)) {
-            return null;
+    /**
+     * Creates a row out of the horizontally grouped rows. If all rows know the {@link Row#getMembers() ordinals} of their beans,
+     * the new row gets the union of the ordinals; otherwise the source beans are concatenated.
+     */
+    @NotNull
+    private static <T> Row<T> collapse(@NotNull Map<String, Object> values, @NotNull List<Row<T>> rows,
+                                       @Nullable Map<String, Accumulator> states, @NotNull List<T> items) {
+        if (rows.stream().allMatch(it -> it.getMembers() != null)) {
+            final List<RowSet> members = rows.stream().map(Row::getMembers).collect(Collectors.toList());
+            return new Row<>(values, items, RowSet.union(members), states);
+        }
+        if (rows.stream().anyMatch(it -> !it.hasSourceBeans())) {
+            return new Row<>(values, null, states);
         }
-        return rows.stream().flatMap(it -> it.sourceBeans.stream()).collect(Collectors.toList());
+        final List<T> beans = rows.stream().flatMap(it -> it.getSourceBeans().stream()).collect(Collectors.toList());
+        return new Row<>(values, beans, states);
     }
 
     @NotNull
@@ -83,10 +102,30 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
             @NotNull Set<String> grandTotalIDs,
             @NotNull List<T> items,
             @NotNull PivotFilter filters
+    ) {
+        return computePivotRows(groupBy, aggregates, grandTotalIDs, items, filters, PivotOptions.NONE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p></p>
+     * Without column grouping, the options are passed on to the {@link #delegate}. Otherwise the delegate only gets
+     * the {@link PivotOptions#getCancellation() cancellation token}, which is also checked while collapsing the rows
+     * and computing the grand totals; the limit is applied to the collapsed rows.
+     */
+    @NotNull
+    @Override
+    public PivotResult<T> computePivotRows(
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull LinkedHashSet<Aggregate<T>> aggregates,
+            @NotNull Set<String> grandTotalIDs,
+            @NotNull List<T> items,
+            @NotNull PivotFilter filters,
+            @NotNull PivotOptions options
     ) {
         final List<GroupBy<T>> columnGrouping = groupBy.stream().filter(it -> it.columnGrouping).collect(Collectors.toList());
         if (columnGrouping.isEmpty()) {
-            return delegate.computePivotRows(groupBy, aggregates, grandTotalIDs, items, filters);
+            return delegate.computePivotRows(groupBy, aggregates, grandTotalIDs, items, filters, options);
         }
         if (columnGrouping.size() > 1) {
             throw new IllegalArgumentException("Parameter groupBy: invalid value " + groupBy + ": at most 1 column grouping is supported but got " + columnGrouping);
@@ -107,25 +146,46 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
             }
         }
 
-        final PivotResult<T> result = delegate.computePivotRows(groupBy, aggregates, new LinkedHashSet<>(), items, tmpFilter);
+        final CancellationToken cancellation = options.getCancellation();
+        final PivotResult<T> result = delegate.computePivotRows(groupBy, aggregates, new LinkedHashSet<>(), items, tmpFilter,
+                options.onlyCancellation());
+        // the delegate may create its rows on demand; every row is visited several times below
+        final List<Row<T>> delegateRows = new ArrayList<>(result.rows);
         groupBy.remove(topGroup);
 
+        // figure out the unique values of the columnGroupIds grouping column, so that we can create columns out of that.
+        final List<Object> topGroupValuesSorted = delegateRows.stream()
+                .map(it -> it.get(topGroupId))
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+        final int columnCount = groupBy.size() + (topGroupValuesSorted.size() + (hasGrandTotalColumn() ? 1 : 0)) * aggregates.size();
+        if (columnCount >= LARGE_RESULT_COLUMNS) {
+            LOGGER.warn("Grouping by {} produces {} columns out of {} values of {}", groupBy, columnCount, topGroupValuesSorted.size(), topGroup);
+        }
+
         final Map<String, Aggregate<T>> aggregateMap = new HashMap<>();
         for (Aggregate<T> aggregate : aggregates) {
             aggregateMap.put(aggregate.id, aggregate);
         }
 
+        // if the delegate provides the partial states of the aggregates, the grand totals are merged out of those.
+        final boolean hasStates = delegateRows.stream()
+                .allMatch(row -> aggregates.stream().allMatch(aggregate -> row.getAccumulator(aggregate.id) != null));
+
         // group by all but the topGroupId; we'll create a column grouping out of that later on.
         final List<String> groupByIds = groupBy.stream().map(it -> it.id).collect(Collectors.toList());
-        final Map<Object, List<Row<T>>> rows = result.rows.stream().collect(Collectors.groupingBy(it -> computeGroupingKey(it, groupByIds)));
+        final Map<Object, List<Row<T>>> rows = delegateRows.stream().collect(Collectors.groupingBy(it -> computeGroupingKey(it, groupByIds)));
 
         // collapse list of rows into a single row, populating columns properly.
         final List<Row<T>> newRows = new ArrayList<>();
+        int collapsed = 0;
         buildFinalRows: for (List<Row<T>> uncollapsed : rows.values()) {
+            cancellation.checkEvery(collapsed++);
             // the "collapsed" row holding horizontally grouped values.
             final Map<String, Object> newRow = new HashMap<>();
-            // maps foldId to the list of values in the horizontally grouped row, so that we can compute grand totals.
-            final Map<String, List<T>> grandTotalsColumn = hasGrandTotalColumn() ? new HashMap<>() : null;
+            // the partial states of the values in the collapsed row, keyed by column ID.
+            final Map<String, Accumulator> newStates = hasStates ? new HashMap<>() : null;
 
             // these values are the same for all rows present in the 'uncollapsed'
             for (String groupById : groupByIds) {
@@ -139,28 +199,34 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
                     final Object value = ungroupedRow.get(aggregateId);
                     newRow.put(getId(columnGroupValue, aggregateId), value);
 
-                    if (hasGrandTotalColumn()) {
-                        // get the Grand Total data
-                        // we need the unprocessed data to aggregate the data not each result (it will work for the sum but not for the count)
-                        List<T> sourceBeans = ungroupedRow.getSourceBeans();
-                        List<T> allSourceBeans = grandTotalsColumn.getOrDefault(aggregateId, new ArrayList<>());
-                        allSourceBeans.addAll(sourceBeans);
-                        grandTotalsColumn.put(aggregateId, allSourceBeans);
+                    if (newStates != null) {
+                        final Accumulator state = ungroupedRow.getAccumulator(aggregateId);
+                        newStates.put(getId(columnGroupValue, aggregateId), state);
+                        if (hasGrandTotalColumn()) {
+                            newStates.computeIfAbsent(grandTotalColumnCaption + "-" + aggregateId, id -> aggregate.function.createAccumulator())
+                                    .merge(state);
+                        }
                     }
                 }
             }
 
-            if (grandTotalsColumn != null) {
-                for (Map.Entry<String, List<T>> entry : grandTotalsColumn.entrySet()) {
-                    final Aggregate<T> grandTotalAggregate = aggregateMap.get(entry.getKey());
-                    if (grandTotalAggregate != null) {
-                        final Number grandTotal = grandTotalAggregate.computeAggregatedValue(entry.getValue());
-                        newRow.put(grandTotalColumnCaption + "-" + entry.getKey(), grandTotal);
+            if (newStates != null && hasGrandTotalColumn()) {
+                for (Aggregate<T> aggregate : aggregates) {
+                    final String grandTotalId = grandTotalColumnCaption + "-" + aggregate.id;
+                    final Accumulator state = newStates.get(grandTotalId);
+                    if (state != null) {
+                        newRow.put(grandTotalId, state.finish());
                     }
                 }
             }
-
-            Row<T> finalNewRow = new Row<>(newRow, flattenBeans(uncollapsed));
+            Row<T> finalNewRow = collapse(newRow, uncollapsed, newStates, items);
+            if (newStates == null && hasGrandTotalColumn() && finalNewRow.hasSourceBeans()) {
+                // no states: we need the unprocessed data to aggregate the data not each result (it will work for the sum but not for the count)
+                final List<T> beans = finalNewRow.getSourceBeans();
+                for (Aggregate<T> aggregate : aggregates) {
+                    newRow.put(grandTotalColumnCaption + "-" + aggregate.id, aggregate.computeAggregatedValue(beans));
+                }
+            }
             Map<String, Set<Object>> values = filters.getFilterValues();
 
             for (Map.Entry<String, Set<Object>> entry : values.entrySet()) {
@@ -174,12 +240,6 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
             newRows.add(finalNewRow);
         }
 
-        // figure out the unique values of the columnGroupIds grouping column, so that we can create columns out of that.
-        final List<Object> topGroupValuesSorted = result.rows.stream()
-                .map(it -> it.get(topGroupId))
-                .distinct()
-                .sorted()
-                .collect(Collectors.toList());
         // create the columns
         final List<PivotColumn<T>> columns = new ArrayList<>();
         for (GroupBy<T> clause : groupBy) {
@@ -206,15 +266,17 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
         final HashMap<String, Object> grandTotalValues;
         // if this is true, we don't have to use computeOverAggregatedValues() (which is not supported for all functions)
         // but instead we can calculate the sum over the list of beans.
-        final boolean hasBeans = newRows.stream().allMatch(it -> it.sourceBeans != null);
-        if (hasBeans) {
-            grandTotalValues = computeGrandTotalsInMemory(newRows, topGroup, grandTotalIDs, aggregateMap, topGroupValuesSorted);
+        final boolean hasBeans = newRows.stream().allMatch(Row::hasSourceBeans);
+        if (hasStates) {
+            grandTotalValues = computeGrandTotalsFromStates(newRows, grandTotalIDs, aggregateMap, topGroupValuesSorted, cancellation);
+        } else if (hasBeans) {
+            grandTotalValues = computeGrandTotalsInMemory(newRows, topGroup, grandTotalIDs, aggregateMap, topGroupValuesSorted, cancellation);
         } else {
-            grandTotalValues = computeGrandTotals(grandTotalIDs, aggregateMap, newRows, topGroupValuesSorted);
+            grandTotalValues = computeGrandTotals(grandTotalIDs, aggregateMap, newRows, topGroupValuesSorted, cancellation);
         }
 
         // create the result object
-        return new PivotResult<>(newRows, columns, grandTotalValues);
+        return TopN.apply(new PivotResult<>(newRows, columns, grandTotalValues), options);
     }
 
     /**
@@ -225,13 +287,16 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
             @NotNull Set<String> grandTotalIDs,
             @NotNull Map<String, Aggregate<T>> aggregateMap,
             @NotNull List<Row<T>> newRows,
-            @NotNull List<Object> topGroupValuesSorted
+            @NotNull List<Object> topGroupValuesSorted,
+            @NotNull CancellationToken cancellation
     ) {
         final HashMap<String, Object> grandTotalValues = new HashMap<>();
         // fall back and use computeOverAggregatedValues()
         for (String grandTotalID : grandTotalIDs) {
             Aggregate<T> grandTotal = aggregateMap.get(grandTotalID);
             for (Object columnGroupValue : topGroupValuesSorted) {
+                // every column scans all rows
+                cancellation.throwIfCancelled();
                 final String columnId = getId(columnGroupValue, grandTotal.id);
                 final List<Object> aggregatedValues = newRows.stream()
                         .map(it -> it.get(columnId))
@@ -246,6 +311,32 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
         return grandTotalValues;
     }
 
+    /**
+     * Computes footer grand totals by merging the partial states of the horizontally grouped values.
+     */
+    @NotNull
+    private HashMap<String, Object> computeGrandTotalsFromStates(
+            @NotNull List<Row<T>> newRows,
+            @NotNull Set<String> grandTotalIDs,
+            @NotNull Map<String, Aggregate<T>> aggregateMap,
+            @NotNull List<Object> topGroupValuesSorted,
+            @NotNull CancellationToken cancellation
+    ) {
+        final HashMap<String, Object> grandTotalValues = new HashMap<>();
+        for (Object columnGroupValue : topGroupValuesSorted) {
+            for (String grandTotalID : grandTotalIDs) {
+                cancellation.throwIfCancelled();
+                final Aggregate<T> grandTotal = aggregateMap.get(grandTotalID);
+                final String columnId = getId(columnGroupValue, grandTotal.id);
+                final Number aggregatedValue = grandTotal.mergeAggregatedValues(newRows, columnId);
+                if (aggregatedValue != null) {
+                    grandTotalValues.put(columnId, aggregatedValue);
+                }
+            }
+        }
+        return grandTotalValues;
+    }
+
     /**
      * Computes footer grand totals from the in-memory list of beans.
      */
@@ -255,12 +346,14 @@ public class ColumnGroupingPivotDataSource<T> implements PivotDataSource<T> {
             @NotNull GroupBy<T> topGroup,
             @NotNull Set<String> grandTotalIDs,
             @NotNull Map<String, Aggregate<T>> aggregateMap,
-            @NotNull List<Object> topGroupValuesSorted
+            @NotNull List<Object> topGroupValuesSorted,
+            @NotNull CancellationToken cancellation
     ) {
         final HashMap<String, Object> grandTotalValues = new HashMap<>();
         for (Object columnGroupValue : topGroupValuesSorted) {
+            cancellation.throwIfCancelled();
             final List<T> beans = oldRows.stream()
-                    .flatMap(it -> it.sourceBeans.stream())
+                    .flatMap(it -> it.getSourceBeans().stream())
                     .filter(it -> columnGroupValue.equals(topGroup.getValue(it)))
                     .collect(Collectors.toList());
             if (!beans.isEmpty()) {
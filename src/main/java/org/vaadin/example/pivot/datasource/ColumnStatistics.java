@@ -0,0 +1,102 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * Statistics of a column of a {@link PivotDataset}, reported by {@link InMemoryPivot#explain explain}.
+ * Immutable.
+ */
+public final class ColumnStatistics implements Serializable {
+    private final int rowCount;
+    private final int distinctCount;
+    private final int nullCount;
+    @Nullable
+    private final Object min;
+    @Nullable
+    private final Object max;
+
+    ColumnStatistics(int rowCount, int distinctCount, int nullCount, @Nullable Object min, @Nullable Object max) {
+        this.rowCount = rowCount;
+        this.distinctCount = distinctCount;
+        this.nullCount = nullCount;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Computes the statistics of given dictionary-encoded column: the dictionary is sorted with <code>null</code> last,
+     * therefore only the nulls need to be counted.
+     */
+    @NotNull
+    static ColumnStatistics of(@NotNull PivotDataset.GroupColumn column) {
+        final int cardinality = column.getCardinality();
+        final boolean hasNull = cardinality > 0 && column.getValue(cardinality - 1) == null;
+        int nullCount = 0;
+        if (hasNull) {
+            final int nullCode = cardinality - 1;
+            for (int code : column.codes) {
+                if (code == nullCode) {
+                    nullCount++;
+                }
+            }
+        }
+        final int nonNulls = hasNull ? cardinality - 1 : cardinality;
+        return new ColumnStatistics(column.codes.length, cardinality, nullCount,
+                nonNulls == 0 ? null : column.getValue(0), nonNulls == 0 ? null : column.getValue(nonNulls - 1));
+    }
+
+    /**
+     * @return the number of rows.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of distinct values, including <code>null</code>.
+     */
+    public int getDistinctCount() {
+        return distinctCount;
+    }
+
+    /**
+     * @return the number of rows with the <code>null</code> value.
+     */
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * @return the ratio of rows with the <code>null</code> value, 0..1.
+     */
+    public double getNullRatio() {
+        return rowCount == 0 ? 0 : (double) nullCount / rowCount;
+    }
+
+    /**
+     * @return the smallest non-null value, see {@link PivotDataset#DICTIONARY_ORDER}; null if there are none.
+     */
+    @Nullable
+    public Object getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest non-null value, see {@link PivotDataset#DICTIONARY_ORDER}; null if there are none.
+     */
+    @Nullable
+    public Object getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "distinct=" + distinctCount +
+                ", nulls=" + String.format(Locale.ROOT, "%.1f%%", getNullRatio() * 100) +
+                ", range=[" + min + ".." + max + ']';
+    }
+}
@@ -0,0 +1,686 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of a list of beans, memory-mapped when loaded: parsing the source (e.g. a CSV file) is paid once,
+ * later loads just map the snapshot. The beans are decoded out of fixed-width columns on first access, while the
+ * {@link PivotDataset} of the loaded beans takes the columns bound to a {@link Column#property property} straight from
+ * the mapped pages: the dictionary pages and the codes become {@link PivotDataset.GroupColumn}s, the numeric columns
+ * {@link PivotDataset.MeasureColumn}s.
+ * <p></p>
+ * The format is a header, the dictionary pages and the columns:
+ * <ul>
+ *     <li>the header: a magic number, the {@link #FORMAT_VERSION}, the fingerprint of the source, the number of rows and
+ *     the schema, i.e. the name and the {@link Type} of every column;</li>
+ *     <li>a dictionary page for every {@link Type#STRING} column: the distinct values, sorted like the dictionary of a
+ *     {@link PivotDataset.GroupColumn}, <code>null</code> last;</li>
+ *     <li>the columns, each aligned to 8 bytes: the dictionary codes of a string column as <code>int</code>s, the values
+ *     of a numeric column in the width of their type.</li>
+ * </ul>
+ * A snapshot written from a different source (a different fingerprint), by a different format version or with a different
+ * schema is never used, see {@link #open(Path, long, List)}: {@link #load(URL, Path, List, RowMapper, Parser)} parses the
+ * source again and overwrites the snapshot. Since a single mapping is used, a snapshot is limited to 2 GB.
+ * <p></p>
+ * Immutable, thread-safe.
+ */
+public final class DatasetSnapshot {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatasetSnapshot.class);
+
+    /**
+     * The version of the format; snapshots of any other version are ignored.
+     */
+    public static final int FORMAT_VERSION = 1;
+    /**
+     * "PVTS".
+     */
+    private static final int MAGIC = 0x50565453;
+
+    /**
+     * The type of the values of a column.
+     */
+    public enum Type {
+        /**
+         * Dictionary-encoded strings, <code>null</code> allowed.
+         */
+        STRING(Integer.BYTES),
+        INT(Integer.BYTES),
+        LONG(Long.BYTES),
+        FLOAT(Float.BYTES),
+        DOUBLE(Double.BYTES);
+
+        /**
+         * The number of bytes per row.
+         */
+        final int width;
+
+        Type(int width) {
+            this.width = width;
+        }
+    }
+
+    /**
+     * A column of the snapshot: the name and the type identify the column in the schema, the getter extracts the
+     * value of a bean when writing the snapshot. Values of numeric columns must not be <code>null</code>.
+     *
+     * @param <T> the bean type.
+     */
+    public static final class Column<T> {
+        @NotNull
+        public final String name;
+        @NotNull
+        public final Type type;
+        @NotNull
+        private final Function<T, ?> getter;
+        /**
+         * The property whose values this column holds; the {@link PivotDataset} of the loaded beans reads its column
+         * out of the snapshot. Null if not bound to a property.
+         */
+        @Nullable
+        public final PivotProperty<T> property;
+
+        public Column(@NotNull String name, @NotNull Type type, @NotNull Function<T, ?> getter) {
+            this.name = Objects.requireNonNull(name);
+            this.type = Objects.requireNonNull(type);
+            this.getter = Objects.requireNonNull(getter);
+            this.property = null;
+        }
+
+        /**
+         * Creates a column holding the values of given property. The property must produce the wrapper type of the
+         * column type, e.g. an {@link Integer} for {@link Type#INT}; a {@link Type#STRING} column needs a property
+         * producing strings.
+         */
+        public Column(@NotNull String name, @NotNull Type type, @NotNull PivotProperty<T> property) {
+            this.name = Objects.requireNonNull(name);
+            this.type = Objects.requireNonNull(type);
+            this.getter = property.valueProvider;
+            this.property = property;
+        }
+
+        @Override
+        public String toString() {
+            return name + ":" + type;
+        }
+    }
+
+    /**
+     * Creates a bean out of a row of the snapshot.
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        @NotNull
+        T map(@NotNull DatasetSnapshot snapshot, int row);
+    }
+
+    /**
+     * Parses the source, e.g. <code>Player::loadFromCSV</code>.
+     */
+    @FunctionalInterface
+    public interface Parser<T> {
+        @NotNull
+        List<T> parse() throws IOException;
+    }
+
+    @NotNull
+    private final ByteBuffer buffer;
+    private final int size;
+    @NotNull
+    private final Type[] types;
+    /**
+     * The offset of every column within {@link #buffer}.
+     */
+    @NotNull
+    private final int[] offsets;
+    /**
+     * The dictionary of every {@link Type#STRING} column; null for other columns.
+     */
+    @NotNull
+    private final String[][] dictionaries;
+    /**
+     * The schema the snapshot was opened with.
+     */
+    @NotNull
+    private final List<? extends Column<?>> columns;
+
+    private DatasetSnapshot(@NotNull ByteBuffer buffer, int size, @NotNull Type[] types, @NotNull int[] offsets,
+                            @NotNull String[][] dictionaries, @NotNull List<? extends Column<?>> columns) {
+        this.buffer = buffer;
+        this.size = size;
+        this.types = types;
+        this.offsets = offsets;
+        this.dictionaries = dictionaries;
+        this.columns = columns;
+    }
+
+    /**
+     * Loads the beans out of the snapshot of given source. If the snapshot is missing or stale, the source is parsed
+     * instead and the snapshot is written for the next time; failing to read or write the snapshot is logged, not thrown.
+     * <p></p>
+     * The beans loaded out of the snapshot are decoded on first access, see {@link #asList(RowMapper)}.
+     *
+     * @param source   the source, e.g. a CSV resource; not read, see {@link #fingerprint(URL)}.
+     * @param snapshot the snapshot file, see {@link #getDefaultPath(String)}.
+     * @param columns  the schema: the columns <code>mapper</code> reads.
+     * @param mapper   creates a bean out of a row of the snapshot.
+     * @param parser   parses the source.
+     * @return the beans, not null; unmodifiable.
+     */
+    @NotNull
+    public static <T> List<T> load(
+            @NotNull URL source,
+            @NotNull Path snapshot,
+            @NotNull List<Column<T>> columns,
+            @NotNull RowMapper<T> mapper,
+            @NotNull Parser<T> parser
+    ) throws IOException {
+        final long checksum = fingerprint(source);
+        DatasetSnapshot existing = null;
+        try {
+            existing = open(snapshot, checksum, columns);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read snapshot " + snapshot + ", parsing " + source, e);
+        }
+        if (existing != null) {
+            return existing.asList(mapper);
+        }
+        final List<T> items = parser.parse();
+        try {
+            write(snapshot, checksum, columns, items);
+            LOGGER.info("Parsed {} rows of {}, wrote snapshot {}", items.size(), source, snapshot);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to write snapshot " + snapshot + " of " + source, e);
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * @return the file to keep the snapshot of given source in: a file in the directory given by the
+     * <code>pivot.snapshot.dir</code> system property, defaulting to <code>pivot-snapshots</code> in the temporary directory.
+     */
+    @NotNull
+    public static Path getDefaultPath(@NotNull String sourceName) {
+        final String directory = System.getProperty("pivot.snapshot.dir");
+        final Path root = directory != null ? Paths.get(directory) : Paths.get(System.getProperty("java.io.tmpdir"), "pivot-snapshots");
+        return root.resolve(sourceName.replaceAll("[^A-Za-z0-9._-]", "_") + ".snapshot");
+    }
+
+    /**
+     * Identifies the current contents of given source by its length and last-modified time, without reading it. Falls
+     * back to the {@link #checksum(InputStream) checksum} of the contents if the source doesn't report them.
+     *
+     * @return the fingerprint, to be passed to {@link #open(Path, long, List)}.
+     */
+    public static long fingerprint(@NotNull URL source) throws IOException {
+        final URLConnection connection = source.openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            final long length = connection.getContentLengthLong();
+            final long lastModified = connection.getLastModified();
+            if (length < 0 || lastModified <= 0) {
+                return checksum(in);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(ByteBuffer.allocate(2 * Long.BYTES).putLong(length).putLong(lastModified).array());
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * @return the CRC32 of all bytes of given stream.
+     */
+    public static long checksum(@NotNull InputStream in) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[1 << 16];
+        int read;
+        while ((read = in.read(chunk)) >= 0) {
+            crc.update(chunk, 0, read);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a snapshot of given beans. The file is written next to the target first, then moved over it: readers see
+     * either the old or the new snapshot.
+     *
+     * @param file           the snapshot file; the parent directories are created.
+     * @param sourceChecksum the fingerprint of the source the beans were parsed from, see {@link #fingerprint(URL)}.
+     * @param columns        the columns to write.
+     * @param items          the beans.
+     */
+    public static <T> void write(
+            @NotNull Path file,
+            long sourceChecksum,
+            @NotNull List<Column<T>> columns,
+            @NotNull List<T> items
+    ) throws IOException {
+        final List<String[]> dictionaries = new ArrayList<>(columns.size());
+        final List<Map<String, Integer>> codes = new ArrayList<>(columns.size());
+        for (Column<T> column : columns) {
+            if (column.type != Type.STRING) {
+                dictionaries.add(null);
+                codes.add(null);
+                continue;
+            }
+            final Set<String> distinct = new HashSet<>();
+            for (T item : items) {
+                distinct.add(toStringValue(column, item));
+            }
+            final String[] dictionary = distinct.toArray(new String[0]);
+            Arrays.sort(dictionary, PivotDataset.DICTIONARY_ORDER);
+            final Map<String, Integer> codeOf = new HashMap<>(dictionary.length * 2);
+            for (int code = 0; code < dictionary.length; code++) {
+                codeOf.put(dictionary[code], code);
+            }
+            dictionaries.add(dictionary);
+            codes.add(codeOf);
+        }
+
+        final Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        final Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(sourceChecksum);
+                out.writeInt(items.size());
+                out.writeInt(columns.size());
+                for (Column<T> column : columns) {
+                    out.writeUTF(column.name);
+                    out.writeByte(column.type.ordinal());
+                }
+                for (String[] dictionary : dictionaries) {
+                    if (dictionary == null) {
+                        continue;
+                    }
+                    out.writeInt(dictionary.length);
+                    for (String value : dictionary) {
+                        if (value == null) {
+                            out.writeInt(-1);
+                        } else {
+                            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                            out.writeInt(bytes.length);
+                            out.write(bytes);
+                        }
+                    }
+                }
+                for (int c = 0; c < columns.size(); c++) {
+                    pad(out);
+                    final Column<T> column = columns.get(c);
+                    for (T item : items) {
+                        if (column.type == Type.STRING) {
+                            out.writeInt(codes.get(c).get(toStringValue(column, item)));
+                            continue;
+                        }
+                        final Object value = column.getter.apply(item);
+                        if (!(value instanceof Number)) {
+                            throw new IllegalArgumentException("Parameter items: invalid value " + item + ": " + column + " must be a number, got " + value);
+                        }
+                        final Number number = (Number) value;
+                        switch (column.type) {
+                            case INT: out.writeInt(number.intValue()); break;
+                            case LONG: out.writeLong(number.longValue()); break;
+                            case FLOAT: out.writeFloat(number.floatValue()); break;
+                            default: out.writeDouble(number.doubleValue());
+                        }
+                    }
+                }
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Nullable
+    private static <T> String toStringValue(@NotNull Column<T> column, @NotNull T item) {
+        final Object value = column.getter.apply(item);
+        return value == null ? null : value.toString();
+    }
+
+    private static void pad(@NotNull DataOutputStream out) throws IOException {
+        while (out.size() % Long.BYTES != 0) {
+            out.writeByte(0);
+        }
+    }
+
+    private static long align(long position) {
+        return (position + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    /**
+     * Maps a snapshot. Only the header and the dictionary pages are read; the columns are read on access.
+     *
+     * @param file           the snapshot file.
+     * @param sourceChecksum the fingerprint of the current source; a snapshot of any other source is stale.
+     * @param columns        the expected schema.
+     * @return the snapshot; null if the file doesn't exist, is stale, was written by another format version,
+     * with another schema, or is truncated.
+     */
+    @Nullable
+    public static DatasetSnapshot open(@NotNull Path file, long sourceChecksum, @NotNull List<? extends Column<?>> columns) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                LOGGER.info("Ignoring snapshot {}: larger than 2 GB", file);
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            final String mismatch = readHeader(buffer, sourceChecksum, columns);
+            if (mismatch != null) {
+                LOGGER.info("Ignoring snapshot {}: {}", file, mismatch);
+                return null;
+            }
+            final int size = buffer.getInt(16);
+            final Type[] types = new Type[columns.size()];
+            final String[][] dictionaries = new String[columns.size()][];
+            for (int c = 0; c < types.length; c++) {
+                types[c] = columns.get(c).type;
+                if (types[c] == Type.STRING) {
+                    final String[] dictionary = new String[buffer.getInt()];
+                    for (int code = 0; code < dictionary.length; code++) {
+                        final int length = buffer.getInt();
+                        if (length >= 0) {
+                            final byte[] bytes = new byte[length];
+                            buffer.get(bytes);
+                            dictionary[code] = new String(bytes, StandardCharsets.UTF_8);
+                        }
+                    }
+                    dictionaries[c] = dictionary;
+                }
+            }
+            final int[] offsets = new int[types.length];
+            long position = buffer.position();
+            for (int c = 0; c < types.length; c++) {
+                position = align(position);
+                offsets[c] = (int) position;
+                position += (long) types[c].width * size;
+            }
+            if (position != buffer.capacity()) {
+                LOGGER.info("Ignoring snapshot {}: expected {} bytes, got {}", file, position, buffer.capacity());
+                return null;
+            }
+            return new DatasetSnapshot(buffer, size, types, offsets, dictionaries, new ArrayList<>(columns));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            LOGGER.info("Ignoring snapshot {}: truncated", file);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the header, leaving the buffer positioned at the first dictionary page.
+     *
+     * @return why the snapshot can't be used; null if it can.
+     */
+    @Nullable
+    private static String readHeader(@NotNull ByteBuffer buffer, long sourceChecksum, @NotNull List<? extends Column<?>> columns) {
+        if (buffer.getInt() != MAGIC) {
+            return "not a snapshot";
+        }
+        final int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            return "format version " + version + ", expected " + FORMAT_VERSION;
+        }
+        if (buffer.getLong() != sourceChecksum) {
+            return "the source has changed";
+        }
+        final int size = buffer.getInt();
+        final int columnCount = buffer.getInt();
+        if (size < 0 || columnCount != columns.size()) {
+            return "the schema has changed";
+        }
+        for (Column<?> column : columns) {
+            final byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            // writeUTF() writes modified UTF-8, which equals UTF-8 for names without NUL and supplementary characters
+            if (!column.name.equals(new String(name, StandardCharsets.UTF_8)) || buffer.get() != column.type.ordinal()) {
+                return "the schema has changed";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of rows.
+     */
+    public int size() {
+        return size;
+    }
+
+    private int offset(int column, int row, @NotNull Type type) {
+        if (types[column] != type) {
+            throw new IllegalArgumentException("Parameter column: invalid value " + column + ": must be a " + type + " column, got " + types[column]);
+        }
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Parameter row: invalid value " + row + ": must be 0.." + (size - 1));
+        }
+        return offsets[column] + row * type.width;
+    }
+
+    /**
+     * @return the dictionary code of given row of a {@link Type#STRING} column.
+     */
+    public int getCode(int column, int row) {
+        return buffer.getInt(offset(column, row, Type.STRING));
+    }
+
+    /**
+     * @return the sorted distinct values of a {@link Type#STRING} column, indexed by {@link #getCode(int, int) code}; must not be modified.
+     */
+    @NotNull
+    public String[] getDictionary(int column) {
+        if (types[column] != Type.STRING) {
+            throw new IllegalArgumentException("Parameter column: invalid value " + column + ": must be a " + Type.STRING + " column, got " + types[column]);
+        }
+        return dictionaries[column];
+    }
+
+    /**
+     * @return the value of a {@link Type#STRING} column. The same instance is returned for all rows with an equal value.
+     */
+    @Nullable
+    public String getString(int column, int row) {
+        return dictionaries[column][getCode(column, row)];
+    }
+
+    public int getInt(int column, int row) {
+        return buffer.getInt(offset(column, row, Type.INT));
+    }
+
+    public long getLong(int column, int row) {
+        return buffer.getLong(offset(column, row, Type.LONG));
+    }
+
+    public float getFloat(int column, int row) {
+        return buffer.getFloat(offset(column, row, Type.FLOAT));
+    }
+
+    public double getDouble(int column, int row) {
+        return buffer.getDouble(offset(column, row, Type.DOUBLE));
+    }
+
+    /**
+     * Returns the dictionary-encoded column: the codes are read in bulk, the dictionary page is the dictionary.
+     * A numeric column is encoded out of its values, boxed into the wrapper type of the column.
+     */
+    @NotNull
+    PivotDataset.GroupColumn getGroupColumn(int column) {
+        if (types[column] == Type.STRING) {
+            final int[] codes = new int[size];
+            ((ByteBuffer) buffer.duplicate().position(offsets[column])).asIntBuffer().get(codes);
+            return new PivotDataset.GroupColumn(codes, Arrays.copyOf(dictionaries[column], dictionaries[column].length, Object[].class));
+        }
+        final Object[] values = new Object[size];
+        for (int row = 0; row < size; row++) {
+            switch (types[column]) {
+                case INT: values[row] = getInt(column, row); break;
+                case LONG: values[row] = getLong(column, row); break;
+                case FLOAT: values[row] = getFloat(column, row); break;
+                default: values[row] = getDouble(column, row);
+            }
+        }
+        return PivotDataset.GroupColumn.encode(values);
+    }
+
+    /**
+     * Returns the values of a numeric column, read in bulk and widened to <code>long</code>s or <code>double</code>s.
+     */
+    @NotNull
+    PivotDataset.MeasureColumn getMeasureColumn(int column) {
+        final ByteBuffer values = (ByteBuffer) buffer.duplicate().position(offsets[column]);
+        switch (types[column]) {
+            case INT: {
+                final int[] ints = new int[size];
+                values.asIntBuffer().get(ints);
+                final long[] longs = new long[size];
+                for (int row = 0; row < size; row++) {
+                    longs[row] = ints[row];
+                }
+                return new PivotDataset.MeasureColumn(PivotDataset.NumberType.INTEGER, longs, null, null, null);
+            }
+            case LONG: {
+                final long[] longs = new long[size];
+                values.asLongBuffer().get(longs);
+                return new PivotDataset.MeasureColumn(PivotDataset.NumberType.LONG, longs, null, null, null);
+            }
+            case FLOAT: {
+                final float[] floats = new float[size];
+                values.asFloatBuffer().get(floats);
+                final double[] doubles = new double[size];
+                for (int row = 0; row < size; row++) {
+                    doubles[row] = floats[row];
+                }
+                return new PivotDataset.MeasureColumn(PivotDataset.NumberType.FLOAT, null, doubles, null, null);
+            }
+            case DOUBLE: {
+                final double[] doubles = new double[size];
+                values.asDoubleBuffer().get(doubles);
+                return new PivotDataset.MeasureColumn(PivotDataset.NumberType.DOUBLE, null, doubles, null, null);
+            }
+            default:
+                throw new IllegalArgumentException("Parameter column: invalid value " + column + ": must be a numeric column, got " + types[column]);
+        }
+    }
+
+    /**
+     * @return the index of the column bound to given property, -1 if none.
+     */
+    private int indexOf(@NotNull PivotProperty<?> property) {
+        for (int c = 0; c < columns.size(); c++) {
+            if (property.equals(columns.get(c).property)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the beans, each decoded on first access and kept afterwards. The {@link PivotDataset} of the returned
+     * list reads the columns bound to a {@link Column#property property} straight out of this snapshot rather than
+     * out of the beans.
+     *
+     * @return the beans, in the order they were written; unmodifiable.
+     */
+    @NotNull
+    public <T> List<T> asList(@NotNull RowMapper<T> mapper) {
+        return new SnapshotList<>(this, mapper);
+    }
+
+    /**
+     * Decodes all rows.
+     *
+     * @return the beans, in the order they were written.
+     */
+    @NotNull
+    public <T> List<T> toList(@NotNull RowMapper<T> mapper) {
+        final List<T> items = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            items.add(mapper.map(this, row));
+        }
+        return items;
+    }
+
+    /**
+     * The beans of a snapshot, decoded lazily. Serialized as a plain list of the beans.
+     */
+    private static final class SnapshotList<T> extends AbstractList<T> implements RandomAccess, PivotDataset.ColumnSource<T>, Serializable {
+        @NotNull
+        private final DatasetSnapshot snapshot;
+        @NotNull
+        private final RowMapper<T> mapper;
+        @NotNull
+        private final AtomicReferenceArray<T> beans;
+
+        SnapshotList(@NotNull DatasetSnapshot snapshot, @NotNull RowMapper<T> mapper) {
+            this.snapshot = snapshot;
+            this.mapper = mapper;
+            this.beans = new AtomicReferenceArray<>(snapshot.size);
+        }
+
+        @Override
+        public T get(int index) {
+            final T bean = beans.get(index);
+            if (bean != null) {
+                return bean;
+            }
+            // concurrent callers may decode the same row; all of them get the bean decoded first
+            beans.compareAndSet(index, null, mapper.map(snapshot, index));
+            return beans.get(index);
+        }
+
+        @Override
+        public int size() {
+            return snapshot.size;
+        }
+
+        @Nullable
+        @Override
+        public PivotDataset.GroupColumn getGroupColumn(@NotNull PivotProperty<T> property) {
+            final int column = snapshot.indexOf(property);
+            return column < 0 ? null : snapshot.getGroupColumn(column);
+        }
+
+        @Nullable
+        @Override
+        public PivotDataset.MeasureColumn getMeasureColumn(@NotNull PivotProperty<T> property) {
+            final int column = snapshot.indexOf(property);
+            return column < 0 || snapshot.types[column] == Type.STRING ? null : snapshot.getMeasureColumn(column);
+        }
+
+        @NotNull
+        private Object writeReplace() {
+            return new ArrayList<>(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DatasetSnapshot{size=" + size + ", columns=" + Arrays.toString(types) + ", bytes=" + buffer.capacity() + '}';
+    }
+}
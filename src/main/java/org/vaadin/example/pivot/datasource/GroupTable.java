@@ -0,0 +1,285 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table which assigns a dense group id to every distinct combination of dictionary
+ * codes of the group-by columns. Group ids are assigned in first-seen order, starting with 0.
+ * <p></p>
+ * The codes of one row are packed into a single <code>long</code> key, each column taking just enough bits
+ * to hold its cardinality. If the cardinalities don't fit into 64 bits, the key spans several <code>long</code>s.
+ * Apart from growing the table, looking up a row allocates nothing.
+ */
+final class GroupTable {
+    /**
+     * One array of dictionary codes per group-by column, indexed by row; empty if the codes are passed to {@link #add(int[], int)}.
+     */
+    @NotNull
+    private final int[][] codes;
+    /**
+     * For every column, the index of the key word the column is packed into.
+     */
+    @NotNull
+    private final int[] wordOfColumn;
+    /**
+     * For every column, the bit offset of the column within its key word.
+     */
+    @NotNull
+    private final int[] shiftOfColumn;
+    /**
+     * The number of <code>long</code>s a key takes.
+     */
+    private final int keyWords;
+    /**
+     * The packed keys of all groups: key of group <code>g</code> occupies
+     * <code>keys[g * keyWords]</code>..<code>keys[(g + 1) * keyWords - 1]</code>.
+     */
+    @NotNull
+    private long[] keys;
+    /**
+     * The hash slots: group id + 1, or 0 for a free slot. The length is always a power of two.
+     */
+    @NotNull
+    private int[] slots;
+    /**
+     * Reused for multi-word keys.
+     */
+    @NotNull
+    private final long[] scratch;
+    /**
+     * The first row of every group.
+     */
+    @NotNull
+    private int[] firstRows;
+    private int groupCount;
+
+    /**
+     * @param codes          one array of dictionary codes per group-by column; all arrays must have the same length.
+     * @param cardinalities  the cardinality of every column; codes must be less than the cardinality.
+     * @param expectedGroups the expected number of groups, used to presize the table.
+     */
+    GroupTable(@NotNull int[][] codes, @NotNull int[] cardinalities, int expectedGroups) {
+        this.codes = codes;
+        wordOfColumn = new int[cardinalities.length];
+        shiftOfColumn = new int[cardinalities.length];
+        int word = 0;
+        int shift = 0;
+        for (int i = 0; i < cardinalities.length; i++) {
+            final int bits = bitsFor(cardinalities[i]);
+            if (shift + bits > Long.SIZE) {
+                word++;
+                shift = 0;
+            }
+            wordOfColumn[i] = word;
+            shiftOfColumn[i] = shift;
+            shift += bits;
+        }
+        keyWords = word + 1;
+        scratch = new long[keyWords];
+        final int capacity = tableSizeFor(Math.max(expectedGroups, 8));
+        slots = new int[capacity];
+        keys = new long[(capacity / 2) * keyWords];
+        firstRows = new int[capacity / 2];
+    }
+
+    /**
+     * Creates a table which is given the codes of a row at a time, see {@link #add(int[], int)}; for columns
+     * which are not stored in arrays, e.g. {@link OffHeapDataset}.
+     *
+     * @param cardinalities  the cardinality of every column; codes must be less than the cardinality.
+     * @param expectedGroups the expected number of groups, used to presize the table.
+     */
+    GroupTable(@NotNull int[] cardinalities, int expectedGroups) {
+        this(new int[0][], cardinalities, expectedGroups);
+    }
+
+    /**
+     * @return the number of bits required to store codes <code>0..cardinality-1</code>.
+     */
+    static int bitsFor(int cardinality) {
+        return cardinality <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(cardinality - 1);
+    }
+
+    /**
+     * @return the number of <code>long</code> words a key of columns with given cardinalities takes, see {@link #getKeyWords()}.
+     */
+    static int keyWordsFor(@NotNull int[] cardinalities) {
+        int word = 0;
+        int shift = 0;
+        for (int cardinality : cardinalities) {
+            final int bits = bitsFor(cardinality);
+            if (shift + bits > Long.SIZE) {
+                word++;
+                shift = 0;
+            }
+            shift += bits;
+        }
+        return word + 1;
+    }
+
+    private static int tableSizeFor(int expectedGroups) {
+        // keep the load factor at or below 0.5
+        final int size = Integer.highestOneBit(expectedGroups * 2 - 1) << 1;
+        return Math.max(size, 16);
+    }
+
+    /**
+     * @return the number of <code>long</code> words a key takes; 1 if the packed codes fit into 64 bits.
+     */
+    int getKeyWords() {
+        return keyWords;
+    }
+
+    /**
+     * @return the number of distinct groups seen so far.
+     */
+    int size() {
+        return groupCount;
+    }
+
+    /**
+     * @return the row which created given group.
+     */
+    int getFirstRow(int group) {
+        return firstRows[group];
+    }
+
+    /**
+     * Finds the group of given row, creating a new group if the combination of codes hasn't been seen yet.
+     *
+     * @param row the row index into the code arrays.
+     * @return the group id.
+     */
+    int add(int row) {
+        if (keyWords == 1) {
+            long key = 0;
+            for (int i = 0; i < codes.length; i++) {
+                key |= ((long) codes[i][row]) << shiftOfColumn[i];
+            }
+            return findOrInsert(key, row);
+        }
+        Arrays.fill(scratch, 0);
+        for (int i = 0; i < codes.length; i++) {
+            scratch[wordOfColumn[i]] |= ((long) codes[i][row]) << shiftOfColumn[i];
+        }
+        return findOrInsert(scratch, row);
+    }
+
+    /**
+     * Finds the group of a row with given codes, creating a new group if the combination of codes hasn't been seen yet.
+     *
+     * @param rowCodes the code of every column; not retained, may be reused for the next row.
+     * @param row      the row, remembered as the first row of a new group.
+     * @return the group id.
+     */
+    int add(@NotNull int[] rowCodes, int row) {
+        if (keyWords == 1) {
+            long key = 0;
+            for (int i = 0; i < rowCodes.length; i++) {
+                key |= ((long) rowCodes[i]) << shiftOfColumn[i];
+            }
+            return findOrInsert(key, row);
+        }
+        Arrays.fill(scratch, 0);
+        for (int i = 0; i < rowCodes.length; i++) {
+            scratch[wordOfColumn[i]] |= ((long) rowCodes[i]) << shiftOfColumn[i];
+        }
+        return findOrInsert(scratch, row);
+    }
+
+    private int findOrInsert(long key, int row) {
+        final int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        while (true) {
+            final int id = slots[slot];
+            if (id == 0) {
+                return insert(slot, key, null, row);
+            }
+            if (keys[id - 1] == key) {
+                return id - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int findOrInsert(@NotNull long[] key, int row) {
+        final int mask = slots.length - 1;
+        int slot = hash(key, 0) & mask;
+        while (true) {
+            final int id = slots[slot];
+            if (id == 0) {
+                return insert(slot, 0, key, row);
+            }
+            if (keyEquals(id - 1, key)) {
+                return id - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int group, @NotNull long[] key) {
+        final int offset = group * keyWords;
+        for (int i = 0; i < keyWords; i++) {
+            if (keys[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int insert(int slot, long key, @Nullable long[] multiWordKey, int row) {
+        final int group = groupCount++;
+        if ((group + 1) * keyWords > keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        if (group == firstRows.length) {
+            firstRows = Arrays.copyOf(firstRows, group * 2);
+        }
+        firstRows[group] = row;
+        if (multiWordKey == null) {
+            keys[group] = key;
+        } else {
+            System.arraycopy(multiWordKey, 0, keys, group * keyWords, keyWords);
+        }
+        slots[slot] = group + 1;
+        if (groupCount * 2 > slots.length) {
+            rehash();
+        }
+        return group;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        final int mask = slots.length - 1;
+        for (int group = 0; group < groupCount; group++) {
+            int slot = (keyWords == 1 ? mix(keys[group]) : hash(keys, group * keyWords)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = group + 1;
+        }
+    }
+
+    private int hash(@NotNull long[] words, int offset) {
+        long h = 0;
+        for (int i = 0; i < keyWords; i++) {
+            h = h * 0x9E3779B97F4A7C15L + words[offset + i];
+        }
+        return mix(h);
+    }
+
+    /**
+     * The finalization step of the 64-bit MurmurHash3; spreads the packed codes over all bits.
+     */
+    private static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,193 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Chooses how {@link Groups} groups the rows, from the dictionary cardinalities of the group-by columns:
+ * <ul>
+ *     <li>{@link Strategy#DIRECT}: the dictionary codes of a row are combined into an index into an array of group ids.
+ *     No hashing and no collisions, but the array takes a slot for every possible combination of codes; hence only
+ *     for small dense dictionaries, e.g. grouping by team.</li>
+ *     <li>{@link Strategy#HASH}: a {@link GroupTable}. Cheap per row as long as the table fits into the CPU cache;
+ *     with many groups every row costs a cache miss.</li>
+ *     <li>{@link Strategy#SORT}: the combined code and the row index are packed into a <code>long</code>, the longs are
+ *     sorted and the runs of equal codes form the groups. Costs <code>O(rows * log(rows))</code> regardless of the
+ *     number of groups, and sorts in parallel; pays off for high-cardinality keys such as an exception number.</li>
+ * </ul>
+ * The plan estimates the cost of every applicable strategy and picks the cheapest one; see {@link #toString()}
+ * for the explanation. The costs are relative units, roughly nanoseconds. The cardinalities alone drive the choice:
+ * the codes are dense whatever the range of the values, and computing the {@link ColumnStatistics} would cost a pass
+ * over the rows.
+ */
+final class GroupingPlan {
+    enum Strategy {
+        DIRECT, HASH, SORT
+    }
+
+    /**
+     * The maximum number of slots of the {@link Strategy#DIRECT} array: 16 MB.
+     */
+    static final long MAX_DIRECT_KEYS = 1 << 22;
+    /**
+     * The {@link GroupTable} is presized for at most this many groups; estimates of correlated columns can be far too high.
+     */
+    static final int MAX_PRESIZED_GROUPS = 1 << 20;
+
+    private static final double DIRECT_ROW = 1;
+    private static final double DIRECT_SLOT = 0.25;
+    private static final double HASH_ROW = 3;
+    private static final double HASH_KEY_WORD = 1;
+    private static final double HASH_CACHE_MISS = 6;
+    private static final long CACHE_BYTES = 1 << 20;
+    private static final double SORT_STEP = 0.4;
+
+    @NotNull
+    final Strategy strategy;
+    final int rowCount;
+    /**
+     * The number of groups, estimated as the product of the cardinalities, at most the number of rows.
+     */
+    final long estimatedGroups;
+    /**
+     * The number of possible combinations of codes; {@link Long#MAX_VALUE} if it doesn't fit into a <code>long</code>.
+     */
+    final long keySpace;
+    /**
+     * The multiplier of the code of every column in the combined code; null if the key space doesn't fit into a
+     * <code>long</code>.
+     */
+    final long[] strides;
+    /**
+     * The estimated cost, indexed by {@link Strategy#ordinal()}; {@link Double#POSITIVE_INFINITY} if the strategy
+     * can not be used.
+     */
+    @NotNull
+    final double[] costs;
+    /**
+     * The parallelism the costs assume.
+     */
+    final int parallelism;
+
+    private GroupingPlan(@NotNull Strategy strategy, int rowCount, long estimatedGroups, long keySpace, long[] strides,
+                         @NotNull double[] costs, int parallelism) {
+        this.strategy = strategy;
+        this.rowCount = rowCount;
+        this.estimatedGroups = estimatedGroups;
+        this.keySpace = keySpace;
+        this.strides = strides;
+        this.costs = costs;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Plans the grouping of given rows by given columns.
+     *
+     * @param rowCount    the number of rows to group, e.g. the number of rows passing the filter.
+     * @param parallelism the number of threads to group in; 1 for sequential grouping.
+     */
+    @NotNull
+    static GroupingPlan of(@NotNull List<PivotDataset.GroupColumn> columns, int rowCount, int parallelism) {
+        final int[] cardinalities = new int[columns.size()];
+        long keySpace = 1;
+        for (int i = 0; i < cardinalities.length; i++) {
+            cardinalities[i] = columns.get(i).getCardinality();
+            keySpace = multiply(keySpace, Math.max(1, cardinalities[i]));
+        }
+        long[] strides = null;
+        if (keySpace < Long.MAX_VALUE) {
+            strides = new long[cardinalities.length];
+            long stride = 1;
+            for (int i = 0; i < strides.length; i++) {
+                strides[i] = stride;
+                stride *= Math.max(1, cardinalities[i]);
+            }
+        }
+        final long estimatedGroups = Math.max(Math.min(keySpace, rowCount), rowCount == 0 ? 0 : 1);
+        final int keyWords = GroupTable.keyWordsFor(cardinalities);
+
+        final double[] costs = new double[Strategy.values().length];
+        costs[Strategy.DIRECT.ordinal()] = keySpace <= MAX_DIRECT_KEYS
+                ? rowCount * DIRECT_ROW + keySpace * DIRECT_SLOT
+                : Double.POSITIVE_INFINITY;
+
+        final long tableBytes = estimatedGroups * (2 * 4 + 8L * keyWords + 4);
+        costs[Strategy.HASH.ordinal()] = rowCount * (HASH_ROW + HASH_KEY_WORD * (keyWords - 1)
+                + (tableBytes > CACHE_BYTES ? HASH_CACHE_MISS : 0)) / parallelism
+                + estimatedGroups * HASH_ROW;
+
+        costs[Strategy.SORT.ordinal()] = canSort(keySpace, rowCount)
+                ? rowCount * DIRECT_ROW + (rowCount * log2(rowCount) + estimatedGroups * log2(estimatedGroups)) * SORT_STEP / parallelism
+                : Double.POSITIVE_INFINITY;
+
+        Strategy cheapest = Strategy.HASH;
+        for (Strategy strategy : Strategy.values()) {
+            if (costs[strategy.ordinal()] < costs[cheapest.ordinal()]) {
+                cheapest = strategy;
+            }
+        }
+        return new GroupingPlan(cheapest, rowCount, estimatedGroups, keySpace, strides, costs, parallelism);
+    }
+
+    /**
+     * @return a copy of this plan which uses given strategy.
+     * @throws IllegalArgumentException if the strategy can not be used for the grouping.
+     */
+    @NotNull
+    GroupingPlan withStrategy(@NotNull Strategy strategy) {
+        if (costs[strategy.ordinal()] == Double.POSITIVE_INFINITY) {
+            throw new IllegalArgumentException("Parameter strategy: invalid value " + strategy + ": not applicable to " + this);
+        }
+        return new GroupingPlan(strategy, rowCount, estimatedGroups, keySpace, strides, costs, parallelism);
+    }
+
+    /**
+     * @return the number of groups to presize the {@link GroupTable} for.
+     */
+    int getExpectedGroups() {
+        return (int) Math.max(1, Math.min(estimatedGroups, MAX_PRESIZED_GROUPS));
+    }
+
+    /**
+     * The {@link Strategy#SORT} packs the combined code and the row index into the 63 bits of a non-negative long.
+     */
+    private static boolean canSort(long keySpace, int rowCount) {
+        return keySpace < Long.MAX_VALUE && bitsFor(keySpace) + bitsFor(rowCount) <= 63;
+    }
+
+    /**
+     * @return the number of bits required to store <code>0..count-1</code>.
+     */
+    static int bitsFor(long count) {
+        return count <= 1 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(count - 1);
+    }
+
+    private static double log2(long value) {
+        return value <= 1 ? 0 : Math.log(value) / Math.log(2);
+    }
+
+    private static long multiply(long a, long b) {
+        final long product = a * b;
+        return a != 0 && (product / a != b || product < 0) ? Long.MAX_VALUE : product;
+    }
+
+    /**
+     * Explains the plan: the chosen strategy, the estimates and the cost of every strategy.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(strategy).append(" grouping of ").append(rowCount).append(" rows into ~").append(estimatedGroups)
+                .append(" groups (key space ").append(keySpace == Long.MAX_VALUE ? "overflow" : String.valueOf(keySpace))
+                .append(", parallelism ").append(parallelism).append(")\n");
+        for (Strategy s : Strategy.values()) {
+            final double cost = costs[s.ordinal()];
+            sb.append(s == strategy ? "  * " : "    ").append(s).append(": ")
+                    .append(cost == Double.POSITIVE_INFINITY ? "not applicable" : String.format(Locale.ROOT, "cost %.0f", cost))
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,326 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The outcome of grouping rows by the dictionary codes of the group-by columns: every group is a contiguous
+ * slice of {@link #rows}. Groups are numbered in the order of their first row, the same order
+ * <code>Collectors.groupingBy(..., LinkedHashMap::new, ...)</code> would produce.
+ */
+final class Groups implements Serializable {
+    /**
+     * The number of groups.
+     */
+    final int count;
+    /**
+     * Row indices ordered by group; rows of group <code>g</code> are at
+     * <code>rows[offsets[g]]</code>..<code>rows[offsets[g + 1] - 1]</code>, in ascending order.
+     */
+    @NotNull
+    final int[] rows;
+    /**
+     * <code>count + 1</code> offsets into {@link #rows}.
+     */
+    @NotNull
+    final int[] offsets;
+
+    private Groups(int count, @NotNull int[] rows, @NotNull int[] offsets) {
+        this.count = count;
+        this.rows = rows;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return the first row of given group.
+     */
+    int getFirstRow(int group) {
+        return rows[offsets[group]];
+    }
+
+    /**
+     * @param groups the groups to keep, in the order of the new group ids.
+     * @return the given groups only; their rows are copied, so that the rows of the other groups are not referenced.
+     */
+    @NotNull
+    Groups select(@NotNull int[] groups) {
+        final int[] selectedOffsets = new int[groups.length + 1];
+        for (int i = 0; i < groups.length; i++) {
+            selectedOffsets[i + 1] = selectedOffsets[i] + offsets[groups[i] + 1] - offsets[groups[i]];
+        }
+        final int[] selectedRows = new int[selectedOffsets[groups.length]];
+        for (int i = 0; i < groups.length; i++) {
+            System.arraycopy(rows, offsets[groups[i]], selectedRows, selectedOffsets[i], selectedOffsets[i + 1] - selectedOffsets[i]);
+        }
+        return new Groups(groups.length, selectedRows, selectedOffsets);
+    }
+
+    /**
+     * Groups the rows by the codes of given columns, choosing the strategy by the {@link GroupingPlan}.
+     *
+     * @param columns   the group-by columns.
+     * @param rowCount  the number of rows.
+     * @param selection if not null, only these rows are grouped; must be in ascending order.
+     * @param pool      if not null, the rows are grouped in parallel in this pool.
+     * @return the groups, not null.
+     */
+    @NotNull
+    static Groups compute(@NotNull List<PivotDataset.GroupColumn> columns, int rowCount, @Nullable int[] selection,
+                          @Nullable ForkJoinPool pool) {
+        final GroupingPlan plan = GroupingPlan.of(columns, selection == null ? rowCount : selection.length,
+                pool == null ? 1 : pool.getParallelism());
+        return compute(plan, columns, rowCount, selection, pool);
+    }
+
+    /**
+     * Groups the rows by the codes of given columns, using the strategy of given plan. All strategies produce
+     * the same groups.
+     *
+     * @param plan the plan for given columns and rows, see {@link GroupingPlan#of(List, int, int)}.
+     */
+    @NotNull
+    static Groups compute(@NotNull GroupingPlan plan, @NotNull List<PivotDataset.GroupColumn> columns, int rowCount,
+                          @Nullable int[] selection, @Nullable ForkJoinPool pool) {
+        return compute(plan, columns, rowCount, selection, pool, CancellationToken.NONE);
+    }
+
+    /**
+     * Groups the rows by the codes of given columns, using the strategy of given plan, checking given token every
+     * {@link CancellationToken#CHECK_INTERVAL} rows. A sort can't be interrupted: the token is checked before and after.
+     *
+     * @param plan the plan for given columns and rows, see {@link GroupingPlan#of(List, int, int)}.
+     * @throws PivotCancelledException if the token is cancelled.
+     */
+    @NotNull
+    static Groups compute(@NotNull GroupingPlan plan, @NotNull List<PivotDataset.GroupColumn> columns, int rowCount,
+                          @Nullable int[] selection, @Nullable ForkJoinPool pool,
+                          @NotNull CancellationToken cancellation) {
+        final int[][] codes = new int[columns.size()][];
+        final int[] cardinalities = new int[columns.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = columns.get(i).codes;
+            cardinalities[i] = columns.get(i).getCardinality();
+        }
+        if (plan.strategy == GroupingPlan.Strategy.SORT) {
+            return computeSorted(codes, plan.strides, rowCount, selection, pool, cancellation);
+        }
+        // indexed by the position of the row in the selection
+        final int[] groupOfRow = new int[selection == null ? rowCount : selection.length];
+        final int groupCount;
+        if (plan.strategy == GroupingPlan.Strategy.DIRECT) {
+            // a single pass over the rows without hashing; not worth forking
+            groupCount = computeDirect(codes, plan.strides, (int) plan.keySpace, selection, groupOfRow, cancellation);
+        } else if (pool == null) {
+            final GroupTable table = new GroupTable(codes, cardinalities, plan.getExpectedGroups());
+            for (int i = 0; i < groupOfRow.length; i++) {
+                cancellation.checkEvery(i);
+                groupOfRow[i] = table.add(selection == null ? i : selection[i]);
+            }
+            groupCount = table.size();
+        } else {
+            groupCount = computeInParallel(codes, cardinalities, selection, groupOfRow, plan.getExpectedGroups(), pool, cancellation);
+        }
+        cancellation.throwIfCancelled();
+        return bucket(groupOfRow, selection, groupCount);
+    }
+
+    /**
+     * Assigns group ids in first-seen order via an array indexed by the combined code of the row.
+     *
+     * @return the number of groups.
+     */
+    private static int computeDirect(@NotNull int[][] codes, @NotNull long[] strides, int keySpace,
+                                     @Nullable int[] selection, @NotNull int[] groupOfRow,
+                                     @NotNull CancellationToken cancellation) {
+        // group id + 1, or 0 for a combination of codes not seen yet
+        final int[] groupOfKey = new int[keySpace];
+        int groupCount = 0;
+        for (int i = 0; i < groupOfRow.length; i++) {
+            cancellation.checkEvery(i);
+            final int key = (int) combinedCode(codes, strides, selection == null ? i : selection[i]);
+            int group = groupOfKey[key];
+            if (group == 0) {
+                group = ++groupCount;
+                groupOfKey[key] = group;
+            }
+            groupOfRow[i] = group - 1;
+        }
+        return groupCount;
+    }
+
+    private static long combinedCode(@NotNull int[][] codes, @NotNull long[] strides, int row) {
+        long key = 0;
+        for (int c = 0; c < codes.length; c++) {
+            key += codes[c][row] * strides[c];
+        }
+        return key;
+    }
+
+    /**
+     * Sorts the combined codes packed with the row positions; the runs of equal codes are the groups. The groups come
+     * out ordered by their codes and are then renumbered in the order of their first row.
+     */
+    @NotNull
+    private static Groups computeSorted(@NotNull int[][] codes, @NotNull long[] strides, int rowCount,
+                                        @Nullable int[] selection, @Nullable ForkJoinPool pool,
+                                        @NotNull CancellationToken cancellation) {
+        final int count = selection == null ? rowCount : selection.length;
+        final int positionBits = GroupingPlan.bitsFor(count);
+        final long positionMask = (1L << positionBits) - 1;
+        final long[] packed = new long[count];
+        for (int i = 0; i < count; i++) {
+            cancellation.checkEvery(i);
+            packed[i] = combinedCode(codes, strides, selection == null ? i : selection[i]) << positionBits | i;
+        }
+        sort(packed, pool);
+        cancellation.throwIfCancelled();
+
+        // the start of every run of equal codes; the first position of a run is its smallest one
+        final int[] runStarts = new int[count + 1];
+        int runCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || packed[i] >>> positionBits != packed[i - 1] >>> positionBits) {
+                runStarts[runCount++] = i;
+            }
+        }
+        runStarts[runCount] = count;
+
+        // order the runs by their first position
+        final long[] runOrder = new long[runCount];
+        for (int run = 0; run < runCount; run++) {
+            runOrder[run] = (packed[runStarts[run]] & positionMask) << 32 | run;
+        }
+        sort(runOrder, pool);
+        cancellation.throwIfCancelled();
+
+        final int[] offsets = new int[runCount + 1];
+        final int[] rows = new int[count];
+        int next = 0;
+        for (int group = 0; group < runCount; group++) {
+            final int run = (int) runOrder[group];
+            offsets[group] = next;
+            for (int i = runStarts[run]; i < runStarts[run + 1]; i++) {
+                final int position = (int) (packed[i] & positionMask);
+                rows[next++] = selection == null ? position : selection[position];
+            }
+        }
+        offsets[runCount] = next;
+        return new Groups(runCount, rows, offsets);
+    }
+
+    private static void sort(@NotNull long[] values, @Nullable ForkJoinPool pool) {
+        if (pool == null) {
+            Arrays.sort(values);
+        } else {
+            // forks into the pool it's invoked from
+            pool.submit(() -> Arrays.parallelSort(values)).join();
+        }
+    }
+
+    /**
+     * Counting sort of the rows by their group.
+     */
+    @NotNull
+    private static Groups bucket(@NotNull int[] groupOfRow, @Nullable int[] selection, int groupCount) {
+        final int[] offsets = new int[groupCount + 1];
+        for (int group : groupOfRow) {
+            offsets[group + 1]++;
+        }
+        for (int group = 0; group < groupCount; group++) {
+            offsets[group + 1] += offsets[group];
+        }
+        final int[] next = Arrays.copyOf(offsets, groupCount);
+        final int[] rows = new int[groupOfRow.length];
+        for (int i = 0; i < groupOfRow.length; i++) {
+            rows[next[groupOfRow[i]]++] = selection == null ? i : selection[i];
+        }
+        return new Groups(groupCount, rows, offsets);
+    }
+
+    /**
+     * Splits the rows into chunks; every chunk is grouped into its own {@link GroupTable}. The chunk-local
+     * tables are then merged in chunk order: since all rows of a chunk precede the rows of the next chunk, the
+     * merged group ids are in first-seen order, exactly as if the rows were grouped sequentially.
+     *
+     * @param expectedGroups presizes the tables; a chunk-local table never gets more groups than the chunk has rows.
+     * @return the number of groups.
+     */
+    private static int computeInParallel(@NotNull int[][] codes, @NotNull int[] cardinalities, @Nullable int[] selection,
+                                         @NotNull int[] groupOfRow, int expectedGroups, @NotNull ForkJoinPool pool,
+                                         @NotNull CancellationToken cancellation) {
+        final int rowCount = groupOfRow.length;
+        final int chunkCount = Math.max(1, Math.min(pool.getParallelism() * 4, rowCount / MIN_CHUNK_SIZE));
+        final int chunkSize = (rowCount + chunkCount - 1) / chunkCount;
+        final GroupTable[] localTables = new GroupTable[chunkCount];
+
+        // phase 1: chunk-local group ids
+        invokeAll(pool, chunkCount, chunk -> {
+            final GroupTable table = new GroupTable(codes, cardinalities, Math.min(expectedGroups, chunkSize));
+            final int to = Math.min(rowCount, (chunk + 1) * chunkSize);
+            for (int i = chunk * chunkSize; i < to; i++) {
+                cancellation.checkEvery(i);
+                groupOfRow[i] = table.add(selection == null ? i : selection[i]);
+            }
+            localTables[chunk] = table;
+        });
+
+        // phase 2: merge the local tables in chunk order
+        final GroupTable global = new GroupTable(codes, cardinalities, Math.max(expectedGroups, localTables[0].size()));
+        final int[][] localToGlobal = new int[chunkCount][];
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            final GroupTable local = localTables[chunk];
+            localToGlobal[chunk] = new int[local.size()];
+            for (int group = 0; group < local.size(); group++) {
+                cancellation.checkEvery(group);
+                localToGlobal[chunk][group] = global.add(local.getFirstRow(group));
+            }
+        }
+
+        // phase 3: translate local group ids to global ones
+        invokeAll(pool, chunkCount, chunk -> {
+            final int[] mapping = localToGlobal[chunk];
+            final int to = Math.min(rowCount, (chunk + 1) * chunkSize);
+            for (int i = chunk * chunkSize; i < to; i++) {
+                cancellation.checkEvery(i);
+                groupOfRow[i] = mapping[groupOfRow[i]];
+            }
+        });
+        return global.size();
+    }
+
+    /**
+     * Chunks smaller than this aren't worth a task of their own.
+     */
+    private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+    private interface ChunkTask {
+        void run(int chunk);
+    }
+
+    private static void invokeAll(@NotNull ForkJoinPool pool, int chunkCount, @NotNull ChunkTask task) {
+        final List<RecursiveAction> actions = new ArrayList<>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            final int c = chunk;
+            actions.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    task.run(c);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(actions);
+            }
+        });
+    }
+}
@@ -2,81 +2,761 @@ package org.vaadin.example.pivot.datasource;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Computes pivot values from an in-memory data. Allows for arbitrary grouping and aggregating.
+ * <p></p>
+ * The beans are grouped by the dictionary codes of the group-by values; a {@link GroupingPlan} chooses between
+ * a hash table, sorting and a direct array from the cardinalities of the columns, see {@link #explain(LinkedHashSet, List, PivotFilter)}.
+ * When constructed with a {@link PivotDataset}, the values are computed from the primitive columns of the dataset
+ * instead of calling the {@link PivotProperty#valueProvider}s over and over again.
+ * <p></p>
+ * Large inputs can be computed in a {@link ForkJoinPool}, see {@link #withParallelism(ForkJoinPool, int)}.
+ * Inputs with too many groups to keep in memory can be grouped within a {@link PivotOptions#withMemoryBudget(long) memory budget},
+ * spilling the partial states to disk, see {@link SpillingAggregation}. Datasets larger than the heap can be kept in an
+ * {@link OffHeapDataset} and scanned through its cursor, see {@link #InMemoryPivot(OffHeapDataset)}.
+ * <p></p>
+ * The rows carry the {@link Row#getAccumulator(String) partial states} of the aggregates; grand totals are merged out of them.
+ * A top-N {@link PivotOptions limit} is evaluated on the states with a bounded heap, before the rows are created.
+ * The rows of the result are created out of the states on demand, when {@link PivotResult#fetch(int, int, LinkedHashMap) fetched}.
  */
 public class InMemoryPivot<T> implements PivotDataSource<T> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryPivot.class);
+
+    /**
+     * A grouping estimated to produce at least this many rows is logged as a warning, before the rows are grouped.
+     */
+    public static final int LARGE_RESULT_ROWS = 1_000_000;
+
+    /**
+     * If not null, {@link #computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)} works on the columns
+     * of this dataset whenever it is given the {@link PivotDataset#getItems() items} of this dataset.
+     */
+    @Nullable
+    private final PivotDataset<T> dataset;
+
+    /**
+     * If not null, the rows are those of this dataset, regardless of the items passed to
+     * {@link #computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)}. Not serialized.
+     */
+    @Nullable
+    private final transient OffHeapDataset<T> offHeapDataset;
+
+    /**
+     * If not null, inputs of at least {@link #parallelThreshold} items are grouped and aggregated in this pool.
+     * Not serialized: a deserialized pivot computes sequentially.
+     */
+    @Nullable
+    private final transient ForkJoinPool pool;
+
+    /**
+     * The minimum number of items to compute in parallel; smaller inputs are computed sequentially.
+     */
+    private final int parallelThreshold;
+
+    /**
+     * The default for {@link #withParallelism(ForkJoinPool, int)}: below this number of items
+     * the overhead of forking outweighs the gain.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 100_000;
+
+    /**
+     * Creates a pivot which computes the values bean by bean.
+     */
+    public InMemoryPivot() {
+        this((PivotDataset<T>) null);
+    }
+
+    /**
+     * Creates a pivot which works on the primitive columns of given dataset. The columns are used
+     * only when {@link #computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)} is called
+     * with the {@link PivotDataset#getItems() items} of the dataset; any other list of items is processed bean by bean.
+     *
+     * @param dataset the dataset, may be null.
+     */
+    public InMemoryPivot(@Nullable PivotDataset<T> dataset) {
+        this(dataset, null, null, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Creates a pivot which groups and aggregates the rows of given off-heap dataset, scanning them with a
+     * {@link OffHeapDataset.Cursor}: no bean and no per-row object is ever created. The items passed to
+     * {@link #computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)} are ignored, the rows are
+     * those of the dataset; like rows computed remotely, the rows of the result don't know their members.
+     * The dataset is scanned sequentially, in a single pass; {@link PivotOptions#withMemoryBudget(long) memory budgets}
+     * don't apply.
+     *
+     * @param dataset the dataset, not null.
+     */
+    public InMemoryPivot(@NotNull OffHeapDataset<T> dataset) {
+        this(null, Objects.requireNonNull(dataset), null, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    private InMemoryPivot(@Nullable PivotDataset<T> dataset, @Nullable OffHeapDataset<T> offHeapDataset,
+                          @Nullable ForkJoinPool pool, int parallelThreshold) {
+        this.dataset = dataset;
+        this.offHeapDataset = offHeapDataset;
+        this.pool = pool;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Returns a copy of this pivot which groups and aggregates large inputs in parallel, in given pool.
+     * The number of threads is the {@link ForkJoinPool#getParallelism() parallelism} of the pool. The outcome is
+     * identical to the sequential computation, including the order of the rows.
+     *
+     * @param pool              the pool to compute in; null to always compute sequentially.
+     * @param parallelThreshold inputs with fewer items are computed sequentially.
+     * @return the new pivot, not null.
+     */
+    @NotNull
+    public InMemoryPivot<T> withParallelism(@Nullable ForkJoinPool pool, int parallelThreshold) {
+        return new InMemoryPivot<>(dataset, offHeapDataset, pool, parallelThreshold);
+    }
+
     /**
-     * A group key for a particular row. Immutable. All rows with the same group key
-     * are grouped together.
+     * The groups of the beans, along with the partial states of the aggregates of every group.
      */
-    private static final class GroupKey {
+    private static final class GroupStates implements Serializable {
+        final int count;
+        /**
+         * Null if computed within a memory budget or from an {@link OffHeapDataset}.
+         */
+        @Nullable
+        final Groups groups;
+        /**
+         * The group-by columns the values of the groups are read from; null if the {@link #keys} are known.
+         */
+        @Nullable
+        final List<PivotDataset.GroupColumn> columns;
+        /**
+         * The group-by values of every group if computed within a memory budget, see {@link SpillingAggregation},
+         * from an {@link OffHeapDataset}, or {@link #retain(int[]) retained}; null otherwise.
+         */
+        @Nullable
+        final List<List<Object>> keys;
+        /**
+         * The states, indexed by group and then by aggregate.
+         */
         @NotNull
-        private final Map<String, Object> idToGroupValue;
+        final Accumulator[][] states;
+        /**
+         * True if the {@link #columns} were encoded for this computation only, rather than belonging to the shared
+         * {@link #dataset}.
+         */
+        private final boolean ownsColumns;
+
+        GroupStates(@NotNull Groups groups, @NotNull List<PivotDataset.GroupColumn> columns, @NotNull Accumulator[][] states,
+                    boolean ownsColumns) {
+            this.count = groups.count;
+            this.groups = groups;
+            this.columns = columns;
+            this.keys = null;
+            this.states = states;
+            this.ownsColumns = ownsColumns;
+        }
+
+        GroupStates(@NotNull List<List<Object>> keys, @NotNull Accumulator[][] states) {
+            this(keys, null, states);
+        }
+
+        private GroupStates(@NotNull List<List<Object>> keys, @Nullable Groups groups, @NotNull Accumulator[][] states) {
+            this.count = keys.size();
+            this.groups = groups;
+            this.columns = null;
+            this.keys = keys;
+            this.states = states;
+            this.ownsColumns = false;
+        }
+
+        /**
+         * Estimates the heap held by the groups, in bytes: the states of every group, the group-by values or the
+         * columns they are read from, and the rows of every group.
+         *
+         * @param growingStates the number of states per group which keep their values, e.g. median.
+         */
+        long weigh(int growingStates) {
+            final int stateCount = states.length == 0 ? 0 : states[0].length;
+            long weight = (long) count * (SpillingAggregation.GROUP_BYTES + SpillingAggregation.STATE_BYTES * stateCount);
+            if (keys != null) {
+                weight += (long) count * SpillingAggregation.KEY_VALUE_BYTES * (keys.isEmpty() ? 0 : keys.get(0).size());
+            }
+            if (groups != null) {
+                weight += 4L * (groups.rows.length + groups.offsets.length)
+                        + (long) SpillingAggregation.VALUE_BYTES * growingStates * groups.rows.length;
+            }
+            if (ownsColumns) {
+                for (PivotDataset.GroupColumn column : columns) {
+                    weight += 4L * column.codes.length + (long) SpillingAggregation.KEY_VALUE_BYTES * column.getCardinality();
+                }
+            }
+            return weight;
+        }
 
-        public GroupKey(@NotNull Map<String, Object> idToGroupValue) {
-            this.idToGroupValue = Objects.requireNonNull(idToGroupValue);
+        /**
+         * Copies the group-by values, the states and the rows of given groups only, so that a limited result doesn't
+         * keep the states of all groups alive. Neither references the group-by columns: the columns of a throwaway
+         * {@link PivotDataset} span all items.
+         *
+         * @param retained the groups to keep, in the order of the new group ids.
+         */
+        @NotNull
+        GroupStates retain(@NotNull int[] retained) {
+            final List<List<Object>> retainedKeys = new ArrayList<>(retained.length);
+            final Accumulator[][] retainedStates = new Accumulator[retained.length][];
+            for (int i = 0; i < retained.length; i++) {
+                if (keys != null) {
+                    retainedKeys.add(keys.get(retained[i]));
+                } else {
+                    final List<Object> key = new ArrayList<>(columns.size());
+                    for (int column = 0; column < columns.size(); column++) {
+                        key.add(getValue(retained[i], column));
+                    }
+                    retainedKeys.add(key);
+                }
+                retainedStates[i] = states[retained[i]];
+            }
+            return new GroupStates(retainedKeys, groups == null ? null : groups.select(retained), retainedStates);
         }
 
+        /**
+         * @return the value of the group-by column at given index.
+         */
         @Nullable
-        public Object getValue(@NotNull String id) {
-            return idToGroupValue.get(id);
+        Object getValue(int group, int column) {
+            if (keys != null) {
+                return keys.get(group).get(column);
+            }
+            final PivotDataset.GroupColumn groupColumn = columns.get(column);
+            return groupColumn.getValue(groupColumn.codes[groups.getFirstRow(group)]);
+        }
+
+        /**
+         * @return the rows of given group; null if not known.
+         */
+        @Nullable
+        RowSet getMembers(int group) {
+            return groups == null ? null : RowSet.slice(groups.rows, groups.offsets[group], groups.offsets[group + 1]);
+        }
+    }
+
+    /**
+     * Creates the rows of the groups which are shown, followed by the "Others" row if any.
+     */
+    private static final class GroupRows<T> implements LazyRows.RowFactory<T> {
+        @NotNull
+        private final List<T> items;
+        @NotNull
+        private final GroupStates computed;
+        /**
+         * The groups which are shown, in the order of the rows.
+         */
+        @NotNull
+        private final int[] shown;
+        @Nullable
+        private final Row<T> others;
+        @NotNull
+        private final LinkedHashSet<GroupBy<T>> groupBy;
+        @NotNull
+        private final List<Aggregate<T>> aggregates;
+
+        GroupRows(@NotNull List<T> items, @NotNull GroupStates computed, @NotNull int[] shown, @Nullable Row<T> others,
+                  @NotNull LinkedHashSet<GroupBy<T>> groupBy, @NotNull List<Aggregate<T>> aggregates) {
+            this.items = items;
+            this.computed = computed;
+            this.shown = shown;
+            this.others = others;
+            this.groupBy = groupBy;
+            this.aggregates = aggregates;
         }
 
         @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            GroupKey groupKey = (GroupKey) o;
-            return idToGroupValue.equals(groupKey.idToGroupValue);
+        public int size() {
+            return others == null ? shown.length : shown.length + 1;
         }
 
+        @NotNull
         @Override
-        public int hashCode() {
-            return Objects.hash(idToGroupValue);
+        public Row<T> create(int index) {
+            return index == shown.length ? others : toRow(items, computed, shown[index], groupBy, aggregates);
+        }
+
+        @Nullable
+        @Override
+        public Object getValue(int index, @NotNull String columnId) {
+            if (index == shown.length) {
+                return others.get(columnId);
+            }
+            final int group = shown[index];
+            int i = 0;
+            for (GroupBy<T> clause : groupBy) {
+                if (clause.id.equals(columnId)) {
+                    return computed.getValue(group, i);
+                }
+                i++;
+            }
+            for (i = 0; i < aggregates.size(); i++) {
+                if (aggregates.get(i).id.equals(columnId)) {
+                    return computed.states[group][i].finish();
+                }
+            }
+            return null;
         }
 
         @Override
-        public String toString() {
-            return "GroupKey{" + idToGroupValue + '}';
+        public long weigh() {
+            int growingStates = 0;
+            for (Aggregate<T> aggregate : aggregates) {
+                if (aggregate.function == AggregateFunctionEnum.MEDIAN) {
+                    growingStates++;
+                }
+            }
+            return computed.weigh(growingStates) + 4L * shown.length + (others == null ? 0 : PivotResultCache.weigh(others));
+        }
+    }
+
+    @NotNull
+    private GroupStates computeStates(
+            @NotNull List<T> items,
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull List<Aggregate<T>> aggregates,
+            boolean columnar,
+            @NotNull Map<String, Set<Object>> groupByFilter,
+            @NotNull CancellationToken cancellation
+    ) {
+        // without a dataset, the group-by values are dictionary-encoded on the fly
+        final PivotDataset<T> source = columnar ? dataset : new PivotDataset<>(items);
+        final List<PivotDataset.GroupColumn> columns = new ArrayList<>(groupBy.size());
+        for (GroupBy<T> clause : groupBy) {
+            columns.add(source.getGroupColumn(clause.property));
+        }
+        final List<PivotDataset.MeasureColumn> measureColumns = columnar ? getMeasureColumns(aggregates) : null;
+        final ForkJoinPool pool = items.size() >= parallelThreshold ? this.pool : null;
+        final int[] selection = select(items.size(), groupBy, columns, groupByFilter, columnar, cancellation);
+        final GroupingPlan plan = GroupingPlan.of(columns, selection == null ? items.size() : selection.length,
+                pool == null ? 1 : pool.getParallelism());
+        if (plan.estimatedGroups >= LARGE_RESULT_ROWS) {
+            LOGGER.warn("Grouping {} items by {} produces up to {} rows", items.size(), groupBy, plan.estimatedGroups);
+        }
+        final Groups groups = Groups.compute(plan, columns, items.size(), selection, pool, cancellation);
+
+        final Accumulator[][] states = new Accumulator[groups.count][];
+        if (pool == null) {
+            for (int group = 0; group < groups.count; group++) {
+                states[group] = accumulate(items, groups, group, aggregates, measureColumns, cancellation);
+            }
+        } else {
+            // the groups are independent of each other
+            pool.submit(() -> IntStream.range(0, groups.count).parallel()
+                    .forEach(group -> states[group] = accumulate(items, groups, group, aggregates, measureColumns, cancellation))
+            ).join();
+        }
+        return new GroupStates(groups, columns, states, !columnar);
+    }
+
+    /**
+     * Aggregates the rows straight into the states of their groups, keyed by the group-by values, spilling the states
+     * to disk when over the budget; see {@link SpillingAggregation}. Unlike {@link #computeStates(List, LinkedHashSet, List, boolean, Map, CancellationToken)},
+     * neither dictionary-encodes the group-by values nor keeps the rows of every group.
+     */
+    @NotNull
+    private GroupStates computeWithinBudget(
+            @NotNull List<T> items,
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull List<Aggregate<T>> aggregates,
+            boolean columnar,
+            @NotNull Map<String, Set<Object>> groupByFilter,
+            long memoryBudget,
+            @NotNull CancellationToken cancellation
+    ) {
+        final List<GroupBy<T>> clauses = new ArrayList<>(groupBy);
+        final List<Set<Object>> allowedValues = new ArrayList<>(clauses.size());
+        final List<PivotDataset.GroupColumn> columns = new ArrayList<>(clauses.size());
+        for (GroupBy<T> clause : clauses) {
+            allowedValues.add(groupByFilter.get(clause.id));
+            if (columnar) {
+                columns.add(dataset.getGroupColumn(clause.property));
+            }
+        }
+        final List<PivotDataset.MeasureColumn> measureColumns = columnar ? getMeasureColumns(aggregates) : null;
+        int growingStates = 0;
+        for (Aggregate<T> aggregate : aggregates) {
+            if (aggregate.function == AggregateFunctionEnum.MEDIAN) {
+                growingStates++;
+            }
+        }
+        final Supplier<Accumulator[]> stateFactory = () -> {
+            final Accumulator[] states = new Accumulator[aggregates.size()];
+            for (int i = 0; i < states.length; i++) {
+                states[i] = aggregates.get(i).createAccumulator(measureColumns == null ? null : measureColumns.get(i).type);
+            }
+            return states;
+        };
+
+        final List<SpillingAggregation.Group> groups;
+        try (SpillingAggregation aggregation = new SpillingAggregation(stateFactory, memoryBudget, growingStates)) {
+            rows:
+            for (int row = 0; row < items.size(); row++) {
+                // an abort closes the aggregation, deleting its spill files
+                cancellation.checkEvery(row);
+                final T bean = columnar ? null : items.get(row);
+                final List<Object> key = new ArrayList<>(clauses.size());
+                for (int i = 0; i < clauses.size(); i++) {
+                    final Object value = columnar
+                            ? columns.get(i).getValue(columns.get(i).codes[row])
+                            : clauses.get(i).getValue(bean);
+                    if (allowedValues.get(i) != null && !allowedValues.get(i).contains(value)) {
+                        continue rows;
+                    }
+                    key.add(value);
+                }
+                final Accumulator[] states = aggregation.getStates(row, key);
+                for (int i = 0; i < states.length; i++) {
+                    if (measureColumns == null) {
+                        aggregates.get(i).accumulate(states[i], bean);
+                    } else if (aggregates.get(i).function instanceof AggregateFunctionEnum) {
+                        measureColumns.get(i).accumulate(row, states[i]);
+                    } else {
+                        states[i].accumulate(measureColumns.get(i).getValue(row));
+                    }
+                }
+            }
+            groups = aggregation.finish();
+            if (aggregation.getSpillCount() > 0) {
+                LOGGER.info("Grouped {} items into {} groups, spilled {} times to stay within {} bytes",
+                        items.size(), groups.size(), aggregation.getSpillCount(), memoryBudget);
+            }
+        }
+        final List<List<Object>> keys = new ArrayList<>(groups.size());
+        final Accumulator[][] states = new Accumulator[groups.size()][];
+        for (int group = 0; group < states.length; group++) {
+            keys.add(groups.get(group).key);
+            states[group] = groups.get(group).states;
+        }
+        return new GroupStates(keys, states);
+    }
+
+    /**
+     * Scans the {@link #offHeapDataset} once, grouping the rows by their dictionary codes in a {@link GroupTable} and
+     * accumulating the primitive values straight into the states of their groups. Only the groups and their states
+     * are allocated on the heap.
+     */
+    @NotNull
+    private GroupStates computeOffHeap(
+            @NotNull OffHeapDataset<T> source,
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull List<Aggregate<T>> aggregates,
+            @NotNull Map<String, Set<Object>> groupByFilter,
+            @NotNull CancellationToken cancellation
+    ) {
+        final List<OffHeapDataset.GroupColumn> columns = new ArrayList<>(groupBy.size());
+        final int[] cardinalities = new int[groupBy.size()];
+        // indexed by column, then by code; null for columns without a filter
+        final boolean[][] allowedCodes = new boolean[groupBy.size()][];
+        long keySpace = 1;
+        int i = 0;
+        for (GroupBy<T> clause : groupBy) {
+            final OffHeapDataset.GroupColumn column = source.getGroupColumn(clause.property);
+            columns.add(column);
+            cardinalities[i] = column.getCardinality();
+            keySpace = Math.min(keySpace * column.getCardinality(), source.size());
+            final Set<Object> allowedValues = groupByFilter.get(clause.id);
+            if (allowedValues != null) {
+                allowedCodes[i] = new boolean[column.getCardinality()];
+                for (int code = 0; code < column.getCardinality(); code++) {
+                    allowedCodes[i][code] = allowedValues.contains(column.getValue(code));
+                }
+            }
+            i++;
+        }
+        final List<OffHeapDataset.MeasureColumn> measureColumns = new ArrayList<>(aggregates.size());
+        for (Aggregate<T> aggregate : aggregates) {
+            measureColumns.add(source.getMeasureColumn(aggregate.property));
         }
+        if (keySpace >= LARGE_RESULT_ROWS) {
+            LOGGER.warn("Grouping {} off-heap rows by {} produces up to {} rows", source.size(), groupBy, keySpace);
+        }
+
+        final GroupTable table = new GroupTable(cardinalities, (int) Math.max(1, Math.min(keySpace, GroupingPlan.MAX_PRESIZED_GROUPS)));
+        final List<Accumulator[]> states = new ArrayList<>();
+        final int[] codes = new int[columns.size()];
+        final OffHeapDataset.Cursor cursor = source.cursor(columns, measureColumns);
+        rows:
+        while (cursor.next()) {
+            cancellation.checkEvery(cursor.getRow());
+            cursor.getCodes(codes);
+            for (int c = 0; c < codes.length; c++) {
+                if (allowedCodes[c] != null && !allowedCodes[c][codes[c]]) {
+                    continue rows;
+                }
+            }
+            final int group = table.add(codes, cursor.getRow());
+            if (group == states.size()) {
+                final Accumulator[] created = new Accumulator[aggregates.size()];
+                for (int a = 0; a < created.length; a++) {
+                    created[a] = aggregates.get(a).createAccumulator(measureColumns.get(a).type);
+                }
+                states.add(created);
+            }
+            final Accumulator[] groupStates = states.get(group);
+            for (int a = 0; a < groupStates.length; a++) {
+                if (aggregates.get(a).function instanceof AggregateFunctionEnum) {
+                    cursor.accumulate(a, groupStates[a]);
+                } else {
+                    // a custom function accumulates the boxed values
+                    groupStates[a].accumulate(measureColumns.get(a).getValue(cursor.getRow()));
+                }
+            }
+        }
+
+        final List<List<Object>> keys = new ArrayList<>(table.size());
+        for (int group = 0; group < table.size(); group++) {
+            final int firstRow = table.getFirstRow(group);
+            final List<Object> key = new ArrayList<>(columns.size());
+            for (OffHeapDataset.GroupColumn column : columns) {
+                key.add(column.getValue(column.getCode(firstRow)));
+            }
+            keys.add(key);
+        }
+        return new GroupStates(keys, states.toArray(new Accumulator[0][]));
     }
 
+    /**
+     * Explains how {@link #computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)} would group given
+     * items: the chosen strategy, the estimated cost of every strategy and the {@link ColumnStatistics statistics}
+     * of the group-by columns. Groups nothing.
+     *
+     * @param groupBy the group-by clauses.
+     * @param items   the items.
+     * @param filter  the filter; only the filters on the group-by values affect the grouping.
+     * @return the human-readable plan, not null.
+     */
     @NotNull
-    private GroupKey computeGroupingKey(@NotNull T item, @NotNull LinkedHashSet<GroupBy<T>> groupBy) {
-        final Map<String, Object> idToGroupValue = new HashMap<>(groupBy.size());
-        for (GroupBy<T> clause: groupBy) {
-            idToGroupValue.put(clause.id, clause.getValue(item));
+    public String explain(@NotNull LinkedHashSet<GroupBy<T>> groupBy, @NotNull List<T> items, @NotNull PivotFilter filter) {
+        final Map<String, Set<Object>> groupByFilter = new HashMap<>();
+        for (GroupBy<T> clause : groupBy) {
+            final Set<Object> values = filter.getFilterValues().get(clause.id);
+            if (values != null && !values.isEmpty()) {
+                groupByFilter.put(clause.id, values);
+            }
+        }
+        final PivotDataset<T> source = dataset != null && dataset.getItems() == items ? dataset : new PivotDataset<>(items);
+        final List<PivotDataset.GroupColumn> columns = new ArrayList<>(groupBy.size());
+        for (GroupBy<T> clause : groupBy) {
+            columns.add(source.getGroupColumn(clause.property));
+        }
+        final ForkJoinPool pool = items.size() >= parallelThreshold ? this.pool : null;
+        final int[] selection = select(items.size(), groupBy, columns, groupByFilter, source == dataset, CancellationToken.NONE);
+        final GroupingPlan plan = GroupingPlan.of(columns, selection == null ? items.size() : selection.length,
+                pool == null ? 1 : pool.getParallelism());
+        final StringBuilder sb = new StringBuilder(plan.toString());
+        int i = 0;
+        for (GroupBy<T> clause : groupBy) {
+            sb.append(clause.id).append(": ").append(columns.get(i++).getStatistics()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Evaluates the filters on the group-by columns against the dictionary codes of the rows: every distinct value is
+     * tested just once, then every row costs an array lookup per filter. The columns of the {@link #dataset} are
+     * filtered via their {@link BitmapIndex}es instead, which are built once and then shared by all computations.
+     *
+     * @param groupByFilter the filters, keyed by {@link GroupBy#id}.
+     * @param indexed       true if the columns belong to the {@link #dataset}.
+     * @return the rows passing all filters, in ascending order; null if there are no filters.
+     */
+    @Nullable
+    private static <T> int[] select(int rowCount, @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+                                    @NotNull List<PivotDataset.GroupColumn> columns,
+                                    @NotNull Map<String, Set<Object>> groupByFilter, boolean indexed,
+                                    @NotNull CancellationToken cancellation) {
+        if (groupByFilter.isEmpty()) {
+            return null;
+        }
+        final List<PivotDataset.GroupColumn> filteredColumns = new ArrayList<>();
+        final List<boolean[]> allowedCodes = new ArrayList<>();
+        int i = 0;
+        for (GroupBy<T> clause : groupBy) {
+            final PivotDataset.GroupColumn column = columns.get(i++);
+            final Set<Object> allowedValues = groupByFilter.get(clause.id);
+            if (allowedValues != null) {
+                final boolean[] allowed = new boolean[column.getCardinality()];
+                for (int code = 0; code < allowed.length; code++) {
+                    allowed[code] = allowedValues.contains(column.getValue(code));
+                }
+                filteredColumns.add(column);
+                allowedCodes.add(allowed);
+            }
+        }
+        if (indexed) {
+            final List<BitmapIndex> indexes = new ArrayList<>(filteredColumns.size());
+            for (PivotDataset.GroupColumn column : filteredColumns) {
+                indexes.add(column.getBitmapIndex());
+            }
+            return BitmapIndex.select(indexes, allowedCodes, rowCount);
+        }
+        final int[] selection = new int[rowCount];
+        int selected = 0;
+        rows:
+        for (int row = 0; row < rowCount; row++) {
+            cancellation.checkEvery(row);
+            for (int f = 0; f < filteredColumns.size(); f++) {
+                if (!allowedCodes.get(f)[filteredColumns.get(f).codes[row]]) {
+                    continue rows;
+                }
+            }
+            selection[selected++] = row;
         }
-        return new GroupKey(idToGroupValue);
+        return Arrays.copyOf(selection, selected);
     }
 
     @NotNull
-    private Row<T> computeRow(@NotNull GroupKey key, @NotNull List<T> groupedItems, @NotNull LinkedHashSet<Aggregate<T>> aggregates) {
-        final Map<String, Object> row = new HashMap<>(key.idToGroupValue.size() + aggregates.size());
-        row.putAll(key.idToGroupValue);
+    private List<PivotDataset.MeasureColumn> getMeasureColumns(@NotNull List<Aggregate<T>> aggregates) {
+        final List<PivotDataset.MeasureColumn> measureColumns = new ArrayList<>(aggregates.size());
         for (Aggregate<T> aggregate : aggregates) {
-            final Number aggregatedValue = aggregate.computeAggregatedValue(groupedItems);
-            row.put(aggregate.id, aggregatedValue);
+            measureColumns.add(dataset.getMeasureColumn(aggregate.property));
         }
-        return new Row<>(row, groupedItems);
+        return measureColumns;
     }
 
+    /**
+     * Computes the states of one group. All aggregates are computed in a single pass over the beans (or rows) of the group.
+     * The token is checked every {@link CancellationToken#CHECK_INTERVAL} groups, and before every group of at least
+     * as many rows.
+     *
+     * @param measureColumns the columns of the aggregates if computing from the {@link #dataset}; null to compute from the beans.
+     */
     @NotNull
-    private Map<GroupKey, List<T>> computePivotData(
-            @NotNull Collection<T> items,
-            @NotNull LinkedHashSet<GroupBy<T>> groupBy
+    private static <T> Accumulator[] accumulate(
+            @NotNull List<T> items,
+            @NotNull Groups groups,
+            int group,
+            @NotNull List<Aggregate<T>> aggregates,
+            @Nullable List<PivotDataset.MeasureColumn> measureColumns,
+            @NotNull CancellationToken cancellation
     ) {
-        return items.stream().collect(Collectors.groupingBy(
-                it -> computeGroupingKey(it, groupBy),
-                LinkedHashMap::new,
-                Collectors.toList()
-        ));
+        final int from = groups.offsets[group];
+        final int to = groups.offsets[group + 1];
+        if (to - from >= CancellationToken.CHECK_INTERVAL) {
+            cancellation.throwIfCancelled();
+        } else {
+            cancellation.checkEvery(group);
+        }
+        return measureColumns != null
+                ? Aggregate.accumulate(aggregates, measureColumns, groups.rows, from, to)
+                : Aggregate.accumulate(aggregates, RowSet.slice(groups.rows, from, to).asList(items));
+    }
+
+    /**
+     * Creates the pivot row of one group out of its states.
+     */
+    @NotNull
+    private static <T> Row<T> toRow(
+            @NotNull List<T> items,
+            @NotNull GroupStates computed,
+            int group,
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull List<Aggregate<T>> aggregates
+    ) {
+        final Map<String, Object> row = new HashMap<>(groupBy.size() + aggregates.size());
+        int i = 0;
+        for (GroupBy<T> clause : groupBy) {
+            row.put(clause.id, computed.getValue(group, i++));
+        }
+        final Accumulator[] accumulators = computed.states[group];
+        final Map<String, Accumulator> states = new HashMap<>(aggregates.size());
+        for (i = 0; i < accumulators.length; i++) {
+            final String id = aggregates.get(i).id;
+            row.put(id, accumulators[i].finish());
+            states.put(id, accumulators[i]);
+        }
+        final RowSet members = computed.getMembers(group);
+        return members == null ? new Row<>(row, null, states) : new Row<>(row, items, members, states);
+    }
+
+    /**
+     * Merges the states of given groups into a row.
+     *
+     * @param caption the value of the first group-by column; the other group-by values are null.
+     */
+    @NotNull
+    private static <T> Row<T> merge(
+            @NotNull GroupStates computed,
+            @NotNull int[] groups,
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull List<Aggregate<T>> aggregates,
+            @NotNull String caption,
+            @NotNull CancellationToken cancellation
+    ) {
+        final Map<String, Object> row = new HashMap<>(groupBy.size() + aggregates.size());
+        for (GroupBy<T> clause : groupBy) {
+            row.put(clause.id, row.isEmpty() ? caption : null);
+        }
+        final Map<String, Accumulator> states = new HashMap<>(aggregates.size());
+        for (int i = 0; i < aggregates.size(); i++) {
+            final Accumulator merged = mergeStates(computed, groups, groups.length, aggregates.get(i), i, cancellation);
+            row.put(aggregates.get(i).id, merged.finish());
+            states.put(aggregates.get(i).id, merged);
+        }
+        return new Row<>(row, null, states);
+    }
+
+    @NotNull
+    private static <T> Accumulator mergeStates(@NotNull GroupStates computed, @NotNull int[] groups, int count,
+                                               @NotNull Aggregate<T> aggregate, int index,
+                                               @NotNull CancellationToken cancellation) {
+        final Accumulator merged = aggregate.function.createAccumulator();
+        for (int i = 0; i < count; i++) {
+            cancellation.checkEvery(i);
+            merged.merge(computed.states[groups[i]][index]);
+        }
+        return merged;
+    }
+
+    /**
+     * @return <code>0, 1, ..., count - 1</code>.
+     */
+    @NotNull
+    private static int[] identity(int count) {
+        final int[] identity = new int[count];
+        for (int i = 0; i < count; i++) {
+            identity[i] = i;
+        }
+        return identity;
+    }
+
+    /**
+     * Evaluates a filter on the aggregated values of a group; the filter must not refer to group-by values.
+     */
+    private static <T> boolean matches(@NotNull Accumulator[] states, @NotNull List<Aggregate<T>> aggregates,
+                                       @NotNull Map<String, Set<Object>> filter) {
+        filters:
+        for (Entry<String, Set<Object>> filterValue : filter.entrySet()) {
+            for (int i = 0; i < aggregates.size(); i++) {
+                if (aggregates.get(i).id.equals(filterValue.getKey())) {
+                    if (!filterValue.getValue().contains(states[i].finish())) {
+                        return false;
+                    }
+                    continue filters;
+                }
+            }
+            // no such value
+            if (!filterValue.getValue().contains(null)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @NotNull
@@ -87,6 +767,29 @@ public class InMemoryPivot<T> implements PivotDataSource<T> {
             @NotNull Set<String> grandTotalIDs,
             @NotNull List<T> items,
             @NotNull PivotFilter filter
+    ) {
+        return computePivotRows(groupBy, aggregates, grandTotalIDs, items, filter, PivotOptions.NONE);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p></p>
+     * A limit on an aggregated value is evaluated on the partial states of the groups, before any row is created:
+     * only the rows which are shown (and the "Others" row) are ever created.
+     * <p></p>
+     * The {@link PivotOptions#getCancellation() cancellation token} is checked while filtering, grouping and aggregating
+     * the rows, while selecting the shown groups and while merging the grand totals; once aborted, nothing computed so
+     * far is referenced any more.
+     */
+    @NotNull
+    @Override
+    public PivotResult<T> computePivotRows(
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull LinkedHashSet<Aggregate<T>> aggregates,
+            @NotNull Set<String> grandTotalIDs,
+            @NotNull List<T> items,
+            @NotNull PivotFilter filter,
+            @NotNull PivotOptions options
     ) {
         // parameter checking
         final Optional<GroupBy<T>> columnGrouping = groupBy.stream().filter(it -> it.columnGrouping).findAny();
@@ -105,27 +808,62 @@ public class InMemoryPivot<T> implements PivotDataSource<T> {
             throw new IllegalArgumentException("Parameter grandTotalIDs: invalid value " + grandTotalIDs + ": no aggregates found for these IDs: " + grandTotalIDs);
         }
 
-        // compute raw grouping data
-        final Map<GroupKey, List<T>> pivotData = computePivotData(items, groupBy);
-
-        // compute pivot row values
-        final List<Row<T>> pivotRows = pivotData.entrySet().stream()
-                .map(it -> computeRow(it.getKey(), it.getValue(), aggregates))
-                .filter(row -> {
-                    Set<Entry<String, Set<Object>>> filterValues = filter.getFilterValues().entrySet();
-
-                    for (Entry<String, Set<Object>> filterValue : filterValues) {
-                        String columnId = filterValue.getKey();
-                        Set<Object> value = filterValue.getValue();
-                        if (!value.isEmpty() && !value.contains(row.get(columnId))) {
-                            return false;
-                        }
-                    }
+        // filters on group-by values are applied to the beans before grouping; any other filter
+        // (e.g. on an aggregated value) is applied to the computed rows.
+        final Set<String> groupByIds = groupBy.stream().map(it -> it.id).collect(Collectors.toSet());
+        final Map<String, Set<Object>> groupByFilter = new HashMap<>();
+        final Map<String, Set<Object>> rowFilter = new HashMap<>();
+        for (Entry<String, Set<Object>> filterValue : filter.getFilterValues().entrySet()) {
+            if (!filterValue.getValue().isEmpty()) {
+                (groupByIds.contains(filterValue.getKey()) ? groupByFilter : rowFilter).put(filterValue.getKey(), filterValue.getValue());
+            }
+        }
 
-                    return true;
-                })
-                .collect(Collectors.toList());
+        // compute the states of all groups, then keep the groups passing the filter on the aggregated values
+        final CancellationToken cancellation = options.getCancellation();
+        cancellation.throwIfCancelled();
+        final boolean columnar = dataset != null && dataset.getItems() == items;
+        final List<Aggregate<T>> aggregateList = new ArrayList<>(aggregates);
+        final GroupStates computed = offHeapDataset != null
+                ? computeOffHeap(offHeapDataset, groupBy, aggregateList, groupByFilter, cancellation)
+                : options.hasMemoryBudget()
+                ? computeWithinBudget(items, groupBy, aggregateList, columnar, groupByFilter, options.getMemoryBudget(), cancellation)
+                : computeStates(items, groupBy, aggregateList, columnar, groupByFilter, cancellation);
+        final int[] candidates = new int[computed.count];
+        int candidateCount = 0;
+        for (int group = 0; group < computed.count; group++) {
+            cancellation.checkEvery(group);
+            if (rowFilter.isEmpty() || matches(computed.states[group], aggregateList, rowFilter)) {
+                candidates[candidateCount++] = group;
+            }
+        }
 
+        // apply the limit on the primitive sort keys; rows are created only for the groups which are shown
+        final int orderBy = options.hasLimit() ? aggregateList.stream().map(it -> it.id).collect(Collectors.toList()).indexOf(options.getOrderBy()) : -1;
+        final int[] shown;
+        if (orderBy >= 0) {
+            final double[] keys = new double[computed.count];
+            for (int i = 0; i < candidateCount; i++) {
+                cancellation.checkEvery(i);
+                keys[candidates[i]] = TopN.toKey(computed.states[candidates[i]][orderBy].finish());
+            }
+            shown = TopN.select(keys, candidates, candidateCount, options.getLimit(), options.isDescending());
+        } else {
+            shown = Arrays.copyOf(candidates, candidateCount);
+        }
+        Row<T> othersRow = null;
+        if (orderBy >= 0 && options.getOthersCaption() != null && shown.length < candidateCount) {
+            final boolean[] isShown = new boolean[computed.count];
+            for (int group : shown) {
+                isShown[group] = true;
+            }
+            final int[] others = Arrays.stream(candidates, 0, candidateCount).filter(group -> !isShown[group]).toArray();
+            othersRow = merge(computed, others, groupBy, aggregateList, options.getOthersCaption(), cancellation);
+        }
+        // the rows are created on demand, out of the states; a limited result keeps the states of the shown groups only
+        final List<Row<T>> pivotRows = orderBy >= 0 && shown.length < computed.count
+                ? new LazyRows<>(new GroupRows<>(items, computed.retain(shown), identity(shown.length), othersRow, groupBy, aggregateList))
+                : new LazyRows<>(new GroupRows<>(items, computed, shown, othersRow, groupBy, aggregateList));
 
         // compute the list of columns
         final List<PivotColumn<T>> columns = new ArrayList<>();
@@ -136,28 +874,29 @@ public class InMemoryPivot<T> implements PivotDataSource<T> {
             columns.add(new PivotColumn<>(aggregate.id, null, aggregate, null));
         }
 
-        // compute the grand totals
+        // compute the grand totals out of the states of all groups passing the filter, regardless of the limit
         final HashMap<String, Object> grandTotalValues = new HashMap<>();
-        if (!items.isEmpty()) {
-            // only use items, for which rows are shown
-            Collection<T> rowItems;
-            if (filter.isEmpty()) {
-                rowItems = items;
-            } else {
-                rowItems = pivotRows.stream().filter(r -> r.sourceBeans != null).flatMap(r -> r.sourceBeans.stream()).collect(Collectors.toSet());
-            }
-
-            for (Aggregate<T> grandTotal : grandTotals.values()) {
-                final Number grandValue = grandTotal.computeAggregatedValue(rowItems);
-                grandTotalValues.put(grandTotal.id, grandValue);
+        if (candidateCount > 0) {
+            for (int i = 0; i < aggregateList.size(); i++) {
+                final Aggregate<T> aggregate = aggregateList.get(i);
+                if (grandTotals.containsKey(aggregate.id)) {
+                    grandTotalValues.put(aggregate.id, mergeStates(computed, candidates, candidateCount, aggregate, i, cancellation).finish());
+                }
             }
         }
 
-        return new PivotResult<>(pivotRows, columns, grandTotalValues);
+        final PivotResult<T> result = new PivotResult<>(pivotRows, columns, grandTotalValues);
+        // a limit on a value other than an aggregate (e.g. a group-by value) is applied to the rows
+        return orderBy < 0 ? TopN.apply(result, options) : result;
     }
 
     @Override
     public String toString() {
-        return "InMemoryPivot{}";
+        return "InMemoryPivot{" +
+                "dataset=" + dataset +
+                ", offHeapDataset=" + offHeapDataset +
+                ", pool=" + pool +
+                ", parallelThreshold=" + parallelThreshold +
+                '}';
     }
 }
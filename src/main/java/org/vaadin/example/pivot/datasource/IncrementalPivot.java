@@ -0,0 +1,278 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotColumn;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotFilter;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotResult;
+import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Maintains a pivot over a changing collection of beans. Instead of computing all rows over and over again
+ * (see {@link InMemoryPivot}), the pivot keeps the groups and the {@link Accumulator}s of every group; every
+ * {@link #add(Object)}, {@link #remove(Object)} or {@link #update(Object, Object)} adjusts just the group of the bean
+ * and the grand totals.
+ * <p></p>
+ * Removing a value from an accumulator is cheap for most functions, see {@link Accumulator#remove(Object)}. The
+ * exception is {@link AggregateFunctionEnum#MIN}/{@link AggregateFunctionEnum#MAX}: when the current minimum (maximum)
+ * is removed, the state of the group is recomputed out of the remaining beans of the group, and the grand total
+ * is recomputed by merging the states of all groups. Removing any other value doesn't change the state.
+ * <p></p>
+ * The rows are ordered by the time their group was created. The beans must not be modified while in the pivot:
+ * replace them via {@link #update(Object, Object)} instead. Not thread-safe.
+ */
+public class IncrementalPivot<T> implements Serializable {
+    @NotNull
+    private final List<GroupBy<T>> groupBy;
+    @NotNull
+    private final List<Aggregate<T>> aggregates;
+    @NotNull
+    private final Set<String> grandTotalIDs;
+    @NotNull
+    private final List<PivotColumn<T>> columns = new ArrayList<>();
+
+    /**
+     * The groups, keyed by the group-by values, in the order of creation.
+     */
+    @NotNull
+    private final LinkedHashMap<List<Object>, Group<T>> groups = new LinkedHashMap<>();
+
+    /**
+     * The states of all beans, one per aggregate.
+     */
+    @NotNull
+    private final Accumulator[] grandTotals;
+
+    private static final class Group<T> implements Serializable {
+        @NotNull
+        final List<Object> key;
+        @NotNull
+        final List<T> beans = new ArrayList<>();
+        @NotNull
+        final Accumulator[] accumulators;
+        /**
+         * The row computed out of the current state; null if the group has changed since.
+         */
+        @Nullable
+        Row<T> row;
+
+        Group(@NotNull List<Object> key, @NotNull Accumulator[] accumulators) {
+            this.key = key;
+            this.accumulators = accumulators;
+        }
+    }
+
+    /**
+     * Creates an empty pivot.
+     *
+     * @param groupBy       the grouping, see {@link PivotDataSource#computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)}.
+     *                      Column grouping is not supported.
+     * @param aggregates    the aggregates.
+     * @param grandTotalIDs compute grand totals for <code>aggregates</code> with these IDs.
+     */
+    public IncrementalPivot(@NotNull LinkedHashSet<GroupBy<T>> groupBy, @NotNull LinkedHashSet<Aggregate<T>> aggregates,
+                            @NotNull Set<String> grandTotalIDs) {
+        final Optional<GroupBy<T>> columnGrouping = groupBy.stream().filter(it -> it.columnGrouping).findAny();
+        if (columnGrouping.isPresent()) {
+            throw new IllegalArgumentException("Parameter groupBy: invalid value " + groupBy + ": column grouping is not supported: " + columnGrouping.get());
+        }
+        final Set<String> aggregateIds = new HashSet<>();
+        for (Aggregate<T> aggregate : aggregates) {
+            aggregateIds.add(aggregate.id);
+        }
+        if (!aggregateIds.containsAll(grandTotalIDs)) {
+            final Set<String> unknown = new HashSet<>(grandTotalIDs);
+            unknown.removeAll(aggregateIds);
+            throw new IllegalArgumentException("Parameter grandTotalIDs: invalid value " + grandTotalIDs + ": no aggregates found for these IDs: " + unknown);
+        }
+        this.groupBy = new ArrayList<>(groupBy);
+        this.aggregates = new ArrayList<>(aggregates);
+        this.grandTotalIDs = new HashSet<>(grandTotalIDs);
+        for (GroupBy<T> clause : groupBy) {
+            columns.add(new PivotColumn<>(clause.id, null, null, clause));
+        }
+        for (Aggregate<T> aggregate : aggregates) {
+            columns.add(new PivotColumn<>(aggregate.id, null, aggregate, null));
+        }
+        grandTotals = createAccumulators();
+    }
+
+    @NotNull
+    private Accumulator[] createAccumulators() {
+        final Accumulator[] accumulators = new Accumulator[aggregates.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i] = aggregates.get(i).createAccumulator(null);
+        }
+        return accumulators;
+    }
+
+    @NotNull
+    private List<Object> getKey(@NotNull T bean) {
+        final List<Object> key = new ArrayList<>(groupBy.size());
+        for (GroupBy<T> clause : groupBy) {
+            key.add(clause.getValue(bean));
+        }
+        return key;
+    }
+
+    /**
+     * Adds a bean to the pivot.
+     */
+    public void add(@NotNull T bean) {
+        final List<Object> key = getKey(bean);
+        final Group<T> group = groups.computeIfAbsent(key, k -> new Group<>(k, createAccumulators()));
+        group.beans.add(bean);
+        group.row = null;
+        for (int i = 0; i < aggregates.size(); i++) {
+            final Object value = aggregates.get(i).property.getValue(bean);
+            group.accumulators[i].accumulate(value);
+            grandTotals[i].accumulate(value);
+        }
+    }
+
+    /**
+     * Adds all beans to the pivot.
+     */
+    public void addAll(@NotNull Collection<? extends T> beans) {
+        for (T bean : beans) {
+            add(bean);
+        }
+    }
+
+    /**
+     * Removes a bean from the pivot. A group left without beans is removed.
+     *
+     * @param bean the bean to remove, compared via {@link Object#equals(Object)}.
+     * @return true if the bean was removed, false if it wasn't present in the pivot.
+     */
+    public boolean remove(@NotNull T bean) {
+        final Group<T> group = groups.get(getKey(bean));
+        if (group == null || !group.beans.remove(bean)) {
+            return false;
+        }
+        group.row = null;
+        if (group.beans.isEmpty()) {
+            groups.remove(group.key);
+        }
+        for (int i = 0; i < aggregates.size(); i++) {
+            final Object value = aggregates.get(i).property.getValue(bean);
+            if (!group.beans.isEmpty() && !group.accumulators[i].remove(value)) {
+                group.accumulators[i] = recompute(aggregates.get(i), group.beans);
+            }
+            if (!grandTotals[i].remove(value)) {
+                grandTotals[i] = mergeGroups(i);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replaces a bean in the pivot; the new bean may belong to a different group.
+     *
+     * @param oldBean the bean to replace.
+     * @param newBean the replacement.
+     * @throws IllegalArgumentException if the old bean is not present in the pivot.
+     */
+    public void update(@NotNull T oldBean, @NotNull T newBean) {
+        if (!remove(oldBean)) {
+            throw new IllegalArgumentException("Parameter oldBean: invalid value " + oldBean + ": not present in the pivot");
+        }
+        add(newBean);
+    }
+
+    @NotNull
+    private static <T> Accumulator recompute(@NotNull Aggregate<T> aggregate, @NotNull List<T> beans) {
+        final Accumulator accumulator = aggregate.createAccumulator(null);
+        for (T bean : beans) {
+            accumulator.accumulate(aggregate.property.getValue(bean));
+        }
+        return accumulator;
+    }
+
+    @NotNull
+    private Accumulator mergeGroups(int aggregate) {
+        final Accumulator accumulator = aggregates.get(aggregate).function.createAccumulator();
+        for (Group<T> group : groups.values()) {
+            accumulator.merge(group.accumulators[aggregate]);
+        }
+        return accumulator;
+    }
+
+    /**
+     * @return the number of groups, i.e. the number of rows of an unfiltered {@link #getResult(PivotFilter) result}.
+     */
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    @NotNull
+    private Row<T> getRow(@NotNull Group<T> group) {
+        if (group.row == null) {
+            final Map<String, Object> values = new HashMap<>(groupBy.size() + aggregates.size());
+            for (int i = 0; i < groupBy.size(); i++) {
+                values.put(groupBy.get(i).id, group.key.get(i));
+            }
+            // the row gets a snapshot of the states since the group keeps changing
+            final Map<String, Accumulator> states = new HashMap<>(aggregates.size());
+            for (int i = 0; i < aggregates.size(); i++) {
+                final String id = aggregates.get(i).id;
+                final Accumulator snapshot = aggregates.get(i).function.createAccumulator();
+                snapshot.merge(group.accumulators[i]);
+                values.put(id, snapshot.finish());
+                states.put(id, snapshot);
+            }
+            group.row = new Row<>(values, Collections.unmodifiableList(new ArrayList<>(group.beans)), states);
+        }
+        return group.row;
+    }
+
+    /**
+     * Returns the pivot for the current beans, in the same shape as
+     * {@link InMemoryPivot#computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)} would.
+     * Only the rows of groups which have changed since the last call are computed.
+     *
+     * @param filter filters the rows; grand totals are then computed over the rows which are shown.
+     * @return the pivot result, not null.
+     */
+    @NotNull
+    public PivotResult<T> getResult(@NotNull PivotFilter filter) {
+        final List<Row<T>> rows = new ArrayList<>(groups.size());
+        rows:
+        for (Group<T> group : groups.values()) {
+            final Row<T> row = getRow(group);
+            for (Map.Entry<String, Set<Object>> filterValue : filter.getFilterValues().entrySet()) {
+                if (!filterValue.getValue().isEmpty() && !filterValue.getValue().contains(row.get(filterValue.getKey()))) {
+                    continue rows;
+                }
+            }
+            rows.add(row);
+        }
+
+        final HashMap<String, Object> grandTotalValues = new HashMap<>();
+        for (int i = 0; i < aggregates.size(); i++) {
+            final Aggregate<T> aggregate = aggregates.get(i);
+            if (!grandTotalIDs.contains(aggregate.id) || rows.isEmpty()) {
+                continue;
+            }
+            final Number grandValue = rows.size() == groups.size()
+                    ? grandTotals[i].finish()
+                    : aggregate.mergeAggregatedValues(rows, aggregate.id);
+            if (grandValue != null) {
+                grandTotalValues.put(aggregate.id, grandValue);
+            }
+        }
+        return new PivotResult<>(rows, new ArrayList<>(columns), grandTotalValues);
+    }
+
+    @Override
+    public String toString() {
+        return "IncrementalPivot{" +
+                "groupBy=" + groupBy +
+                ", aggregates=" + aggregates +
+                ", groups=" + groups.size() +
+                '}';
+    }
+}
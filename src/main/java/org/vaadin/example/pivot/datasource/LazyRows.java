@@ -0,0 +1,163 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of pivot rows which creates the rows on demand, see {@link PivotDataSource.PivotResult#fetch(int, int, java.util.LinkedHashMap)}.
+ * A created row is only weakly referenced by the list: as long as somebody (e.g. the Grid) holds the row,
+ * {@link #get(int)} returns the same instance; otherwise the row is garbage-collected and created anew when needed.
+ * The heap therefore holds only the rows which are in use, no matter how many rows the list has.
+ * <p></p>
+ * Single values can be read without creating the rows, see {@link #getValue(int, String)}.
+ */
+final class LazyRows<T> extends AbstractList<Row<T>> implements RandomAccess, Serializable {
+
+    /**
+     * Creates the rows.
+     */
+    interface RowFactory<T> extends Serializable {
+        /**
+         * @return the number of rows.
+         */
+        int size();
+
+        /**
+         * Creates the row at given index.
+         */
+        @NotNull
+        Row<T> create(int index);
+
+        /**
+         * @return the value of given column of the row at given index, as {@link Row#get(String)} would return it.
+         */
+        @Nullable
+        Object getValue(int index, @NotNull String columnId);
+
+        /**
+         * @return the estimated heap held by this factory, in bytes; the rows created so far are only weakly referenced.
+         */
+        long weigh();
+    }
+
+    @NotNull
+    private final RowFactory<T> factory;
+
+    /**
+     * The rows created so far; null until the first row is created.
+     */
+    @Nullable
+    private transient WeakReference<Row<T>>[] rows;
+
+    LazyRows(@NotNull RowFactory<T> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public synchronized Row<T> get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        if (rows == null) {
+            rows = new WeakReference[size()];
+        }
+        Row<T> row = rows[index] == null ? null : rows[index].get();
+        if (row == null) {
+            row = factory.create(index);
+            rows[index] = new WeakReference<>(row);
+        }
+        return row;
+    }
+
+    /**
+     * Returns a value of the row at given index, without creating the row.
+     */
+    @Nullable
+    synchronized Object getValue(int index, @NotNull String columnId) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        // a row in use may have been modified via Row.put()
+        final Row<T> row = rows == null || rows[index] == null ? null : rows[index].get();
+        return row != null ? row.get(columnId) : factory.getValue(index, columnId);
+    }
+
+    /**
+     * Only the rows created so far can be in this list: they are compared by identity, creating no rows.
+     */
+    @Override
+    public synchronized int indexOf(Object o) {
+        if (rows != null && o != null) {
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] != null && rows[i].get() == o) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        // a row is never created twice while in use
+        return indexOf(o);
+    }
+
+    @Override
+    public int size() {
+        return factory.size();
+    }
+
+    /**
+     * @return the estimated heap held by this list, in bytes, see {@link RowFactory#weigh()}.
+     */
+    long weigh() {
+        return factory.weigh();
+    }
+
+    /**
+     * @return a list creating {@link Row#asReadOnly() read-only} rows, out of the same factory.
+     */
+    @NotNull
+    LazyRows<T> asReadOnly() {
+        return new LazyRows<>(new ReadOnlyRowFactory<>(factory));
+    }
+
+    private static final class ReadOnlyRowFactory<T> implements RowFactory<T> {
+        @NotNull
+        private final RowFactory<T> factory;
+
+        ReadOnlyRowFactory(@NotNull RowFactory<T> factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public int size() {
+            return factory.size();
+        }
+
+        @NotNull
+        @Override
+        public Row<T> create(int index) {
+            return factory.create(index).asReadOnly();
+        }
+
+        @Nullable
+        @Override
+        public Object getValue(int index, @NotNull String columnId) {
+            return factory.getValue(index, columnId);
+        }
+
+        @Override
+        public long weigh() {
+            return factory.weigh();
+        }
+    }
+}
@@ -0,0 +1,666 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A columnar dataset stored outside of the Java heap, for datasets with more rows than fit on the heap as beans.
+ * The beans are streamed through a {@link Builder} once and may be dropped right away; only the columns are kept.
+ * <p></p>
+ * Group-by properties are dictionary-encoded like in {@link PivotDataset}: the sorted dictionary stays on the heap, the
+ * codes are stored off-heap in one, two or four bytes per row, depending on the cardinality. Aggregate properties are
+ * stored off-heap as 8-byte <code>long</code>s or <code>double</code>s, with an off-heap bitmap of the <code>null</code>s.
+ * The columns are split into segments of a fixed number of rows, either direct buffers or memory-mapped temporary files,
+ * see {@link Storage}.
+ * <p></p>
+ * The rows are read through a {@link Cursor}, which creates no objects per row; {@link InMemoryPivot#InMemoryPivot(OffHeapDataset)}
+ * groups and aggregates the dataset that way.
+ * <p></p>
+ * Immutable once built, therefore may be shared by all sessions. The memory is released when the dataset is garbage collected.
+ *
+ * @param <T> the bean type.
+ */
+public final class OffHeapDataset<T> {
+    /**
+     * The default number of rows of a segment is <code>2^20</code>.
+     */
+    static final int DEFAULT_SEGMENT_BITS = 20;
+
+    /**
+     * Where the segments of the columns are allocated.
+     */
+    public enum Storage {
+        /**
+         * Direct {@link ByteBuffer}s. Their total size is limited by <code>-XX:MaxDirectMemorySize</code>,
+         * which defaults to the maximum heap size.
+         */
+        DIRECT,
+        /**
+         * Memory-mapped temporary files, deleted right after being mapped. Not limited by the heap nor by the direct memory
+         * limit: the operating system pages the segments in and out, therefore the dataset may exceed the physical memory.
+         */
+        MAPPED
+    }
+
+    private final int size;
+    private final int segmentBits;
+    @NotNull
+    private final Map<PivotProperty<T>, GroupColumn> groupColumns;
+    @NotNull
+    private final Map<PivotProperty<T>, MeasureColumn> measureColumns;
+
+    private OffHeapDataset(int size, int segmentBits, @NotNull Map<PivotProperty<T>, GroupColumn> groupColumns,
+                           @NotNull Map<PivotProperty<T>, MeasureColumn> measureColumns) {
+        this.size = size;
+        this.segmentBits = segmentBits;
+        this.groupColumns = groupColumns;
+        this.measureColumns = measureColumns;
+    }
+
+    /**
+     * Starts building a dataset. Columns are looked up by {@link PivotProperty#equals(Object) property}: properties
+     * which merely share a caption get columns of their own.
+     *
+     * @param groupByProperties   properties the items will be grouped by.
+     * @param aggregateProperties properties the items will be aggregated on; the values must be numbers.
+     * @param storage             where to allocate the columns.
+     * @return the builder, not null.
+     */
+    @NotNull
+    public static <T> Builder<T> builder(
+            @NotNull Collection<PivotProperty<T>> groupByProperties,
+            @NotNull Collection<PivotProperty<T>> aggregateProperties,
+            @NotNull Storage storage
+    ) {
+        return new Builder<>(groupByProperties, aggregateProperties, storage, DEFAULT_SEGMENT_BITS);
+    }
+
+    /**
+     * @return the number of rows in this dataset.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the column of given group-by property.
+     * @throws IllegalArgumentException if the property was not passed to the {@link Builder}.
+     */
+    @NotNull
+    public GroupColumn getGroupColumn(@NotNull PivotProperty<T> property) {
+        final GroupColumn column = groupColumns.get(property);
+        if (column == null) {
+            throw new IllegalArgumentException("Parameter property: invalid value " + property.caption + ": must be one of the group-by properties " + groupColumns.keySet());
+        }
+        return column;
+    }
+
+    /**
+     * @return the column of given aggregate property.
+     * @throws IllegalArgumentException if the property was not passed to the {@link Builder}.
+     */
+    @NotNull
+    public MeasureColumn getMeasureColumn(@NotNull PivotProperty<T> property) {
+        final MeasureColumn column = measureColumns.get(property);
+        if (column == null) {
+            throw new IllegalArgumentException("Parameter property: invalid value " + property.caption + ": must be one of the aggregate properties " + measureColumns.keySet());
+        }
+        return column;
+    }
+
+    /**
+     * Opens a cursor over all rows, reading given columns.
+     *
+     * @param groupColumns   the columns {@link Cursor#getCode(int)} reads, in this order.
+     * @param measureColumns the columns {@link Cursor#getLong(int)} and {@link Cursor#getDouble(int)} read, in this order.
+     * @return the cursor, positioned before the first row.
+     */
+    @NotNull
+    public Cursor cursor(@NotNull List<GroupColumn> groupColumns, @NotNull List<MeasureColumn> measureColumns) {
+        return new Cursor(groupColumns.toArray(new GroupColumn[0]), measureColumns.toArray(new MeasureColumn[0]), size);
+    }
+
+    /**
+     * @return the number of bytes allocated off-heap by the columns.
+     */
+    public long getSizeInBytes() {
+        long bytes = 0;
+        for (GroupColumn column : groupColumns.values()) {
+            bytes += sizeOf(column.segments);
+        }
+        for (MeasureColumn column : measureColumns.values()) {
+            bytes += sizeOf(column.segments) + sizeOf(column.nulls);
+        }
+        return bytes;
+    }
+
+    private static long sizeOf(@NotNull ByteBuffer[] segments) {
+        long bytes = 0;
+        for (ByteBuffer segment : segments) {
+            bytes += segment == null ? 0 : segment.capacity();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapDataset{" +
+                "size=" + size +
+                ", groupColumns=" + groupColumns +
+                ", measureColumns=" + measureColumns +
+                ", bytes=" + getSizeInBytes() +
+                '}';
+    }
+
+    @NotNull
+    private static ByteBuffer allocate(@NotNull Storage storage, int bytes) {
+        if (storage == Storage.DIRECT) {
+            return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+        }
+        try {
+            final Path file = Files.createTempFile("pivot-offheap-", ".bin");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+            } finally {
+                // the mapping stays valid; the disk space is freed once the buffer is unmapped
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map a segment of " + bytes + " bytes", e);
+        }
+    }
+
+    /**
+     * A dictionary-encoded column: the codes index into the sorted {@link #dictionary}, ordered like
+     * {@link PivotDataset.GroupColumn}, with <code>null</code> as the last entry.
+     */
+    public static final class GroupColumn {
+        @NotNull
+        final Object[] dictionary;
+        /**
+         * The number of bytes per code: 1, 2 or 4.
+         */
+        final int width;
+        @NotNull
+        final ByteBuffer[] segments;
+        private final int segmentBits;
+        private final int segmentMask;
+
+        private GroupColumn(@NotNull Object[] dictionary, int width, @NotNull ByteBuffer[] segments, int segmentBits) {
+            this.dictionary = dictionary;
+            this.width = width;
+            this.segments = segments;
+            this.segmentBits = segmentBits;
+            segmentMask = (1 << segmentBits) - 1;
+        }
+
+        /**
+         * @return the number of distinct values in this column, including <code>null</code>.
+         */
+        public int getCardinality() {
+            return dictionary.length;
+        }
+
+        /**
+         * @return the value for given dictionary code.
+         */
+        @Nullable
+        public Object getValue(int code) {
+            return dictionary[code];
+        }
+
+        /**
+         * @return the dictionary code of given row.
+         */
+        public int getCode(int row) {
+            final ByteBuffer segment = segments[row >>> segmentBits];
+            final int index = row & segmentMask;
+            switch (width) {
+                case 1: return segment.get(index) & 0xFF;
+                case 2: return segment.getShort(index << 1) & 0xFFFF;
+                default: return segment.getInt(index << 2);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "GroupColumn{cardinality=" + dictionary.length + ", width=" + width + '}';
+        }
+    }
+
+    /**
+     * A numeric column. Integral values are stored as <code>long</code>s, floating-point values as <code>double</code>s;
+     * {@link #type} is the wrapper type of the values, or {@link PivotDataset.NumberType#LONG}/{@link PivotDataset.NumberType#DOUBLE}
+     * if the values are of several types. A column mixing integral and floating-point values is stored as <code>double</code>s.
+     */
+    public static final class MeasureColumn {
+        @NotNull
+        final PivotDataset.NumberType type;
+        @NotNull
+        final ByteBuffer[] segments;
+        /**
+         * For every segment, the bitmap of the rows with a <code>null</code> value; null for segments without such rows.
+         */
+        @NotNull
+        final ByteBuffer[] nulls;
+        private final int segmentBits;
+        private final int segmentMask;
+
+        private MeasureColumn(@NotNull PivotDataset.NumberType type, @NotNull ByteBuffer[] segments,
+                              @NotNull ByteBuffer[] nulls, int segmentBits) {
+            this.type = type;
+            this.segments = segments;
+            this.nulls = nulls;
+            this.segmentBits = segmentBits;
+            segmentMask = (1 << segmentBits) - 1;
+        }
+
+        @NotNull
+        public PivotDataset.NumberType getType() {
+            return type;
+        }
+
+        /**
+         * @return true if the value of given row is <code>null</code>.
+         */
+        public boolean isNull(int row) {
+            final ByteBuffer bitmap = nulls[row >>> segmentBits];
+            if (bitmap == null) {
+                return false;
+            }
+            final int index = row & segmentMask;
+            return (bitmap.getLong((index >>> 6) << 3) & (1L << index)) != 0;
+        }
+
+        /**
+         * @return the value of given row; 0 for <code>null</code>. Only valid for an {@link PivotDataset.NumberType#isIntegral() integral} column.
+         */
+        public long getLong(int row) {
+            return segments[row >>> segmentBits].getLong((row & segmentMask) << 3);
+        }
+
+        /**
+         * @return the value of given row as a double; 0 for <code>null</code>.
+         */
+        public double getDouble(int row) {
+            final ByteBuffer segment = segments[row >>> segmentBits];
+            final int offset = (row & segmentMask) << 3;
+            return type.isIntegral() ? segment.getLong(offset) : segment.getDouble(offset);
+        }
+
+        /**
+         * Returns the value of given row, boxed into the wrapper type of this column.
+         */
+        @Nullable
+        public Number getValue(int row) {
+            if (isNull(row)) {
+                return null;
+            }
+            return type.isIntegral() ? type.box(getLong(row)) : type.box(getDouble(row));
+        }
+
+        /**
+         * Passes the value of given row to the accumulator, without boxing it.
+         */
+        void accumulate(int row, @NotNull Accumulator accumulator) {
+            if (isNull(row)) {
+                accumulator.accumulate((Object) null);
+            } else if (type.isIntegral()) {
+                accumulator.accumulate(getLong(row));
+            } else {
+                accumulator.accumulate(getDouble(row));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "MeasureColumn{type=" + type + '}';
+        }
+    }
+
+    /**
+     * Iterates over the rows, reading the columns it was opened on; see {@link #cursor(List, List)}.
+     * The values are read straight from the segments, nothing is allocated per row. Not thread-safe.
+     */
+    public static final class Cursor {
+        @NotNull
+        private final GroupColumn[] groupColumns;
+        @NotNull
+        private final MeasureColumn[] measureColumns;
+        private final int size;
+        private int row = -1;
+
+        private Cursor(@NotNull GroupColumn[] groupColumns, @NotNull MeasureColumn[] measureColumns, int size) {
+            this.groupColumns = groupColumns;
+            this.measureColumns = measureColumns;
+            this.size = size;
+        }
+
+        /**
+         * Moves to the next row.
+         *
+         * @return false if there are no more rows.
+         */
+        public boolean next() {
+            if (row < size) {
+                row++;
+            }
+            return row < size;
+        }
+
+        /**
+         * @return the current row.
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * @param column the index of the group-by column, in the order the cursor was opened with.
+         * @return the dictionary code of the current row.
+         */
+        public int getCode(int column) {
+            return groupColumns[column].getCode(row);
+        }
+
+        /**
+         * Reads the codes of all group-by columns of the current row.
+         *
+         * @param codes receives the codes, indexed like the columns.
+         */
+        public void getCodes(@NotNull int[] codes) {
+            for (int i = 0; i < groupColumns.length; i++) {
+                codes[i] = groupColumns[i].getCode(row);
+            }
+        }
+
+        /**
+         * @param measure the index of the aggregate column, in the order the cursor was opened with.
+         * @return true if the value of the current row is <code>null</code>.
+         */
+        public boolean isNull(int measure) {
+            return measureColumns[measure].isNull(row);
+        }
+
+        /**
+         * @param measure the index of the aggregate column, in the order the cursor was opened with.
+         * @return the value of the current row, see {@link MeasureColumn#getLong(int)}.
+         */
+        public long getLong(int measure) {
+            return measureColumns[measure].getLong(row);
+        }
+
+        /**
+         * @param measure the index of the aggregate column, in the order the cursor was opened with.
+         * @return the value of the current row, see {@link MeasureColumn#getDouble(int)}.
+         */
+        public double getDouble(int measure) {
+            return measureColumns[measure].getDouble(row);
+        }
+
+        /**
+         * Passes the value of the current row to the accumulator, without boxing it.
+         */
+        void accumulate(int measure, @NotNull Accumulator accumulator) {
+            measureColumns[measure].accumulate(row, accumulator);
+        }
+    }
+
+    /**
+     * Builds an {@link OffHeapDataset} out of a stream of beans, see {@link OffHeapDataset#builder(Collection, Collection, Storage)}.
+     * The value providers are called once per bean, when the bean is added; the bean is not retained.
+     * Not thread-safe.
+     */
+    public static final class Builder<T> {
+        @NotNull
+        private final List<PivotProperty<T>> groupByProperties;
+        @NotNull
+        private final List<PivotProperty<T>> aggregateProperties;
+        @NotNull
+        private final Storage storage;
+        private final int segmentBits;
+        @NotNull
+        private final List<GroupColumnWriter> groupWriters = new ArrayList<>();
+        @NotNull
+        private final List<MeasureColumnWriter> measureWriters = new ArrayList<>();
+        private int size;
+        private boolean built;
+
+        Builder(@NotNull Collection<PivotProperty<T>> groupByProperties, @NotNull Collection<PivotProperty<T>> aggregateProperties,
+                @NotNull Storage storage, int segmentBits) {
+            this.groupByProperties = new ArrayList<>(groupByProperties);
+            this.aggregateProperties = new ArrayList<>(aggregateProperties);
+            this.storage = Objects.requireNonNull(storage);
+            this.segmentBits = segmentBits;
+            for (PivotProperty<T> ignored : groupByProperties) {
+                groupWriters.add(new GroupColumnWriter(storage, segmentBits));
+            }
+            for (PivotProperty<T> ignored : aggregateProperties) {
+                measureWriters.add(new MeasureColumnWriter(storage, segmentBits));
+            }
+        }
+
+        /**
+         * Appends a row.
+         *
+         * @param item the bean; not retained.
+         * @return this.
+         */
+        @NotNull
+        public Builder<T> add(@NotNull T item) {
+            if (built) {
+                throw new IllegalStateException("The dataset has already been built");
+            }
+            if (size == Integer.MAX_VALUE) {
+                throw new IllegalStateException("The dataset is full: " + size + " rows");
+            }
+            for (int i = 0; i < groupWriters.size(); i++) {
+                groupWriters.get(i).add(size, groupByProperties.get(i).getValue(item));
+            }
+            for (int i = 0; i < measureWriters.size(); i++) {
+                final Object value = aggregateProperties.get(i).getValue(item);
+                if (value != null && !(value instanceof Number)) {
+                    throw new IllegalArgumentException("Parameter item: invalid value " + item + ": " + aggregateProperties.get(i).caption + " must be a number, got " + value);
+                }
+                measureWriters.get(i).add(size, (Number) value);
+            }
+            size++;
+            return this;
+        }
+
+        /**
+         * Appends the remaining beans of given iterator.
+         *
+         * @return this.
+         */
+        @NotNull
+        public Builder<T> addAll(@NotNull Iterator<? extends T> items) {
+            while (items.hasNext()) {
+                add(items.next());
+            }
+            return this;
+        }
+
+        /**
+         * Sorts the dictionaries and narrows the codes. The builder can't be used afterwards.
+         *
+         * @return the dataset, not null.
+         */
+        @NotNull
+        public OffHeapDataset<T> build() {
+            if (built) {
+                throw new IllegalStateException("The dataset has already been built");
+            }
+            built = true;
+            final Map<PivotProperty<T>, GroupColumn> groupColumns = new LinkedHashMap<>();
+            for (int i = 0; i < groupWriters.size(); i++) {
+                groupColumns.put(groupByProperties.get(i), groupWriters.get(i).build(size));
+            }
+            final Map<PivotProperty<T>, MeasureColumn> measureColumns = new LinkedHashMap<>();
+            for (int i = 0; i < measureWriters.size(); i++) {
+                measureColumns.put(aggregateProperties.get(i), measureWriters.get(i).build());
+            }
+            return new OffHeapDataset<>(size, segmentBits, groupColumns, measureColumns);
+        }
+
+        @Override
+        public String toString() {
+            return "OffHeapDataset.Builder{size=" + size + ", storage=" + storage + '}';
+        }
+    }
+
+    /**
+     * Encodes the values of a group-by column in first-seen order, four bytes per row; {@link #build(int)} then
+     * sorts the dictionary and rewrites the codes into the narrowest width.
+     */
+    private static final class GroupColumnWriter {
+        @NotNull
+        private final Storage storage;
+        private final int segmentBits;
+        @NotNull
+        private final Map<Object, Integer> codes = new HashMap<>();
+        @NotNull
+        private final List<Object> values = new ArrayList<>();
+        @NotNull
+        private final List<ByteBuffer> segments = new ArrayList<>();
+
+        GroupColumnWriter(@NotNull Storage storage, int segmentBits) {
+            this.storage = storage;
+            this.segmentBits = segmentBits;
+        }
+
+        void add(int row, @Nullable Object value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            final int index = row & ((1 << segmentBits) - 1);
+            if (index == 0) {
+                segments.add(allocate(storage, Integer.BYTES << segmentBits));
+            }
+            segments.get(segments.size() - 1).putInt(index << 2, code);
+        }
+
+        @NotNull
+        GroupColumn build(int size) {
+            final Object[] dictionary = values.toArray();
+            Arrays.sort(dictionary, PivotDataset.DICTIONARY_ORDER);
+            final int[] remap = new int[dictionary.length];
+            for (int code = 0; code < dictionary.length; code++) {
+                remap[codes.get(dictionary[code])] = code;
+            }
+            final int width = dictionary.length <= 1 << Byte.SIZE ? 1 : dictionary.length <= 1 << Short.SIZE ? 2 : 4;
+            final ByteBuffer[] narrowed = new ByteBuffer[segments.size()];
+            for (int s = 0; s < narrowed.length; s++) {
+                final ByteBuffer segment = segments.get(s);
+                final int rows = Math.min(size - (s << segmentBits), 1 << segmentBits);
+                final ByteBuffer target = width == 4 ? segment : allocate(storage, width << segmentBits);
+                for (int index = 0; index < rows; index++) {
+                    final int code = remap[segment.getInt(index << 2)];
+                    switch (width) {
+                        case 1: target.put(index, (byte) code); break;
+                        case 2: target.putShort(index << 1, (short) code); break;
+                        default: target.putInt(index << 2, code);
+                    }
+                }
+                narrowed[s] = target;
+                // release the wide segment as soon as possible
+                segments.set(s, null);
+            }
+            return new GroupColumn(dictionary, width, narrowed, segmentBits);
+        }
+    }
+
+    /**
+     * Writes the values of an aggregate column; detects the type of the values on the way.
+     */
+    private static final class MeasureColumnWriter {
+        @NotNull
+        private final Storage storage;
+        private final int segmentBits;
+        @NotNull
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        @NotNull
+        private final List<ByteBuffer> nulls = new ArrayList<>();
+        /**
+         * The type of the values; null until the first non-null value.
+         */
+        @Nullable
+        private PivotDataset.NumberType type;
+
+        MeasureColumnWriter(@NotNull Storage storage, int segmentBits) {
+            this.storage = storage;
+            this.segmentBits = segmentBits;
+        }
+
+        void add(int row, @Nullable Number value) {
+            final int index = row & ((1 << segmentBits) - 1);
+            if (index == 0) {
+                segments.add(allocate(storage, Long.BYTES << segmentBits));
+                nulls.add(null);
+            }
+            final ByteBuffer segment = segments.get(segments.size() - 1);
+            if (value == null) {
+                ByteBuffer bitmap = nulls.get(nulls.size() - 1);
+                if (bitmap == null) {
+                    bitmap = allocate(storage, Math.max(Long.BYTES, (1 << segmentBits) >>> 3));
+                    nulls.set(nulls.size() - 1, bitmap);
+                }
+                final int offset = (index >>> 6) << 3;
+                bitmap.putLong(offset, bitmap.getLong(offset) | (1L << index));
+                return;
+            }
+            final PivotDataset.NumberType valueType = PivotDataset.NumberType.of(value);
+            if (valueType == PivotDataset.NumberType.OBJECT) {
+                throw new IllegalArgumentException("Parameter value: invalid value " + value + ": must be a primitive wrapper, got " + value.getClass().getName());
+            }
+            if (type == null) {
+                type = valueType;
+            } else if (type != valueType) {
+                if (type.isIntegral() && !valueType.isIntegral()) {
+                    toDoubles(row);
+                }
+                type = type.isIntegral() && valueType.isIntegral() ? PivotDataset.NumberType.LONG : PivotDataset.NumberType.DOUBLE;
+            }
+            if (type.isIntegral()) {
+                segment.putLong(index << 3, value.longValue());
+            } else {
+                segment.putDouble(index << 3, value.doubleValue());
+            }
+        }
+
+        /**
+         * Converts the <code>long</code>s written before given row to <code>double</code>s, in place.
+         */
+        private void toDoubles(int row) {
+            for (int r = 0; r < row; r++) {
+                final ByteBuffer segment = segments.get(r >>> segmentBits);
+                final int offset = (r & ((1 << segmentBits) - 1)) << 3;
+                segment.putDouble(offset, segment.getLong(offset));
+            }
+        }
+
+        @NotNull
+        MeasureColumn build() {
+            // a column of nulls only
+            final PivotDataset.NumberType columnType = type == null ? PivotDataset.NumberType.LONG : type;
+            return new MeasureColumn(columnType, segments.toArray(new ByteBuffer[0]), nulls.toArray(new ByteBuffer[0]), segmentBits);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.vaadin.example.pivot.datasource;
+
+/**
+ * Thrown by a pivot computation aborted via its {@link CancellationToken}.
+ */
+public class PivotCancelledException extends RuntimeException {
+    private final boolean timedOut;
+
+    public PivotCancelledException(String message, boolean timedOut) {
+        super(message);
+        this.timedOut = timedOut;
+    }
+
+    /**
+     * @return true if the deadline of the token has passed, false if the token has been cancelled explicitly.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+}
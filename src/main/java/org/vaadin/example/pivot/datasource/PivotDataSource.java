@@ -6,6 +6,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -20,20 +21,129 @@ public interface PivotDataSource<T> extends Serializable {
         private final Map<String, Object> values;
 
         /**
-         * The list of beans, aggregated together to produce this row. Non-null
-         * for {@link InMemoryPivot} only - when the calculation is performed
-         * remotely (e.g. in SQL) then it's not possible to retrieve the beans
-         * and this is null.
+         * The list of beans, aggregated together to produce this row, if given explicitly.
+         * Rows computed by {@link InMemoryPivot} use {@link #members} instead.
          * <p></p>
          * Only for the internal purpose of {@link ColumnGroupingPivotDataSource}
          * in order to calculate grand totals.
          */
         @Nullable
-        final List<T> sourceBeans;
+        private final List<T> sourceBeans;
+
+        /**
+         * The items {@link #members} index into; null if {@link #members} is null.
+         */
+        @Nullable
+        private final List<T> items;
+
+        /**
+         * The ordinals of the beans aggregated together to produce this row. Non-null
+         * for {@link InMemoryPivot} only - when the calculation is performed
+         * remotely (e.g. in SQL) then it's not possible to retrieve the beans
+         * and this is null.
+         */
+        @Nullable
+        private final RowSet members;
+
+        /**
+         * The partial states of the aggregated values, keyed by the same IDs as the values. Null if not known
+         * (e.g. when the calculation is performed remotely). Allows subtotals and grand totals to be computed
+         * by merging the states, see {@link Aggregate#mergeAggregatedValues(Collection, String)}.
+         */
+        @Nullable
+        private final Map<String, Accumulator> accumulators;
+
+        /**
+         * The group-by values identifying this row within a {@link PivotRollup}, in the order of
+         * {@link PivotRollup#groupBy}; null if the row is not part of a rollup.
+         */
+        @Nullable
+        private final List<Object> key;
+
+        /**
+         * True if {@link #put(String, Object)} is not allowed, see {@link #asReadOnly()}.
+         */
+        private final boolean readOnly;
 
         public Row(@NotNull Map<String, Object> values, @Nullable List<T> sourceBeans) {
+            this(values, sourceBeans, null);
+        }
+
+        public Row(@NotNull Map<String, Object> values, @Nullable List<T> sourceBeans, @Nullable Map<String, Accumulator> accumulators) {
             this.values = values;
             this.sourceBeans = sourceBeans;
+            this.items = null;
+            this.members = null;
+            this.accumulators = accumulators;
+            this.key = null;
+            this.readOnly = false;
+        }
+
+        /**
+         * Creates a row out of the beans at given ordinals.
+         *
+         * @param items   the items passed to {@link PivotDataSource#computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)}.
+         * @param members the ordinals of the beans aggregated into this row.
+         */
+        public Row(@NotNull Map<String, Object> values, @NotNull List<T> items, @NotNull RowSet members, @Nullable Map<String, Accumulator> accumulators) {
+            this.values = values;
+            this.sourceBeans = null;
+            this.items = Objects.requireNonNull(items);
+            this.members = Objects.requireNonNull(members);
+            this.accumulators = accumulators;
+            this.key = null;
+            this.readOnly = false;
+        }
+
+        private Row(@NotNull Row<T> row, @NotNull Map<String, Object> values, @Nullable Map<String, Accumulator> accumulators,
+                    @Nullable List<Object> key, boolean readOnly) {
+            this.values = values;
+            this.sourceBeans = row.sourceBeans;
+            this.items = row.items;
+            this.members = row.members;
+            this.accumulators = accumulators;
+            this.key = key;
+            this.readOnly = readOnly;
+        }
+
+        /**
+         * @return a copy of this row placed into a {@link PivotRollup} at given key. The copy shares the values
+         * with this row.
+         */
+        @NotNull
+        Row<T> withKey(@NotNull List<Object> key) {
+            return new Row<>(this, values, accumulators, Collections.unmodifiableList(new ArrayList<>(key)), readOnly);
+        }
+
+        /**
+         * @return a read-only copy of this row, sharing the values with this row; {@link #put(String, Object)} fails on
+         * the copy. Rows of shared results are read-only, see {@link PivotResult#asReadOnly()}.
+         */
+        @NotNull
+        public Row<T> asReadOnly() {
+            if (readOnly) {
+                return this;
+            }
+            return new Row<>(this, Collections.unmodifiableMap(values),
+                    accumulators == null ? null : Collections.unmodifiableMap(accumulators), key, true);
+        }
+
+        /**
+         * @return a modifiable copy of this row with given value added or replaced. Use this instead of
+         * {@link #put(String, Object)} on rows which may be shared, e.g. to decorate a row for displaying.
+         */
+        @NotNull
+        public Row<T> withValue(@NotNull String id, @Nullable Object value) {
+            final Map<String, Object> copy = new HashMap<>(values);
+            copy.put(id, value);
+            return new Row<>(this, copy, accumulators, key, false);
+        }
+
+        /**
+         * @return true if the values of this row can not be modified, see {@link #asReadOnly()}.
+         */
+        public boolean isReadOnly() {
+            return readOnly;
         }
 
         /**
@@ -59,15 +169,84 @@ public interface PivotDataSource<T> extends Serializable {
             return get(column.id);
         }
 
+        /**
+         * Sets the value for given id.
+         *
+         * @throws UnsupportedOperationException if the row is {@link #isReadOnly() read-only}.
+         */
         public void put(String id, Object value) {
+            if (readOnly) {
+                throw new UnsupportedOperationException("The row is read-only: " + this);
+            }
             values.put(id, value);
         }
 
+        /**
+         * @return the beans aggregated together to produce this row, or null if not known. For rows with
+         * {@link #getMembers() members}, this is a read-only view created on every call.
+         */
         @Nullable
         public List<T> getSourceBeans() {
+            if (members != null) {
+                return members.asList(items);
+            }
             return sourceBeans;
         }
 
+        /**
+         * @return the ordinals of the beans aggregated together to produce this row; null if the row was created out of
+         * a list of beans, or if the beans are not known.
+         */
+        @Nullable
+        public RowSet getMembers() {
+            return members;
+        }
+
+        /**
+         * @return true if {@link #getSourceBeans()} returns the beans.
+         */
+        boolean hasSourceBeans() {
+            return members != null || sourceBeans != null;
+        }
+
+        /**
+         * Retrieves the partial state of the aggregated value for given id. Never modify the returned accumulator;
+         * {@link Accumulator#merge(Accumulator) merge} it into a new one instead.
+         *
+         * @param id ID of an aggregated value, see {@link #get(String)}.
+         * @return the state, or null if not known.
+         */
+        @Nullable
+        public Accumulator getAccumulator(@NotNull String id) {
+            return accumulators == null ? null : accumulators.get(id);
+        }
+
+        /**
+         * @return the group-by values identifying this row within a {@link PivotRollup}, starting with the outermost
+         * group; empty for the grand total row. Null if the row is not part of a rollup.
+         */
+        @Nullable
+        public List<Object> getKey() {
+            return key;
+        }
+
+        /**
+         * @return the level of this row within a {@link PivotRollup}: 0 for the grand total row,
+         * {@link PivotRollup#getDepth()} for the finest rows; -1 if the row is not part of a rollup.
+         */
+        public int getLevel() {
+            return key == null ? -1 : key.size();
+        }
+
+        /**
+         * @return the {@link #getKey() key} of the parent row within a {@link PivotRollup}; null for the grand total row
+         * or if the row is not part of a rollup.
+         */
+        @Nullable
+        public List<Object> getParentKey() {
+            return key == null || key.isEmpty() ? null : key.subList(0, key.size() - 1);
+        }
+
         @Override
         @NotNull
         public String toString() {
@@ -107,6 +286,55 @@ public interface PivotDataSource<T> extends Serializable {
             @NotNull PivotFilter filters
     );
 
+    /**
+     * Computes the pivot rows as {@link #computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)} does,
+     * with additional options: e.g. only the top N rows by an aggregated value, see {@link PivotOptions}.
+     * <p></p>
+     * By default the limit is applied to the computed rows; data sources should push it down into the computation.
+     * Likewise the {@link PivotOptions#getCancellation() cancellation token} is by default only checked before and
+     * after the computation; data sources should check it while computing.
+     *
+     * @param options the options, not null. {@link PivotOptions#NONE} for no options.
+     * @return a list of grouped and aggregated rows, not null, may be empty.
+     */
+    @NotNull
+    default PivotResult<T> computePivotRows(
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull LinkedHashSet<Aggregate<T>> aggregates,
+            @NotNull Set<String> grandTotalIDs,
+            @NotNull List<T> items,
+            @NotNull PivotFilter filters,
+            @NotNull PivotOptions options
+    ) {
+        options.getCancellation().throwIfCancelled();
+        final PivotResult<T> result = computePivotRows(groupBy, aggregates, grandTotalIDs, items, filters);
+        options.getCancellation().throwIfCancelled();
+        return TopN.apply(result, options);
+    }
+
+    /**
+     * Computes the rows for every prefix of the row grouping: the rows grouped by all <code>groupBy</code> clauses,
+     * the subtotals grouped by all but the last clause, and so on up to the grand total. Only the finest rows are
+     * computed out of the <code>items</code>, via
+     * {@link #computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotFilter)}; the coarser levels are merged
+     * out of the partial states of the finer rows, see {@link PivotRollup#of(PivotResult)}.
+     *
+     * @param groupBy    the grouping; clauses with {@link GroupBy#columnGrouping} produce columns, not levels.
+     * @param aggregates the aggregates, computed at every level.
+     * @param items      the items to process, not null, may be empty.
+     * @param filters    filters the finest rows; the coarser levels only aggregate the rows which are shown.
+     * @return the rows of all levels, not null.
+     */
+    @NotNull
+    default PivotRollup<T> computeRollup(
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull LinkedHashSet<Aggregate<T>> aggregates,
+            @NotNull List<T> items,
+            @NotNull PivotFilter filters
+    ) {
+        return PivotRollup.of(computePivotRows(groupBy, aggregates, new HashSet<>(), items, filters));
+    }
+
     final class PivotColumn<T> implements Serializable {
         /**
          * The column ID, passable into {@link Row#get(String)} and {@link PivotResult#grandTotalValues}.
@@ -238,13 +466,66 @@ public interface PivotDataSource<T> extends Serializable {
         @NotNull
         public final Map<String, Object> grandTotalValues;
 
+        /**
+         * The ranks of the rows per column and the sort permutations per sort order, computed lazily.
+         */
+        @NotNull
+        private final Map<String, int[]> ranks = new ConcurrentHashMap<>();
+        @NotNull
+        private final Map<String, int[]> sortPermutations = new ConcurrentHashMap<>();
+
+        /**
+         * True if neither the result nor its rows can be modified, see {@link #asReadOnly()}.
+         */
+        private final boolean readOnly;
+
         public PivotResult(
                 @NotNull List<Row<T>> rows,
                 @NotNull List<PivotColumn<T>> columns,
                 @NotNull Map<String, Object> grandTotalValues) {
+            this(rows, columns, grandTotalValues, false);
+        }
+
+        private PivotResult(
+                @NotNull List<Row<T>> rows,
+                @NotNull List<PivotColumn<T>> columns,
+                @NotNull Map<String, Object> grandTotalValues,
+                boolean readOnly) {
             this.rows = Objects.requireNonNull(rows);
             this.columns = Objects.requireNonNull(columns);
             this.grandTotalValues = Objects.requireNonNull(grandTotalValues);
+            this.readOnly = readOnly;
+        }
+
+        /**
+         * Returns a read-only copy of this result, which can be shared e.g. across sessions: the rows, the columns and
+         * the grand totals can not be modified, and neither can the {@link #getTopGroup() top group}.
+         * Rows created on demand are created read-only as well.
+         *
+         * @return the read-only copy; this if this result is already read-only.
+         */
+        @NotNull
+        public PivotResult<T> asReadOnly() {
+            if (readOnly) {
+                return this;
+            }
+            final List<Row<T>> readOnlyRows;
+            if (rows instanceof LazyRows) {
+                readOnlyRows = ((LazyRows<T>) rows).asReadOnly();
+            } else {
+                readOnlyRows = Collections.unmodifiableList(rows.stream().map(Row::asReadOnly).collect(Collectors.toList()));
+            }
+            final PivotResult<T> result = new PivotResult<>(readOnlyRows, Collections.unmodifiableList(new ArrayList<>(columns)),
+                    Collections.unmodifiableMap(new LinkedHashMap<>(grandTotalValues)), true);
+            result.topGroup = topGroup;
+            return result;
+        }
+
+        /**
+         * @return true if this result can not be modified, see {@link #asReadOnly()}.
+         */
+        public boolean isReadOnly() {
+            return readOnly;
         }
 
         /**
@@ -291,11 +572,141 @@ public interface PivotDataSource<T> extends Serializable {
             return columns.stream().anyMatch(PivotColumn::isFilterEnabled);
         }
 
+        /**
+         * @return the number of {@link #rows}.
+         */
+        public int size() {
+            return rows.size();
+        }
+
+        /**
+         * Returns a value of the row at given index. The rows of {@link InMemoryPivot} are not created to read it.
+         *
+         * @param index    the index into {@link #rows}.
+         * @param columnId the column ID, see {@link PivotColumn#id}.
+         * @return the value, as {@link Row#get(String)} would return it.
+         */
+        @Nullable
+        public Object getValue(int index, @NotNull String columnId) {
+            return rows instanceof LazyRows ? ((LazyRows<T>) rows).getValue(index, columnId) : rows.get(index).get(columnId);
+        }
+
+        /**
+         * Returns the distinct values of given column, e.g. to offer them in a filter. Reads the values via
+         * {@link #getValue(int, String)}, creating no rows.
+         *
+         * @param columnId the column ID, see {@link PivotColumn#id}.
+         * @return the non-null values, not null.
+         */
+        @NotNull
+        public Set<Object> getDistinctValues(@NotNull String columnId) {
+            final Set<Object> values = new HashSet<>();
+            for (int i = 0; i < rows.size(); i++) {
+                final Object value = getValue(i, columnId);
+                if (value != null) {
+                    values.add(value);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Returns the position of given row when sorted by given order, e.g. of a row clicked in the Grid.
+         * Doesn't create any rows: the rows of {@link InMemoryPivot} are found among the rows created so far.
+         *
+         * @param row       one of the {@link #rows}.
+         * @param sortOrder the sort order, see {@link #fetch(int, int, LinkedHashMap)}; empty for the order of the {@link #rows}.
+         * @return the position, 0-based; -1 if the row is not one of the {@link #rows}.
+         */
+        public int indexOf(@NotNull Row<T> row, @NotNull LinkedHashMap<String, Boolean> sortOrder) {
+            final int index = rows.indexOf(row);
+            if (index < 0 || sortOrder.isEmpty()) {
+                return index;
+            }
+            final int[] permutation = getSortPermutation(sortOrder);
+            for (int i = 0; i < permutation.length; i++) {
+                if (permutation[i] == index) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns a page of the rows. The rows of {@link InMemoryPivot} are created on demand: only the rows
+         * of the page are created, and the result doesn't keep them after they are no longer used.
+         *
+         * @param offset    the index of the first row to return, 0 or greater.
+         * @param limit     the maximum number of rows to return, 0 or greater.
+         * @param sortOrder maps column IDs to the direction (true for descending), the primary column first; empty to
+         *                  keep the order of the {@link #rows}. See {@link #getSortPermutation(LinkedHashMap)}.
+         * @return the rows, not null. Empty if <code>offset</code> is past the last row.
+         */
+        @NotNull
+        public List<Row<T>> fetch(int offset, int limit, @NotNull LinkedHashMap<String, Boolean> sortOrder) {
+            if (offset < 0 || limit < 0) {
+                throw new IllegalArgumentException("Parameters offset, limit: invalid values " + offset + ", " + limit + ": must be 0 or greater");
+            }
+            final int from = Math.min(offset, rows.size());
+            final int to = (int) Math.min((long) from + limit, rows.size());
+            if (sortOrder.isEmpty()) {
+                return new ArrayList<>(rows.subList(from, to));
+            }
+            final int[] permutation = getSortPermutation(sortOrder);
+            final List<Row<T>> page = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                page.add(rows.get(permutation[i]));
+            }
+            return page;
+        }
+
+        /**
+         * Returns the order of the {@link #rows} sorted by given column. Computed on first use, by sorting primitive keys
+         * (see {@link SortIndex}), then cached for the column and direction. <code>null</code> values come last;
+         * rows with equal values keep their order.
+         *
+         * @param columnId   the column ID, see {@link PivotColumn#id}.
+         * @param descending true to start with the highest value.
+         * @return the indices into {@link #rows} in the sorted order. Shared: must not be modified.
+         */
+        @NotNull
+        public int[] getSortPermutation(@NotNull String columnId, boolean descending) {
+            final LinkedHashMap<String, Boolean> sortOrder = new LinkedHashMap<>();
+            sortOrder.put(columnId, descending);
+            return getSortPermutation(sortOrder);
+        }
+
+        /**
+         * Returns the order of the {@link #rows} sorted by several columns, see {@link #getSortPermutation(String, boolean)}.
+         *
+         * @param sortOrder maps column IDs to the direction (true for descending), the primary column first. Not empty.
+         * @return the indices into {@link #rows} in the sorted order. Shared: must not be modified.
+         */
+        @NotNull
+        public int[] getSortPermutation(@NotNull LinkedHashMap<String, Boolean> sortOrder) {
+            final String key = sortOrder.entrySet().stream()
+                    .map(it -> it.getKey() + (it.getValue() ? " desc" : " asc"))
+                    .collect(Collectors.joining(", "));
+            return sortPermutations.computeIfAbsent(key, k -> {
+                final List<int[]> columnRanks = new ArrayList<>(sortOrder.size());
+                for (String columnId : sortOrder.keySet()) {
+                    columnRanks.add(ranks.computeIfAbsent(columnId, id -> SortIndex.ranks(rows, id)));
+                }
+                return SortIndex.permutation(columnRanks, new ArrayList<>(sortOrder.values()));
+            });
+        }
+
         public GroupBy<T> getTopGroup() {
             return topGroup;
         }
 
+        /**
+         * @throws UnsupportedOperationException if the result is {@link #isReadOnly() read-only}.
+         */
         public void setTopGroup(GroupBy<T> topGroup) {
+            if (readOnly) {
+                throw new UnsupportedOperationException("The result is read-only");
+            }
             this.topGroup = topGroup;
         }
     }
@@ -0,0 +1,469 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A columnar snapshot of a list of beans. Every {@link PivotProperty#valueProvider} is called exactly once per bean,
+ * when the column for that property is built; {@link InMemoryPivot} then works only on the primitive arrays.
+ * <p></p>
+ * Group-by properties are dictionary-encoded into a {@link GroupColumn}: the dictionary is sorted, therefore
+ * sorting the group values is the same as sorting the codes. Aggregate properties are stored in a {@link MeasureColumn},
+ * as a <code>long[]</code> or <code>double[]</code> if all values are of the same primitive wrapper type.
+ * <p></p>
+ * Columns for the properties passed to the constructor are built eagerly; columns for any other property
+ * are built lazily on first use. Columns are looked up by {@link PivotProperty#equals(Object) property}: properties
+ * which merely share a caption get columns of their own.
+ * <p></p>
+ * If the items are a {@link ColumnSource}, e.g. the beans {@link DatasetSnapshot#load loaded} out of a snapshot, the columns
+ * it has are taken from it rather than built by calling the value providers.
+ * <p></p>
+ * The dataset must not be used after the underlying list of items has been modified.
+ *
+ * @param <T> the bean type.
+ */
+public final class PivotDataset<T> implements Serializable {
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    @NotNull
+    private final List<T> items;
+    private final long version = VERSIONS.incrementAndGet();
+    @NotNull
+    private final ConcurrentMap<PivotProperty<T>, GroupColumn> groupColumns = new ConcurrentHashMap<>();
+    @NotNull
+    private final ConcurrentMap<PivotProperty<T>, MeasureColumn> measureColumns = new ConcurrentHashMap<>();
+    /**
+     * The items if they provide columns; null otherwise, and after deserialization.
+     */
+    @Nullable
+    private final transient ColumnSource<T> source;
+
+    /**
+     * Provides prebuilt columns for some of the properties, e.g. decoded out of a {@link DatasetSnapshot}; a list of items
+     * implementing this interface is asked for a column before the column is built out of the items.
+     */
+    interface ColumnSource<T> {
+        /**
+         * @return the column of given group-by property; null if not available, the column is then built out of the items.
+         */
+        @Nullable
+        GroupColumn getGroupColumn(@NotNull PivotProperty<T> property);
+
+        /**
+         * @return the column of given aggregate property; null if not available, the column is then built out of the items.
+         */
+        @Nullable
+        MeasureColumn getMeasureColumn(@NotNull PivotProperty<T> property);
+    }
+
+    /**
+     * Creates an empty dataset; the columns are built lazily.
+     *
+     * @param items the items, not null. Must not be modified afterwards.
+     */
+    @SuppressWarnings("unchecked")
+    public PivotDataset(@NotNull List<T> items) {
+        this.items = Objects.requireNonNull(items);
+        this.source = items instanceof ColumnSource ? (ColumnSource<T>) items : null;
+    }
+
+    /**
+     * Creates the dataset and builds the columns for given properties eagerly.
+     *
+     * @param items               the items, not null. Must not be modified afterwards.
+     * @param groupByProperties   properties the items will be grouped by.
+     * @param aggregateProperties properties the items will be aggregated on.
+     */
+    public PivotDataset(
+            @NotNull List<T> items,
+            @NotNull Collection<PivotProperty<T>> groupByProperties,
+            @NotNull Collection<PivotProperty<T>> aggregateProperties
+    ) {
+        this(items);
+        for (PivotProperty<T> property : groupByProperties) {
+            getGroupColumn(property);
+        }
+        for (PivotProperty<T> property : aggregateProperties) {
+            getMeasureColumn(property);
+        }
+    }
+
+    /**
+     * @return the items this dataset was built from.
+     */
+    @NotNull
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Identifies this snapshot: every dataset gets a new version, greater than the version of any dataset created before.
+     * Results computed out of a dataset may be cached under its version, see {@link PivotQueryKey}.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of rows (beans) in this dataset.
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Returns the dictionary-encoded column for given group-by property, building it if necessary.
+     */
+    @NotNull
+    public GroupColumn getGroupColumn(@NotNull PivotProperty<T> property) {
+        return groupColumns.computeIfAbsent(property, key -> {
+            final GroupColumn column = source == null ? null : source.getGroupColumn(property);
+            return column != null ? column : GroupColumn.build(items, property);
+        });
+    }
+
+    /**
+     * Returns the numeric column for given aggregate property, building it if necessary.
+     */
+    @NotNull
+    public MeasureColumn getMeasureColumn(@NotNull PivotProperty<T> property) {
+        return measureColumns.computeIfAbsent(property, key -> {
+            final MeasureColumn column = source == null ? null : source.getMeasureColumn(property);
+            return column != null ? column : MeasureColumn.build(items, property);
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "PivotDataset{" +
+                "version=" + version +
+                ", size=" + items.size() +
+                ", groupColumns=" + groupColumns.keySet() +
+                ", measureColumns=" + measureColumns.keySet() +
+                '}';
+    }
+
+    /**
+     * A dictionary-encoded column. {@link #codes} holds one code per row; the code is an index into the sorted
+     * {@link #dictionary}. Comparable values are sorted naturally, other values by their <code>toString()</code>;
+     * <code>null</code> is always the last dictionary entry.
+     */
+    public static final class GroupColumn implements Serializable {
+        @NotNull
+        final int[] codes;
+        @NotNull
+        final Object[] dictionary;
+        /**
+         * Computed lazily, see {@link #getStatistics()}.
+         */
+        @Nullable
+        private transient volatile ColumnStatistics statistics;
+        /**
+         * Built lazily, see {@link #getBitmapIndex()}.
+         */
+        @Nullable
+        private transient volatile BitmapIndex bitmapIndex;
+
+        GroupColumn(@NotNull int[] codes, @NotNull Object[] dictionary) {
+            this.codes = codes;
+            this.dictionary = dictionary;
+        }
+
+        @NotNull
+        static <T> GroupColumn build(@NotNull List<T> items, @NotNull PivotProperty<T> property) {
+            final Object[] values = new Object[items.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = property.getValue(items.get(i));
+            }
+            return encode(values);
+        }
+
+        /**
+         * Dictionary-encodes given values, one per row.
+         */
+        @NotNull
+        static GroupColumn encode(@NotNull Object[] values) {
+            final Map<Object, Integer> distinct = new HashMap<>();
+            for (Object value : values) {
+                distinct.putIfAbsent(value, distinct.size());
+            }
+
+            final Object[] dictionary = distinct.keySet().toArray();
+            Arrays.sort(dictionary, DICTIONARY_ORDER);
+            for (int code = 0; code < dictionary.length; code++) {
+                distinct.put(dictionary[code], code);
+            }
+            final int[] codes = new int[values.length];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = distinct.get(values[i]);
+            }
+            return new GroupColumn(codes, dictionary);
+        }
+
+        /**
+         * @return the number of distinct values in this column, including <code>null</code>.
+         */
+        public int getCardinality() {
+            return dictionary.length;
+        }
+
+        /**
+         * @return the dictionary code of given row.
+         */
+        public int getCode(int row) {
+            return codes[row];
+        }
+
+        /**
+         * @return the value for given dictionary code.
+         */
+        @Nullable
+        public Object getValue(int code) {
+            return dictionary[code];
+        }
+
+        /**
+         * @return the statistics of this column, computed on first use.
+         */
+        @NotNull
+        public ColumnStatistics getStatistics() {
+            ColumnStatistics result = statistics;
+            if (result == null) {
+                result = ColumnStatistics.of(this);
+                statistics = result;
+            }
+            return result;
+        }
+
+        /**
+         * Returns the bitmap index of this column, building it on first use. Since the column is a part of the
+         * dataset, the index is shared by everyone using the dataset.
+         */
+        @NotNull
+        BitmapIndex getBitmapIndex() {
+            BitmapIndex result = bitmapIndex;
+            if (result == null) {
+                synchronized (this) {
+                    result = bitmapIndex;
+                    if (result == null) {
+                        result = BitmapIndex.build(this);
+                        bitmapIndex = result;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "GroupColumn{rows=" + codes.length + ", cardinality=" + dictionary.length + '}';
+        }
+    }
+
+    /**
+     * Sorts the dictionary: nulls last, values of different classes by class name, {@link Comparable}s
+     * naturally, everything else by <code>toString()</code>.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static final Comparator<Object> DICTIONARY_ORDER = Comparator.nullsLast((o1, o2) -> {
+        if (o1.getClass() != o2.getClass()) {
+            return o1.getClass().getName().compareTo(o2.getClass().getName());
+        }
+        if (o1 instanceof Comparable) {
+            return ((Comparable) o1).compareTo(o2);
+        }
+        return o1.toString().compareTo(o2.toString());
+    });
+
+    /**
+     * The primitive type a {@link MeasureColumn} stores its values in.
+     */
+    public enum NumberType {
+        BYTE(Byte.class, true),
+        SHORT(Short.class, true),
+        INTEGER(Integer.class, true),
+        LONG(Long.class, true),
+        FLOAT(Float.class, false),
+        DOUBLE(Double.class, false),
+        /**
+         * The values are not numbers of a single primitive wrapper type; they are kept as objects.
+         */
+        OBJECT(Object.class, false);
+
+        @NotNull
+        private final Class<?> wrapperType;
+        private final boolean integral;
+
+        NumberType(@NotNull Class<?> wrapperType, boolean integral) {
+            this.wrapperType = wrapperType;
+            this.integral = integral;
+        }
+
+        /**
+         * @return true if the values are stored as <code>long</code>s, false if as <code>double</code>s or objects.
+         */
+        public boolean isIntegral() {
+            return integral;
+        }
+
+        @NotNull
+        static NumberType of(@NotNull Object value) {
+            for (NumberType type : values()) {
+                if (type.wrapperType == value.getClass()) {
+                    return type;
+                }
+            }
+            return OBJECT;
+        }
+
+        /**
+         * Converts given number back to the wrapper type of this column.
+         */
+        @NotNull
+        public Number box(long value) {
+            switch (this) {
+                case BYTE: return (byte) value;
+                case SHORT: return (short) value;
+                case INTEGER: return (int) value;
+                case LONG: return value;
+                default: throw new IllegalStateException("Not an integral type: " + this);
+            }
+        }
+
+        /**
+         * Converts given number back to the wrapper type of this column.
+         */
+        @NotNull
+        public Number box(double value) {
+            switch (this) {
+                case FLOAT: return (float) value;
+                case DOUBLE: return value;
+                default: throw new IllegalStateException("Not a floating-point type: " + this);
+            }
+        }
+    }
+
+    /**
+     * A numeric column. If all non-null values are of the same primitive wrapper type, the values are stored in
+     * {@link #longs} (for integral types) or {@link #doubles}; otherwise the values are kept as {@link #objects}.
+     */
+    public static final class MeasureColumn implements Serializable {
+        @NotNull
+        final NumberType type;
+        @Nullable
+        final long[] longs;
+        @Nullable
+        final double[] doubles;
+        @Nullable
+        final Object[] objects;
+        /**
+         * Rows with a <code>null</code> value; null if there are no such rows.
+         */
+        @Nullable
+        final BitSet nulls;
+
+        MeasureColumn(@NotNull NumberType type, @Nullable long[] longs, @Nullable double[] doubles,
+                              @Nullable Object[] objects, @Nullable BitSet nulls) {
+            this.type = type;
+            this.longs = longs;
+            this.doubles = doubles;
+            this.objects = objects;
+            this.nulls = nulls;
+        }
+
+        @NotNull
+        static <T> MeasureColumn build(@NotNull List<T> items, @NotNull PivotProperty<T> property) {
+            final Object[] values = new Object[items.size()];
+            NumberType type = null;
+            BitSet nulls = null;
+            for (int i = 0; i < values.length; i++) {
+                final Object value = property.getValue(items.get(i));
+                values[i] = value;
+                if (value == null) {
+                    if (nulls == null) {
+                        nulls = new BitSet(values.length);
+                    }
+                    nulls.set(i);
+                } else if (type == null) {
+                    type = NumberType.of(value);
+                } else if (type != NumberType.OBJECT && type != NumberType.of(value)) {
+                    type = NumberType.OBJECT;
+                }
+            }
+            if (type == null || type == NumberType.OBJECT) {
+                return new MeasureColumn(NumberType.OBJECT, null, null, values, nulls);
+            }
+            if (type.isIntegral()) {
+                final long[] longs = new long[values.length];
+                for (int i = 0; i < longs.length; i++) {
+                    longs[i] = values[i] == null ? 0 : ((Number) values[i]).longValue();
+                }
+                return new MeasureColumn(type, longs, null, null, nulls);
+            }
+            final double[] doubles = new double[values.length];
+            for (int i = 0; i < doubles.length; i++) {
+                doubles[i] = values[i] == null ? 0 : ((Number) values[i]).doubleValue();
+            }
+            return new MeasureColumn(type, null, doubles, null, nulls);
+        }
+
+        @NotNull
+        public NumberType getType() {
+            return type;
+        }
+
+        /**
+         * @return true if the values are stored in a primitive array and there are no <code>null</code> values.
+         */
+        public boolean isPrimitive() {
+            return type != NumberType.OBJECT && nulls == null;
+        }
+
+        /**
+         * Returns the value of given row, boxed into the original wrapper type.
+         */
+        @Nullable
+        public Object getValue(int row) {
+            if (objects != null) {
+                return objects[row];
+            }
+            if (nulls != null && nulls.get(row)) {
+                return null;
+            }
+            return longs != null ? type.box(longs[row]) : type.box(doubles[row]);
+        }
+
+        /**
+         * Returns the value of given row as a double. Only valid for a {@link #isPrimitive() primitive} column.
+         */
+        public double getDouble(int row) {
+            return longs != null ? longs[row] : doubles[row];
+        }
+
+        /**
+         * Passes the value of given row to the accumulator, without boxing it if possible.
+         */
+        void accumulate(int row, @NotNull Accumulator accumulator) {
+            if (objects != null) {
+                accumulator.accumulate(objects[row]);
+            } else if (nulls != null && nulls.get(row)) {
+                accumulator.accumulate((Object) null);
+            } else if (longs != null) {
+                accumulator.accumulate(longs[row]);
+            } else {
+                accumulator.accumulate(doubles[row]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "MeasureColumn{type=" + type + ", nulls=" + (nulls == null ? 0 : nulls.cardinality()) + '}';
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Optional settings of a pivot computation, see
+ * {@link PivotDataSource#computePivotRows(java.util.LinkedHashSet, java.util.LinkedHashSet, java.util.Set, java.util.List, PivotDataSource.PivotFilter, PivotOptions)}.
+ * Immutable; the <code>withX</code> methods return modified copies.
+ * <p></p>
+ * A <em>limit</em> keeps only the top (or bottom) N rows ordered by an aggregated value, e.g. the 20 sectors with the
+ * highest count; the remaining rows may be merged into a single "Others" row. Grand totals are not affected by the
+ * limit: they still cover all rows passing the filter.
+ * <p></p>
+ * A <em>memory budget</em> bounds the memory {@link InMemoryPivot} uses for the partial states of the groups; when
+ * exceeded, the states are spilled to temporary files, see {@link #withMemoryBudget(long)}.
+ * <p></p>
+ * A <em>cancellation token</em> aborts a computation no longer needed, or taking longer than its deadline,
+ * see {@link #withCancellation(CancellationToken)}.
+ */
+public final class PivotOptions implements Serializable {
+    /**
+     * No limit.
+     */
+    @NotNull
+    public static final PivotOptions NONE = new PivotOptions(null, true, Integer.MAX_VALUE, null, 0, null);
+
+    @Nullable
+    private final String orderBy;
+    private final boolean descending;
+    private final int limit;
+    @Nullable
+    private final String othersCaption;
+    private final long memoryBudget;
+    /**
+     * Not serialized: a deserialized computation can't be cancelled by the token of the original one.
+     */
+    @Nullable
+    private final transient CancellationToken cancellation;
+
+    private PivotOptions(@Nullable String orderBy, boolean descending, int limit, @Nullable String othersCaption,
+                         long memoryBudget, @Nullable CancellationToken cancellation) {
+        this.orderBy = orderBy;
+        this.descending = descending;
+        this.limit = limit;
+        this.othersCaption = othersCaption;
+        this.memoryBudget = memoryBudget;
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Keeps only the <code>limit</code> rows with the highest value of given column, ordered from the highest value.
+     *
+     * @param columnId the ID of an aggregated value, see {@link PivotDataSource.PivotColumn#id}.
+     * @param limit    the maximum number of rows, 0 or more.
+     */
+    @NotNull
+    public PivotOptions withTop(@NotNull String columnId, int limit) {
+        return withLimit(columnId, true, limit);
+    }
+
+    /**
+     * Keeps only the <code>limit</code> rows with the lowest value of given column, ordered from the lowest value.
+     *
+     * @param columnId the ID of an aggregated value, see {@link PivotDataSource.PivotColumn#id}.
+     * @param limit    the maximum number of rows, 0 or more.
+     */
+    @NotNull
+    public PivotOptions withBottom(@NotNull String columnId, int limit) {
+        return withLimit(columnId, false, limit);
+    }
+
+    @NotNull
+    private PivotOptions withLimit(@NotNull String columnId, boolean descending, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Parameter limit: invalid value " + limit + ": must be 0 or greater");
+        }
+        return new PivotOptions(Objects.requireNonNull(columnId), descending, limit, othersCaption, memoryBudget, cancellation);
+    }
+
+    /**
+     * Merges the rows cut off by the limit into one more row, shown last. The row holds the aggregated values
+     * of all cut-off rows; its first group-by value is given caption, the other group-by values are null.
+     *
+     * @param othersCaption the caption, e.g. "Others"; null to drop the cut-off rows.
+     */
+    @NotNull
+    public PivotOptions withOthers(@Nullable String othersCaption) {
+        return new PivotOptions(orderBy, descending, limit, othersCaption, memoryBudget, cancellation);
+    }
+
+    /**
+     * Groups with bounded memory, for inputs with too many groups to keep in memory at once, e.g. grouping millions of
+     * rows by a near-unique key. The partial states of the groups are aggregated in a hash map; once the map is
+     * estimated to take more than <code>bytes</code>, it is spilled to temporary files and merged back file by file.
+     * The result is the same as without the budget, except that the rows don't know their
+     * {@link PivotDataSource.Row#getMembers() members}: keeping the rows of every group is what the budget avoids.
+     *
+     * @param bytes the budget in bytes, greater than 0; 0 for no budget.
+     */
+    @NotNull
+    public PivotOptions withMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Parameter bytes: invalid value " + bytes + ": must be 0 or greater");
+        }
+        return new PivotOptions(orderBy, descending, limit, othersCaption, bytes, cancellation);
+    }
+
+    /**
+     * Aborts the computation with {@link PivotCancelledException} once given token is cancelled, or its deadline
+     * passes, see {@link CancellationToken#withTimeout(long, java.util.concurrent.TimeUnit)}. The grouping, aggregation,
+     * column-grouping and grand-total loops check the token every {@link CancellationToken#CHECK_INTERVAL} rows or groups.
+     *
+     * @param cancellation the token; {@link CancellationToken#NONE} to compute to completion.
+     */
+    @NotNull
+    public PivotOptions withCancellation(@NotNull CancellationToken cancellation) {
+        return new PivotOptions(orderBy, descending, limit, othersCaption, memoryBudget, Objects.requireNonNull(cancellation));
+    }
+
+    /**
+     * @return true if the rows are limited, see {@link #withTop(String, int)}.
+     */
+    public boolean hasLimit() {
+        return orderBy != null;
+    }
+
+    /**
+     * @return the ID of the column the rows are ordered by; null if not limited.
+     */
+    @Nullable
+    public String getOrderBy() {
+        return orderBy;
+    }
+
+    /**
+     * @return true if the highest values come first.
+     */
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return the maximum number of rows, not counting the "Others" row.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the caption of the "Others" row; null if the cut-off rows are dropped.
+     */
+    @Nullable
+    public String getOthersCaption() {
+        return othersCaption;
+    }
+
+    /**
+     * @return true if the memory used for grouping is bounded, see {@link #withMemoryBudget(long)}.
+     */
+    public boolean hasMemoryBudget() {
+        return memoryBudget > 0;
+    }
+
+    /**
+     * @return the memory budget in bytes; 0 if not bounded.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the token cancelling the computation, see {@link #withCancellation(CancellationToken)};
+     * {@link CancellationToken#NONE} if not cancellable.
+     */
+    @NotNull
+    public CancellationToken getCancellation() {
+        return cancellation == null ? CancellationToken.NONE : cancellation;
+    }
+
+    /**
+     * @return these options without the limit, the "Others" row and the memory budget: only the
+     * {@link #getCancellation() cancellation} remains. Passed on to a delegate computing the ungrouped rows,
+     * e.g. by {@link ColumnGroupingPivotDataSource}.
+     */
+    @NotNull
+    PivotOptions onlyCancellation() {
+        return cancellation == null ? NONE : NONE.withCancellation(cancellation);
+    }
+
+    @Override
+    public String toString() {
+        return "PivotOptions{" +
+                "orderBy='" + orderBy + '\'' +
+                ", descending=" + descending +
+                ", limit=" + limit +
+                ", othersCaption='" + othersCaption + '\'' +
+                ", memoryBudget=" + memoryBudget +
+                ", cancellation=" + cancellation +
+                '}';
+    }
+}
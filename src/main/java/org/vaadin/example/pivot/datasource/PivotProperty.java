@@ -6,11 +6,25 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.Serializable;
 import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 /**
  * A definition for one pivotable property: contains a caption (the name of the property) and {@link #valueProvider}
  * which extracts the numeric value. Doesn't compute the aggregated
  * value itself - for that see {@link Aggregate}.
+ * <p></p>
+ * Numeric properties can be created via {@link #ofInt(String, SerializableToIntFunction)},
+ * {@link #ofLong(String, SerializableToLongFunction)} or {@link #ofDouble(String, SerializableToDoubleFunction)}: the
+ * standard {@link AggregateFunctionEnum functions} then read the values without boxing them, and
+ * {@link AggregateFunctionEnum#SUM} of an integral property is computed exactly. The SUM of an <code>int</code> property
+ * is always a <code>Long</code>; the SUM of any other property is always a <code>Double</code>.
+ * <p></p>
+ * Two properties are equal if they have the same caption and the very same value provider, as passed in by the caller.
+ * The datasets and the cached results are keyed by the properties, therefore properties which merely share a caption
+ * never share a column or a result. A method reference or a lambda which captures nothing is usually the same instance
+ * on every evaluation, so that e.g. the sessions constructing the same properties share the results.
  */
 public final class PivotProperty<T> implements Serializable {
     @NotNull
@@ -22,9 +36,92 @@ public final class PivotProperty<T> implements Serializable {
     @NotNull
     public final SerializableFunction<T, ?> valueProvider;
 
+    /**
+     * Extracts an integral value without boxing; set for properties created by {@link #ofInt(String, SerializableToIntFunction)}
+     * and {@link #ofLong(String, SerializableToLongFunction)}.
+     */
+    @Nullable
+    private final SerializableToLongFunction<T> longProvider;
+    /**
+     * Extracts a floating-point value without boxing; set for properties created by {@link #ofDouble(String, SerializableToDoubleFunction)}.
+     */
+    @Nullable
+    private final SerializableToDoubleFunction<T> doubleProvider;
+    /**
+     * The type {@link #valueProvider} boxes the values into; null unless this is a primitive property.
+     */
+    @Nullable
+    private final PivotDataset.NumberType primitiveType;
+    /**
+     * The value provider passed in by the caller; identifies the property along with the {@link #caption}.
+     */
+    @NotNull
+    private final Serializable source;
+
     public PivotProperty(@NotNull String caption, @NotNull SerializableFunction<T, ?> valueProvider) {
+        this(caption, valueProvider, null, null, null, valueProvider);
+    }
+
+    private PivotProperty(@NotNull String caption, @NotNull SerializableFunction<T, ?> valueProvider,
+                          @Nullable SerializableToLongFunction<T> longProvider,
+                          @Nullable SerializableToDoubleFunction<T> doubleProvider,
+                          @Nullable PivotDataset.NumberType primitiveType,
+                          @NotNull Serializable source) {
         this.caption = Objects.requireNonNull(caption);
         this.valueProvider = Objects.requireNonNull(valueProvider);
+        this.longProvider = longProvider;
+        this.doubleProvider = doubleProvider;
+        this.primitiveType = primitiveType;
+        this.source = source;
+    }
+
+    /**
+     * Creates a property of <code>int</code> values, e.g. <code>PivotProperty.ofInt("Height", Player::getHeightInches)</code>.
+     * {@link #getValue(Object)} boxes the values into {@link Integer}s, the same as a <code>SerializableFunction&lt;T, Number&gt;</code>
+     * would; {@link AggregateFunctionEnum#SUM} however produces an exact <code>Long</code> rather than a <code>Double</code>,
+     * for the rows and the totals alike.
+     */
+    @NotNull
+    public static <T> PivotProperty<T> ofInt(@NotNull String caption, @NotNull SerializableToIntFunction<T> valueProvider) {
+        Objects.requireNonNull(valueProvider);
+        return new PivotProperty<>(caption, bean -> valueProvider.applyAsInt(bean),
+                bean -> valueProvider.applyAsInt(bean), null, PivotDataset.NumberType.INTEGER, valueProvider);
+    }
+
+    /**
+     * Creates a property of <code>long</code> values. {@link #getValue(Object)} boxes the values into {@link Long}s;
+     * {@link AggregateFunctionEnum#SUM} produces a <code>Double</code>, the same type as for a property created by the
+     * constructor: a sum of <code>long</code>s may not fit in a <code>long</code>. It is computed exactly as long as it fits.
+     */
+    @NotNull
+    public static <T> PivotProperty<T> ofLong(@NotNull String caption, @NotNull SerializableToLongFunction<T> valueProvider) {
+        Objects.requireNonNull(valueProvider);
+        return new PivotProperty<>(caption, bean -> valueProvider.applyAsLong(bean), valueProvider, null,
+                PivotDataset.NumberType.LONG, valueProvider);
+    }
+
+    /**
+     * Creates a property of <code>double</code> values; <code>float</code> getters are accepted as well, widened to
+     * <code>double</code>. {@link #getValue(Object)} boxes the values into {@link Double}s.
+     */
+    @NotNull
+    public static <T> PivotProperty<T> ofDouble(@NotNull String caption, @NotNull SerializableToDoubleFunction<T> valueProvider) {
+        Objects.requireNonNull(valueProvider);
+        return new PivotProperty<>(caption, bean -> valueProvider.applyAsDouble(bean), null, valueProvider,
+                PivotDataset.NumberType.DOUBLE, valueProvider);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PivotProperty<?> that = (PivotProperty<?>) o;
+        return source == that.source && primitiveType == that.primitiveType && caption.equals(that.caption);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * caption.hashCode() + System.identityHashCode(source);
     }
 
     @Override
@@ -44,4 +141,62 @@ public final class PivotProperty<T> implements Serializable {
     public Object getValue(@NotNull T bean) {
         return valueProvider.apply(bean);
     }
+
+    /**
+     * @return the type of the values of a property created by {@link #ofInt(String, SerializableToIntFunction)},
+     * {@link #ofLong(String, SerializableToLongFunction)} or {@link #ofDouble(String, SerializableToDoubleFunction)};
+     * null for any other property.
+     */
+    @Nullable
+    public PivotDataset.NumberType getPrimitiveType() {
+        return primitiveType;
+    }
+
+    /**
+     * Passes the value of given bean to the accumulator: unboxed if this is a primitive property, see {@link #getPrimitiveType()}.
+     */
+    void accumulate(@NotNull T bean, @NotNull Accumulator accumulator) {
+        if (longProvider != null) {
+            accumulator.accumulate(longProvider.applyAsLong(bean));
+        } else if (doubleProvider != null) {
+            accumulator.accumulate(doubleProvider.applyAsDouble(bean));
+        } else {
+            accumulator.accumulate(valueProvider.apply(bean));
+        }
+    }
+
+    /**
+     * Returns the value of an integral primitive property without boxing it.
+     */
+    long getLong(@NotNull T bean) {
+        return Objects.requireNonNull(longProvider, "not an integral primitive property").applyAsLong(bean);
+    }
+
+    /**
+     * Returns the value of a floating-point primitive property without boxing it.
+     */
+    double getDouble(@NotNull T bean) {
+        return Objects.requireNonNull(doubleProvider, "not a floating-point primitive property").applyAsDouble(bean);
+    }
+
+    /**
+     * A serializable {@link ToIntFunction}, so that a property stays serializable with the session.
+     */
+    @FunctionalInterface
+    public interface SerializableToIntFunction<T> extends ToIntFunction<T>, Serializable {
+    }
+
+    /**
+     * A serializable {@link ToLongFunction}, so that a property stays serializable with the session.
+     */
+    @FunctionalInterface
+    public interface SerializableToLongFunction<T> extends ToLongFunction<T>, Serializable {
+    }
+
+    /**
+     * A serializable {@link ToDoubleFunction}, so that a property stays serializable with the session.
+     */
+    @FunctionalInterface
+    public interface SerializableToDoubleFunction<T> extends ToDoubleFunction<T>, Serializable {
+    }
 }
@@ -0,0 +1,163 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * The canonical form of a pivot configuration, used as the key of {@link PivotResultCache}. Two keys are equal
+ * if the pivot computes the same result for them:
+ * <ul>
+ *     <li>the group-by IDs, in order, along with the {@link PivotProperty#equals(Object) property}, the column-grouping
+ *     and the filter-enabled flags of every group-by clause;</li>
+ *     <li>the aggregate IDs, in order, along with the property, the aggregate function and the filter-enabled flag
+ *     of every aggregate;</li>
+ *     <li>the grand-total IDs, in any order;</li>
+ *     <li>the filter values, in any order;</li>
+ *     <li>the {@link PivotDataset#getVersion() version} of the dataset the result is computed out of.</li>
+ * </ul>
+ * The filter-enabled flags don't affect the values, but the {@link PivotDataSource.PivotColumn columns} of the result
+ * carry them, e.g. to show the filter row of the grid. The IDs alone don't identify the clauses: they are usually
+ * derived from the captions, which different properties may share.
+ * <p></p>
+ * Immutable: the configuration is copied, therefore the key is not affected by modifications of e.g. the filter afterwards.
+ */
+public final class PivotQueryKey implements Serializable {
+    @NotNull
+    private final List<String> groupByIds;
+    @NotNull
+    private final List<PivotProperty<?>> groupByProperties;
+    @NotNull
+    private final List<Boolean> columnGrouping;
+    @NotNull
+    private final List<Boolean> groupByFilterEnabled;
+    @NotNull
+    private final List<String> aggregateIds;
+    @NotNull
+    private final List<PivotProperty<?>> aggregateProperties;
+    @NotNull
+    private final List<AggregateFunction> functions;
+    @NotNull
+    private final List<Boolean> aggregateFilterEnabled;
+    @NotNull
+    private final SortedSet<String> grandTotalIds;
+    @NotNull
+    private final SortedMap<String, Set<Object>> filterValues;
+    private final long datasetVersion;
+    private final int hashCode;
+
+    private PivotQueryKey(@NotNull List<String> groupByIds, @NotNull List<PivotProperty<?>> groupByProperties,
+                          @NotNull List<Boolean> columnGrouping, @NotNull List<Boolean> groupByFilterEnabled,
+                          @NotNull List<String> aggregateIds, @NotNull List<PivotProperty<?>> aggregateProperties,
+                          @NotNull List<AggregateFunction> functions,
+                          @NotNull List<Boolean> aggregateFilterEnabled,
+                          @NotNull SortedSet<String> grandTotalIds, @NotNull SortedMap<String, Set<Object>> filterValues,
+                          long datasetVersion) {
+        this.groupByIds = groupByIds;
+        this.groupByProperties = groupByProperties;
+        this.columnGrouping = columnGrouping;
+        this.groupByFilterEnabled = groupByFilterEnabled;
+        this.aggregateIds = aggregateIds;
+        this.aggregateProperties = aggregateProperties;
+        this.functions = functions;
+        this.aggregateFilterEnabled = aggregateFilterEnabled;
+        this.grandTotalIds = grandTotalIds;
+        this.filterValues = filterValues;
+        this.datasetVersion = datasetVersion;
+        this.hashCode = Objects.hash(groupByIds, groupByProperties, columnGrouping, groupByFilterEnabled, aggregateIds,
+                aggregateProperties, functions, aggregateFilterEnabled, grandTotalIds, filterValues, datasetVersion);
+    }
+
+    /**
+     * Creates the key for given configuration, see
+     * {@link PivotDataSource#computePivotRows(LinkedHashSet, LinkedHashSet, Set, List, PivotDataSource.PivotFilter)}.
+     *
+     * @param datasetVersion the {@link PivotDataset#getVersion() version} of the dataset.
+     */
+    @NotNull
+    public static <T> PivotQueryKey of(
+            @NotNull Collection<GroupBy<T>> groupBy,
+            @NotNull Collection<Aggregate<T>> aggregates,
+            @NotNull Set<String> grandTotalIDs,
+            @NotNull PivotDataSource.PivotFilter filter,
+            long datasetVersion
+    ) {
+        final List<String> groupByIds = new ArrayList<>(groupBy.size());
+        final List<PivotProperty<?>> groupByProperties = new ArrayList<>(groupBy.size());
+        final List<Boolean> columnGrouping = new ArrayList<>(groupBy.size());
+        final List<Boolean> groupByFilterEnabled = new ArrayList<>(groupBy.size());
+        for (GroupBy<T> clause : groupBy) {
+            groupByIds.add(clause.id);
+            groupByProperties.add(clause.property);
+            columnGrouping.add(clause.columnGrouping);
+            groupByFilterEnabled.add(clause.isFilterEnabled());
+        }
+        final List<String> aggregateIds = new ArrayList<>(aggregates.size());
+        final List<PivotProperty<?>> aggregateProperties = new ArrayList<>(aggregates.size());
+        final List<AggregateFunction> functions = new ArrayList<>(aggregates.size());
+        final List<Boolean> aggregateFilterEnabled = new ArrayList<>(aggregates.size());
+        for (Aggregate<T> aggregate : aggregates) {
+            aggregateIds.add(aggregate.id);
+            aggregateProperties.add(aggregate.property);
+            functions.add(aggregate.function);
+            aggregateFilterEnabled.add(aggregate.isFilterEnabled());
+        }
+        final SortedMap<String, Set<Object>> filterValues = new TreeMap<>();
+        for (Map.Entry<String, Set<Object>> entry : filter.getFilterValues().entrySet()) {
+            filterValues.put(entry.getKey(), Collections.unmodifiableSet(new HashSet<>(entry.getValue())));
+        }
+        return new PivotQueryKey(Collections.unmodifiableList(groupByIds), Collections.unmodifiableList(groupByProperties),
+                Collections.unmodifiableList(columnGrouping), Collections.unmodifiableList(groupByFilterEnabled),
+                Collections.unmodifiableList(aggregateIds), Collections.unmodifiableList(aggregateProperties),
+                Collections.unmodifiableList(functions),
+                Collections.unmodifiableList(aggregateFilterEnabled),
+                Collections.unmodifiableSortedSet(new TreeSet<>(grandTotalIDs)),
+                Collections.unmodifiableSortedMap(filterValues), datasetVersion);
+    }
+
+    public long getDatasetVersion() {
+        return datasetVersion;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PivotQueryKey that = (PivotQueryKey) o;
+        return hashCode == that.hashCode &&
+                datasetVersion == that.datasetVersion &&
+                groupByIds.equals(that.groupByIds) &&
+                groupByProperties.equals(that.groupByProperties) &&
+                columnGrouping.equals(that.columnGrouping) &&
+                groupByFilterEnabled.equals(that.groupByFilterEnabled) &&
+                aggregateIds.equals(that.aggregateIds) &&
+                aggregateProperties.equals(that.aggregateProperties) &&
+                functions.equals(that.functions) &&
+                aggregateFilterEnabled.equals(that.aggregateFilterEnabled) &&
+                grandTotalIds.equals(that.grandTotalIds) &&
+                filterValues.equals(that.filterValues);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "PivotQueryKey{" +
+                "groupByIds=" + groupByIds +
+                ", groupByProperties=" + groupByProperties +
+                ", columnGrouping=" + columnGrouping +
+                ", groupByFilterEnabled=" + groupByFilterEnabled +
+                ", aggregateIds=" + aggregateIds +
+                ", aggregateProperties=" + aggregateProperties +
+                ", functions=" + functions +
+                ", aggregateFilterEnabled=" + aggregateFilterEnabled +
+                ", grandTotalIds=" + grandTotalIds +
+                ", filterValues=" + filterValues +
+                ", datasetVersion=" + datasetVersion +
+                '}';
+    }
+}
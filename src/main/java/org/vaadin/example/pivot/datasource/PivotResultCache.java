@@ -0,0 +1,217 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotResult;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Caches the most recently used pivot results, so that flipping back to a pivot configuration seen before doesn't
+ * compute the pivot again. Keyed by {@link PivotQueryKey}. Intended to be held per session, e.g. by the
+ * <code>PivotConfigurationPanel</code>.
+ * <p></p>
+ * The least recently used results are evicted once the cache holds more than <code>maxEntries</code> results,
+ * or once the estimated {@link #weigh(PivotResult) weight} of all results exceeds <code>maxWeight</code> bytes.
+ * A result heavier than <code>maxWeight</code> is not cached at all.
+ * <p></p>
+ * The cached results are shared: they must not be modified by the callers. Call {@link #invalidate()}
+ * when the dataset changes; entries for other dataset versions are never returned anyway, since the version is
+ * a part of the key.
+ * <p></p>
+ * Thread-safe.
+ *
+ * @param <T> the bean type.
+ */
+public final class PivotResultCache<T> implements Serializable {
+    public static final int DEFAULT_MAX_ENTRIES = 16;
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private final int maxEntries;
+    private final long maxWeight;
+
+    /**
+     * The results along with their weights, in the access order: the least recently used result comes first.
+     */
+    @NotNull
+    private final LinkedHashMap<PivotQueryKey, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private static final class Entry<T> implements Serializable {
+        @NotNull
+        final PivotResult<T> result;
+        final long weight;
+
+        Entry(@NotNull PivotResult<T> result, long weight) {
+            this.result = result;
+            this.weight = weight;
+        }
+    }
+
+    public PivotResultCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * @param maxEntries the maximum number of cached results, 0 or greater.
+     * @param maxWeight  the maximum estimated weight of all cached results in bytes, 0 or greater.
+     */
+    public PivotResultCache(int maxEntries, long maxWeight) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Parameter maxEntries: invalid value " + maxEntries + ": must be 0 or greater");
+        }
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("Parameter maxWeight: invalid value " + maxWeight + ": must be 0 or greater");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the cached result for given key, marking it as the most recently used one.
+     *
+     * @return the result, or null if not cached. Counted as a hit or a miss respectively.
+     */
+    @Nullable
+    public synchronized PivotResult<T> get(@NotNull PivotQueryKey key) {
+        final Entry<T> entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.result;
+    }
+
+    /**
+     * Caches given result, evicting the least recently used results if necessary.
+     */
+    public synchronized void put(@NotNull PivotQueryKey key, @NotNull PivotResult<T> result) {
+        final long resultWeight = weigh(result);
+        final Entry<T> previous = entries.remove(key);
+        if (previous != null) {
+            weight -= previous.weight;
+        }
+        if (maxEntries == 0 || resultWeight > maxWeight) {
+            return;
+        }
+        entries.put(key, new Entry<>(result, resultWeight));
+        weight += resultWeight;
+        final Iterator<Entry<T>> iterator = entries.values().iterator();
+        while (entries.size() > maxEntries || weight > maxWeight) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Returns the cached result for given key; computes and caches the result if it's not cached.
+     * The computation runs outside of the lock of this cache.
+     */
+    @NotNull
+    public PivotResult<T> computeIfAbsent(@NotNull PivotQueryKey key, @NotNull Supplier<PivotResult<T>> compute) {
+        PivotResult<T> result = get(key);
+        if (result == null) {
+            result = compute.get();
+            put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Removes all cached results; call when the dataset changes. The hit and miss counters are kept.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Removes the cached results computed out of given version of the dataset.
+     */
+    public synchronized void invalidate(long datasetVersion) {
+        final Iterator<Map.Entry<PivotQueryKey, Entry<T>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<PivotQueryKey, Entry<T>> entry = iterator.next();
+            if (entry.getKey().getDatasetVersion() == datasetVersion) {
+                weight -= entry.getValue().weight;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap taken by given result, in bytes. Rows created on demand are weighed by what they are created
+     * out of, see {@link LazyRows#weigh()}: e.g. the states and the rows of every group, including the groups not
+     * shown by a limited result. Other rows are weighed one by one, see {@link #weigh(PivotDataSource.Row)}.
+     */
+    static <T> long weigh(@NotNull PivotResult<T> result) {
+        long weight = 256 + 96L * (result.columns.size() + result.grandTotalValues.size());
+        if (result.rows instanceof LazyRows) {
+            return weight + ((LazyRows<T>) result.rows).weigh();
+        }
+        for (PivotDataSource.Row<T> row : result.rows) {
+            weight += weigh(row);
+        }
+        return weight;
+    }
+
+    /**
+     * Estimates the heap taken by given row, in bytes: a map holding a boxed value and possibly a partial state per
+     * column, plus the ordinals or the references of the beans aggregated into the row.
+     */
+    static long weigh(@NotNull PivotDataSource.Row<?> row) {
+        long weight = 64 + 96L * row.getValues().size();
+        if (row.getMembers() != null) {
+            weight += 4L * row.getMembers().size();
+        } else if (row.hasSourceBeans()) {
+            weight += 8L * row.getSourceBeans().size();
+        }
+        return weight;
+    }
+
+    /**
+     * @return the number of cached results.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated weight of all cached results, in bytes.
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PivotResultCache{" +
+                "size=" + entries.size() +
+                ", weight=" + weight +
+                ", hits=" + hitCount +
+                ", misses=" + missCount +
+                ", evictions=" + evictionCount +
+                '}';
+    }
+}
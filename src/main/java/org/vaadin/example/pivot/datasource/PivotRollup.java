@@ -0,0 +1,164 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotColumn;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotResult;
+import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * The rows of a pivot at every level of the row grouping (a <code>ROLLUP</code>): level {@link #getDepth()} holds the
+ * rows grouped by all {@link #groupBy} clauses, level {@link #getDepth()}-1 the subtotals grouped by all but the last
+ * clause, and so on; level 0 holds a single row with the grand totals.
+ * <p></p>
+ * Every row carries its {@link Row#getKey() key} and {@link Row#getLevel() level}; the rows of the next level
+ * are available via {@link #getChildren(Row)}. Create via
+ * {@link PivotDataSource#computeRollup(LinkedHashSet, LinkedHashSet, List, PivotDataSource.PivotFilter)}.
+ *
+ * @param <T> the bean type.
+ */
+public final class PivotRollup<T> implements Serializable {
+    /**
+     * The row grouping, outermost first. Doesn't contain the {@link GroupBy#columnGrouping column grouping}.
+     */
+    @NotNull
+    public final List<GroupBy<T>> groupBy;
+
+    /**
+     * Lists all columns, see {@link PivotResult#columns}.
+     */
+    @NotNull
+    public final List<PivotColumn<T>> columns;
+
+    /**
+     * The rows, indexed by level.
+     */
+    @NotNull
+    private final List<List<Row<T>>> levels;
+
+    /**
+     * Maps the key of a row to the rows of the next level.
+     */
+    @NotNull
+    private final Map<List<Object>, List<Row<T>>> children;
+
+    private PivotRollup(@NotNull List<GroupBy<T>> groupBy, @NotNull List<PivotColumn<T>> columns,
+                        @NotNull List<List<Row<T>>> levels, @NotNull Map<List<Object>, List<Row<T>>> children) {
+        this.groupBy = Collections.unmodifiableList(groupBy);
+        this.columns = Collections.unmodifiableList(columns);
+        this.levels = levels;
+        this.children = children;
+    }
+
+    /**
+     * Derives the coarser levels out of the rows of given result, by merging the partial states of the rows
+     * (see {@link Row#getAccumulator(String)}): every level is merged out of the level below, the beans are not
+     * visited again. An aggregated value is left out of a subtotal if some of the rows don't carry a state for it.
+     *
+     * @param result the rows grouped by all clauses.
+     * @return the rollup, not null. The rows of <code>result</code> become the finest level; they share the values.
+     */
+    @NotNull
+    public static <T> PivotRollup<T> of(@NotNull PivotResult<T> result) {
+        final List<GroupBy<T>> groupBy = result.columns.stream()
+                .filter(PivotColumn::isRowGroup)
+                .map(it -> it.groupBy)
+                .collect(Collectors.toList());
+        final List<PivotColumn<T>> aggregateColumns = result.columns.stream()
+                .filter(PivotColumn::isAggregate)
+                .collect(Collectors.toList());
+
+        final List<List<Row<T>>> levels = new ArrayList<>(Collections.nCopies(groupBy.size() + 1, null));
+        final Map<List<Object>, List<Row<T>>> children = new HashMap<>();
+        final List<Row<T>> finest = new ArrayList<>(result.rows.size());
+        for (Row<T> row : result.rows) {
+            final List<Object> key = new ArrayList<>(groupBy.size());
+            for (GroupBy<T> clause : groupBy) {
+                key.add(row.get(clause.id));
+            }
+            finest.add(row.withKey(key));
+        }
+        levels.set(groupBy.size(), finest);
+
+        for (int level = groupBy.size() - 1; level >= 0; level--) {
+            final Map<List<Object>, List<Row<T>>> groups = new LinkedHashMap<>();
+            for (Row<T> row : levels.get(level + 1)) {
+                groups.computeIfAbsent(new ArrayList<>(row.getParentKey()), k -> new ArrayList<>()).add(row);
+            }
+            final List<Row<T>> rows = new ArrayList<>(groups.size());
+            for (Map.Entry<List<Object>, List<Row<T>>> group : groups.entrySet()) {
+                rows.add(merge(group.getKey(), group.getValue(), groupBy, aggregateColumns));
+            }
+            children.putAll(groups);
+            levels.set(level, rows);
+        }
+        return new PivotRollup<>(groupBy, new ArrayList<>(result.columns), levels, children);
+    }
+
+    @NotNull
+    private static <T> Row<T> merge(@NotNull List<Object> key, @NotNull List<Row<T>> rows,
+                                    @NotNull List<GroupBy<T>> groupBy, @NotNull List<PivotColumn<T>> aggregateColumns) {
+        final Map<String, Object> values = new HashMap<>();
+        for (int i = 0; i < key.size(); i++) {
+            values.put(groupBy.get(i).id, key.get(i));
+        }
+        final Map<String, Accumulator> states = new HashMap<>();
+        for (PivotColumn<T> column : aggregateColumns) {
+            final Accumulator merged = column.aggregate.mergeAccumulators(rows, column.id);
+            if (merged != null) {
+                values.put(column.id, merged.finish());
+                states.put(column.id, merged);
+            }
+        }
+        return new Row<T>(values, null, states).withKey(key);
+    }
+
+    /**
+     * @return the number of group-by levels; the rollup has {@link #getDepth()}+1 levels including the grand total.
+     */
+    public int getDepth() {
+        return groupBy.size();
+    }
+
+    /**
+     * @param level 0..{@link #getDepth()}
+     * @return the rows of given level, not null. Empty if there are no rows at all.
+     */
+    @NotNull
+    public List<Row<T>> getRows(int level) {
+        if (level < 0 || level >= levels.size()) {
+            throw new IndexOutOfBoundsException("Level: " + level + ", depth: " + getDepth());
+        }
+        return Collections.unmodifiableList(levels.get(level));
+    }
+
+    /**
+     * @return the row with the grand totals, or null if there are no rows.
+     */
+    @Nullable
+    public Row<T> getGrandTotal() {
+        return levels.get(0).isEmpty() ? null : levels.get(0).get(0);
+    }
+
+    /**
+     * @param parent a row of this rollup.
+     * @return the rows of the next level belonging to the parent row; empty for rows of the finest level.
+     */
+    @NotNull
+    public List<Row<T>> getChildren(@NotNull Row<T> parent) {
+        final List<Object> key = Objects.requireNonNull(parent.getKey(), "The row is not part of a rollup");
+        return Collections.unmodifiableList(children.getOrDefault(key, Collections.emptyList()));
+    }
+
+    @Override
+    public String toString() {
+        return "PivotRollup{" +
+                "groupBy=" + groupBy +
+                ", rows=" + levels.stream().map(List::size).collect(Collectors.toList()) +
+                '}';
+    }
+}
@@ -0,0 +1,140 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable set of row ordinals, i.e. indices into the list of items given to
+ * {@link PivotDataSource#computePivotRows(java.util.LinkedHashSet, java.util.LinkedHashSet, java.util.Set, List, PivotDataSource.PivotFilter)}.
+ * Describes which beans were aggregated into a {@link PivotDataSource.Row} in 4 bytes per bean; the beans themselves
+ * are only looked up when asked for, see {@link #asList(List)}.
+ * <p></p>
+ * The ordinals are kept in ascending order. Rows computed by {@link InMemoryPivot} share a single array of ordinals;
+ * every row references a slice of it.
+ */
+public final class RowSet implements Serializable {
+    @NotNull
+    private final int[] rows;
+    private final int from;
+    private final int to;
+
+    private RowSet(@NotNull int[] rows, int from, int to) {
+        this.rows = rows;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Creates a set of the ordinals <code>rows[from]</code>..<code>rows[to - 1]</code>. The array is not copied
+     * and must not be modified afterwards.
+     *
+     * @param rows the ordinals, ascending within the slice.
+     * @param from the first index into <code>rows</code>, inclusive.
+     * @param to   the last index into <code>rows</code>, exclusive.
+     * @return the set, not null.
+     */
+    @NotNull
+    static RowSet slice(@NotNull int[] rows, int from, int to) {
+        return new RowSet(rows, from, to);
+    }
+
+    /**
+     * @return the union of given sets, not null.
+     */
+    @NotNull
+    public static RowSet union(@NotNull Collection<RowSet> sets) {
+        if (sets.size() == 1) {
+            return sets.iterator().next();
+        }
+        int size = 0;
+        for (RowSet set : sets) {
+            size += set.size();
+        }
+        final int[] rows = new int[size];
+        int offset = 0;
+        for (RowSet set : sets) {
+            System.arraycopy(set.rows, set.from, rows, offset, set.size());
+            offset += set.size();
+        }
+        Arrays.sort(rows);
+        // remove duplicates, if the sets overlap
+        int distinct = 0;
+        for (int i = 0; i < rows.length; i++) {
+            if (i == 0 || rows[i] != rows[i - 1]) {
+                rows[distinct++] = rows[i];
+            }
+        }
+        return new RowSet(rows, 0, distinct);
+    }
+
+    /**
+     * @return the number of ordinals in this set.
+     */
+    public int size() {
+        return to - from;
+    }
+
+    /**
+     * @param index 0..{@link #size()}-1
+     * @return the ordinal at given index; ordinals are in ascending order.
+     */
+    public int get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        return rows[from + index];
+    }
+
+    /**
+     * @return the ordinals, in ascending order.
+     */
+    @NotNull
+    public IntStream stream() {
+        return Arrays.stream(rows, from, to);
+    }
+
+    /**
+     * Returns a read-only view of the beans at the ordinals of this set. Nothing is copied.
+     *
+     * @param items the items the ordinals index into.
+     * @return the beans, not null.
+     */
+    @NotNull
+    public <T> List<T> asList(@NotNull List<T> items) {
+        return new BeanList<>(items, this);
+    }
+
+    @Override
+    public String toString() {
+        return "RowSet{size=" + size() + '}';
+    }
+
+    private static final class BeanList<T> extends AbstractList<T> implements RandomAccess, Serializable {
+        @NotNull
+        private final List<T> items;
+        @NotNull
+        private final RowSet rows;
+
+        BeanList(@NotNull List<T> items, @NotNull RowSet rows) {
+            this.items = items;
+            this.rows = rows;
+        }
+
+        @Override
+        public T get(int index) {
+            return items.get(rows.get(index));
+        }
+
+        @Override
+        public int size() {
+            return rows.size();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotResult;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * An application-wide cache of {@link PivotResult#asReadOnly() read-only} pivot results, shared across sessions:
+ * sessions pivoting the same items with the same configuration get the very same result instance, computed once.
+ * Also shares the {@link PivotDataset columnar snapshots} of the items, so that the {@link PivotQueryKey keys}
+ * computed by different sessions match.
+ * <p></p>
+ * Lookups are lock-free ({@link ConcurrentHashMap}); only the eviction is serialized. The results are held
+ * via {@link SoftReference}s, so that the GC may reclaim them under memory pressure; on top of that, the least recently
+ * used results are evicted once the estimated {@link PivotResultCache#weigh(PivotResult) weight} of all results
+ * exceeds the memory budget. A result heavier than the budget is not cached at all.
+ * <p></p>
+ * Concurrent misses of the same key are coalesced: one caller computes the result while the others wait for it,
+ * see {@link SingleFlight}.
+ * <p></p>
+ * The datasets are kept until {@link #invalidate(List) invalidated}: call it when the items change.
+ */
+public final class SharedPivotCache {
+    public static final long DEFAULT_MAX_WEIGHT = 256L * 1024 * 1024;
+
+    @NotNull
+    private static final SharedPivotCache INSTANCE = new SharedPivotCache(DEFAULT_MAX_WEIGHT);
+
+    private final long maxWeight;
+    @NotNull
+    private final ConcurrentMap<PivotQueryKey, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * The datasets, keyed by the identity of the item list.
+     */
+    @NotNull
+    private final ConcurrentMap<Identity, PivotDataset<?>> datasets = new ConcurrentHashMap<>();
+    /**
+     * Receives the entries whose results the GC has reclaimed.
+     */
+    @NotNull
+    private final ReferenceQueue<PivotResult<?>> reclaimed = new ReferenceQueue<>();
+    @NotNull
+    private final AtomicLong weight = new AtomicLong();
+    /**
+     * Ticks on every access; the entry with the lowest tick is the least recently used one.
+     */
+    @NotNull
+    private final AtomicLong clock = new AtomicLong();
+    @NotNull
+    private final LongAdder hitCount = new LongAdder();
+    @NotNull
+    private final LongAdder missCount = new LongAdder();
+    @NotNull
+    private final LongAdder evictionCount = new LongAdder();
+    @NotNull
+    private final Object evictionLock = new Object();
+    @NotNull
+    private final SingleFlight<PivotQueryKey, PivotResult<?>> flights = new SingleFlight<>();
+
+    private static final class Entry extends SoftReference<PivotResult<?>> {
+        @NotNull
+        final PivotQueryKey key;
+        final long weight;
+        volatile long lastAccess;
+
+        Entry(@NotNull PivotQueryKey key, @NotNull PivotResult<?> result, long weight, long lastAccess,
+              @NotNull ReferenceQueue<PivotResult<?>> queue) {
+            super(result, queue);
+            this.key = key;
+            this.weight = weight;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private static final class Identity {
+        @NotNull
+        final Object object;
+
+        Identity(@NotNull Object object) {
+            this.object = object;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Identity && ((Identity) o).object == object;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(object);
+        }
+    }
+
+    /**
+     * @param maxWeight the memory budget: the maximum estimated weight of all cached results in bytes, 0 or greater.
+     */
+    public SharedPivotCache(long maxWeight) {
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("Parameter maxWeight: invalid value " + maxWeight + ": must be 0 or greater");
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * @return the cache shared by the whole application.
+     */
+    @NotNull
+    public static SharedPivotCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the dataset of given items, shared by all callers passing the very same list. The columns for given
+     * properties are built if not built yet; callers registering different properties under the same caption get
+     * columns of their own, see {@link PivotProperty#equals(Object)}.
+     *
+     * @param items the items, must not be modified afterwards; {@link #invalidate(List) invalidate} the dataset instead.
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public <T> PivotDataset<T> getDataset(
+            @NotNull List<T> items,
+            @NotNull Collection<PivotProperty<T>> groupByProperties,
+            @NotNull Collection<PivotProperty<T>> aggregateProperties
+    ) {
+        final PivotDataset<T> dataset = (PivotDataset<T>) datasets.computeIfAbsent(new Identity(items), key -> new PivotDataset<>(items));
+        for (PivotProperty<T> property : groupByProperties) {
+            dataset.getGroupColumn(property);
+        }
+        for (PivotProperty<T> property : aggregateProperties) {
+            dataset.getMeasureColumn(property);
+        }
+        return dataset;
+    }
+
+    /**
+     * Returns the cached result for given key; computes the result and caches its
+     * {@link PivotResult#asReadOnly() read-only} copy if it's not cached. Concurrent callers missing the same key
+     * wait for the result computed by the first one.
+     *
+     * @return the read-only result.
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public <T> PivotResult<T> computeIfAbsent(@NotNull PivotQueryKey key, @NotNull Supplier<PivotResult<T>> compute) {
+        final PivotResult<T> cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+        return (PivotResult<T>) flights.execute(key, () -> {
+            // the previous flight may have cached the result in the meantime
+            final Entry entry = entries.get(key);
+            final PivotResult<?> result = entry == null ? null : entry.get();
+            return result != null ? result : put(key, compute.get().asReadOnly());
+        }, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Caches given result, unless an entry for given key has been cached in the meantime.
+     *
+     * @return the cached result.
+     */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    private <T> PivotResult<T> put(@NotNull PivotQueryKey key, @NotNull PivotResult<T> result) {
+        final long resultWeight = PivotResultCache.weigh(result);
+        if (resultWeight > maxWeight) {
+            return result;
+        }
+        final Entry entry = new Entry(key, result, resultWeight, clock.incrementAndGet(), reclaimed);
+        final Entry previous = entries.putIfAbsent(key, entry);
+        if (previous != null) {
+            final PivotResult<T> winner = (PivotResult<T>) previous.get();
+            if (winner != null) {
+                return winner;
+            }
+            if (!entries.replace(key, previous, entry)) {
+                return result;
+            }
+            remove(previous);
+        }
+        weight.addAndGet(resultWeight);
+        evict();
+        return result;
+    }
+
+    /**
+     * @return the cached result for given key, or null if not cached or reclaimed by the GC.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> PivotResult<T> get(@NotNull PivotQueryKey key) {
+        final Entry entry = entries.get(key);
+        final PivotResult<T> result = entry == null ? null : (PivotResult<T>) entry.get();
+        if (result == null) {
+            missCount.increment();
+            return null;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        hitCount.increment();
+        return result;
+    }
+
+    /**
+     * Drops the entries reclaimed by the GC, then evicts the least recently used entries until the cached results
+     * fit into the memory budget.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            Entry entry;
+            while ((entry = (Entry) reclaimed.poll()) != null) {
+                if (entries.remove(entry.key, entry)) {
+                    weight.addAndGet(-entry.weight);
+                }
+            }
+            if (weight.get() <= maxWeight) {
+                return;
+            }
+            final List<Entry> byAccess = new ArrayList<>(entries.values());
+            byAccess.sort(Comparator.comparingLong(it -> it.lastAccess));
+            for (Entry candidate : byAccess) {
+                if (weight.get() <= maxWeight) {
+                    break;
+                }
+                if (entries.remove(candidate.key, candidate)) {
+                    weight.addAndGet(-candidate.weight);
+                    evictionCount.increment();
+                }
+            }
+        }
+    }
+
+    private void remove(@NotNull Entry entry) {
+        weight.addAndGet(-entry.weight);
+        entry.clear();
+    }
+
+    /**
+     * Drops the dataset of given items along with all results computed out of it; call when the items change.
+     */
+    public void invalidate(@NotNull List<?> items) {
+        final PivotDataset<?> dataset = datasets.remove(new Identity(items));
+        if (dataset != null) {
+            for (Entry entry : entries.values()) {
+                if (entry.key.getDatasetVersion() == dataset.getVersion() && entries.remove(entry.key, entry)) {
+                    remove(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all datasets and results.
+     */
+    public void invalidateAll() {
+        datasets.clear();
+        for (Entry entry : entries.values()) {
+            if (entries.remove(entry.key, entry)) {
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached results, including those reclaimed by the GC but not dropped yet.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated weight of all cached results, in bytes.
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return the number of misses which computed the result.
+     */
+    public long getExecutedCount() {
+        return flights.getExecutedCount();
+    }
+
+    /**
+     * @return the number of misses which waited for the result computed by a concurrent caller instead.
+     */
+    public long getCoalescedCount() {
+        return flights.getCoalescedCount();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedPivotCache{" +
+                "size=" + entries.size() +
+                ", datasets=" + datasets.size() +
+                ", weight=" + weight.get() +
+                ", hits=" + hitCount.sum() +
+                ", misses=" + missCount.sum() +
+                ", evictions=" + evictionCount.sum() +
+                ", coalesced=" + flights.getCoalescedCount() +
+                '}';
+    }
+}
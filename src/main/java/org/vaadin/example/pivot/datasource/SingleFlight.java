@@ -0,0 +1,105 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent computations of the same key: the first caller (the <em>leader</em>) computes the value in its
+ * own thread, while the callers arriving in the meantime wait for the leader's {@link CompletableFuture} instead of
+ * computing the value again. Once computed, the key is forgotten: a later call computes the value anew.
+ * <p></p>
+ * A failure of the computation is rethrown to the leader and to all waiting callers, except a
+ * {@link PivotCancelledException}: the leader's computation is no longer needed by the leader, but still by the
+ * waiting callers, which start a new flight instead. Thread-safe.
+ *
+ * @param <K> the key type, must implement equals/hashCode.
+ * @param <V> the value type.
+ */
+final class SingleFlight<K, V> {
+    @NotNull
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    @NotNull
+    private final LongAdder executedCount = new LongAdder();
+    @NotNull
+    private final LongAdder coalescedCount = new LongAdder();
+
+    /**
+     * Computes the value for given key, or waits for the computation already in flight.
+     *
+     * @param timeout how long to wait for the computation in flight; {@link Long#MAX_VALUE} to wait forever.
+     *                Doesn't limit the computation performed by the caller itself.
+     * @return the computed value; callers of the same flight get the same instance.
+     * @throws CompletionException   caused by a {@link TimeoutException} if the computation in flight didn't finish in time.
+     * @throws CancellationException if the thread was interrupted while waiting; the interrupt flag is kept.
+     */
+    V execute(@NotNull K key, @NotNull Supplier<V> compute, long timeout, @NotNull TimeUnit unit) {
+        final CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing;
+        while ((existing = inFlight.putIfAbsent(key, flight)) != null) {
+            coalescedCount.increment();
+            try {
+                return await(key, existing, timeout, unit);
+            } catch (PivotCancelledException e) {
+                // the leader has abandoned the flight; it may not have removed it yet
+                inFlight.remove(key, existing);
+            }
+        }
+        executedCount.increment();
+        try {
+            final V value = compute.get();
+            flight.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private V await(@NotNull K key, @NotNull CompletableFuture<V> flight, long timeout, @NotNull TimeUnit unit) {
+        try {
+            return timeout == Long.MAX_VALUE ? flight.get() : flight.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final CancellationException cancellation = new CancellationException("Interrupted while waiting for " + key);
+            cancellation.initCause(e);
+            throw cancellation;
+        } catch (TimeoutException e) {
+            throw new CompletionException("Timed out after " + timeout + " " + unit + " waiting for " + key, e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * @return the number of computations currently in flight.
+     */
+    int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return the number of calls which computed the value themselves.
+     */
+    long getExecutedCount() {
+        return executedCount.sum();
+    }
+
+    /**
+     * @return the number of calls which waited for a computation in flight instead.
+     */
+    long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+}
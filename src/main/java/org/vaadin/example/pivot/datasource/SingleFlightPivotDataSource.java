@@ -0,0 +1,127 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces identical concurrent computations: callers asking for the same pivot of the same items while
+ * the computation is in flight wait for its result instead of computing it again, see {@link SingleFlight}.
+ * The calls are identified by the {@link PivotQueryKey canonical configuration} and by the identity of the item list.
+ * <p></p>
+ * The concurrent callers share the result, therefore all results are {@link PivotResult#asReadOnly() read-only}.
+ * A waiting caller gives up after the timeout with a {@link CompletionException} caused by a {@link TimeoutException},
+ * or with a {@link CancellationException} when its thread is interrupted; the computation itself goes on for
+ * the other callers.
+ */
+public class SingleFlightPivotDataSource<T> implements PivotDataSource<T> {
+    @NotNull
+    private final PivotDataSource<T> delegate;
+    private final long timeout;
+    @NotNull
+    private final TimeUnit unit;
+    @NotNull
+    private final transient SingleFlight<FlightKey, PivotResult<T>> flights = new SingleFlight<>();
+
+    /**
+     * A call: the configuration along with the identity of the items.
+     */
+    private static final class FlightKey {
+        @NotNull
+        final PivotQueryKey query;
+        @NotNull
+        final List<?> items;
+
+        FlightKey(@NotNull PivotQueryKey query, @NotNull List<?> items) {
+            this.query = query;
+            this.items = items;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            FlightKey that = (FlightKey) o;
+            return items == that.items && query.equals(that.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * query.hashCode() + System.identityHashCode(items);
+        }
+
+        @Override
+        public String toString() {
+            return query.toString();
+        }
+    }
+
+    /**
+     * Waits for the computation in flight without a timeout.
+     */
+    public SingleFlightPivotDataSource(@NotNull PivotDataSource<T> delegate) {
+        this(delegate, Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param delegate computes the results.
+     * @param timeout  how long to wait for the computation in flight, greater than 0; {@link Long#MAX_VALUE} to wait forever.
+     */
+    public SingleFlightPivotDataSource(@NotNull PivotDataSource<T> delegate, long timeout, @NotNull TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Parameter timeout: invalid value " + timeout + ": must be greater than 0");
+        }
+        this.delegate = Objects.requireNonNull(delegate);
+        this.timeout = timeout;
+        this.unit = Objects.requireNonNull(unit);
+    }
+
+    @NotNull
+    @Override
+    public PivotResult<T> computePivotRows(
+            @NotNull LinkedHashSet<GroupBy<T>> groupBy,
+            @NotNull LinkedHashSet<Aggregate<T>> aggregates,
+            @NotNull Set<String> grandTotalIDs,
+            @NotNull List<T> items,
+            @NotNull PivotFilter filters
+    ) {
+        // the items are identified by the FlightKey, hence no dataset version
+        final FlightKey key = new FlightKey(PivotQueryKey.of(groupBy, aggregates, grandTotalIDs, filters, 0), items);
+        return flights.execute(key, () -> delegate.computePivotRows(groupBy, aggregates, grandTotalIDs, items, filters).asReadOnly(),
+                timeout, unit);
+    }
+
+    /**
+     * @return the number of calls which computed the result, see {@link #getCoalescedCount()}.
+     */
+    public long getExecutedCount() {
+        return flights.getExecutedCount();
+    }
+
+    /**
+     * @return the number of calls which waited for an identical computation in flight instead of computing the result.
+     */
+    public long getCoalescedCount() {
+        return flights.getCoalescedCount();
+    }
+
+    /**
+     * A deserialized data source starts with no computations in flight.
+     */
+    private Object readResolve() {
+        return new SingleFlightPivotDataSource<>(delegate, timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "SingleFlightPivotDataSource{" +
+                "delegate=" + delegate +
+                ", executed=" + flights.getExecutedCount() +
+                ", coalesced=" + flights.getCoalescedCount() +
+                '}';
+    }
+}
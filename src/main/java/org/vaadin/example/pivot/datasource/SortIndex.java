@@ -0,0 +1,153 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
+
+import java.util.*;
+
+/**
+ * Computes sort permutations of pivot rows on primitive keys. Every row gets a dense <em>rank</em> of its value in
+ * a column (equal values get equal ranks); the rank and the row index are then packed into a <code>long</code> and the
+ * packed keys are sorted by {@link Arrays#parallelSort(long[])}. Sorting by several columns packs the rank of a column
+ * with the combined rank of the following columns.
+ * <p></p>
+ * Numbers are ranked by their <code>double</code> value; any other values in the column by
+ * {@link PivotDataset#DICTIONARY_ORDER} after all the numbers. <code>null</code>s always come last,
+ * in both directions. Rows with equal values keep their original order.
+ */
+final class SortIndex {
+    private SortIndex() {
+    }
+
+    /**
+     * Computes the ranks of the values of given column.
+     *
+     * @return the ranks, indexed by row; 0 is the smallest value, -1 stands for <code>null</code>.
+     */
+    @NotNull
+    static <T> int[] ranks(@NotNull List<Row<T>> rows, @NotNull String columnId) {
+        final int count = rows.size();
+        final Object[] values = new Object[count];
+        final double[] numbers = new double[count];
+        int numberCount = 0;
+        boolean onlyNumbers = true;
+        // lazy rows are not created just to read a single value
+        final LazyRows<T> lazyRows = rows instanceof LazyRows ? (LazyRows<T>) rows : null;
+        for (int i = 0; i < count; i++) {
+            final Object value = lazyRows != null ? lazyRows.getValue(i, columnId) : rows.get(i).get(columnId);
+            values[i] = value;
+            if (value instanceof Number) {
+                numbers[numberCount++] = ((Number) value).doubleValue();
+            } else if (value != null) {
+                onlyNumbers = false;
+            }
+        }
+        final double[] distinctNumbers = Arrays.copyOf(numbers, numberCount);
+        final int distinctNumberCount = sortDistinct(distinctNumbers);
+
+        // other values are rare (e.g. the "Others" row); rank them after the numbers
+        final Map<Object, Integer> otherRanks = new HashMap<>();
+        if (!onlyNumbers) {
+            for (Object value : values) {
+                if (value != null && !(value instanceof Number)) {
+                    otherRanks.putIfAbsent(value, 0);
+                }
+            }
+            final Object[] others = otherRanks.keySet().toArray();
+            Arrays.sort(others, PivotDataset.DICTIONARY_ORDER);
+            for (int i = 0; i < others.length; i++) {
+                otherRanks.put(others[i], distinctNumberCount + i);
+            }
+        }
+
+        final int[] ranks = new int[count];
+        for (int i = 0; i < count; i++) {
+            final Object value = values[i];
+            if (value == null) {
+                ranks[i] = -1;
+            } else if (value instanceof Number) {
+                ranks[i] = Arrays.binarySearch(distinctNumbers, 0, distinctNumberCount, ((Number) value).doubleValue());
+            } else {
+                ranks[i] = otherRanks.get(value);
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * Computes the sort permutation for given ranks.
+     *
+     * @param ranks      the ranks of every sort column, see {@link #ranks(List, String)}; the first column is
+     *                   the primary one.
+     * @param descending the direction of every sort column.
+     * @return the row indices in the sorted order: <code>permutation[0]</code> is the index of the first row.
+     */
+    @NotNull
+    static int[] permutation(@NotNull List<int[]> ranks, @NotNull List<Boolean> descending) {
+        if (ranks.isEmpty()) {
+            throw new IllegalArgumentException("Parameter ranks: invalid value " + ranks + ": must not be empty");
+        }
+        final int count = ranks.get(0).length;
+        // the dense rank of the columns processed so far, starting with the least significant one
+        final int[] combined = new int[count];
+        final long[] packed = new long[count];
+        for (int c = ranks.size() - 1; c >= 0; c--) {
+            final int[] columnRanks = ranks.get(c);
+            int maxRank = -1;
+            for (int rank : columnRanks) {
+                maxRank = Math.max(maxRank, rank);
+            }
+            for (int row = 0; row < count; row++) {
+                int rank = columnRanks[row];
+                if (rank < 0) {
+                    rank = maxRank + 1;
+                } else if (descending.get(c)) {
+                    rank = maxRank - rank;
+                }
+                packed[row] = (long) rank << 32 | combined[row];
+            }
+            final long[] distinct = packed.clone();
+            final int distinctCount = sortDistinct(distinct);
+            for (int row = 0; row < count; row++) {
+                combined[row] = Arrays.binarySearch(distinct, 0, distinctCount, packed[row]);
+            }
+        }
+        // the row index in the lower half keeps the sort stable
+        for (int row = 0; row < count; row++) {
+            packed[row] = (long) combined[row] << 32 | row;
+        }
+        Arrays.parallelSort(packed);
+        final int[] permutation = new int[count];
+        for (int i = 0; i < count; i++) {
+            permutation[i] = (int) packed[i];
+        }
+        return permutation;
+    }
+
+    /**
+     * Sorts the array and moves the distinct values to its beginning.
+     *
+     * @return the number of distinct values.
+     */
+    private static int sortDistinct(@NotNull double[] values) {
+        Arrays.parallelSort(values);
+        int distinct = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || Double.compare(values[i], values[distinct - 1]) != 0) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
+
+    private static int sortDistinct(@NotNull long[] values) {
+        Arrays.parallelSort(values);
+        int distinct = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[distinct - 1]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return distinct;
+    }
+}
@@ -0,0 +1,241 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Hash aggregation within a memory budget. The partial states of the groups are kept in a hash map keyed by the
+ * group-by values; whenever the estimated size of the map exceeds the budget, the map is spilled: every group is
+ * written to one of {@link #PARTITIONS} temporary files, chosen by the hash of its key, and the map starts over.
+ * {@link #finish()} then reads the files back one by one and merges the partial states of each key; since equal keys
+ * always land in the same file, merging one file at a time yields the final groups.
+ * <p></p>
+ * The groups come out in the order of their first row, the same order {@link Groups} produces.
+ * The group-by values and the {@link Accumulator}s must be serializable. Since the partial states are merged,
+ * sums of floating-point values may differ in the last digits from sums computed in one go. Not thread-safe.
+ */
+final class SpillingAggregation implements Closeable {
+    static final int PARTITIONS = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * The estimated size of a map entry, the key list and the group, without the values and the states.
+     */
+    static final int GROUP_BYTES = 128;
+    static final int KEY_VALUE_BYTES = 24;
+    static final int STATE_BYTES = 40;
+    /**
+     * The estimated growth of an accumulator keeping the values (e.g. median) per accumulated value.
+     */
+    static final int VALUE_BYTES = 16;
+
+    /**
+     * A group with the partial states of its rows.
+     */
+    static final class Group implements Serializable {
+        @NotNull
+        final List<Object> key;
+        int firstRow;
+        @NotNull
+        final Accumulator[] states;
+
+        Group(@NotNull List<Object> key, int firstRow, @NotNull Accumulator[] states) {
+            this.key = key;
+            this.firstRow = firstRow;
+            this.states = states;
+        }
+
+        void merge(@NotNull Group other) {
+            firstRow = Math.min(firstRow, other.firstRow);
+            for (int i = 0; i < states.length; i++) {
+                states[i].merge(other.states[i]);
+            }
+        }
+    }
+
+    /**
+     * A temporary file receiving the spilled groups of one partition.
+     */
+    private static final class Partition implements Closeable {
+        @NotNull
+        final FileChannel channel;
+        @NotNull
+        final ObjectOutputStream out;
+        int size;
+
+        Partition() throws IOException {
+            final Path file = Files.createTempFile("pivot-spill-", ".bin");
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            out = new ObjectOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+        }
+
+        @NotNull
+        List<Group> read() throws IOException, ClassNotFoundException {
+            out.flush();
+            channel.position(0);
+            // not closed: closing would close the channel and delete the file
+            final ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE));
+            final List<Group> groups = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                groups.add((Group) in.readObject());
+            }
+            return groups;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @NotNull
+    private final Supplier<Accumulator[]> stateFactory;
+    private final long memoryBudget;
+    private final int stateBytes;
+    /**
+     * The number of accumulators which keep the accumulated values.
+     */
+    private final int growingStates;
+    @NotNull
+    private Map<List<Object>, Group> groups = new HashMap<>();
+    private long weight;
+    @Nullable
+    private Partition[] partitions;
+    private int spillCount;
+
+    /**
+     * @param stateFactory  creates the empty states of a group.
+     * @param memoryBudget  the maximum estimated size of the partial states in memory, in bytes.
+     * @param growingStates the number of states per group which grow with every accumulated value, e.g. a median.
+     */
+    SpillingAggregation(@NotNull Supplier<Accumulator[]> stateFactory, long memoryBudget, int growingStates) {
+        this.stateFactory = stateFactory;
+        this.memoryBudget = memoryBudget;
+        this.growingStates = growingStates;
+        stateBytes = stateFactory.get().length * STATE_BYTES;
+    }
+
+    /**
+     * Returns the states of the group of given row, to accumulate the row into. May spill the groups first.
+     *
+     * @param row the row, ascending across calls.
+     * @param key the group-by values of the row; the list must not be modified afterwards.
+     */
+    @NotNull
+    Accumulator[] getStates(int row, @NotNull List<Object> key) {
+        Group group = groups.get(key);
+        if (group == null) {
+            if (weight > memoryBudget) {
+                spill();
+            }
+            group = new Group(key, row, stateFactory.get());
+            groups.put(key, group);
+            weight += GROUP_BYTES + KEY_VALUE_BYTES * key.size() + stateBytes;
+        }
+        weight += VALUE_BYTES * growingStates;
+        return group.states;
+    }
+
+    private void spill() {
+        try {
+            if (partitions == null) {
+                partitions = new Partition[PARTITIONS];
+                for (int i = 0; i < PARTITIONS; i++) {
+                    partitions[i] = new Partition();
+                }
+            }
+            for (Group group : groups.values()) {
+                final Partition partition = partitions[partitionOf(group.key)];
+                partition.out.writeObject(group);
+                partition.size++;
+            }
+            for (Partition partition : partitions) {
+                // forget the written objects, otherwise the stream keeps them reachable
+                partition.out.reset();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill " + groups.size() + " groups", e);
+        }
+        spillCount++;
+        groups = new HashMap<>();
+        weight = 0;
+    }
+
+    private static int partitionOf(@NotNull List<Object> key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & (PARTITIONS - 1);
+    }
+
+    /**
+     * @return how many times the groups were spilled to disk.
+     */
+    int getSpillCount() {
+        return spillCount;
+    }
+
+    /**
+     * Merges the spilled groups with the groups in memory. Closes this aggregation.
+     *
+     * @return all groups, in the order of their first row.
+     */
+    @NotNull
+    List<Group> finish() {
+        try {
+            final List<Group> result;
+            if (partitions == null) {
+                result = new ArrayList<>(groups.values());
+            } else {
+                spill();
+                result = new ArrayList<>();
+                for (Partition partition : partitions) {
+                    final Map<List<Object>, Group> merged = new HashMap<>();
+                    for (Group group : partition.read()) {
+                        final Group existing = merged.putIfAbsent(group.key, group);
+                        if (existing != null) {
+                            existing.merge(group);
+                        }
+                    }
+                    result.addAll(merged.values());
+                    partition.close();
+                }
+            }
+            groups = new HashMap<>();
+            result.sort(Comparator.comparingInt(group -> group.firstRow));
+            return result;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read the spilled groups", e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Deletes the temporary files.
+     */
+    @Override
+    public void close() {
+        if (partitions != null) {
+            for (Partition partition : partitions) {
+                try {
+                    partition.close();
+                } catch (IOException e) {
+                    // the file is deleted on close; nothing more to do
+                }
+            }
+            partitions = null;
+        }
+    }
+}
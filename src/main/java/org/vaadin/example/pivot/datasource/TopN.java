@@ -0,0 +1,181 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotColumn;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotResult;
+import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
+
+import java.util.*;
+
+/**
+ * Selects the top (or bottom) N rows by a primitive key, using a bounded binary heap of row indices:
+ * O(rows * log N) time and O(N) memory, without sorting all rows and without comparing boxed values.
+ * See {@link PivotOptions#withTop(String, int)}.
+ */
+final class TopN {
+    private TopN() {
+    }
+
+    /**
+     * Selects the best <code>limit</code> candidates.
+     *
+     * @param keys       the sort keys, indexed by candidate; {@link Double#NaN} for a missing value, which always
+     *                   comes last.
+     * @param candidates the indices into <code>keys</code> to choose from.
+     * @param count      the number of candidates; only <code>candidates[0]</code>..<code>candidates[count - 1]</code>
+     *                   are considered.
+     * @param limit      the maximum number of candidates to select.
+     * @param descending true to select the highest keys, false for the lowest ones.
+     * @return the selected candidates, best first. Candidates with equal keys keep their relative order.
+     */
+    @NotNull
+    static int[] select(@NotNull double[] keys, @NotNull int[] candidates, int count, int limit, boolean descending) {
+        final int size = Math.min(limit, count);
+        // the heap keeps the worst selected candidate at the root
+        final int[] heap = new int[size];
+        int heapSize = 0;
+        if (size > 0) {
+            for (int i = 0; i < count; i++) {
+                final int candidate = candidates[i];
+                if (heapSize < size) {
+                    heap[heapSize] = candidate;
+                    siftUp(heap, heapSize++, keys, descending);
+                } else if (isBetter(candidate, heap[0], keys, descending)) {
+                    heap[0] = candidate;
+                    siftDown(heap, heapSize, keys, descending);
+                }
+            }
+        }
+        // pop the worst one by one: the result fills from the end
+        final int[] result = new int[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            result[i] = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize, keys, descending);
+        }
+        return result;
+    }
+
+    private static boolean isBetter(int a, int b, @NotNull double[] keys, boolean descending) {
+        final double ka = keys[a];
+        final double kb = keys[b];
+        if (Double.isNaN(ka) || Double.isNaN(kb)) {
+            if (Double.isNaN(ka) && Double.isNaN(kb)) {
+                return a < b;
+            }
+            return Double.isNaN(kb);
+        }
+        if (ka != kb) {
+            return descending ? ka > kb : ka < kb;
+        }
+        return a < b;
+    }
+
+    private static void siftUp(@NotNull int[] heap, int index, @NotNull double[] keys, boolean descending) {
+        final int item = heap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (!isBetter(heap[parent], item, keys, descending)) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = item;
+    }
+
+    private static void siftDown(@NotNull int[] heap, int size, @NotNull double[] keys, boolean descending) {
+        if (size == 0) {
+            return;
+        }
+        final int item = heap[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isBetter(heap[child], heap[child + 1], keys, descending)) {
+                child++;
+            }
+            if (!isBetter(item, heap[child], keys, descending)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = item;
+    }
+
+    /**
+     * @return the value as a sort key; {@link Double#NaN} if not a number.
+     */
+    static double toKey(@Nullable Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Applies the limit of given options to an already computed result, merging the cut-off rows into the
+     * "Others" row out of their partial states.
+     *
+     * @return a new result; <code>result</code> itself if the options have no limit.
+     */
+    @NotNull
+    static <T> PivotResult<T> apply(@NotNull PivotResult<T> result, @NotNull PivotOptions options) {
+        if (!options.hasLimit()) {
+            return result;
+        }
+        final int count = result.rows.size();
+        final double[] keys = new double[count];
+        final int[] candidates = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = toKey(result.rows.get(i).get(options.getOrderBy()));
+            candidates[i] = i;
+        }
+        final int[] selected = select(keys, candidates, count, options.getLimit(), options.isDescending());
+        final List<Row<T>> rows = new ArrayList<>(selected.length + 1);
+        for (int i : selected) {
+            rows.add(result.rows.get(i));
+        }
+        if (options.getOthersCaption() != null && selected.length < count) {
+            final boolean[] isSelected = new boolean[count];
+            for (int i : selected) {
+                isSelected[i] = true;
+            }
+            final List<Row<T>> rest = new ArrayList<>(count - selected.length);
+            for (int i = 0; i < count; i++) {
+                if (!isSelected[i]) {
+                    rest.add(result.rows.get(i));
+                }
+            }
+            rows.add(others(result.columns, rest, options.getOthersCaption()));
+        }
+        final PivotResult<T> limited = new PivotResult<>(rows, result.columns, result.grandTotalValues);
+        limited.setTopGroup(result.getTopGroup());
+        return limited;
+    }
+
+    /**
+     * Merges given rows into the "Others" row.
+     */
+    @NotNull
+    static <T> Row<T> others(@NotNull List<PivotColumn<T>> columns, @NotNull List<Row<T>> rows, @NotNull String caption) {
+        final Map<String, Object> values = new HashMap<>();
+        final Map<String, Accumulator> states = new HashMap<>();
+        boolean first = true;
+        for (PivotColumn<T> column : columns) {
+            if (column.isRowGroup()) {
+                values.put(column.id, first ? caption : null);
+                first = false;
+            } else if (column.isAggregate()) {
+                final Accumulator merged = column.aggregate.mergeAccumulators(rows, column.id);
+                if (merged != null) {
+                    values.put(column.id, merged.finish());
+                    states.put(column.id, merged);
+                }
+            }
+        }
+        return new Row<>(values, null, states);
+    }
+}
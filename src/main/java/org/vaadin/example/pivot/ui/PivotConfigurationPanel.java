@@ -1,11 +1,13 @@
 package org.vaadin.example.pivot.ui;
 
 import com.vaadin.flow.component.Composite;
+import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.html.Div;
 import com.vaadin.flow.component.html.Span;
 import com.vaadin.flow.component.icon.VaadinIcon;
 import com.vaadin.flow.component.orderedlayout.FlexComponent;
 import com.vaadin.flow.component.orderedlayout.HorizontalLayout;
+import com.vaadin.flow.component.progressbar.ProgressBar;
 import com.vaadin.flow.function.SerializableFunction;
 import com.vaadin.flow.function.SerializableRunnable;
 import org.jetbrains.annotations.NotNull;
@@ -15,17 +17,39 @@ import org.vaadin.example.pivot.datasource.PivotDataSource.PivotColumn;
 import org.vaadin.example.pivot.datasource.PivotDataSource.PivotFilter;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
  * Allows the user to configure the {@link InMemoryPivot}. Provides a "+" button
  * by which the user can add the groupBy and aggregate clauses. Fires the {@link #pivotConfigurationChangedListeners}
  * when the user does so. You can use {@link #computePivotData(List)} to
- * configure the pivot easily with the new values.
+ * configure the pivot easily with the new values, or {@link #computePivotDataAsync(List)} to compute it
+ * off the request thread.
  *
  * @author Martin Vysny <mavi@vaadin.com>
  */
 public class PivotConfigurationPanel<T> extends Composite<Div> {
+    /**
+     * At most this many computations of {@link #computePivotDataAsync(List)} wait for a thread, application-wide;
+     * further computations fail with {@link RejectedExecutionException}.
+     */
+    public static final int MAX_QUEUED_COMPUTATIONS = 64;
+
+    /**
+     * Computes the pivots of {@link #computePivotDataAsync(List)}: a thread per core, so that the computations of
+     * many sessions can't starve the servlet container. A large pivot is further split in the common pool,
+     * see {@link InMemoryPivot#withParallelism(ForkJoinPool, int)}.
+     */
+    private static final ThreadPoolExecutor EXECUTOR = createExecutor();
 
     private final List<GroupBy<T>> availableGroupByClauses = new ArrayList<>();
     private final List<PivotProperty<T>> availableAggregates = new ArrayList<>();
@@ -44,6 +68,45 @@ public class PivotConfigurationPanel<T> extends Composite<Div> {
 
     private PivotFilter filter = new PivotFilter();
 
+    /**
+     * The columnar snapshot of the items last passed to {@link #computePivotData(List)}, see {@link #getDataset(List)}.
+     */
+    @Nullable
+    private PivotDataset<T> dataset;
+
+    /**
+     * The results computed so far, so that flipping back to a previous configuration doesn't compute the pivot again.
+     */
+    @NotNull
+    private final PivotResultCache<T> resultCache = new PivotResultCache<>();
+
+    /**
+     * The computation started by {@link #computePivotDataAsync(List)} which is still running, if any.
+     */
+    @Nullable
+    private transient CompletableFuture<PivotDataSource.PivotResult<T>> pendingComputation;
+
+    /**
+     * Shown while {@link #pendingComputation} runs.
+     */
+    @NotNull
+    private final ProgressBar progressBar = new ProgressBar();
+
+    @NotNull
+    private static ThreadPoolExecutor createExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, "pivot-compute-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_COMPUTATIONS), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @Override
     protected Div initContent() {
         final Div content = new Div();
@@ -61,7 +124,9 @@ public class PivotConfigurationPanel<T> extends Composite<Div> {
         closeButton.setColor("#444444");
         caption.add(closeButton);
 
-        content.add(caption, groupByPane, aggregatePane);
+        progressBar.setIndeterminate(true);
+        progressBar.setVisible(pendingComputation != null);
+        content.add(caption, progressBar, groupByPane, aggregatePane);
         groupByPane.onItemListChanged = () -> {
             update();
             onPivotConfigurationChanged();
@@ -85,12 +150,28 @@ public class PivotConfigurationPanel<T> extends Composite<Div> {
      */
     @NotNull
     public PivotConfigurationPanel<T> addGroupBy(@NotNull String caption, @NotNull SerializableFunction<T, Object> groupedValueProvider) {
-    	GroupBy<T> group = new GroupBy<>(new PivotProperty<>(caption, groupedValueProvider), false, false);
+    	// the same ID in every session, so that the sessions share the cached results
+    	GroupBy<T> group = new GroupBy<>(new PivotProperty<>(caption, groupedValueProvider), false, caption, false);
         availableGroupByClauses.add(group);
         update();
         return this;
     }
 
+    /**
+     * Registers a groupBy clause which the user can pick, grouping on given property. Pass the same property instance
+     * everywhere, e.g. a constant of the bean class: the datasets are keyed by the properties, see {@link PivotProperty#equals(Object)}.
+     *
+     * @param property the grouped property; its caption is displayed.
+     * @return this for fluent API.
+     */
+    @NotNull
+    public PivotConfigurationPanel<T> addGroupBy(@NotNull PivotProperty<T> property) {
+        // the same ID in every session, so that the sessions share the cached results
+        availableGroupByClauses.add(new GroupBy<>(property, false, property.caption, false));
+        update();
+        return this;
+    }
+
     /**
      * Registers an aggregate clause which the user can pick. An aggregate clause usually
      * aggregates (e.g. sums) on one particular property of the bean {@link T}.
@@ -106,6 +187,22 @@ public class PivotConfigurationPanel<T> extends Composite<Div> {
         return this;
     }
 
+    /**
+     * Registers an aggregate clause which the user can pick, aggregating given property. Use this with
+     * the primitive properties, e.g. <code>addAggregate(PivotProperty.ofInt("Height", Player::getHeightInches))</code>:
+     * their values are aggregated without boxing, see {@link PivotProperty#getPrimitiveType()}. The SUM of an <code>int</code>
+     * property is a <code>Long</code> rather than the <code>Double</code> of {@link #addAggregate(String, SerializableFunction)}.
+     *
+     * @param property the aggregated property; its caption is displayed.
+     * @return this for fluent API.
+     */
+    @NotNull
+    public PivotConfigurationPanel<T> addAggregate(@NotNull PivotProperty<T> property) {
+        availableAggregates.add(Objects.requireNonNull(property));
+        update();
+        return this;
+    }
+
     @Nullable
     private GroupBy<T> getTopGroup() {
         return getActiveGroupByClauses().stream()
@@ -184,15 +281,30 @@ public class PivotConfigurationPanel<T> extends Composite<Div> {
 
         final LinkedHashMap<String, SerializableRunnable> addAggregateOptions = new LinkedHashMap<>();
         addAggregateOptions.put("Count", () -> {
-            final Aggregate<T> aggregate = new Aggregate<>(new PivotProperty<>(allItemsCaption, SerializableFunction.identity()), AggregateFunctionEnum.COUNT, false);
+            final Aggregate<T> aggregate = new Aggregate<>(new PivotProperty<>(allItemsCaption, SerializableFunction.identity()), AggregateFunctionEnum.COUNT, nextAggregateId(allItemsCaption), false);
             addActiveAggregate(aggregate, true);
         });
         for (PivotProperty<T> def : availableAggregates) {
-            addAggregateOptions.put(def.caption, () -> addActiveAggregate(new Aggregate<>(def, AggregateFunctionEnum.SUM, false), false));
+            addAggregateOptions.put(def.caption, () -> addActiveAggregate(new Aggregate<>(def, AggregateFunctionEnum.SUM, nextAggregateId(def.caption), false), false));
         }
         aggregatePane.setAddOptions(addAggregateOptions);
     }
 
+    /**
+     * Returns an ID unique among the active aggregates. Unlike a random ID, it's the same in every session
+     * for the same configuration, so that the sessions share the results cached by {@link SharedPivotCache}.
+     * Aggregates of different properties sharing a caption never share a result: {@link PivotQueryKey} holds the properties too.
+     */
+    @NotNull
+    private String nextAggregateId(@NotNull String caption) {
+        final Set<String> ids = getActiveAggregateClauses().stream().map(it -> it.id).collect(Collectors.toSet());
+        int index = 0;
+        while (ids.contains(caption + "/" + index)) {
+            index++;
+        }
+        return caption + "/" + index;
+    }
+
     private void onPivotConfigurationChanged() {
         firePivotConfigurationChanged();
     }
@@ -214,21 +326,150 @@ public class PivotConfigurationPanel<T> extends Composite<Div> {
     }
 
     /**
-     * Applies the currently configured groupBy and aggregate clauses to given pivot.
+     * Applies the currently configured groupBy and aggregate clauses to given pivot. The result is
+     * {@link PivotDataSource.PivotResult#asReadOnly() read-only}: it's cached by {@link #getResultCache()}
+     * and by the application-wide {@link SharedPivotCache}, shared with other calls and other sessions
+     * with the same configuration.
      *
      * @return the pivot to apply the configured groupBy and aggregate clauses to.
      */
     @NotNull
     public PivotDataSource.PivotResult<T> computePivotData(@NotNull List<T> items) {
-        PivotDataSource<T> pivot = new ColumnGroupingPivotDataSource<>(new InMemoryPivot<>(), "Grand Total");
+        return computePivotData(items, new LinkedHashSet<>(getActiveGroupByClauses()),
+                new LinkedHashSet<>(getActiveAggregateClauses()), filter, getTopGroup(), CancellationToken.NONE);
+    }
 
+    /**
+     * Like {@link #computePivotData(List)}, but computes the pivot in a background thread, so that the request
+     * thread is not blocked. The configuration is captured when this method is called; a later call cancels
+     * the computation still running, so that the last configuration wins. A progress bar is shown in the panel
+     * while the computation runs.
+     * <p></p>
+     * The future completes in the background thread: use {@link UI#access(com.vaadin.flow.server.Command)} to show
+     * the result, and enable server push, e.g. via <code>@Push</code> on the view.
+     *
+     * @param items the items, must not be modified afterwards.
+     * @return the result; {@link CompletableFuture#cancel(boolean) cancelling} the future aborts the computation
+     * via its {@link CancellationToken}.
+     * Fails with {@link RejectedExecutionException} if there are too many computations already, see {@link #MAX_QUEUED_COMPUTATIONS}.
+     */
+    @NotNull
+    public CompletableFuture<PivotDataSource.PivotResult<T>> computePivotDataAsync(@NotNull List<T> items) {
+        if (pendingComputation != null) {
+            pendingComputation.cancel(true);
+        }
         final LinkedHashSet<GroupBy<T>> groupBySet = new LinkedHashSet<>(getActiveGroupByClauses());
         final LinkedHashSet<Aggregate<T>> aggregateSet = new LinkedHashSet<>(getActiveAggregateClauses());
+        // the user may change the filter while the computation runs
+        final PivotFilter filterSnapshot = new PivotFilter();
+        filter.getFilterValues().forEach((id, values) -> filterSnapshot.getFilterValues().put(id, new HashSet<>(values)));
+        final GroupBy<T> topGroup = getTopGroup();
+        final CancellationToken cancellation = new CancellationToken();
+
+        final CompletableFuture<PivotDataSource.PivotResult<T>> result = new CompletableFuture<>();
+        final Future<?> task;
+        try {
+            task = EXECUTOR.submit(() -> {
+                if (result.isDone()) {
+                    // cancelled while queued
+                    return;
+                }
+                try {
+                    result.complete(computePivotData(items, groupBySet, aggregateSet, filterSnapshot, topGroup, cancellation));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        pendingComputation = result;
+        progressBar.setVisible(true);
+        // the UI of this panel rather than UI.getCurrent(), which is null outside of a request thread
+        final UI ui = getUI().orElse(null);
+        result.whenComplete((pivotResult, failure) -> {
+            if (result.isCancelled()) {
+                // the pivot engine doesn't react to interrupts
+                cancellation.cancel();
+                task.cancel(true);
+            }
+            if (ui != null) {
+                ui.access(() -> computationDone(result));
+            } else {
+                // not attached: there is no session to lock
+                computationDone(result);
+            }
+        });
+        return result;
+    }
+
+    private void computationDone(@NotNull CompletableFuture<PivotDataSource.PivotResult<T>> result) {
+        if (pendingComputation == result) {
+            pendingComputation = null;
+            progressBar.setVisible(false);
+        }
+    }
+
+    /**
+     * @return true while a computation started by {@link #computePivotDataAsync(List)} runs.
+     */
+    public boolean isComputing() {
+        return pendingComputation != null && !pendingComputation.isDone();
+    }
+
+    @NotNull
+    private PivotDataSource.PivotResult<T> computePivotData(@NotNull List<T> items,
+                                                            @NotNull LinkedHashSet<GroupBy<T>> groupBySet,
+                                                            @NotNull LinkedHashSet<Aggregate<T>> aggregateSet,
+                                                            @NotNull PivotFilter filter,
+                                                            @Nullable GroupBy<T> topGroup,
+                                                            @NotNull CancellationToken cancellation) {
+        // large inputs are computed in the common pool, sized by java.util.concurrent.ForkJoinPool.common.parallelism
+        final PivotDataset<T> dataset = getDataset(items);
+        final InMemoryPivot<T> inMemoryPivot = new InMemoryPivot<>(dataset)
+                .withParallelism(ForkJoinPool.commonPool(), InMemoryPivot.DEFAULT_PARALLEL_THRESHOLD);
+        PivotDataSource<T> pivot = new ColumnGroupingPivotDataSource<>(inMemoryPivot, "Grand Total");
+
         final Set<String> grandTotalsSet = aggregateSet.stream().map(it -> it.id).collect(Collectors.toSet());
 
-        final PivotDataSource.PivotResult<T> result = pivot.computePivotRows(groupBySet, aggregateSet, grandTotalsSet, items, filter);
-        result.setTopGroup(getTopGroup());
-        return result;
+        final PivotQueryKey key = PivotQueryKey.of(groupBySet, aggregateSet, grandTotalsSet, filter, dataset.getVersion());
+        return resultCache.computeIfAbsent(key, () -> SharedPivotCache.getInstance().computeIfAbsent(key, () -> {
+            final PivotDataSource.PivotResult<T> result = pivot.computePivotRows(groupBySet, aggregateSet, grandTotalsSet, items, filter,
+                    PivotOptions.NONE.withCancellation(cancellation));
+            result.setTopGroup(topGroup);
+            return result;
+        }));
+    }
+
+    /**
+     * @return the cache of the results computed by {@link #computePivotData(List)}; e.g. to read the hit and miss counters.
+     */
+    @NotNull
+    public PivotResultCache<T> getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Returns the columnar snapshot of given items, with columns for all registered groupBy and aggregate clauses.
+     * The snapshot is shared application-wide by {@link SharedPivotCache} and reused for as long as the very same list
+     * is passed in, until {@link SharedPivotCache#invalidate(List) invalidated}.
+     *
+     * @param items the items, must not be modified afterwards.
+     * @return the dataset, not null.
+     */
+    @NotNull
+    public synchronized PivotDataset<T> getDataset(@NotNull List<T> items) {
+        final List<PivotProperty<T>> groupByProperties = availableGroupByClauses.stream()
+                .map(it -> it.property)
+                .collect(Collectors.toList());
+        final PivotDataset<T> shared = SharedPivotCache.getInstance().getDataset(items, groupByProperties, availableAggregates);
+        if (shared != dataset) {
+            dataset = shared;
+            // the results computed out of the previous snapshot are stale
+            resultCache.invalidate();
+        }
+        return dataset;
     }
 
     private boolean hasColumnGroup() {
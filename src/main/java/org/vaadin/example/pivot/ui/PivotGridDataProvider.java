@@ -0,0 +1,91 @@
+package org.vaadin.example.pivot.ui;
+
+import com.vaadin.flow.data.provider.CallbackDataProvider;
+import com.vaadin.flow.data.provider.QuerySortOrder;
+import com.vaadin.flow.data.provider.SortDirection;
+import org.jetbrains.annotations.NotNull;
+import org.vaadin.example.pivot.datasource.PivotDataSource.PivotResult;
+import org.vaadin.example.pivot.datasource.PivotDataSource.Row;
+
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Provides the rows of a {@link PivotResult} to a Grid, a page at a time via {@link PivotResult#fetch(int, int, LinkedHashMap)}:
+ * only the rows the client asks for are created. Sorting uses the precomputed
+ * {@link PivotResult#getSortPermutation(LinkedHashMap) sort permutations} of the result instead of comparing the
+ * rows: a page of sorted rows costs an array lookup per row.
+ * <p></p>
+ * The Grid columns must have the {@link com.vaadin.flow.component.grid.Grid.Column#setSortProperty(String...) sort property}
+ * set to the {@link org.vaadin.example.pivot.datasource.PivotDataSource.PivotColumn#id column ID}.
+ */
+public class PivotGridDataProvider<T> extends CallbackDataProvider<Row<T>, Void> {
+    @NotNull
+    private final ResultHolder<T> holder;
+
+    private static final class ResultHolder<T> implements Serializable {
+        @NotNull
+        PivotResult<T> result;
+        /**
+         * The sort order of the last fetch, i.e. the order the Grid shows the rows in.
+         */
+        @NotNull
+        LinkedHashMap<String, Boolean> sortOrder = new LinkedHashMap<>();
+
+        ResultHolder(@NotNull PivotResult<T> result) {
+            this.result = Objects.requireNonNull(result);
+        }
+    }
+
+    public PivotGridDataProvider(@NotNull PivotResult<T> result) {
+        this(new ResultHolder<>(result));
+    }
+
+    private PivotGridDataProvider(@NotNull ResultHolder<T> holder) {
+        super(query -> {
+                    holder.sortOrder = toSortOrder(query.getSortOrders());
+                    return holder.result.fetch(query.getOffset(), query.getLimit(), holder.sortOrder).stream();
+                },
+                query -> holder.result.size());
+        this.holder = holder;
+    }
+
+    @NotNull
+    private static LinkedHashMap<String, Boolean> toSortOrder(@NotNull List<QuerySortOrder> sortOrders) {
+        final LinkedHashMap<String, Boolean> sortOrder = new LinkedHashMap<>();
+        for (QuerySortOrder order : sortOrders) {
+            sortOrder.putIfAbsent(order.getSorted(), order.getDirection() == SortDirection.DESCENDING);
+        }
+        return sortOrder;
+    }
+
+    @NotNull
+    public PivotResult<T> getResult() {
+        return holder.result;
+    }
+
+    /**
+     * Returns the position of given row in the Grid, in the sort order of the last fetch, see
+     * {@link PivotResult#indexOf(Row, LinkedHashMap)}.
+     *
+     * @return the position, 0-based; -1 if the row is not shown.
+     */
+    public int indexOf(@NotNull Row<T> row) {
+        return holder.result.indexOf(row, holder.sortOrder);
+    }
+
+    /**
+     * Replaces the rows, e.g. when the filter changes, and refreshes the Grid. The sort order of the Grid is kept.
+     */
+    public void setResult(@NotNull PivotResult<T> result) {
+        holder.result = Objects.requireNonNull(result);
+        refreshAll();
+    }
+
+    @Override
+    public String toString() {
+        return "PivotGridDataProvider{rows=" + holder.result.size() + '}';
+    }
+}
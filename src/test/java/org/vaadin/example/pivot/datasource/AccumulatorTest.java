@@ -0,0 +1,103 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccumulatorTest {
+
+    @Test
+    public void mergedPartitionsMatchCompute() {
+        final Random random = new Random(11);
+        final List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // few distinct values, so that the median digest has long runs
+            values.add(random.nextInt(50));
+        }
+        for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+            final Accumulator merged = function.createAccumulator();
+            for (int from = 0; from < values.size(); from += 700) {
+                final Accumulator partition = function.createAccumulator();
+                for (Integer value : values.subList(from, Math.min(values.size(), from + 700))) {
+                    partition.accumulate(value);
+                }
+                merged.merge(partition);
+            }
+            assertEquals(function.compute(values.stream()), merged.finish(), function.toString());
+        }
+    }
+
+    @Test
+    public void primitiveValues() {
+        final Accumulator sum = AggregateFunctionEnum.SUM.createAccumulator();
+        sum.accumulate(2L);
+        sum.accumulate(0.5);
+        assertEquals(2.5, sum.finish());
+
+        final Accumulator max = AggregateFunctionEnum.MAX.createAccumulator();
+        max.accumulate(3L);
+        max.accumulate(7L);
+        assertEquals(7L, max.finish());
+        // the state is kept by finish()
+        max.accumulate(1L);
+        assertEquals(7L, max.finish());
+    }
+
+    @Test
+    public void median() {
+        final Accumulator median = AggregateFunctionEnum.MEDIAN.createAccumulator();
+        for (double value : new double[]{5, 1, 4, 1, 3, 9}) {
+            median.accumulate(value);
+        }
+        assertEquals(3.5, median.finish());
+        final Accumulator other = AggregateFunctionEnum.MEDIAN.createAccumulator();
+        other.accumulate(10.0);
+        median.merge(other);
+        assertEquals(4.0, median.finish());
+        assertThrows(IllegalArgumentException.class, () -> AggregateFunctionEnum.MEDIAN.createAccumulator().finish());
+    }
+
+    @Test
+    public void customFunctionBuffersValues() {
+        final AggregateFunction range = new AggregateFunction() {
+            @NotNull
+            @Override
+            public String getCaption() {
+                return "Range";
+            }
+
+            @NotNull
+            @Override
+            public Number compute(@NotNull Stream<?> values) {
+                final int[] ints = values.mapToInt(it -> (Integer) it).toArray();
+                return Arrays.stream(ints).max().getAsInt() - Arrays.stream(ints).min().getAsInt();
+            }
+
+            @Override
+            public boolean canComputeOverAggregatedValues() {
+                return false;
+            }
+
+            @NotNull
+            @Override
+            public Number computeOverAggregatedValues(@NotNull List<?> values) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        final Accumulator a = range.createAccumulator();
+        // values of a property are objects; a plain int would go to accumulate(long)
+        a.accumulate((Object) 4);
+        final Accumulator b = range.createAccumulator();
+        b.accumulate((Object) 10);
+        b.accumulate((Object) 7);
+        a.merge(b);
+        assertEquals(6, a.finish());
+    }
+}
@@ -0,0 +1,138 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares three ways of aggregating the primitive columns of a {@link PivotDataset} group by group:
+ * {@link AggregateFunction#compute(java.util.stream.Stream)} over the boxed values (<code>mapToDouble</code> casts,
+ * <code>Comparator</code>-based <code>min</code>/<code>max</code>), accumulating value by value, and the block
+ * kernels of {@link BatchKernels}. Not a unit test; run the {@link #main(String[])} method, e.g. from the IDE,
+ * preferably with <code>-XX:+UseSuperWord</code> (the default) to let C2 vectorize the kernels.
+ */
+public class BatchKernelBenchmark {
+    private static final int ROWS = 2_000_000;
+    private static final int GROUPS = 100;
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) {
+        final Random random = new Random(42);
+        final long[] longs = new long[ROWS];
+        final double[] doubles = new double[ROWS];
+        final Long[] boxedLongs = new Long[ROWS];
+        final Double[] boxedDoubles = new Double[ROWS];
+        final int[] groupOfRow = new int[ROWS];
+        for (int row = 0; row < ROWS; row++) {
+            longs[row] = random.nextInt(10_000);
+            doubles[row] = random.nextDouble() * 100;
+            boxedLongs[row] = longs[row];
+            boxedDoubles[row] = doubles[row];
+            groupOfRow[row] = random.nextInt(GROUPS);
+        }
+        // the rows of every group, as Groups lays them out
+        final int[] offsets = new int[GROUPS + 1];
+        for (int group : groupOfRow) {
+            offsets[group + 1]++;
+        }
+        for (int group = 0; group < GROUPS; group++) {
+            offsets[group + 1] += offsets[group];
+        }
+        final int[] rows = new int[ROWS];
+        final int[] filled = Arrays.copyOf(offsets, GROUPS);
+        for (int row = 0; row < ROWS; row++) {
+            rows[filled[groupOfRow[row]]++] = row;
+        }
+
+        // the first round only warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            if (round > 0) {
+                System.out.println("function  column  stream ms  value-by-value ms  batch ms");
+            }
+            for (AggregateFunctionEnum function : new AggregateFunctionEnum[]{AggregateFunctionEnum.SUM,
+                    AggregateFunctionEnum.AVERAGE, AggregateFunctionEnum.MIN, AggregateFunctionEnum.MAX}) {
+                run(function, "long", boxedLongs, offsets, rows, round > 0,
+                        (accumulator, from, to) -> {
+                            for (int r = from; r < to; r++) {
+                                accumulator.accumulate(longs[rows[r]]);
+                            }
+                        },
+                        (accumulator, from, to, block) -> {
+                            final long[] longBlock = (long[]) block;
+                            for (int start = from; start < to; start += BatchKernels.BLOCK) {
+                                final int length = Math.min(BatchKernels.BLOCK, to - start);
+                                BatchKernels.gather(longs, rows, start, length, longBlock);
+                                accumulator.accumulate(longBlock, length);
+                            }
+                        }, new long[BatchKernels.BLOCK], PivotDataset.NumberType.LONG);
+                run(function, "double", boxedDoubles, offsets, rows, round > 0,
+                        (accumulator, from, to) -> {
+                            for (int r = from; r < to; r++) {
+                                accumulator.accumulate(doubles[rows[r]]);
+                            }
+                        },
+                        (accumulator, from, to, block) -> {
+                            final double[] doubleBlock = (double[]) block;
+                            for (int start = from; start < to; start += BatchKernels.BLOCK) {
+                                final int length = Math.min(BatchKernels.BLOCK, to - start);
+                                BatchKernels.gather(doubles, rows, start, length, doubleBlock);
+                                accumulator.accumulate(doubleBlock, length);
+                            }
+                        }, new double[BatchKernels.BLOCK], PivotDataset.NumberType.DOUBLE);
+            }
+        }
+    }
+
+    private interface ValueByValue {
+        void accumulate(@NotNull Accumulator accumulator, int from, int to);
+    }
+
+    private interface Batch {
+        void accumulate(@NotNull Accumulator accumulator, int from, int to, @NotNull Object block);
+    }
+
+    private static void run(@NotNull AggregateFunctionEnum function, @NotNull String columnType, @NotNull Object[] boxed,
+                            @NotNull int[] offsets, @NotNull int[] rows, boolean print,
+                            @NotNull ValueByValue valueByValue, @NotNull Batch batch, @NotNull Object block,
+                            @NotNull PivotDataset.NumberType type) {
+        final Object[] sink = new Object[1];
+        final double stream = time(() -> {
+            for (int group = 0; group + 1 < offsets.length; group++) {
+                sink[0] = function.compute(Arrays.stream(rows, offsets[group], offsets[group + 1]).mapToObj(row -> boxed[row]));
+            }
+        });
+        final double perValue = time(() -> {
+            for (int group = 0; group + 1 < offsets.length; group++) {
+                final Accumulator accumulator = Accumulators.create(function, type);
+                valueByValue.accumulate(accumulator, offsets[group], offsets[group + 1]);
+                sink[0] = accumulator.finish();
+            }
+        });
+        final double batched = time(() -> {
+            for (int group = 0; group + 1 < offsets.length; group++) {
+                final Accumulator accumulator = Accumulators.create(function, type);
+                batch.accumulate(accumulator, offsets[group], offsets[group + 1], block);
+                sink[0] = accumulator.finish();
+            }
+        });
+        if (print) {
+            System.out.printf("%-8s  %-6s  %9.1f  %17.1f  %8.1f%n", function, columnType, stream, perValue, batched);
+        }
+    }
+
+    /**
+     * @return the average duration of one run, in milliseconds.
+     */
+    private static double time(@NotNull Runnable run) {
+        for (int i = 0; i < WARMUP; i++) {
+            run.run();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            run.run();
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+    }
+}
@@ -0,0 +1,91 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class BatchKernelsTest {
+
+    @Test
+    public void longBlocksMatchValueByValue() {
+        final Random random = new Random(23);
+        final long[][] blocks = {
+                random.longs(1000, -1_000_000, 1_000_000).toArray(),
+                {5, 5, -3, 5, Long.MAX_VALUE, Long.MIN_VALUE, 0},
+                // sums beyond 2^53 lose precision when summed as doubles; the block must lose it the same way
+                {1L << 53, 1, 1, 1, -(1L << 52), 3},
+                {}
+        };
+        for (long[] block : blocks) {
+            for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+                final Accumulator expected = Accumulators.create(function, PivotDataset.NumberType.LONG);
+                final Accumulator actual = Accumulators.create(function, PivotDataset.NumberType.LONG);
+                expected.accumulate(7L);
+                actual.accumulate(7L);
+                for (long value : block) {
+                    expected.accumulate(value);
+                }
+                actual.accumulate(block, block.length);
+                assertEquals(expected.finish(), actual.finish(), function + " " + Arrays.toString(block));
+            }
+        }
+    }
+
+    @Test
+    public void doubleBlocksMatchValueByValue() {
+        final Random random = new Random(29);
+        final double[][] blocks = {
+                random.doubles(1000, -1e6, 1e6).toArray(),
+                {0.0, -0.0, 0.0},
+                {-0.0, 0.0},
+                {1.5, Double.NaN, -2.5},
+                {Double.NaN},
+                {Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY}
+        };
+        for (double[] block : blocks) {
+            for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+                final Accumulator expected = Accumulators.create(function, PivotDataset.NumberType.DOUBLE);
+                final Accumulator actual = Accumulators.create(function, PivotDataset.NumberType.DOUBLE);
+                for (double value : block) {
+                    expected.accumulate(value);
+                }
+                actual.accumulate(block, block.length);
+                assertEquals(expected.finish(), actual.finish(), function + " " + Arrays.toString(block));
+            }
+        }
+    }
+
+    @Test
+    public void gatherFollowsTheSelection() {
+        final long[] column = {10, 11, 12, 13, 14};
+        final long[] block = new long[3];
+        BatchKernels.gather(column, new int[]{4, 0, 2, 3}, 1, 3, block);
+        assertArrayEquals(new long[]{10, 12, 13}, block);
+    }
+
+    @Test
+    public void batchedColumnarResultMatchesBeans() {
+        final Random random = new Random(31);
+        final List<double[]> items = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            items.add(new double[]{random.nextInt(3), random.nextInt(100_000), random.nextDouble() * 100});
+        }
+        final PivotProperty<double[]> region = new PivotProperty<>("region", it -> (int) it[0]);
+        final PivotProperty<double[]> quantity = new PivotProperty<>("quantity", it -> (long) it[1]);
+        final PivotProperty<double[]> price = new PivotProperty<>("price", it -> it[2]);
+        final PivotDataset<double[]> dataset = new PivotDataset<>(items);
+        for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+            final LinkedHashSet<GroupBy<double[]>> groupBy = setOf(new GroupBy<>(region, false, "region", false));
+            final LinkedHashSet<Aggregate<double[]>> aggregates = setOf(new Aggregate<>(quantity, function, "quantity", false),
+                    new Aggregate<>(price, function, "price", false));
+            final String expected = Utils.toCsv(new InMemoryPivot<double[]>().computePivotRows(
+                    groupBy, aggregates, setOf("quantity", "price"), items, new PivotDataSource.PivotFilter()));
+            final String actual = Utils.toCsv(new InMemoryPivot<>(dataset).computePivotRows(
+                    groupBy, aggregates, setOf("quantity", "price"), items, new PivotDataSource.PivotFilter()));
+            assertEquals(expected, actual, function.toString());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.randomRows;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class BitmapIndexTest {
+    private final PivotProperty<int[]> team = new PivotProperty<>("team", it -> it[0]);
+    private final PivotProperty<int[]> player = new PivotProperty<>("player", it -> it[1] == 0 ? null : it[1]);
+    private final PivotProperty<int[]> score = new PivotProperty<>("score", it -> it[2]);
+
+    /**
+     * Teams 0..3 are dense, players 0..499 are sparse.
+     */
+    @Test
+    public void selectMatchesScan() {
+        final List<int[]> items = randomRows(3, 10_000, 4, 500, 100);
+        final PivotDataset<int[]> dataset = new PivotDataset<>(items);
+        final PivotDataset.GroupColumn teams = dataset.getGroupColumn(team);
+        final PivotDataset.GroupColumn players = dataset.getGroupColumn(player);
+        final Random random = new Random(5);
+        for (int attempt = 0; attempt < 20; attempt++) {
+            final boolean[] allowedTeams = randomCodes(random, teams.getCardinality());
+            final boolean[] allowedPlayers = randomCodes(random, players.getCardinality());
+            final List<Integer> expected = new ArrayList<>();
+            for (int row = 0; row < items.size(); row++) {
+                if (allowedTeams[teams.codes[row]] && allowedPlayers[players.codes[row]]) {
+                    expected.add(row);
+                }
+            }
+            final int[] actual = BitmapIndex.select(Arrays.asList(teams.getBitmapIndex(), players.getBitmapIndex()),
+                    Arrays.asList(allowedTeams, allowedPlayers), items.size());
+            assertArrayEquals(expected.stream().mapToInt(it -> it).toArray(), actual);
+        }
+    }
+
+    @Test
+    public void noMatchingRows() {
+        final PivotDataset<int[]> dataset = new PivotDataset<>(randomRows(3, 1000, 4, 500, 100));
+        final PivotDataset.GroupColumn teams = dataset.getGroupColumn(team);
+        final int[] rows = BitmapIndex.select(Collections.singletonList(teams.getBitmapIndex()),
+                Collections.singletonList(new boolean[teams.getCardinality()]), 1000);
+        assertEquals(0, rows.length);
+    }
+
+    @Test
+    public void indexIsBuiltOnceAndCompressed() {
+        final PivotDataset<int[]> dataset = new PivotDataset<>(randomRows(3, 100_000, 4, 500, 100));
+        final PivotDataset.GroupColumn players = dataset.getGroupColumn(player);
+        final BitmapIndex index = players.getBitmapIndex();
+        assertSame(index, players.getBitmapIndex());
+        // 500 bitsets would take 500 * 100_000 / 8 bytes
+        assertTrue(index.getSizeInBytes() < 500_000, index.toString());
+    }
+
+    @Test
+    public void indexedFilterMatchesUnindexed() {
+        final List<int[]> items = randomRows(3, 10_000, 4, 500, 100);
+        final PivotDataset<int[]> dataset = new PivotDataset<>(items);
+        final GroupBy<int[]> byTeam = new GroupBy<>(team, false, "team", false);
+        final GroupBy<int[]> byPlayer = new GroupBy<>(player, false, "player", false);
+        final Aggregate<int[]> sum = new Aggregate<>(score, AggregateFunctionEnum.SUM, "sum", false);
+        final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+        filter.getFilterValues().put("team", new HashSet<>(Arrays.asList(1, 3)));
+        filter.getFilterValues().put("player", new HashSet<>(Arrays.asList(null, 7, 8, 9, 100, 499)));
+
+        final String expected = Utils.toCsv(new InMemoryPivot<int[]>().computePivotRows(
+                setOf(byTeam, byPlayer), setOf(sum), setOf("sum"), items, filter));
+        final String actual = Utils.toCsv(new InMemoryPivot<>(dataset).computePivotRows(
+                setOf(byTeam, byPlayer), setOf(sum), setOf("sum"), items, filter));
+        assertEquals(expected, actual);
+    }
+
+    private static boolean[] randomCodes(Random random, int cardinality) {
+        final boolean[] allowed = new boolean[cardinality];
+        for (int code = 0; code < cardinality; code++) {
+            allowed[code] = random.nextInt(3) == 0;
+        }
+        return allowed;
+    }
+}
@@ -0,0 +1,159 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class CancellationTest {
+    private static final int ITEMS = 50_000;
+    private final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+    private final PivotProperty<Integer> bucket = new PivotProperty<>("bucket", it -> it % 100);
+    private final GroupBy<Integer> byBucket = new GroupBy<>(bucket, false, "bucket", false);
+    private final Aggregate<Integer> sum = new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false);
+
+    private static List<Integer> items() {
+        final List<Integer> items = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            items.add(i);
+        }
+        return items;
+    }
+
+    private static PivotOptions cancelled() {
+        final CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        return PivotOptions.NONE.withCancellation(cancellation);
+    }
+
+    @Test
+    public void cancelledTokenAbortsEveryPath() {
+        final List<Integer> items = items();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final List<PivotDataSource<Integer>> pivots = Arrays.asList(
+                    new InMemoryPivot<>(),
+                    new InMemoryPivot<Integer>().withParallelism(pool, 0),
+                    new InMemoryPivot<>(new PivotDataset<>(items)),
+                    new InMemoryPivot<>(new OffHeapDataset.Builder<>(Collections.singletonList(bucket),
+                            Collections.singletonList(identity), OffHeapDataset.Storage.DIRECT, 10).addAll(items.iterator()).build()),
+                    new ColumnGroupingPivotDataSource<>(new InMemoryPivot<>(), "Grand Total"));
+            for (PivotDataSource<Integer> pivot : pivots) {
+                for (PivotOptions options : new PivotOptions[]{cancelled(), cancelled().withMemoryBudget(1024 * 1024)}) {
+                    final PivotCancelledException e = assertThrows(PivotCancelledException.class, () -> pivot.computePivotRows(
+                            setOf(byBucket), setOf(sum), setOf("sum"), items, new PivotDataSource.PivotFilter(), options), pivot.toString());
+                    assertFalse(e.isTimedOut());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelledWhileGrouping() {
+        final List<Integer> items = items();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (InMemoryPivot<Integer> pivot : Arrays.asList(new InMemoryPivot<Integer>(), new InMemoryPivot<Integer>().withParallelism(pool, 0))) {
+                final CancellationToken cancellation = new CancellationToken();
+                // the values are read while encoding the group-by column; the first check after that aborts
+                final PivotProperty<Integer> cancelling = new PivotProperty<>("bucket", it -> {
+                    if (it == ITEMS / 2) {
+                        cancellation.cancel();
+                    }
+                    return it;
+                });
+                final GroupBy<Integer> groupBy = new GroupBy<>(cancelling, false, "bucket", false);
+                assertThrows(PivotCancelledException.class, () -> pivot.computePivotRows(setOf(groupBy), setOf(sum), setOf("sum"),
+                        items, new PivotDataSource.PivotFilter(), PivotOptions.NONE.withCancellation(cancellation)), pivot.toString());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelledWhileAggregatingWithinBudget() {
+        final List<Integer> items = items();
+        final CancellationToken cancellation = new CancellationToken();
+        final AtomicInteger reads = new AtomicInteger();
+        final PivotProperty<Integer> cancelling = new PivotProperty<>("identity", it -> {
+            if (reads.incrementAndGet() == ITEMS / 2) {
+                cancellation.cancel();
+            }
+            return it;
+        });
+        final Aggregate<Integer> cancellingSum = new Aggregate<>(cancelling, AggregateFunctionEnum.SUM, "sum", false);
+        final PivotOptions options = PivotOptions.NONE.withMemoryBudget(1024 * 1024).withCancellation(cancellation);
+        assertThrows(PivotCancelledException.class, () -> new InMemoryPivot<Integer>().computePivotRows(setOf(byBucket),
+                setOf(cancellingSum), setOf("sum"), items, new PivotDataSource.PivotFilter(), options));
+        // aborted at the next check, without reading the remaining rows
+        assertTrue(reads.get() <= ITEMS / 2 + CancellationToken.CHECK_INTERVAL, String.valueOf(reads.get()));
+    }
+
+    @Test
+    public void uncancelledTokenComputesTheSameResult() {
+        final List<Integer> items = items();
+        final PivotDataSource<Integer> pivot = new ColumnGroupingPivotDataSource<>(new InMemoryPivot<>(new PivotDataset<>(items)), "Grand Total");
+        final LinkedHashSet<GroupBy<Integer>> groupBy = setOf(byBucket,
+                new GroupBy<>(new PivotProperty<>("parity", it -> it % 2), false, "parity", true));
+        final String expected = Utils.toCsv(pivot.computePivotRows(groupBy, setOf(sum), setOf("sum"), items, new PivotDataSource.PivotFilter()));
+        final PivotOptions options = PivotOptions.NONE.withCancellation(CancellationToken.withTimeout(1, TimeUnit.HOURS));
+        assertEquals(expected, Utils.toCsv(pivot.computePivotRows(groupBy, setOf(sum), setOf("sum"), items,
+                new PivotDataSource.PivotFilter(), options)));
+    }
+
+    @Test
+    public void deadline() throws InterruptedException {
+        final CancellationToken cancellation = CancellationToken.withTimeout(1, TimeUnit.NANOSECONDS);
+        Thread.sleep(1);
+        assertTrue(cancellation.isCancelled());
+        final PivotCancelledException e = assertThrows(PivotCancelledException.class, () -> new InMemoryPivot<Integer>().computePivotRows(
+                setOf(byBucket), setOf(sum), setOf("sum"), items(), new PivotDataSource.PivotFilter(),
+                PivotOptions.NONE.withCancellation(cancellation)));
+        assertTrue(e.isTimedOut());
+
+        assertFalse(CancellationToken.withTimeout(Long.MAX_VALUE, TimeUnit.DAYS).isCancelled());
+        assertThrows(IllegalArgumentException.class, () -> CancellationToken.withTimeout(0, TimeUnit.SECONDS));
+        assertThrows(IllegalStateException.class, CancellationToken.NONE::cancel);
+    }
+
+    @Test
+    public void waitersOutliveCancelledLeader() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        final CountDownLatch leaderStarted = new CountDownLatch(1);
+        final CountDownLatch releaseLeader = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<String> leader = executor.submit(() -> flights.execute("key", () -> {
+                leaderStarted.countDown();
+                try {
+                    releaseLeader.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                throw new PivotCancelledException("cancelled", false);
+            }, Long.MAX_VALUE, TimeUnit.MILLISECONDS));
+            assertTrue(leaderStarted.await(10, TimeUnit.SECONDS));
+            final Future<String> waiter = executor.submit(() -> flights.execute("key", () -> "computed by the waiter",
+                    Long.MAX_VALUE, TimeUnit.MILLISECONDS));
+            while (flights.getCoalescedCount() == 0) {
+                Thread.sleep(1);
+            }
+            releaseLeader.countDown();
+
+            final ExecutionException e = assertThrows(ExecutionException.class, leader::get);
+            assertTrue(e.getCause() instanceof PivotCancelledException);
+            assertEquals("computed by the waiter", waiter.get(10, TimeUnit.SECONDS));
+            assertEquals(2, flights.getExecutedCount());
+            assertEquals(0, flights.getInFlightCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
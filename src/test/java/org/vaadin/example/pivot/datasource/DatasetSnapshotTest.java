@@ -0,0 +1,177 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.vaadin.example.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DatasetSnapshotTest {
+    private static final List<DatasetSnapshot.Column<Player>> COLUMNS = Arrays.asList(
+            new DatasetSnapshot.Column<>("name", DatasetSnapshot.Type.STRING, Player::getName),
+            new DatasetSnapshot.Column<>("team", DatasetSnapshot.Type.STRING, Player::getTeam),
+            new DatasetSnapshot.Column<>("position", DatasetSnapshot.Type.STRING, Player::getPosition),
+            new DatasetSnapshot.Column<>("heightInches", DatasetSnapshot.Type.INT, Player::getHeightInches),
+            new DatasetSnapshot.Column<>("weightLbs", DatasetSnapshot.Type.INT, Player::getWeightLbs),
+            new DatasetSnapshot.Column<>("age", DatasetSnapshot.Type.FLOAT, Player::getAge)
+    );
+    private static final DatasetSnapshot.RowMapper<Player> MAPPER = (snapshot, row) -> new Player(snapshot.getString(0, row),
+            snapshot.getString(1, row), snapshot.getString(2, row), snapshot.getInt(3, row), snapshot.getInt(4, row),
+            snapshot.getFloat(5, row));
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("snapshot-test");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        for (File file : Objects.requireNonNull(directory.toFile().listFiles())) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        final List<Player> players = Player.ALL_PLAYERS;
+        final Path file = directory.resolve("players.snapshot");
+        DatasetSnapshot.write(file, 42, COLUMNS, players);
+
+        final DatasetSnapshot snapshot = DatasetSnapshot.open(file, 42, COLUMNS);
+        assertNotNull(snapshot);
+        assertEquals(players.size(), snapshot.size());
+        final List<Player> loaded = snapshot.toList(MAPPER);
+        for (int i = 0; i < players.size(); i++) {
+            assertEquals(players.get(i).toString(), loaded.get(i).toString());
+        }
+        // dictionary-encoded: equal values share the instance
+        assertSame(loaded.get(0).getTeam(), loaded.stream().filter(it -> it.getTeam().equals(loaded.get(0).getTeam()))
+                .reduce((first, second) -> second).get().getTeam());
+        final String[] teams = snapshot.getDictionary(1);
+        final String[] sorted = teams.clone();
+        Arrays.sort(sorted, PivotDataset.DICTIONARY_ORDER);
+        assertArrayEquals(sorted, teams);
+        assertThrows(IllegalArgumentException.class, () -> snapshot.getInt(0, 0));
+    }
+
+    @Test
+    public void staleOrIncompatibleSnapshotsAreIgnored() throws IOException {
+        final Path file = directory.resolve("players.snapshot");
+        assertNull(DatasetSnapshot.open(file, 42, COLUMNS));
+        DatasetSnapshot.write(file, 42, COLUMNS, Player.ALL_PLAYERS.subList(0, 10));
+
+        assertNull(DatasetSnapshot.open(file, 43, COLUMNS));
+        assertNull(DatasetSnapshot.open(file, 42, COLUMNS.subList(0, 5)));
+        final List<DatasetSnapshot.Column<Player>> renamed = new ArrayList<>(COLUMNS);
+        renamed.set(5, new DatasetSnapshot.Column<>("ageInYears", DatasetSnapshot.Type.FLOAT, Player::getAge));
+        assertNull(DatasetSnapshot.open(file, 42, renamed));
+
+        // another format version
+        final byte[] bytes = Files.readAllBytes(file);
+        bytes[7]++;
+        Files.write(file, bytes);
+        assertNull(DatasetSnapshot.open(file, 42, COLUMNS));
+        bytes[7]--;
+
+        // truncated
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertNull(DatasetSnapshot.open(file, 42, COLUMNS));
+        Files.write(file, Arrays.copyOf(bytes, 30));
+        assertNull(DatasetSnapshot.open(file, 42, COLUMNS));
+
+        Files.write(file, bytes);
+        assertNotNull(DatasetSnapshot.open(file, 42, COLUMNS));
+    }
+
+    @Test
+    public void sourceIsParsedOnlyWhenChanged() throws IOException {
+        final Path source = directory.resolve("players.csv");
+        Files.write(source, "v1".getBytes(StandardCharsets.UTF_8));
+        final Path file = directory.resolve("players.snapshot");
+        final AtomicInteger parsed = new AtomicInteger();
+        final DatasetSnapshot.Parser<Player> parser = () -> {
+            parsed.incrementAndGet();
+            return Player.ALL_PLAYERS.subList(0, 100);
+        };
+
+        assertEquals(100, DatasetSnapshot.load(source.toUri().toURL(), file, COLUMNS, MAPPER, parser).size());
+        assertEquals(1, parsed.get());
+        assertTrue(Files.exists(file));
+
+        final List<Player> mapped = DatasetSnapshot.load(source.toUri().toURL(), file, COLUMNS, MAPPER, parser);
+        assertEquals(1, parsed.get());
+        assertEquals(Player.ALL_PLAYERS.get(99).toString(), mapped.get(99).toString());
+
+        Files.write(source, "v2".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        DatasetSnapshot.load(source.toUri().toURL(), file, COLUMNS, MAPPER, parser);
+        assertEquals(2, parsed.get());
+    }
+
+    @Test
+    public void datasetReadsTheColumnsOutOfTheSnapshot() throws IOException {
+        final List<DatasetSnapshot.Column<Player>> columns = Arrays.asList(
+                new DatasetSnapshot.Column<>("name", DatasetSnapshot.Type.STRING, Player::getName),
+                new DatasetSnapshot.Column<>("team", DatasetSnapshot.Type.STRING, Player.TEAM),
+                new DatasetSnapshot.Column<>("position", DatasetSnapshot.Type.STRING, Player.POSITION),
+                new DatasetSnapshot.Column<>("heightInches", DatasetSnapshot.Type.INT, Player.HEIGHT),
+                new DatasetSnapshot.Column<>("weightLbs", DatasetSnapshot.Type.INT, Player.WEIGHT),
+                new DatasetSnapshot.Column<>("age", DatasetSnapshot.Type.FLOAT, Player.AGE)
+        );
+        final Path file = directory.resolve("players.snapshot");
+        final List<Player> players = new ArrayList<>(Player.ALL_PLAYERS);
+        DatasetSnapshot.write(file, 42, columns, players);
+        final AtomicInteger decoded = new AtomicInteger();
+        final List<Player> loaded = DatasetSnapshot.open(file, 42, columns).asList((snapshot, row) -> {
+            decoded.incrementAndGet();
+            return MAPPER.map(snapshot, row);
+        });
+
+        final PivotDataset<Player> mapped = new PivotDataset<>(loaded);
+        final PivotDataset<Player> built = new PivotDataset<>(players);
+        for (PivotProperty<Player> property : Arrays.asList(Player.TEAM, Player.POSITION, Player.HEIGHT)) {
+            final PivotDataset.GroupColumn expected = built.getGroupColumn(property);
+            final PivotDataset.GroupColumn actual = mapped.getGroupColumn(property);
+            assertArrayEquals(expected.dictionary, actual.dictionary);
+            assertArrayEquals(expected.codes, actual.codes);
+        }
+        for (PivotProperty<Player> property : Arrays.asList(Player.HEIGHT, Player.WEIGHT, Player.AGE)) {
+            final PivotDataset.MeasureColumn expected = built.getMeasureColumn(property);
+            final PivotDataset.MeasureColumn actual = mapped.getMeasureColumn(property);
+            assertEquals(expected.getType(), actual.getType());
+            assertArrayEquals(expected.longs, actual.longs);
+            assertArrayEquals(expected.doubles, actual.doubles);
+        }
+        assertEquals(0, decoded.get());
+
+        // a property not bound to a column is built out of the beans, each decoded once
+        mapped.getGroupColumn(new PivotProperty<>("Name", Player::getName));
+        mapped.getGroupColumn(new PivotProperty<>("Name", Player::getName));
+        assertEquals(players.size(), decoded.get());
+        assertSame(loaded.get(0), loaded.get(0));
+    }
+
+    @Test
+    public void nullStringsAreKept() throws IOException {
+        final Path file = directory.resolve("nulls.snapshot");
+        final List<Player> players = Arrays.asList(new Player("a", null, "P", 70, 200, 25.5f), new Player("b", "T", null, 71, 201, 26));
+        DatasetSnapshot.write(file, 1, COLUMNS, players);
+        final List<Player> loaded = DatasetSnapshot.open(file, 1, COLUMNS).toList(MAPPER);
+        assertNull(loaded.get(0).getTeam());
+        assertNull(loaded.get(1).getPosition());
+        assertEquals(25.5f, loaded.get(0).getAge());
+        assertArrayEquals(new String[]{"T", null}, DatasetSnapshot.open(file, 1, COLUMNS).getDictionary(1));
+    }
+}
@@ -0,0 +1,64 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupTableTest {
+
+    @Test
+    public void singleWordKey() {
+        final int[][] codes = {{0, 1, 0, 2, 1}, {3, 0, 3, 0, 0}};
+        final GroupTable table = new GroupTable(codes, new int[]{3, 4}, 1);
+        assertEquals(1, table.getKeyWords());
+        final int[] groups = new int[5];
+        for (int row = 0; row < 5; row++) {
+            groups[row] = table.add(row);
+        }
+        assertArrayEquals(new int[]{0, 1, 0, 2, 1}, groups);
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void noColumnsMeansOneGroup() {
+        final GroupTable table = new GroupTable(new int[0][], new int[0], 16);
+        assertEquals(0, table.add(0));
+        assertEquals(0, table.add(1));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void multiWordKeyMatchesHashMapGrouping() {
+        // 5 columns of 20 bits each don't fit into a single long
+        final int rowCount = 50_000;
+        final int columnCount = 5;
+        final int cardinality = 1 << 20;
+        final Random random = new Random(42);
+        final int[][] codes = new int[columnCount][rowCount];
+        for (int row = 0; row < rowCount; row++) {
+            // reuse previous rows often so that there are groups with more than one row
+            final int source = row > 0 && random.nextBoolean() ? random.nextInt(row) : -1;
+            for (int column = 0; column < columnCount; column++) {
+                codes[column][row] = source >= 0 ? codes[column][source] : random.nextInt(cardinality);
+            }
+        }
+        final int[] cardinalities = new int[columnCount];
+        Arrays.fill(cardinalities, cardinality);
+
+        final GroupTable table = new GroupTable(codes, cardinalities, 16);
+        assertEquals(2, table.getKeyWords());
+
+        final Map<List<Integer>, Integer> expected = new LinkedHashMap<>();
+        for (int row = 0; row < rowCount; row++) {
+            final List<Integer> key = new ArrayList<>();
+            for (int column = 0; column < columnCount; column++) {
+                key.add(codes[column][row]);
+            }
+            final Integer expectedGroup = expected.computeIfAbsent(key, k -> expected.size());
+            assertEquals(expectedGroup.intValue(), table.add(row));
+        }
+        assertEquals(expected.size(), table.size());
+    }
+}
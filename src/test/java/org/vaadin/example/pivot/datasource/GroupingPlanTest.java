@@ -0,0 +1,104 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.UNIQUE;
+import static org.vaadin.example.pivot.datasource.Utils.randomRows;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class GroupingPlanTest {
+    private final PivotProperty<int[]> team = new PivotProperty<>("team", it -> it[0] == 3 ? null : it[0]);
+    private final PivotProperty<int[]> player = new PivotProperty<>("player", it -> it[1]);
+    private final PivotProperty<int[]> id = new PivotProperty<>("id", it -> it[2]);
+
+    /**
+     * Rows of team (0..3, 3 is null), player (0..999) and a unique id.
+     */
+    @Test
+    public void allStrategiesProduceTheSameGroups() {
+        final PivotDataset<int[]> dataset = new PivotDataset<>(randomRows(7, 20_000, 4, 1000, UNIQUE));
+        final List<PivotDataset.GroupColumn> columns = Arrays.asList(
+                dataset.getGroupColumn(team), dataset.getGroupColumn(player));
+        final int[] selection = new int[5000];
+        for (int i = 0; i < selection.length; i++) {
+            selection[i] = i * 3 + 1;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int[] rows : Arrays.asList(null, selection)) {
+                for (ForkJoinPool p : Arrays.asList(null, pool)) {
+                    final GroupingPlan plan = GroupingPlan.of(columns, rows == null ? dataset.size() : rows.length, 1);
+                    final Groups expected = Groups.compute(plan.withStrategy(GroupingPlan.Strategy.HASH), columns, dataset.size(), rows, null);
+                    for (GroupingPlan.Strategy strategy : GroupingPlan.Strategy.values()) {
+                        final Groups actual = Groups.compute(plan.withStrategy(strategy), columns, dataset.size(), rows, p);
+                        assertEquals(expected.count, actual.count, strategy.toString());
+                        assertArrayEquals(expected.offsets, actual.offsets, strategy.toString());
+                        assertArrayEquals(expected.rows, actual.rows, strategy.toString());
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void smallDenseDictionaryIsIndexedDirectly() {
+        final PivotDataset<int[]> dataset = new PivotDataset<>(randomRows(7, 100_000, 4, 1000, UNIQUE));
+        final GroupingPlan plan = GroupingPlan.of(Arrays.asList(dataset.getGroupColumn(team), dataset.getGroupColumn(player)), dataset.size(), 1);
+        assertEquals(GroupingPlan.Strategy.DIRECT, plan.strategy);
+        assertEquals(4000, plan.keySpace);
+    }
+
+    @Test
+    public void uniqueKeysAreSortedWhenParallel() {
+        final PivotDataset<int[]> dataset = new PivotDataset<>(randomRows(7, 1_000_000, 4, 1000, UNIQUE));
+        final List<PivotDataset.GroupColumn> columns = Arrays.asList(dataset.getGroupColumn(id), dataset.getGroupColumn(player));
+        final GroupingPlan sequential = GroupingPlan.of(columns, dataset.size(), 1);
+        assertNotEquals(GroupingPlan.Strategy.DIRECT, sequential.strategy);
+        assertEquals(1_000_000, sequential.estimatedGroups);
+        assertEquals(GroupingPlan.Strategy.SORT, GroupingPlan.of(columns, dataset.size(), 8).strategy);
+    }
+
+    @Test
+    public void overflowingKeySpaceIsHashed() {
+        final PivotDataset<int[]> dataset = new PivotDataset<>(randomRows(7, 1 << 17, 4, 1000, UNIQUE));
+        final PivotDataset.GroupColumn column = dataset.getGroupColumn(id);
+        // (2^17)^4 = 2^68 combinations
+        final GroupingPlan plan = GroupingPlan.of(Arrays.asList(column, column, column, column), dataset.size(), 8);
+        assertEquals(GroupingPlan.Strategy.HASH, plan.strategy);
+        assertEquals(Long.MAX_VALUE, plan.keySpace);
+        assertThrows(IllegalArgumentException.class, () -> plan.withStrategy(GroupingPlan.Strategy.SORT));
+        assertThrows(IllegalArgumentException.class, () -> plan.withStrategy(GroupingPlan.Strategy.DIRECT));
+    }
+
+    @Test
+    public void columnStatistics() {
+        final List<int[]> items = Arrays.asList(new int[]{3, 5, 0}, new int[]{1, 7, 1}, new int[]{2, 5, 2}, new int[]{3, 9, 3});
+        final ColumnStatistics statistics = new PivotDataset<>(items).getGroupColumn(team).getStatistics();
+        assertEquals(4, statistics.getRowCount());
+        assertEquals(3, statistics.getDistinctCount());
+        assertEquals(2, statistics.getNullCount());
+        assertEquals(0.5, statistics.getNullRatio());
+        assertEquals(1, statistics.getMin());
+        assertEquals(2, statistics.getMax());
+        assertEquals("distinct=3, nulls=50.0%, range=[1..2]", statistics.toString());
+    }
+
+    @Test
+    public void explain() {
+        final List<int[]> items = randomRows(7, 1000, 4, 1000, UNIQUE);
+        final LinkedHashSet<GroupBy<int[]>> groupBy = setOf(new GroupBy<>(team, false, "team", false));
+        final String plan = new InMemoryPivot<int[]>().explain(groupBy, items, new PivotDataSource.PivotFilter());
+        assertTrue(plan.startsWith("DIRECT grouping of 1000 rows into ~4 groups"), plan);
+        assertTrue(plan.contains("team: distinct=4"), plan);
+
+        final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+        filter.getFilterValues().put("team", new HashSet<>(Collections.singletonList(1)));
+        assertFalse(new InMemoryPivot<int[]>().explain(groupBy, items, filter).contains("of 1000 rows"));
+    }
+}
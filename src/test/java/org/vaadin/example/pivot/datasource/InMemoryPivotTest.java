@@ -3,8 +3,18 @@ package org.vaadin.example.pivot.datasource;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.vaadin.example.pivot.datasource.Utils.setOf;
@@ -100,6 +110,301 @@ public class InMemoryPivotTest {
         testSimpleAggregateOpSimpleGrouping(AggregateFunctionEnum.MEDIAN, 2d, new Object[]{0d, 1d, 2d, 3d, 4d});
     }
 
+    @Test
+    public void parallelComputationIsIdenticalToSequential() {
+        final List<Integer> items = new ArrayList<>();
+        final Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            items.add(random.nextInt(100_000));
+        }
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> tens = new PivotProperty<>("tens", it -> it % 10);
+        final PivotProperty<Integer> hundreds = new PivotProperty<>("hundreds", it -> it / 1000);
+        final PivotDataset<Integer> dataset = new PivotDataset<>(items);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (PivotDataset<Integer> source : Arrays.asList(null, dataset)) {
+                final InMemoryPivot<Integer> sequential = new InMemoryPivot<>(source);
+                final InMemoryPivot<Integer> parallel = sequential.withParallelism(pool, 0);
+                for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+                    final String expected = Utils.toCsv(sequential.computePivotRows(
+                            setOf(new GroupBy<>(hundreds, false, "hundreds", false), new GroupBy<>(tens, false, "tens", false)),
+                            setOf(new Aggregate<>(identity, function, "value", false)),
+                            setOf("value"), items, new PivotDataSource.PivotFilter()));
+                    final String actual = Utils.toCsv(parallel.computePivotRows(
+                            setOf(new GroupBy<>(hundreds, false, "hundreds", false), new GroupBy<>(tens, false, "tens", false)),
+                            setOf(new Aggregate<>(identity, function, "value", false)),
+                            setOf("value"), items, new PivotDataSource.PivotFilter()));
+                    assertEquals(expected, actual, function.toString());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void singlePassMatchesPerAggregateComputation() {
+        final List<Integer> items = new ArrayList<>();
+        final Random random = new Random(3);
+        for (int i = 0; i < 10_000; i++) {
+            items.add(random.nextInt(1000) - 500);
+        }
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> half = new PivotProperty<>("half", it -> it / 2.0);
+        final AggregateFunction distinct = new AggregateFunction() {
+            @NotNull
+            @Override
+            public String getCaption() {
+                return "Distinct";
+            }
+
+            @NotNull
+            @Override
+            public Number compute(@NotNull java.util.stream.Stream<?> values) {
+                return values.distinct().count();
+            }
+
+            @Override
+            public boolean canComputeOverAggregatedValues() {
+                return false;
+            }
+
+            @NotNull
+            @Override
+            public Number computeOverAggregatedValues(@NotNull List<?> values) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        final List<Aggregate<Integer>> aggregates = new ArrayList<>();
+        for (PivotProperty<Integer> property : Arrays.asList(identity, half)) {
+            for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+                aggregates.add(new Aggregate<>(property, function, false));
+            }
+            aggregates.add(new Aggregate<>(property, distinct, false));
+        }
+        final PivotDataset<Integer> dataset = new PivotDataset<>(items);
+        final List<PivotDataset.MeasureColumn> columns = new ArrayList<>();
+        for (Aggregate<Integer> aggregate : aggregates) {
+            columns.add(dataset.getMeasureColumn(aggregate.property));
+        }
+        final int[] rows = new int[items.size()];
+        Arrays.setAll(rows, i -> i);
+
+        final Number[] fromBeans = Aggregate.computeAggregatedValues(aggregates, items);
+        final Number[] fromColumns = Aggregate.computeAggregatedValues(aggregates, columns, rows, 0, rows.length);
+        for (int i = 0; i < aggregates.size(); i++) {
+            final Number expected = aggregates.get(i).computeAggregatedValue(items);
+            assertEquals(expected, fromBeans[i], aggregates.get(i).getCaption());
+            assertEquals(expected, fromColumns[i], aggregates.get(i).getCaption());
+        }
+    }
+
+    @Test
+    public void groupByFilterIsAppliedBeforeAggregating() {
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+        final AtomicInteger aggregatedBeans = new AtomicInteger();
+        final PivotProperty<Integer> tens = new PivotProperty<>("tens", it -> it / 10);
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> {
+            aggregatedBeans.incrementAndGet();
+            return it;
+        });
+        final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+        filter.getFilterValues().put("tens", setOf(2, 5, 7));
+        // HAVING-style filter on the aggregated value
+        filter.getFilterValues().put("count", setOf(10L));
+        filter.getFilterValues().put("unused", setOf());
+        final PivotDataSource.PivotResult<Integer> result = new InMemoryPivot<Integer>().computePivotRows(
+                setOf(new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false),
+                        new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false)),
+                setOf("sum"), items, filter);
+
+        assertEquals(30, aggregatedBeans.get());
+        assertEquals("tens: null,identity (Sum): null,identity (Count): null\n" +
+                "======\n" +
+                "2,245.0,10,\n" +
+                "5,545.0,10,\n" +
+                "7,745.0,10,\n" +
+                "======\n" +
+                "null,1535.0,null,\n", Utils.toCsv(result));
+
+        filter.getFilterValues().put("count", setOf(3L));
+        final PivotDataSource.PivotResult<Integer> none = new InMemoryPivot<Integer>().computePivotRows(
+                setOf(new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false),
+                        new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false)),
+                setOf("sum"), items, filter);
+        assertTrue(none.rows.isEmpty());
+        assertTrue(none.grandTotalValues.isEmpty());
+    }
+
+    @Test
+    public void topNMatchesSortedRows() {
+        final List<Integer> items = new ArrayList<>();
+        final Random random = new Random(13);
+        for (int i = 0; i < 20_000; i++) {
+            items.add(random.nextInt(5000));
+        }
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> mod = new PivotProperty<>("mod", it -> it % 997);
+        final InMemoryPivot<Integer> pivot = new InMemoryPivot<>(new PivotDataset<>(items));
+        final PivotDataSource.PivotResult<Integer> all = pivot.computePivotRows(
+                setOf(new GroupBy<>(mod, false, "mod", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false)),
+                setOf("count"), items, new PivotDataSource.PivotFilter());
+        final List<PivotDataSource.Row<Integer>> sorted = new ArrayList<>(all.rows);
+        sorted.sort(Comparator.comparing((PivotDataSource.Row<Integer> row) -> (Long) row.get("count")).reversed());
+
+        for (boolean descending : new boolean[]{true, false}) {
+            final PivotOptions options = descending ? PivotOptions.NONE.withTop("count", 20) : PivotOptions.NONE.withBottom("count", 20);
+            final PivotDataSource.PivotResult<Integer> top = pivot.computePivotRows(
+                    setOf(new GroupBy<>(mod, false, "mod", false)),
+                    setOf(new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false)),
+                    setOf("count"), items, new PivotDataSource.PivotFilter(), options);
+            assertEquals(20, top.rows.size());
+            for (int i = 0; i < 20; i++) {
+                final PivotDataSource.Row<Integer> expected = sorted.get(descending ? i : sorted.size() - 1 - i);
+                assertEquals(expected.get("count"), top.rows.get(i).get("count"));
+            }
+            assertEquals(all.grandTotalValues, top.grandTotalValues);
+        }
+    }
+
+    @Test
+    public void limitedResultKeepsTheMembersOfTheShownGroups() {
+        final List<Integer> items = new ArrayList<>();
+        final Random random = new Random(19);
+        for (int i = 0; i < 20_000; i++) {
+            items.add(random.nextInt(5000));
+        }
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> mod = new PivotProperty<>("mod", it -> it % 997);
+        final LinkedHashSet<GroupBy<Integer>> groupBy = setOf(new GroupBy<>(mod, false, "mod", false));
+        final LinkedHashSet<Aggregate<Integer>> aggregates = setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false));
+        for (InMemoryPivot<Integer> pivot : Arrays.asList(new InMemoryPivot<Integer>(), new InMemoryPivot<>(new PivotDataset<>(items)))) {
+            for (PivotOptions options : new PivotOptions[]{PivotOptions.NONE, PivotOptions.NONE.withMemoryBudget(1024 * 1024)}) {
+                final PivotDataSource.PivotResult<Integer> top = pivot.computePivotRows(groupBy, aggregates, setOf("sum"), items,
+                        new PivotDataSource.PivotFilter(), options.withTop("sum", 5).withOthers("Others"));
+                assertEquals(6, top.rows.size());
+                for (PivotDataSource.Row<Integer> row : top.rows.subList(0, 5)) {
+                    final Object group = row.get("mod");
+                    if (row.hasSourceBeans()) {
+                        final List<Integer> expected = items.stream().filter(it -> group.equals(it % 997)).collect(Collectors.toList());
+                        assertEquals(expected, row.getSourceBeans(), String.valueOf(group));
+                    }
+                    assertEquals(row.get("sum"), aggregates.iterator().next().computeAggregatedValue(
+                            items.stream().filter(it -> group.equals(it % 997)).collect(Collectors.toList())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void othersRowMergesTheRest() {
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> tens = new PivotProperty<>("tens", it -> it / 10);
+        final PivotOptions options = PivotOptions.NONE.withTop("sum", 2).withOthers("Others");
+        final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+        filter.getFilterValues().put("tens", setOf(0, 1, 2, 3, 8, 9));
+        final PivotDataSource.PivotResult<Integer> result = new InMemoryPivot<Integer>().computePivotRows(
+                setOf(new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false),
+                        new Aggregate<>(identity, AggregateFunctionEnum.MAX, "max", false)),
+                setOf("sum"), items, filter, options);
+        assertEquals("tens: null,identity (Sum): null,identity (Max): null\n" +
+                "======\n" +
+                "9,945.0,99,\n" +
+                "8,845.0,89,\n" +
+                "Others,780.0,39,\n" +
+                "======\n" +
+                "null,2570.0,null,\n", Utils.toCsv(result));
+
+        // a limit on a group-by value is applied to the computed rows
+        final PivotDataSource.PivotResult<Integer> byTens = new InMemoryPivot<Integer>().computePivotRows(
+                setOf(new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false)),
+                setOf(), items, filter, PivotOptions.NONE.withBottom("tens", 1).withOthers("Others"));
+        assertEquals("tens: null,identity (Sum): null\n" +
+                "======\n" +
+                "0,45.0,\n" +
+                "Others,2525.0,\n", Utils.toCsv(byTens));
+    }
+
+    @Test
+    public void pagedResultKeepsHeapBounded() {
+        final int groups = 1_000_000;
+        final List<Integer> items = new ArrayList<>(groups);
+        for (int i = 0; i < groups; i++) {
+            items.add(i);
+        }
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotDataSource.PivotResult<Integer> result = new InMemoryPivot<>(new PivotDataset<>(items)).computePivotRows(
+                setOf(new GroupBy<>(identity, false, "value", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false),
+                        new Aggregate<>(identity, AggregateFunctionEnum.MAX, "max", false)),
+                setOf("count"), items, new PivotDataSource.PivotFilter());
+        assertEquals(groups, result.size());
+        final long before = usedHeap();
+
+        final LinkedHashMap<String, Boolean> byMaxDescending = new LinkedHashMap<>();
+        byMaxDescending.put("max", true);
+        for (int offset = 0; offset < groups; offset += 50_000) {
+            final List<PivotDataSource.Row<Integer>> page = result.fetch(offset, 50, byMaxDescending);
+            assertEquals(50, page.size());
+            assertEquals(groups - 1 - offset, page.get(0).get("value"));
+            assertEquals(1L, page.get(49).get("count"));
+        }
+        assertTrue(result.fetch(groups - 10, 50, new LinkedHashMap<>()).size() == 10);
+        assertTrue(result.fetch(groups + 10, 50, new LinkedHashMap<>()).isEmpty());
+
+        // 1M materialized rows would take hundreds of MBs; the sort permutation and ranks take 12 bytes per row
+        final long growth = usedHeap() - before;
+        assertTrue(growth < 64L * 1024 * 1024, "heap grew by " + growth);
+        assertEquals(1L * groups, result.grandTotalValues.get("count"));
+    }
+
+    @Test
+    public void valuesAndPositionsOfLazyRows() {
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> tens = new PivotProperty<>("tens", it -> it / 10);
+        final PivotDataSource.PivotResult<Integer> result = new InMemoryPivot<Integer>().computePivotRows(
+                setOf(new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.MAX, "max", false)),
+                Collections.emptySet(), items, new PivotDataSource.PivotFilter());
+        assertEquals(IntStream.range(0, 10).boxed().collect(Collectors.toSet()), result.getDistinctValues("tens"));
+        assertEquals(9, result.getValue(9, "tens"));
+        assertEquals(result.rows.get(9).get("max"), result.getValue(9, "max"));
+
+        final LinkedHashMap<String, Boolean> byMaxDescending = new LinkedHashMap<>();
+        byMaxDescending.put("max", true);
+        final List<PivotDataSource.Row<Integer>> page = result.fetch(2, 3, byMaxDescending);
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(2 + i, result.indexOf(page.get(i), byMaxDescending));
+            assertEquals(9 - 2 - i, result.indexOf(page.get(i), new LinkedHashMap<>()));
+        }
+        assertEquals(-1, result.indexOf(new PivotDataSource.Row<>(Collections.emptyMap(), null), byMaxDescending));
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
     private void testSimpleAggregateOpNoGrouping(@NotNull AggregateFunction aggregate, @NotNull Object expectedValue) {
         final PivotDataSource<Integer> pivot = new InMemoryPivot<>();
         final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
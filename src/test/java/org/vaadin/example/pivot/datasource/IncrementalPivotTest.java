@@ -0,0 +1,101 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class IncrementalPivotTest {
+
+    private static final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+    private static final PivotProperty<Integer> tens = new PivotProperty<>("tens", it -> it / 10);
+
+    @Test
+    public void deltasMatchFullRecomputation() {
+        for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+            final Random random = new Random(11);
+            final List<Integer> items = new ArrayList<>();
+            final IncrementalPivot<Integer> pivot = new IncrementalPivot<>(
+                    setOf(new GroupBy<>(tens, false, "tens", false)),
+                    setOf(new Aggregate<>(identity, function, "value", false)),
+                    setOf("value"));
+            for (int i = 0; i < 2000; i++) {
+                final int operation = random.nextInt(3);
+                if (operation == 0 || items.isEmpty()) {
+                    final Integer item = random.nextInt(100);
+                    items.add(item);
+                    pivot.add(item);
+                } else if (operation == 1) {
+                    final Integer item = items.remove(random.nextInt(items.size()));
+                    assertTrue(pivot.remove(item));
+                } else {
+                    final Integer item = random.nextInt(100);
+                    pivot.update(items.set(random.nextInt(items.size()), item), item);
+                }
+                if (i % 100 == 0) {
+                    final PivotDataSource.PivotResult<Integer> expected = new InMemoryPivot<Integer>().computePivotRows(
+                            setOf(new GroupBy<>(tens, false, "tens", false)),
+                            setOf(new Aggregate<>(identity, function, "value", false)),
+                            setOf("value"), items, new PivotDataSource.PivotFilter());
+                    assertEquals(Utils.toCsv(sorted(expected)), Utils.toCsv(sorted(pivot.getResult(new PivotDataSource.PivotFilter()))), function + " at " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void removingMinimumRecomputesGroup() {
+        final IncrementalPivot<Integer> pivot = new IncrementalPivot<>(
+                setOf(new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.MIN, "min", false)),
+                setOf("min"));
+        pivot.addAll(setOf(3, 5, 7, 12, 15));
+        assertTrue(pivot.remove(3));
+        assertFalse(pivot.remove(3));
+        PivotDataSource.PivotResult<Integer> result = sorted(pivot.getResult(new PivotDataSource.PivotFilter()));
+        assertEquals("tens: null,identity (Min): null\n" +
+                "======\n" +
+                "0,5,\n" +
+                "1,12,\n" +
+                "======\n" +
+                "null,5,\n", Utils.toCsv(result));
+
+        pivot.update(5, 25);
+        pivot.remove(7);
+        final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+        filter.getFilterValues().put("tens", setOf(2));
+        result = sorted(pivot.getResult(filter));
+        assertEquals(2, pivot.getGroupCount());
+        assertEquals("tens: null,identity (Min): null\n" +
+                "======\n" +
+                "2,25,\n" +
+                "======\n" +
+                "null,25,\n", Utils.toCsv(result));
+        assertEquals(12, pivot.getResult(new PivotDataSource.PivotFilter()).grandTotalValues.get("min"));
+    }
+
+    @Test
+    public void updateOfMissingBeanFails() {
+        final IncrementalPivot<Integer> pivot = new IncrementalPivot<>(
+                setOf(new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false)),
+                setOf("sum"));
+        assertThrows(IllegalArgumentException.class, () -> pivot.update(1, 2));
+    }
+
+    /**
+     * Neither pivot guarantees the order of the rows; sort them by the group.
+     */
+    @NotNull
+    private static PivotDataSource.PivotResult<Integer> sorted(@NotNull PivotDataSource.PivotResult<Integer> result) {
+        final List<PivotDataSource.Row<Integer>> rows = new ArrayList<>(result.rows);
+        rows.sort(Comparator.comparing(row -> (Integer) row.get("tens")));
+        return new PivotDataSource.PivotResult<>(rows, result.columns, result.grandTotalValues);
+    }
+}
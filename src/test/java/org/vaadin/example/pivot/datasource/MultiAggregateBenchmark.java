@@ -0,0 +1,110 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares computing K aggregates per group one aggregate at a time ({@link Aggregate#computeAggregatedValue(java.util.Collection)},
+ * a stream per group per aggregate) with the single-pass accumulation {@link InMemoryPivot} uses. Not a unit test;
+ * run the {@link #main(String[])} method, e.g. from the IDE:
+ * the cost of every extra measure should drop from a full pass over the beans to a few accumulator calls per bean.
+ */
+public class MultiAggregateBenchmark {
+    private static final int ITEMS = 1_000_000;
+    private static final int GROUPS = 1_000;
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+
+    public static final class Trade {
+        final int region;
+        final double price;
+        final int quantity;
+        final double fee;
+
+        Trade(int region, double price, int quantity, double fee) {
+            this.region = region;
+            this.price = price;
+            this.quantity = quantity;
+            this.fee = fee;
+        }
+    }
+
+    public static void main(String[] args) {
+        final Random random = new Random(42);
+        final List<Trade> trades = new ArrayList<>(ITEMS);
+        for (int i = 0; i < ITEMS; i++) {
+            trades.add(new Trade(random.nextInt(GROUPS), random.nextDouble() * 100, random.nextInt(1000), random.nextDouble()));
+        }
+        final PivotProperty<Trade> region = new PivotProperty<>("Region", it -> it.region);
+        final List<PivotProperty<Trade>> measures = new ArrayList<>();
+        measures.add(new PivotProperty<>("Price", it -> it.price));
+        measures.add(new PivotProperty<>("Quantity", it -> it.quantity));
+        measures.add(new PivotProperty<>("Fee", it -> it.fee));
+        final AggregateFunctionEnum[] functions = {AggregateFunctionEnum.SUM, AggregateFunctionEnum.AVERAGE,
+                AggregateFunctionEnum.MIN, AggregateFunctionEnum.MAX};
+
+        // group once; only the aggregation is measured
+        final List<List<Trade>> groups = new ArrayList<>();
+        for (PivotDataSource.Row<Trade> row : new InMemoryPivot<Trade>().computePivotRows(
+                Utils.setOf(new GroupBy<>(region, false, "region", false)), Utils.setOf(), Collections.emptySet(),
+                trades, new PivotDataSource.PivotFilter()).rows) {
+            groups.add(row.getSourceBeans());
+        }
+
+        // the first round only warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            run(groups, measures, functions, round > 0);
+        }
+    }
+
+    private static void run(@NotNull List<List<Trade>> groups, @NotNull List<PivotProperty<Trade>> measures,
+                            @NotNull AggregateFunctionEnum[] functions, boolean print) {
+        if (print) {
+            System.out.println("measures  per-aggregate ms  single-pass ms");
+        }
+        double previousOld = 0;
+        double previousNew = 0;
+        for (int k = 1; k <= measures.size() * functions.length; k++) {
+            final List<Aggregate<Trade>> aggregates = new ArrayList<>();
+            for (int i = 0; i < k; i++) {
+                aggregates.add(new Aggregate<>(measures.get(i % measures.size()), functions[i / measures.size()], "a" + i, false));
+            }
+            final double perAggregate = time(() -> {
+                for (List<Trade> group : groups) {
+                    for (Aggregate<Trade> aggregate : aggregates) {
+                        aggregate.computeAggregatedValue(group);
+                    }
+                }
+            });
+            final double singlePass = time(() -> {
+                for (List<Trade> group : groups) {
+                    Aggregate.computeAggregatedValues(aggregates, group);
+                }
+            });
+            if (print) {
+                System.out.printf("%8d  %10.1f (%+6.1f)  %8.1f (%+6.1f)%n", k,
+                        perAggregate, perAggregate - previousOld, singlePass, singlePass - previousNew);
+            }
+            previousOld = perAggregate;
+            previousNew = singlePass;
+        }
+    }
+
+    /**
+     * @return the average duration of one run, in milliseconds.
+     */
+    private static double time(@NotNull Runnable run) {
+        for (int i = 0; i < WARMUP; i++) {
+            run.run();
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            run.run();
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+    }
+}
@@ -0,0 +1,207 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.randomRows;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class OffHeapDatasetTest {
+    private final PivotProperty<int[]> team = new PivotProperty<>("team", it -> it[0] == 0 ? null : "T" + it[0]);
+    private final PivotProperty<int[]> player = new PivotProperty<>("player", it -> it[1]);
+    private final PivotProperty<int[]> score = new PivotProperty<>("score", it -> it[2] - 20);
+
+    private OffHeapDataset<int[]> build(List<int[]> items, OffHeapDataset.Storage storage) {
+        // small segments, so that the rows span many of them
+        return new OffHeapDataset.Builder<>(Arrays.asList(team, player), Collections.singletonList(score), storage, 10)
+                .addAll(items.iterator())
+                .build();
+    }
+
+    @Test
+    public void offHeapResultMatchesColumnarResult() {
+        final List<int[]> items = randomRows(17, 20_000, 5, 300, 1000);
+        final PivotDataset<int[]> dataset = new PivotDataset<>(items);
+        final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+        filter.getFilterValues().put("team", new HashSet<>(Arrays.asList(null, "T1", "T3", "T4")));
+        for (OffHeapDataset.Storage storage : OffHeapDataset.Storage.values()) {
+            final OffHeapDataset<int[]> offHeap = build(items, storage);
+            for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+                final LinkedHashSet<GroupBy<int[]>> groupBy = setOf(new GroupBy<>(team, false, "team", false),
+                        new GroupBy<>(player, false, "player", false));
+                final LinkedHashSet<Aggregate<int[]>> aggregates = setOf(new Aggregate<>(score, function, "score", false),
+                        new Aggregate<>(score, AggregateFunctionEnum.COUNT, "count", false));
+                final String expected = Utils.toCsv(new InMemoryPivot<>(dataset).computePivotRows(
+                        groupBy, aggregates, setOf("score", "count"), items, filter));
+                // the items are ignored
+                final String actual = Utils.toCsv(new InMemoryPivot<>(offHeap).computePivotRows(
+                        groupBy, aggregates, setOf("score", "count"), Collections.emptyList(), filter));
+                assertEquals(expected, actual, storage + " " + function);
+            }
+        }
+    }
+
+    @Test
+    public void codesAreNarrowedToTheCardinality() {
+        final List<int[]> items = new ArrayList<>();
+        for (int i = 0; i < 70_000; i++) {
+            items.add(new int[]{i % 5, i, i % 300 == 0 ? -1 : i});
+        }
+        final PivotProperty<int[]> id = new PivotProperty<>("id", it -> it[1]);
+        final PivotProperty<int[]> bucket = new PivotProperty<>("bucket", it -> it[1] % 300);
+        final PivotProperty<int[]> nullableScore = new PivotProperty<>("score", it -> it[2] < 0 ? null : it[2]);
+        final OffHeapDataset<int[]> dataset = new OffHeapDataset.Builder<>(Arrays.asList(team, bucket, id),
+                Collections.singletonList(nullableScore), OffHeapDataset.Storage.DIRECT, 12).addAll(items.iterator()).build();
+        assertEquals(70_000, dataset.size());
+
+        final OffHeapDataset.GroupColumn teams = dataset.getGroupColumn(team);
+        assertEquals(1, teams.width);
+        assertEquals(Arrays.asList("T1", "T2", "T3", "T4", null), Arrays.asList(teams.dictionary));
+        assertEquals(2, dataset.getGroupColumn(bucket).width);
+        assertEquals(4, dataset.getGroupColumn(id).width);
+
+        final OffHeapDataset.MeasureColumn scores = dataset.getMeasureColumn(nullableScore);
+        assertEquals(PivotDataset.NumberType.INTEGER, scores.getType());
+        final OffHeapDataset.Cursor cursor = dataset.cursor(Arrays.asList(teams, dataset.getGroupColumn(id)), Collections.singletonList(scores));
+        int rows = 0;
+        while (cursor.next()) {
+            final int row = cursor.getRow();
+            assertEquals(team.getValue(items.get(row)), teams.getValue(cursor.getCode(0)));
+            assertEquals(row, dataset.getGroupColumn(id).getValue(cursor.getCode(1)));
+            assertEquals(row % 300 == 0, cursor.isNull(0));
+            assertEquals(nullableScore.getValue(items.get(row)), scores.getValue(row));
+            rows++;
+        }
+        assertEquals(70_000, rows);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void mixedNumbersAreWidened() {
+        final PivotProperty<Number> value = new PivotProperty<>("value", it -> it);
+        final OffHeapDataset<Number> integral = OffHeapDataset.<Number>builder(Collections.emptyList(),
+                Collections.singletonList(value), OffHeapDataset.Storage.DIRECT).add(1).add(2L).build();
+        assertEquals(PivotDataset.NumberType.LONG, integral.getMeasureColumn(value).getType());
+        assertEquals(2L, integral.getMeasureColumn(value).getValue(1));
+
+        final OffHeapDataset<Number> floating = OffHeapDataset.<Number>builder(Collections.emptyList(),
+                Collections.singletonList(value), OffHeapDataset.Storage.DIRECT).add(1).add(2.5).add(3L).build();
+        final OffHeapDataset.MeasureColumn column = floating.getMeasureColumn(value);
+        assertEquals(PivotDataset.NumberType.DOUBLE, column.getType());
+        assertEquals(1.0, column.getDouble(0));
+        assertEquals(2.5, column.getDouble(1));
+        assertEquals(3.0, column.getDouble(2));
+    }
+
+    @Test
+    public void invalidInputIsRejected() {
+        final PivotProperty<Object> value = new PivotProperty<>("value", it -> it);
+        final OffHeapDataset.Builder<Object> builder = OffHeapDataset.builder(Collections.emptyList(),
+                Collections.singletonList(value), OffHeapDataset.Storage.DIRECT);
+        assertThrows(IllegalArgumentException.class, () -> builder.add("not a number"));
+        final OffHeapDataset<Object> dataset = builder.add(1).build();
+        assertThrows(IllegalStateException.class, () -> builder.add(2));
+        assertThrows(IllegalArgumentException.class, () -> dataset.getGroupColumn(value));
+    }
+
+    /**
+     * Pivots more rows than the heap of the JVM could hold as beans: a JVM with a 32 MB heap builds and pivots a dataset
+     * of 12 million rows, 132 MB of columns.
+     */
+    @Test
+    public void datasetLargerThanTheHeap() throws Exception {
+        for (OffHeapDataset.Storage storage : OffHeapDataset.Storage.values()) {
+            final String classPath = String.join(File.pathSeparator,
+                    System.getProperty("java.class.path"),
+                    codeSource(OffHeapDatasetTest.class),
+                    codeSource(OffHeapDataset.class),
+                    codeSource(LoggerFactory.class));
+            final Process process = new ProcessBuilder(
+                    new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-Xmx32m", "-XX:MaxDirectMemorySize=512m", "-cp", classPath,
+                    LargerThanHeap.class.getName(), storage.name(), "12000000")
+                    .redirectErrorStream(true)
+                    .start();
+            final String output = read(process.getInputStream());
+            assertTrue(process.waitFor(5, TimeUnit.MINUTES), output);
+            assertEquals(0, process.exitValue(), output);
+            assertTrue(output.contains("OK 12000000 rows"), output);
+        }
+    }
+
+    private static String codeSource(Class<?> clazz) throws Exception {
+        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    private static String read(InputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Run in a JVM with a small heap: streams the rows through a single reused bean, pivots them and checks the sums.
+     */
+    public static final class LargerThanHeap {
+        public static void main(String[] args) {
+            final OffHeapDataset.Storage storage = OffHeapDataset.Storage.valueOf(args[0]);
+            final int count = Integer.parseInt(args[1]);
+            final PivotProperty<long[]> team = new PivotProperty<>("team", it -> (int) (it[0] % 7));
+            final PivotProperty<long[]> player = new PivotProperty<>("player", it -> (int) (it[0] % 1000));
+            final PivotProperty<long[]> value = new PivotProperty<>("value", it -> it[0]);
+            final long[] bean = new long[1];
+            final OffHeapDataset<long[]> dataset = OffHeapDataset.builder(Arrays.asList(team, player),
+                    Collections.singletonList(value), storage).addAll(new Iterator<long[]>() {
+                private long row;
+
+                @Override
+                public boolean hasNext() {
+                    return row < count;
+                }
+
+                @Override
+                public long[] next() {
+                    // the same bean for every row; the dataset keeps the values only
+                    bean[0] = row++;
+                    return bean;
+                }
+            }).build();
+
+            final PivotDataSource.PivotResult<long[]> result = new InMemoryPivot<>(dataset).computePivotRows(
+                    setOf(new GroupBy<>(team, false, "team", false)),
+                    setOf(new Aggregate<>(value, AggregateFunctionEnum.SUM, "sum", false),
+                            new Aggregate<>(value, AggregateFunctionEnum.COUNT, "count", false)),
+                    new HashSet<>(), Collections.emptyList(), new PivotDataSource.PivotFilter());
+            final long[] sums = new long[7];
+            final long[] counts = new long[7];
+            for (long i = 0; i < count; i++) {
+                sums[(int) (i % 7)] += i;
+                counts[(int) (i % 7)]++;
+            }
+            if (result.rows.size() != 7) {
+                System.out.println("FAILED: " + result.rows.size() + " rows");
+                System.exit(1);
+            }
+            for (PivotDataSource.Row<long[]> row : result.rows) {
+                final int t = (Integer) row.get("team");
+                if (((Number) row.get("sum")).doubleValue() != sums[t] || ((Number) row.get("count")).longValue() != counts[t]) {
+                    System.out.println("FAILED: " + row);
+                    System.exit(1);
+                }
+            }
+            System.out.println("OK " + count + " rows, " + dataset);
+        }
+    }
+}
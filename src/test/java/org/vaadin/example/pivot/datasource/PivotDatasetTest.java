@@ -0,0 +1,79 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+import org.vaadin.example.Player;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class PivotDatasetTest {
+
+    @Test
+    public void dictionaryIsSorted() {
+        final PivotProperty<String> identity = new PivotProperty<>("identity", it -> it);
+        final PivotDataset<String> dataset = new PivotDataset<>(Arrays.asList("b", null, "a", "c", "a"));
+        final PivotDataset.GroupColumn column = dataset.getGroupColumn(identity);
+
+        assertEquals(4, column.getCardinality());
+        assertArrayEquals(new Object[]{"a", "b", "c", null}, column.dictionary);
+        assertArrayEquals(new int[]{1, 3, 0, 2, 0}, column.codes);
+        assertSame(column, dataset.getGroupColumn(identity));
+    }
+
+    @Test
+    public void measureColumnTypes() {
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> half = new PivotProperty<>("half", it -> it / 2f);
+        final PivotProperty<Integer> mixed = new PivotProperty<>("mixed", it -> it % 2 == 0 ? (Number) it : (Number) (long) it);
+        final PivotDataset<Integer> dataset = new PivotDataset<>(Arrays.asList(1, 2, 3), Collections.emptyList(), Arrays.asList(identity, half, mixed));
+
+        final PivotDataset.MeasureColumn ints = dataset.getMeasureColumn(identity);
+        assertEquals(PivotDataset.NumberType.INTEGER, ints.getType());
+        assertTrue(ints.isPrimitive());
+        assertEquals(2, ints.getValue(1));
+
+        final PivotDataset.MeasureColumn floats = dataset.getMeasureColumn(half);
+        assertEquals(PivotDataset.NumberType.FLOAT, floats.getType());
+        assertEquals(1.5f, floats.getValue(2));
+
+        final PivotDataset.MeasureColumn objects = dataset.getMeasureColumn(mixed);
+        assertEquals(PivotDataset.NumberType.OBJECT, objects.getType());
+        assertFalse(objects.isPrimitive());
+        assertEquals(3L, objects.getValue(2));
+    }
+
+    @Test
+    public void columnarPivotMatchesBeanPivot() {
+        final List<Player> players = Player.ALL_PLAYERS;
+        final PivotProperty<Player> team = new PivotProperty<>("Team", Player::getTeam);
+        final PivotProperty<Player> position = new PivotProperty<>("Position", Player::getPosition);
+        final PivotProperty<Player> height = new PivotProperty<>("Height", Player::getHeightInches);
+        final PivotProperty<Player> age = new PivotProperty<>("Age", Player::getAge);
+        final PivotDataset<Player> dataset = new PivotDataset<>(players, Arrays.asList(team, position), Arrays.asList(height, age));
+
+        for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+            final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+            filter.getFilterValues().put("position", new HashSet<>(Arrays.asList("Catcher", "Shortstop")));
+            final PivotDataSource.PivotResult<Player> expected = new InMemoryPivot<Player>().computePivotRows(
+                    setOf(new GroupBy<>(team, false, "team", false), new GroupBy<>(position, false, "position", false)),
+                    setOf(new Aggregate<>(height, function, "height", false), new Aggregate<>(age, function, "age", false)),
+                    setOf("height", "age"),
+                    players,
+                    filter);
+            final PivotDataSource.PivotResult<Player> actual = new InMemoryPivot<>(dataset).computePivotRows(
+                    setOf(new GroupBy<>(team, false, "team", false), new GroupBy<>(position, false, "position", false)),
+                    setOf(new Aggregate<>(height, function, "height", false), new Aggregate<>(age, function, "age", false)),
+                    setOf("height", "age"),
+                    players,
+                    filter);
+
+            assertEquals(Utils.toCsv(expected), Utils.toCsv(actual), function.toString());
+            assertEquals(expected.rows.get(0).getSourceBeans(), actual.rows.get(0).getSourceBeans());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class PivotPropertyTest {
+    private static final PivotProperty<long[]> group = PivotProperty.ofLong("group", it -> it[0]);
+    private static final PivotProperty<long[]> boxedGroup = new PivotProperty<>("group", it -> it[0]);
+
+    @Test
+    public void primitivePropertiesBoxLikeTheNumberApi() {
+        final PivotProperty<long[]> ints = PivotProperty.ofInt("int", it -> (int) it[1]);
+        final PivotProperty<long[]> longs = PivotProperty.ofLong("long", it -> it[1]);
+        final PivotProperty<long[]> doubles = PivotProperty.ofDouble("double", it -> it[1] / 4.0);
+        final long[] bean = {0, 7};
+        assertEquals(7, ints.getValue(bean));
+        assertEquals(7L, longs.getValue(bean));
+        assertEquals(1.75, doubles.getValue(bean));
+        assertEquals(PivotDataset.NumberType.INTEGER, ints.getPrimitiveType());
+        assertEquals(PivotDataset.NumberType.DOUBLE, doubles.getPrimitiveType());
+        assertNull(boxedGroup.getPrimitiveType());
+    }
+
+    @Test
+    public void integralSumIsExact() {
+        // even the compensated double sum of group 0 loses the one: 2^62 + 1 is not a double
+        final List<long[]> items = Arrays.asList(new long[]{0, 1L << 62}, new long[]{0, 1}, new long[]{0, -(1L << 62)}, new long[]{1, 2});
+        final PivotProperty<long[]> value = PivotProperty.ofLong("value", it -> it[1]);
+        final PivotProperty<long[]> boxed = new PivotProperty<>("value", it -> it[1]);
+        final Aggregate<long[]> sum = new Aggregate<>(value, AggregateFunctionEnum.SUM, "sum", false);
+
+        assertEquals(1.0, sum.computeAggregatedValue(items.subList(0, 3)));
+        assertEquals(0.0, new Aggregate<>(boxed, AggregateFunctionEnum.SUM, "sum", false).computeAggregatedValue(items.subList(0, 3)));
+
+        final LinkedHashSet<GroupBy<long[]>> groupBy = setOf(new GroupBy<>(group, false, "group", false));
+        final String expected = "group: null,value (Sum): null\n" +
+                "======\n" +
+                "0,1.0,\n" +
+                "1,2.0,\n" +
+                "======\n" +
+                "null,3.0,\n";
+        assertEquals(expected, Utils.toCsv(new InMemoryPivot<long[]>().computePivotRows(groupBy, setOf(sum), setOf("sum"),
+                items, new PivotDataSource.PivotFilter())));
+        assertEquals(expected, Utils.toCsv(new InMemoryPivot<>(new PivotDataset<>(items)).computePivotRows(groupBy,
+                setOf(sum), setOf("sum"), items, new PivotDataSource.PivotFilter())));
+
+        final IncrementalPivot<long[]> incremental = new IncrementalPivot<>(groupBy, setOf(sum), setOf("sum"));
+        incremental.addAll(items);
+        assertEquals(3.0, incremental.getResult(new PivotDataSource.PivotFilter()).grandTotalValues.get("sum"));
+        incremental.remove(items.get(1));
+        assertEquals(2.0, incremental.getResult(new PivotDataSource.PivotFilter()).grandTotalValues.get("sum"));
+    }
+
+    @Test
+    public void longSumOverflowBecomesADouble() {
+        final List<long[]> items = Arrays.asList(new long[]{0, Long.MAX_VALUE}, new long[]{0, Long.MAX_VALUE}, new long[]{1, 1});
+        final LinkedHashSet<GroupBy<long[]>> groupBy = setOf(new GroupBy<>(group, false, "group", false));
+        final LinkedHashSet<Aggregate<long[]>> sum = setOf(new Aggregate<>(PivotProperty.ofLong("value", it -> it[1]),
+                AggregateFunctionEnum.SUM, "value", false));
+        for (boolean columnar : new boolean[]{false, true}) {
+            final InMemoryPivot<long[]> pivot = columnar ? new InMemoryPivot<>(new PivotDataset<>(items)) : new InMemoryPivot<>();
+            final PivotDataSource.PivotResult<long[]> result = pivot.computePivotRows(groupBy, sum, setOf("value"), items,
+                    new PivotDataSource.PivotFilter());
+            // the same value as the Number API, and the same type as the rows which do not overflow
+            assertEquals(1.8446744073709552E19, result.getValue(0, "value"));
+            assertEquals(1.0, result.getValue(1, "value"));
+            assertEquals(1.8446744073709552E19, result.grandTotalValues.get("value"));
+        }
+    }
+
+    @Test
+    public void exactSumSurvivesMergeAndSerialization() throws IOException, ClassNotFoundException {
+        final Accumulator exact = Accumulators.create(AggregateFunctionEnum.SUM, PivotDataset.NumberType.LONG, true);
+        exact.accumulate(Long.MAX_VALUE - 1);
+        final Accumulator merged = AggregateFunctionEnum.SUM.createAccumulator();
+        merged.merge(exact);
+        assertEquals((double) (Long.MAX_VALUE - 1), merged.finish());
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(exact);
+            out.writeObject(PivotProperty.ofLong("value", (long[] it) -> it[1]));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            final Accumulator deserialized = (Accumulator) in.readObject();
+            assertEquals((double) (Long.MAX_VALUE - 1), deserialized.finish());
+            @SuppressWarnings("unchecked")
+            final PivotProperty<long[]> property = (PivotProperty<long[]>) in.readObject();
+            assertEquals(5L, property.getValue(new long[]{0, 5}));
+
+            // the SUM of a long property is always a Double: an overflow falls back to the double sum
+            deserialized.accumulate(2L);
+            assertEquals(0x1p63, deserialized.finish());
+        }
+        final Accumulator mixed = Accumulators.create(AggregateFunctionEnum.SUM, null, true);
+        mixed.accumulate((Object) 2);
+        assertThrows(IllegalArgumentException.class, () -> mixed.accumulate((Object) 0.5));
+        assertThrows(IllegalArgumentException.class, () -> mixed.accumulate(0.5));
+        final Accumulator doubles = AggregateFunctionEnum.SUM.createAccumulator();
+        doubles.accumulate((Object) 0.5);
+        assertThrows(IllegalArgumentException.class, () -> mixed.merge(doubles));
+    }
+
+    @Test
+    public void sumTypeFollowsThePropertyType() {
+        final List<long[]> items = Arrays.asList(new long[]{0, 1}, new long[]{1, 2}, new long[]{1, 3});
+        final LinkedHashSet<GroupBy<long[]>> groupBy = setOf(new GroupBy<>(group, false, "group", false));
+        for (boolean columnar : new boolean[]{false, true}) {
+            final InMemoryPivot<long[]> pivot = columnar ? new InMemoryPivot<>(new PivotDataset<>(items)) : new InMemoryPivot<>();
+            final PivotDataSource.PivotResult<long[]> ints = pivot.computePivotRows(groupBy,
+                    setOf(new Aggregate<>(PivotProperty.ofInt("value", it -> (int) it[1]), AggregateFunctionEnum.SUM, "value", false)),
+                    setOf("value"), items, new PivotDataSource.PivotFilter());
+            final PivotDataSource.PivotResult<long[]> longs = pivot.computePivotRows(groupBy,
+                    setOf(new Aggregate<>(PivotProperty.ofLong("value", it -> it[1]), AggregateFunctionEnum.SUM, "value", false)),
+                    setOf("value"), items, new PivotDataSource.PivotFilter());
+            final PivotDataSource.PivotResult<long[]> doubles = pivot.computePivotRows(groupBy,
+                    setOf(new Aggregate<>(PivotProperty.ofDouble("value", it -> it[1]), AggregateFunctionEnum.SUM, "value", false)),
+                    setOf("value"), items, new PivotDataSource.PivotFilter());
+            for (int i = 0; i < ints.size(); i++) {
+                assertEquals(Long.class, ints.getValue(i, "value").getClass());
+                assertEquals(Double.class, longs.getValue(i, "value").getClass());
+                assertEquals(Double.class, doubles.getValue(i, "value").getClass());
+            }
+            assertEquals(6L, ints.grandTotalValues.get("value"));
+            assertEquals(6.0, longs.grandTotalValues.get("value"));
+            assertEquals(6.0, doubles.grandTotalValues.get("value"));
+        }
+    }
+}
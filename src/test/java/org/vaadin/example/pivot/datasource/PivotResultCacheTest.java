@@ -0,0 +1,171 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.compute;
+import static org.vaadin.example.pivot.datasource.Utils.key;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class PivotResultCacheTest {
+    private final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+    private final GroupBy<Integer> byValue = new GroupBy<>(identity, false, "value", false);
+    private final GroupBy<Integer> byParity = new GroupBy<>(new PivotProperty<>("parity", it -> it % 2), false, "parity", false);
+    private final Aggregate<Integer> count = new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false);
+
+    @Test
+    public void keyIsCanonical() {
+        final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+        filter.getFilterValues().put("value", new LinkedHashSet<>(Arrays.asList(1, 2, 3)));
+        final PivotQueryKey key = PivotQueryKey.of(Arrays.asList(byValue, byParity), Arrays.asList(count),
+                new LinkedHashSet<>(Arrays.asList("count", "value")), filter, 1);
+
+        final PivotDataSource.PivotFilter sameFilter = new PivotDataSource.PivotFilter();
+        sameFilter.getFilterValues().put("value", new LinkedHashSet<>(Arrays.asList(3, 2, 1)));
+        final PivotQueryKey same = PivotQueryKey.of(Arrays.asList(byValue, byParity), Arrays.asList(count),
+                new LinkedHashSet<>(Arrays.asList("value", "count")), sameFilter, 1);
+        assertEquals(key, same);
+        assertEquals(key.hashCode(), same.hashCode());
+
+        // the key is a snapshot of the filter
+        filter.getFilterValues().get("value").add(4);
+        assertEquals(key, same);
+
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byParity, byValue), Arrays.asList(count), setOf("count", "value"), sameFilter, 1));
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byValue, byParity.asColumnGroup()), Arrays.asList(count), setOf("count", "value"), sameFilter, 1));
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byValue, byParity), Arrays.asList(count.withFunction(AggregateFunctionEnum.SUM)), setOf("count", "value"), sameFilter, 1));
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byValue, byParity), Arrays.asList(count), setOf("count"), sameFilter, 1));
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byValue, byParity), Arrays.asList(count), setOf("count", "value"), new PivotDataSource.PivotFilter(), 1));
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byValue, byParity), Arrays.asList(count), setOf("count", "value"), sameFilter, 2));
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byValue.withFilterEnabled(true), byParity), Arrays.asList(count), setOf("count", "value"), sameFilter, 1));
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byValue, byParity), Arrays.asList(count.withFilterEnabled(true)), setOf("count", "value"), sameFilter, 1));
+
+        // the same caption and ID, but a different value provider
+        final GroupBy<Integer> byRemainder = new GroupBy<>(new PivotProperty<>("parity", it -> it % 3), false, "parity", false);
+        assertNotEquals(key, PivotQueryKey.of(Arrays.asList(byValue, byRemainder), Arrays.asList(count), setOf("count", "value"), sameFilter, 1));
+        final GroupBy<Integer> sameParity = new GroupBy<>(new PivotProperty<>("parity", byParity.property.valueProvider), false, "parity", false);
+        assertEquals(key, PivotQueryKey.of(Arrays.asList(byValue, sameParity), Arrays.asList(count), setOf("count", "value"), sameFilter, 1));
+    }
+
+    @Test
+    public void togglingTheFilterIsNotServedFromCache() {
+        // as PivotConfigurationPanel does when the Filter checkbox of a clause is toggled: same IDs, other flag
+        final PivotDataset<Integer> dataset = new PivotDataset<>(Arrays.asList(1, 2, 3, 4, 5));
+        final PivotResultCache<Integer> cache = new PivotResultCache<>();
+        final PivotDataSource.PivotResult<Integer> unfiltered = cache.computeIfAbsent(key(byValue, count, dataset), () -> compute(byValue, count, dataset));
+        assertFalse(unfiltered.hasEnabledFilters());
+
+        final GroupBy<Integer> filtered = byValue.withFilterEnabled(true);
+        final PivotDataSource.PivotResult<Integer> result = cache.computeIfAbsent(key(filtered, count, dataset), () -> compute(filtered, count, dataset));
+        assertNotSame(unfiltered, result);
+        assertTrue(result.hasEnabledFilters());
+        assertTrue(result.getColumn("value").isFilterEnabled());
+
+        final Aggregate<Integer> filteredCount = count.withFilterEnabled(true);
+        final PivotDataSource.PivotResult<Integer> aggregateFiltered = cache.computeIfAbsent(
+                PivotQueryKey.of(Collections.singletonList(byValue), Collections.singletonList(filteredCount), setOf(),
+                        new PivotDataSource.PivotFilter(), dataset.getVersion()),
+                () -> new InMemoryPivot<>(dataset).computePivotRows(setOf(byValue), setOf(filteredCount), setOf(),
+                        dataset.getItems(), new PivotDataSource.PivotFilter()));
+        assertTrue(aggregateFiltered.getColumn("count").isFilterEnabled());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        final PivotDataset<Integer> dataset = new PivotDataset<>(Arrays.asList(1, 2, 3, 4, 5));
+        final PivotResultCache<Integer> cache = new PivotResultCache<>(2, Long.MAX_VALUE);
+        final PivotQueryKey byValueKey = key(byValue, count, dataset);
+        final PivotQueryKey byParityKey = key(byParity, count, dataset);
+        final PivotQueryKey bothKey = PivotQueryKey.of(Arrays.asList(byValue, byParity), Arrays.asList(count), setOf(), new PivotDataSource.PivotFilter(), dataset.getVersion());
+
+        final PivotDataSource.PivotResult<Integer> byValueResult = cache.computeIfAbsent(byValueKey, () -> compute(byValue, count, dataset));
+        assertEquals(5, byValueResult.size());
+        assertSame(byValueResult, cache.computeIfAbsent(byValueKey, () -> fail("should be cached")));
+        cache.computeIfAbsent(byParityKey, () -> compute(byParity, count, dataset));
+        // byValue is now the least recently used one
+        assertNotNull(cache.get(byValueKey));
+        cache.computeIfAbsent(bothKey, () -> compute(byValue, count, dataset));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(byParityKey));
+        assertSame(byValueResult, cache.get(byValueKey));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void evictsByWeight() {
+        final PivotDataset<Integer> dataset = new PivotDataset<>(Arrays.asList(1, 2, 3, 4, 5));
+        final PivotDataSource.PivotResult<Integer> byValueResult = compute(byValue, count, dataset);
+        final PivotDataSource.PivotResult<Integer> byParityResult = compute(byParity, count, dataset);
+        final long byValueWeight = PivotResultCache.weigh(byValueResult);
+        final long byParityWeight = PivotResultCache.weigh(byParityResult);
+        assertTrue(byValueWeight > byParityWeight);
+
+        final PivotResultCache<Integer> cache = new PivotResultCache<>(10, byValueWeight);
+        cache.put(key(byParity, count, dataset), byParityResult);
+        assertEquals(byParityWeight, cache.getWeight());
+        cache.put(key(byValue, count, dataset), byValueResult);
+        assertEquals(1, cache.size());
+        assertEquals(byValueWeight, cache.getWeight());
+        assertNull(cache.get(key(byParity, count, dataset)));
+
+        // too heavy to be cached at all
+        final PivotResultCache<Integer> small = new PivotResultCache<>(10, byParityWeight);
+        small.put(key(byValue, count, dataset), byValueResult);
+        assertEquals(0, small.size());
+        assertEquals(0, small.getWeight());
+    }
+
+    @Test
+    public void weightFollowsWhatTheResultHolds() {
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            items.add(i);
+        }
+        final PivotDataset<Integer> dataset = new PivotDataset<>(items);
+        final PivotDataSource.PivotResult<Integer> all = new InMemoryPivot<>(dataset).computePivotRows(setOf(byValue), setOf(count),
+                setOf("count"), items, new PivotDataSource.PivotFilter());
+        // the states and the rows of every group, although no row has been created
+        assertTrue(PivotResultCache.weigh(all) >= 100_000L * (SpillingAggregation.GROUP_BYTES + SpillingAggregation.STATE_BYTES + 4));
+        assertEquals(PivotResultCache.weigh(all), PivotResultCache.weigh(all.asReadOnly()));
+
+        // a limited result keeps the shown groups only
+        final PivotDataSource.PivotResult<Integer> top = new InMemoryPivot<>(dataset).computePivotRows(setOf(byValue), setOf(count),
+                setOf("count"), items, new PivotDataSource.PivotFilter(), PivotOptions.NONE.withTop("count", 20));
+        assertTrue(PivotResultCache.weigh(top) < PivotResultCache.weigh(all) / 100, String.valueOf(PivotResultCache.weigh(top)));
+
+        // the group-by column encoded for the computation only is held by the result as well
+        final PivotDataSource.PivotResult<Integer> beans = new InMemoryPivot<Integer>().computePivotRows(setOf(byValue), setOf(count),
+                setOf("count"), items, new PivotDataSource.PivotFilter());
+        assertTrue(PivotResultCache.weigh(beans) > PivotResultCache.weigh(all));
+    }
+
+    @Test
+    public void invalidation() {
+        final PivotDataset<Integer> dataset = new PivotDataset<>(Arrays.asList(1, 2, 3));
+        final PivotDataset<Integer> changed = new PivotDataset<>(Arrays.asList(1, 2, 3, 4));
+        assertTrue(changed.getVersion() > dataset.getVersion());
+        assertNotEquals(key(byValue, count, dataset), key(byValue, count, changed));
+
+        final PivotResultCache<Integer> cache = new PivotResultCache<>();
+        cache.put(key(byValue, count, dataset), compute(byValue, count, dataset));
+        cache.put(key(byParity, count, dataset), compute(byParity, count, dataset));
+        cache.put(key(byValue, count, changed), compute(byValue, count, changed));
+        cache.invalidate(dataset.getVersion());
+        assertEquals(1, cache.size());
+        assertEquals(4, cache.get(key(byValue, count, changed)).size());
+        assertEquals(PivotResultCache.weigh(cache.get(key(byValue, count, changed))), cache.getWeight());
+
+        cache.invalidate();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertNull(cache.get(key(byValue, count, changed)));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+}
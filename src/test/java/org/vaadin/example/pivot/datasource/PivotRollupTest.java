@@ -0,0 +1,104 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class PivotRollupTest {
+
+    private static final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+    private static final PivotProperty<Integer> hundreds = new PivotProperty<>("hundreds", it -> it / 100);
+    private static final PivotProperty<Integer> tens = new PivotProperty<>("tens", it -> it / 10 % 10);
+
+    @Test
+    public void everyLevelMatchesGroupingByPrefix() {
+        final List<Integer> items = new ArrayList<>();
+        final Random random = new Random(5);
+        for (int i = 0; i < 5000; i++) {
+            items.add(random.nextInt(1000));
+        }
+        final GroupBy<Integer> byHundreds = new GroupBy<>(hundreds, false, "hundreds", false);
+        final GroupBy<Integer> byTens = new GroupBy<>(tens, false, "tens", false);
+        final InMemoryPivot<Integer> pivot = new InMemoryPivot<>();
+        for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+            final Aggregate<Integer> aggregate = new Aggregate<>(identity, function, "value", false);
+            final PivotRollup<Integer> rollup = pivot.computeRollup(setOf(byHundreds, byTens), setOf(aggregate),
+                    items, new PivotDataSource.PivotFilter());
+            assertEquals(2, rollup.getDepth());
+            assertEquals(100, rollup.getRows(2).size());
+            assertEquals(10, rollup.getRows(1).size());
+
+            final List<List<GroupBy<Integer>>> prefixes = Arrays.asList(
+                    Collections.emptyList(), Collections.singletonList(byHundreds), Arrays.asList(byHundreds, byTens));
+            for (int level = 0; level <= 2; level++) {
+                final Map<List<Object>, Object> expected = new HashMap<>();
+                for (PivotDataSource.Row<Integer> row : pivot.computePivotRows(new LinkedHashSet<>(prefixes.get(level)),
+                        setOf(aggregate), setOf(), items, new PivotDataSource.PivotFilter()).rows) {
+                    final List<Object> key = new ArrayList<>();
+                    for (GroupBy<Integer> clause : prefixes.get(level)) {
+                        key.add(row.get(clause.id));
+                    }
+                    expected.put(key, row.get("value"));
+                }
+                final Map<List<Object>, Object> actual = new HashMap<>();
+                for (PivotDataSource.Row<Integer> row : rollup.getRows(level)) {
+                    assertEquals(level, row.getLevel());
+                    actual.put(row.getKey(), row.get("value"));
+                }
+                if (function == AggregateFunctionEnum.SUM || function == AggregateFunctionEnum.AVERAGE) {
+                    // merged sums may differ in the last bits
+                    assertEquals(expected.keySet(), actual.keySet());
+                    for (List<Object> key : expected.keySet()) {
+                        assertEquals(((Number) expected.get(key)).doubleValue(), ((Number) actual.get(key)).doubleValue(), 1e-9, function + " " + key);
+                    }
+                } else {
+                    assertEquals(expected, actual, function + " at level " + level);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rowsKnowTheirParent() {
+        final PivotRollup<Integer> rollup = new InMemoryPivot<Integer>().computeRollup(
+                setOf(new GroupBy<>(hundreds, false, "hundreds", false), new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false)),
+                Arrays.asList(1, 12, 15, 112, 250), new PivotDataSource.PivotFilter());
+
+        final PivotDataSource.Row<Integer> grandTotal = rollup.getGrandTotal();
+        assertNotNull(grandTotal);
+        assertEquals(Collections.emptyList(), grandTotal.getKey());
+        assertNull(grandTotal.getParentKey());
+        assertEquals(390.0, grandTotal.get("sum"));
+
+        final List<PivotDataSource.Row<Integer>> hundredsRows = rollup.getChildren(grandTotal);
+        assertEquals(3, hundredsRows.size());
+        for (PivotDataSource.Row<Integer> row : hundredsRows) {
+            assertEquals(1, row.getLevel());
+            assertEquals(Collections.emptyList(), row.getParentKey());
+            for (PivotDataSource.Row<Integer> child : rollup.getChildren(row)) {
+                assertEquals(row.getKey(), child.getParentKey());
+                assertEquals(row.get("hundreds"), child.get("hundreds"));
+                assertTrue(rollup.getChildren(child).isEmpty());
+            }
+        }
+        final PivotDataSource.Row<Integer> zero = rollup.getRows(1).stream()
+                .filter(it -> it.getKey().equals(Collections.singletonList(0))).findAny().get();
+        assertEquals(28.0, zero.get("sum"));
+        assertEquals(2, rollup.getChildren(zero).size());
+
+        assertTrue(new InMemoryPivot<Integer>().computeRollup(setOf(new GroupBy<>(tens, false, "tens", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false)),
+                Collections.emptyList(), new PivotDataSource.PivotFilter()).getRows(0).isEmpty());
+    }
+}
@@ -0,0 +1,44 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class RowSetTest {
+
+    @Test
+    public void unionIsSortedAndDistinct() {
+        final int[] rows = {1, 4, 7, 0, 3, 4};
+        final RowSet union = RowSet.union(Arrays.asList(RowSet.slice(rows, 0, 3), RowSet.slice(rows, 3, 6)));
+        assertArrayEquals(new int[]{0, 1, 3, 4, 7}, union.stream().toArray());
+        assertEquals(5, union.size());
+        assertEquals(3, union.get(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> union.get(5));
+        assertEquals(Arrays.asList("a", "b", "d", "e", "h"), union.asList(Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h")));
+    }
+
+    @Test
+    public void collapsedRowsReferenceOrdinals() {
+        final List<Integer> items = Arrays.asList(5, 12, 7, 15, 21, 3);
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> tens = new PivotProperty<>("tens", it -> it / 10);
+        final PivotProperty<Integer> odd = new PivotProperty<>("odd", it -> it % 2 == 1);
+        final PivotDataSource<Integer> pivot = new ColumnGroupingPivotDataSource<>(new InMemoryPivot<>(), "Grand Total");
+        final PivotDataSource.PivotResult<Integer> result = pivot.computePivotRows(
+                setOf(new GroupBy<>(tens, false, "tens", false), new GroupBy<>(odd, true, "odd", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.SUM, "sum", false)),
+                setOf(), items, new PivotDataSource.PivotFilter());
+
+        final PivotDataSource.Row<Integer> ones = result.rows.stream().filter(it -> it.get("tens").equals(0)).findAny().get();
+        assertArrayEquals(new int[]{0, 2, 5}, ones.getMembers().stream().toArray());
+        assertEquals(Arrays.asList(5, 7, 3), ones.getSourceBeans());
+        assertEquals(15.0, ones.get("Grand Total-sum"));
+        final PivotDataSource.Row<Integer> tenths = result.rows.stream().filter(it -> it.get("tens").equals(1)).findAny().get();
+        assertEquals(Arrays.asList(12, 15), tenths.getSourceBeans());
+        assertEquals(27.0, tenths.get("Grand Total-sum"));
+    }
+}
@@ -0,0 +1,165 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.compute;
+import static org.vaadin.example.pivot.datasource.Utils.key;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class SharedPivotCacheTest {
+    private final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+    private final GroupBy<Integer> byValue = new GroupBy<>(identity, false, "value", false);
+    private final GroupBy<Integer> byParity = new GroupBy<>(new PivotProperty<>("parity", it -> it % 2), false, "parity", false);
+    private final Aggregate<Integer> count = new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false);
+
+    @Test
+    public void sessionsShareTheResult() throws Exception {
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            items.add(i);
+        }
+        final SharedPivotCache cache = new SharedPivotCache(SharedPivotCache.DEFAULT_MAX_WEIGHT);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<PivotDataSource.PivotResult<Integer>>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> {
+                    final PivotDataset<Integer> dataset = cache.getDataset(items, Collections.singletonList(byParity.property), Collections.emptyList());
+                    return cache.computeIfAbsent(key(byParity, count, dataset), () -> compute(byParity, count, dataset));
+                }));
+            }
+            final PivotDataSource.PivotResult<Integer> first = results.get(0).get();
+            for (Future<PivotDataSource.PivotResult<Integer>> result : results) {
+                assertSame(first, result.get());
+            }
+            assertTrue(first.isReadOnly());
+            assertEquals(2, first.size());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, cache.size());
+        assertEquals(100, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    public void propertiesSharingACaptionDoNotShareResults() {
+        final List<Integer> items = Arrays.asList(1, 2, 3, 4, 5);
+        final SharedPivotCache cache = new SharedPivotCache(SharedPivotCache.DEFAULT_MAX_WEIGHT);
+        // another panel registers a different property under the same caption, deriving the same clause ID
+        final GroupBy<Integer> byRemainder = new GroupBy<>(new PivotProperty<>("parity", it -> it % 3), false, "parity", false);
+        final PivotDataset<Integer> dataset = cache.getDataset(items, Collections.singletonList(byParity.property), Collections.emptyList());
+        final PivotDataset<Integer> otherDataset = cache.getDataset(items, Collections.singletonList(byRemainder.property), Collections.emptyList());
+        assertSame(dataset, otherDataset);
+        assertNotSame(dataset.getGroupColumn(byParity.property), dataset.getGroupColumn(byRemainder.property));
+
+        final PivotDataSource.PivotResult<Integer> parity = cache.computeIfAbsent(key(byParity, count, dataset), () -> compute(byParity, count, dataset));
+        final PivotDataSource.PivotResult<Integer> remainder = cache.computeIfAbsent(key(byRemainder, count, dataset), () -> compute(byRemainder, count, dataset));
+        assertEquals(2, parity.size());
+        assertEquals(3, remainder.size());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void sharedResultsAreReadOnly() {
+        final List<Integer> items = Arrays.asList(1, 2, 3, 4, 5);
+        final SharedPivotCache cache = new SharedPivotCache(SharedPivotCache.DEFAULT_MAX_WEIGHT);
+        final PivotDataset<Integer> dataset = cache.getDataset(items, Collections.emptyList(), Collections.emptyList());
+        final PivotDataSource.PivotResult<Integer> result = cache.computeIfAbsent(key(byValue, count, dataset), () -> compute(byValue, count, dataset));
+
+        final PivotDataSource.Row<Integer> row = result.rows.get(0);
+        assertTrue(row.isReadOnly());
+        assertThrows(UnsupportedOperationException.class, () -> row.put("count", 100L));
+        assertThrows(UnsupportedOperationException.class, () -> row.getValues().put("count", 100L));
+        assertThrows(UnsupportedOperationException.class, () -> result.rows.remove(0));
+        assertThrows(UnsupportedOperationException.class, () -> result.grandTotalValues.clear());
+        assertThrows(UnsupportedOperationException.class, () -> result.setTopGroup(byValue));
+
+        final PivotDataSource.Row<Integer> decorated = row.withValue("caption", "one");
+        assertFalse(decorated.isReadOnly());
+        assertEquals("one", decorated.get("caption"));
+        assertEquals(1L, decorated.get("count"));
+        assertNull(row.get("caption"));
+
+        // sorting and paging still work on the read-only rows
+        final LinkedHashMap<String, Boolean> byValueDescending = new LinkedHashMap<>();
+        byValueDescending.put("value", true);
+        assertEquals(5, result.fetch(0, 1, byValueDescending).get(0).get("value"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() {
+        final List<Integer> items = Arrays.asList(1, 2, 3, 4, 5);
+        final PivotDataset<Integer> dataset = new PivotDataset<>(items);
+        final long byParityWeight = PivotResultCache.weigh(compute(byParity, count, dataset));
+        final long byValueWeight = PivotResultCache.weigh(compute(byValue, count, dataset));
+
+        final SharedPivotCache cache = new SharedPivotCache(byParityWeight + byValueWeight);
+        final PivotDataSource.PivotResult<Integer> byParityResult = cache.computeIfAbsent(key(byParity, count, dataset), () -> compute(byParity, count, dataset));
+        cache.computeIfAbsent(key(byValue, count, dataset), () -> compute(byValue, count, dataset));
+        assertEquals(byParityWeight + byValueWeight, cache.getWeight());
+        // byValue is now the least recently used one
+        assertSame(byParityResult, cache.get(key(byParity, count, dataset)));
+
+        // the same query without the grand total
+        final PivotQueryKey otherKey = PivotQueryKey.of(Collections.singletonList(byParity), Collections.singletonList(count), setOf(),
+                new PivotDataSource.PivotFilter(), dataset.getVersion());
+        cache.computeIfAbsent(otherKey, () -> compute(byParity, count, dataset));
+        assertEquals(2, cache.size());
+        assertNull(cache.get(key(byValue, count, dataset)));
+        assertSame(byParityResult, cache.get(key(byParity, count, dataset)));
+        assertEquals(1, cache.getEvictionCount());
+        assertTrue(cache.getWeight() <= byParityWeight + byValueWeight);
+
+        // too heavy to be cached at all
+        final SharedPivotCache small = new SharedPivotCache(byParityWeight);
+        assertTrue(small.computeIfAbsent(key(byValue, count, dataset), () -> compute(byValue, count, dataset)).isReadOnly());
+        assertEquals(0, small.size());
+        assertEquals(0, small.getWeight());
+    }
+
+    @Test
+    public void filterToggleOfOneSessionDoesNotLeakToAnother() {
+        final List<Integer> items = Arrays.asList(1, 2, 3, 4, 5);
+        final SharedPivotCache cache = new SharedPivotCache(SharedPivotCache.DEFAULT_MAX_WEIGHT);
+        final PivotDataset<Integer> dataset = cache.getDataset(items, Collections.emptyList(), Collections.emptyList());
+        // one session has enabled the filter of the clause, the other one hasn't; the IDs are the same
+        final GroupBy<Integer> filtered = byParity.withFilterEnabled(true);
+        final PivotDataSource.PivotResult<Integer> first = cache.computeIfAbsent(key(filtered, count, dataset), () -> compute(filtered, count, dataset));
+        final PivotDataSource.PivotResult<Integer> second = cache.computeIfAbsent(key(byParity, count, dataset), () -> compute(byParity, count, dataset));
+        assertNotSame(first, second);
+        assertTrue(first.hasEnabledFilters());
+        assertFalse(second.hasEnabledFilters());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void invalidation() {
+        final List<Integer> items = Arrays.asList(1, 2, 3);
+        final List<Integer> otherItems = Arrays.asList(1, 2, 3);
+        final SharedPivotCache cache = new SharedPivotCache(SharedPivotCache.DEFAULT_MAX_WEIGHT);
+        final PivotDataset<Integer> dataset = cache.getDataset(items, Collections.emptyList(), Collections.emptyList());
+        assertSame(dataset, cache.getDataset(items, Collections.emptyList(), Collections.singletonList(identity)));
+        // datasets are looked up by the identity of the list
+        final PivotDataset<Integer> otherDataset = cache.getDataset(otherItems, Collections.emptyList(), Collections.emptyList());
+        assertNotSame(dataset, otherDataset);
+
+        cache.computeIfAbsent(key(byValue, count, dataset), () -> compute(byValue, count, dataset));
+        cache.computeIfAbsent(key(byParity, count, dataset), () -> compute(byParity, count, dataset));
+        cache.computeIfAbsent(key(byValue, count, otherDataset), () -> compute(byValue, count, otherDataset));
+        cache.invalidate(items);
+        assertEquals(1, cache.size());
+        assertEquals(PivotResultCache.weigh(cache.get(key(byValue, count, otherDataset))), cache.getWeight());
+        final PivotDataset<Integer> newDataset = cache.getDataset(items, Collections.emptyList(), Collections.emptyList());
+        assertNotSame(dataset, newDataset);
+        assertTrue(newDataset.getVersion() > dataset.getVersion());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertNotSame(otherDataset, cache.getDataset(otherItems, Collections.emptyList(), Collections.emptyList()));
+    }
+}
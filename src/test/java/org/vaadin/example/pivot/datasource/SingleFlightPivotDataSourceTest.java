@@ -0,0 +1,181 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class SingleFlightPivotDataSourceTest {
+    private final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+    private final GroupBy<Integer> byParity = new GroupBy<>(new PivotProperty<>("parity", it -> it % 2), false, "parity", false);
+    private final Aggregate<Integer> count = new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false);
+    private final List<Integer> items = Arrays.asList(1, 2, 3, 4, 5);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    /**
+     * Computes the pivot once {@link #release} opens.
+     */
+    private static final class BlockingDataSource implements PivotDataSource<Integer> {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        volatile RuntimeException failure;
+
+        @NotNull
+        @Override
+        public PivotResult<Integer> computePivotRows(@NotNull LinkedHashSet<GroupBy<Integer>> groupBy, @NotNull LinkedHashSet<Aggregate<Integer>> aggregates,
+                                                     @NotNull Set<String> grandTotalIDs, @NotNull List<Integer> items, @NotNull PivotFilter filters) {
+            calls.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return new InMemoryPivot<Integer>().computePivotRows(groupBy, aggregates, grandTotalIDs, items, filters);
+        }
+    }
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void identicalCallsAreCoalesced() throws Exception {
+        final BlockingDataSource delegate = new BlockingDataSource();
+        final SingleFlightPivotDataSource<Integer> dataSource = new SingleFlightPivotDataSource<>(delegate);
+        final List<Future<PivotDataSource.PivotResult<Integer>>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> compute(dataSource, items)));
+        }
+        awaitCoalesced(dataSource, 7);
+        delegate.release.countDown();
+
+        final PivotDataSource.PivotResult<Integer> first = results.get(0).get();
+        for (Future<PivotDataSource.PivotResult<Integer>> result : results) {
+            assertSame(first, result.get());
+        }
+        assertTrue(first.isReadOnly());
+        assertEquals(2, first.size());
+        assertEquals(1, delegate.calls.get());
+        assertEquals(1, dataSource.getExecutedCount());
+        assertEquals(7, dataSource.getCoalescedCount());
+
+        // the flight is over: the next call computes anew
+        assertNotSame(first, compute(dataSource, items));
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void differentItemsAreNotCoalesced() throws Exception {
+        final BlockingDataSource delegate = new BlockingDataSource();
+        delegate.release.countDown();
+        final SingleFlightPivotDataSource<Integer> dataSource = new SingleFlightPivotDataSource<>(delegate);
+        compute(dataSource, items);
+        compute(dataSource, new ArrayList<>(items));
+        assertEquals(2, dataSource.getExecutedCount());
+        assertEquals(0, dataSource.getCoalescedCount());
+    }
+
+    @Test
+    public void differentFilterFlagsAreNotCoalesced() throws Exception {
+        final BlockingDataSource delegate = new BlockingDataSource();
+        final SingleFlightPivotDataSource<Integer> dataSource = new SingleFlightPivotDataSource<>(delegate);
+        final Future<PivotDataSource.PivotResult<Integer>> leader = executor.submit(() -> compute(dataSource, items));
+        awaitCalls(delegate, 1);
+        // the same IDs while the first computation is in flight, but with the filter of the clause enabled
+        final Future<PivotDataSource.PivotResult<Integer>> filtered = executor.submit(() -> dataSource.computePivotRows(
+                setOf(byParity.withFilterEnabled(true)), setOf(count), setOf("count"), items, new PivotDataSource.PivotFilter()));
+        awaitCalls(delegate, 2);
+        delegate.release.countDown();
+        assertFalse(leader.get().hasEnabledFilters());
+        assertTrue(filtered.get().hasEnabledFilters());
+        assertEquals(0, dataSource.getCoalescedCount());
+    }
+
+    @Test
+    public void waitingTimesOut() throws Exception {
+        final BlockingDataSource delegate = new BlockingDataSource();
+        final SingleFlightPivotDataSource<Integer> dataSource = new SingleFlightPivotDataSource<>(delegate, 50, TimeUnit.MILLISECONDS);
+        final Future<PivotDataSource.PivotResult<Integer>> leader = executor.submit(() -> compute(dataSource, items));
+        awaitCalls(delegate, 1);
+
+        final CompletionException e = assertThrows(CompletionException.class, () -> compute(dataSource, items));
+        assertTrue(e.getCause() instanceof TimeoutException);
+        delegate.release.countDown();
+        assertEquals(2, leader.get().size());
+        assertEquals(1, delegate.calls.get());
+    }
+
+    @Test
+    public void interruptedWaitIsCancelled() throws Exception {
+        final BlockingDataSource delegate = new BlockingDataSource();
+        final SingleFlightPivotDataSource<Integer> dataSource = new SingleFlightPivotDataSource<>(delegate);
+        final Future<PivotDataSource.PivotResult<Integer>> leader = executor.submit(() -> compute(dataSource, items));
+        awaitCalls(delegate, 1);
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread waiter = new Thread(() -> {
+            try {
+                compute(dataSource, items);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        waiter.start();
+        awaitCoalesced(dataSource, 1);
+        waiter.interrupt();
+        waiter.join(10_000);
+        assertTrue(failure.get() instanceof CancellationException, String.valueOf(failure.get()));
+
+        // the computation goes on for the leader
+        delegate.release.countDown();
+        assertEquals(2, leader.get().size());
+    }
+
+    @Test
+    public void failureIsRethrownToAllCallers() throws Exception {
+        final BlockingDataSource delegate = new BlockingDataSource();
+        delegate.failure = new IllegalStateException("expected");
+        final SingleFlightPivotDataSource<Integer> dataSource = new SingleFlightPivotDataSource<>(delegate);
+        final Future<PivotDataSource.PivotResult<Integer>> leader = executor.submit(() -> compute(dataSource, items));
+        final Future<PivotDataSource.PivotResult<Integer>> follower = executor.submit(() -> compute(dataSource, items));
+        awaitCalls(delegate, 1);
+        awaitCoalesced(dataSource, 1);
+        delegate.release.countDown();
+
+        for (Future<PivotDataSource.PivotResult<Integer>> result : Arrays.asList(leader, follower)) {
+            final ExecutionException e = assertThrows(ExecutionException.class, result::get);
+            assertSame(delegate.failure, e.getCause());
+        }
+    }
+
+    private PivotDataSource.PivotResult<Integer> compute(PivotDataSource<Integer> dataSource, List<Integer> items) {
+        return dataSource.computePivotRows(setOf(byParity), setOf(count), setOf("count"), items, new PivotDataSource.PivotFilter());
+    }
+
+    private static void awaitCoalesced(SingleFlightPivotDataSource<?> dataSource, long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (dataSource.getCoalescedCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitCalls(BlockingDataSource delegate, int calls) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (delegate.calls.get() < calls) {
+            assertTrue(System.currentTimeMillis() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
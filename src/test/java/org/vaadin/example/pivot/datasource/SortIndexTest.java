@@ -0,0 +1,75 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class SortIndexTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void permutationMatchesComparatorSort() {
+        final List<Integer> items = new ArrayList<>();
+        final Random random = new Random(17);
+        for (int i = 0; i < 20_000; i++) {
+            items.add(random.nextInt(100_000));
+        }
+        final PivotProperty<Integer> identity = new PivotProperty<>("identity", it -> it);
+        final PivotProperty<Integer> mod = new PivotProperty<>("mod", it -> it % 1000);
+        final PivotProperty<Integer> parity = new PivotProperty<>("parity", it -> it % 2 == 0 ? "even" : "odd");
+        final PivotDataSource.PivotResult<Integer> result = new InMemoryPivot<Integer>().computePivotRows(
+                setOf(new GroupBy<>(mod, false, "mod", false), new GroupBy<>(parity, false, "parity", false)),
+                setOf(new Aggregate<>(identity, AggregateFunctionEnum.COUNT, "count", false),
+                        new Aggregate<>(identity, AggregateFunctionEnum.AVERAGE, "avg", false)),
+                setOf(), items, new PivotDataSource.PivotFilter());
+
+        for (String columnId : Arrays.asList("mod", "parity", "count", "avg")) {
+            for (boolean descending : new boolean[]{false, true}) {
+                Comparator<PivotDataSource.Row<Integer>> comparator = Comparator.comparing(row -> (Comparable<Object>) row.get(columnId));
+                if (descending) {
+                    comparator = comparator.reversed();
+                }
+                final List<PivotDataSource.Row<Integer>> expected = new ArrayList<>(result.rows);
+                expected.sort(comparator);
+                assertEquals(expected, permute(result, result.getSortPermutation(columnId, descending)), columnId);
+                assertSame(result.getSortPermutation(columnId, descending), result.getSortPermutation(columnId, descending));
+            }
+        }
+
+        final LinkedHashMap<String, Boolean> sortOrder = new LinkedHashMap<>();
+        sortOrder.put("parity", true);
+        sortOrder.put("count", false);
+        sortOrder.put("mod", true);
+        final List<PivotDataSource.Row<Integer>> expected = new ArrayList<>(result.rows);
+        expected.sort(Comparator.comparing((PivotDataSource.Row<Integer> row) -> (String) row.get("parity")).reversed()
+                .thenComparing(row -> (Long) row.get("count"))
+                .thenComparing(Comparator.comparing((PivotDataSource.Row<Integer> row) -> (Integer) row.get("mod")).reversed()));
+        assertEquals(expected, permute(result, result.getSortPermutation(sortOrder)));
+    }
+
+    @Test
+    public void nullsAndOtherValuesComeLast() {
+        final List<PivotDataSource.Row<Integer>> rows = new ArrayList<>();
+        for (Object value : Arrays.asList(3, null, "Others", 1.5, 3, -2L)) {
+            final Map<String, Object> values = new HashMap<>();
+            values.put("value", value);
+            rows.add(new PivotDataSource.Row<>(values, null));
+        }
+        final PivotDataSource.PivotResult<Integer> result = new PivotDataSource.PivotResult<>(rows, new ArrayList<>(), new HashMap<>());
+        assertEquals(Arrays.asList(-2L, 1.5, 3, 3, "Others", null),
+                permute(result, result.getSortPermutation("value", false)).stream().map(it -> it.get("value")).collect(Collectors.toList()));
+        assertArrayEquals(new int[]{2, 0, 4, 3, 5, 1}, result.getSortPermutation("value", true));
+    }
+
+    private static List<PivotDataSource.Row<Integer>> permute(PivotDataSource.PivotResult<Integer> result, int[] permutation) {
+        final List<PivotDataSource.Row<Integer>> rows = new ArrayList<>();
+        for (int index : permutation) {
+            rows.add(result.rows.get(index));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,94 @@
+package org.vaadin.example.pivot.datasource;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.vaadin.example.pivot.datasource.Utils.randomRows;
+import static org.vaadin.example.pivot.datasource.Utils.setOf;
+
+public class SpillingAggregationTest {
+    private final PivotProperty<int[]> exceptionNumber = new PivotProperty<>("exceptionNumber", it -> "E-" + it[0]);
+    private final PivotProperty<int[]> sector = new PivotProperty<>("sector", it -> it[1] == 0 ? null : "S" + it[1]);
+    private final PivotProperty<int[]> amount = new PivotProperty<>("amount", it -> it[2]);
+
+    /**
+     * Rows with a near-unique exception number: most numbers occur once, some several times.
+     */
+    @Test
+    public void spilledResultMatchesInMemoryResult() {
+        final List<int[]> items = randomRows(11, 20_000, 15_000, 6, 1000);
+        final PivotDataset<int[]> dataset = new PivotDataset<>(items);
+        final PivotDataSource.PivotFilter filter = new PivotDataSource.PivotFilter();
+        filter.getFilterValues().put("sector", new HashSet<>(Arrays.asList(null, "S1", "S2", "S3")));
+        for (AggregateFunctionEnum function : AggregateFunctionEnum.values()) {
+            final LinkedHashSet<GroupBy<int[]>> groupBy = setOf(new GroupBy<>(exceptionNumber, false, "exceptionNumber", false),
+                    new GroupBy<>(sector, false, "sector", false));
+            final LinkedHashSet<Aggregate<int[]>> aggregates = setOf(new Aggregate<>(amount, function, "amount", false),
+                    new Aggregate<>(amount, AggregateFunctionEnum.COUNT, "count", false));
+            final String expected = Utils.toCsv(new InMemoryPivot<int[]>().computePivotRows(
+                    groupBy, aggregates, setOf("amount", "count"), items, filter));
+            final PivotOptions budget = PivotOptions.NONE.withMemoryBudget(64 * 1024);
+            final String spilled = Utils.toCsv(new InMemoryPivot<int[]>().computePivotRows(
+                    groupBy, aggregates, setOf("amount", "count"), items, filter, budget));
+            assertEquals(expected, spilled, function.toString());
+            final String spilledColumnar = Utils.toCsv(new InMemoryPivot<>(dataset).computePivotRows(
+                    groupBy, aggregates, setOf("amount", "count"), items, filter, budget));
+            assertEquals(expected, spilledColumnar, function.toString());
+        }
+    }
+
+    @Test
+    public void spillsWhenOverBudgetAndDeletesTheFiles() {
+        final int filesBefore = countSpillFiles();
+        final SpillingAggregation aggregation = new SpillingAggregation(
+                () -> new Accumulator[]{AggregateFunctionEnum.SUM.createAccumulator()}, 10_000, 0);
+        for (int row = 0; row < 10_000; row++) {
+            aggregation.getStates(row, Collections.singletonList(row % 3_000))[0].accumulate((Object) 1);
+        }
+        assertTrue(aggregation.getSpillCount() > 0);
+
+        final List<SpillingAggregation.Group> groups = aggregation.finish();
+        assertEquals(3_000, groups.size());
+        for (int group = 0; group < groups.size(); group++) {
+            assertEquals(group, groups.get(group).firstRow);
+            assertEquals(Collections.singletonList(group), groups.get(group).key);
+            assertEquals(group < 1_000 ? 4L : 3L, groups.get(group).states[0].finish().longValue());
+        }
+        assertEquals(filesBefore, countSpillFiles());
+    }
+
+    @Test
+    public void withinBudgetNothingIsSpilled() {
+        final SpillingAggregation aggregation = new SpillingAggregation(
+                () -> new Accumulator[]{AggregateFunctionEnum.COUNT.createAccumulator()}, 1 << 20, 0);
+        for (int row = 0; row < 100; row++) {
+            aggregation.getStates(row, Collections.singletonList(row % 10))[0].accumulate((Object) row);
+        }
+        assertEquals(10, aggregation.finish().size());
+        assertEquals(0, aggregation.getSpillCount());
+    }
+
+    @Test
+    public void rowsDoNotKnowTheirMembers() {
+        final List<int[]> items = randomRows(11, 100, 75, 6, 1000);
+        final PivotDataSource.PivotResult<int[]> result = new InMemoryPivot<int[]>().computePivotRows(
+                setOf(new GroupBy<>(sector, false, "sector", false)),
+                setOf(new Aggregate<>(amount, AggregateFunctionEnum.SUM, "amount", false)),
+                setOf(), items, new PivotDataSource.PivotFilter(), PivotOptions.NONE.withMemoryBudget(1));
+        assertNull(result.rows.get(0).getMembers());
+        assertNotNull(result.rows.get(0).getAccumulator("amount"));
+    }
+
+    @Test
+    public void negativeBudgetIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> PivotOptions.NONE.withMemoryBudget(-1));
+    }
+
+    private static int countSpillFiles() {
+        final File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles((dir, name) -> name.startsWith("pivot-spill-"));
+        return files == null ? 0 : files.length;
+    }
+}
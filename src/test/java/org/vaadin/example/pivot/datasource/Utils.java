@@ -2,14 +2,23 @@ package org.vaadin.example.pivot.datasource;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 /**
  * @author Martin Vysny <mavi@vaadin.com>
  */
 public class Utils {
+    /**
+     * A bound of {@link #randomRows(long, int, int...)} which makes the column unique.
+     */
+    public static final int UNIQUE = 0;
+
     @SafeVarargs
     @NotNull
     public static <T> LinkedHashSet<T> setOf(@NotNull T... items) {
@@ -39,4 +48,52 @@ public class Utils {
         }
         return sb.toString();
     }
+
+    /**
+     * Creates reproducible random rows of <code>int</code> values. Column <code>j</code> is uniformly distributed over
+     * <code>0..bounds[j]-1</code>; a bound of {@link #UNIQUE} makes the column a random permutation of <code>0..count-1</code>.
+     */
+    @NotNull
+    public static List<int[]> randomRows(long seed, int count, @NotNull int... bounds) {
+        final Random random = new Random(seed);
+        final List<int[]> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final int[] row = new int[bounds.length];
+            for (int j = 0; j < bounds.length; j++) {
+                row[j] = bounds[j] == UNIQUE ? i : random.nextInt(bounds[j]);
+            }
+            rows.add(row);
+        }
+        for (int j = 0; j < bounds.length; j++) {
+            if (bounds[j] == UNIQUE) {
+                // Fisher-Yates
+                for (int i = count - 1; i > 0; i--) {
+                    final int other = random.nextInt(i + 1);
+                    final int value = rows.get(i)[j];
+                    rows.get(i)[j] = rows.get(other)[j];
+                    rows.get(other)[j] = value;
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return the cache key of {@link #compute(GroupBy, Aggregate, PivotDataset)}.
+     */
+    @NotNull
+    public static <T> PivotQueryKey key(@NotNull GroupBy<T> groupBy, @NotNull Aggregate<T> aggregate, @NotNull PivotDataset<T> dataset) {
+        return PivotQueryKey.of(Collections.singletonList(groupBy), Collections.singletonList(aggregate), setOf(aggregate.id),
+                new PivotDataSource.PivotFilter(), dataset.getVersion());
+    }
+
+    /**
+     * Computes the pivot of all items of given dataset, with the grand total of the aggregate.
+     */
+    @NotNull
+    public static <T> PivotDataSource.PivotResult<T> compute(@NotNull GroupBy<T> groupBy, @NotNull Aggregate<T> aggregate,
+                                                             @NotNull PivotDataset<T> dataset) {
+        return new InMemoryPivot<>(dataset).computePivotRows(setOf(groupBy), setOf(aggregate), setOf(aggregate.id),
+                dataset.getItems(), new PivotDataSource.PivotFilter());
+    }
 }